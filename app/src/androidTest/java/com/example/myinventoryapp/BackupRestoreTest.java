@@ -0,0 +1,322 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for backing up and restoring the database with
+ * {@link DatabaseHelper}: restores bring back exactly what was backed up, at each
+ * point of an incremental chain, damaged backups are turned away, and on a
+ * 10k-item database a backup runs alongside writes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BackupRestoreTest {
+    private static final String TAG = "BackupRestoreTest";
+    private static final String TEST_DATABASE = "backup_restore_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final String OLD_DATABASE = "backup_restore_old.db";
+    private static final int ITEM_COUNT = 10_000;
+    private static final int IMPORT_BATCH_SIZE = 500;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private File backups;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        context.deleteDatabase(OLD_DATABASE);
+        backups = new File(context.getCacheDir(), "backup_restore_test");
+        delete(backups);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+        context.deleteDatabase(OLD_DATABASE);
+        delete(backups);
+    }
+
+    @Test
+    public void restore_bringsBackTheBackedUpDatabase() throws IOException {
+        long alice = dbHelper.addUser("alice", "secret");
+        long backRoom = dbHelper.addLocation("Back room");
+        long widget = dbHelper.addInventoryItem(alice, "Widget", 10, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        dbHelper.adjustStock(alice, widget, backRoom, 3);
+        long gadget = dbHelper.addInventoryItem(alice, "Gadget", 2, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        // Cached, so a stale cache would show up below
+        assertEquals(13, dbHelper.getInventoryItem(alice, widget).getQuantity());
+
+        DatabaseBackup.Result backup = dbHelper.backupDatabase(backups, false);
+        assertFalse(backup.isIncremental());
+        assertEquals(backup.getPageCount(), backup.getStoredPages());
+
+        dbHelper.adjustQuantity(alice, widget, 7);
+        dbHelper.deleteInventoryItem(alice, gadget);
+        long gizmo = dbHelper.addInventoryItem(alice, "Gizmo", 1, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+
+        final AtomicInteger notifications = new AtomicInteger();
+        dbHelper.getInvalidationTracker().addObserver(new InvalidationTracker.Observer() {
+            @Override
+            public void onInvalidated(Set<String> tables) {
+                notifications.incrementAndGet();
+            }
+        }, DatabaseHelper.TABLE_INVENTORY);
+        SystemClock.sleep(InvalidationTracker.DEFAULT_BATCH_MILLIS * 4);
+        notifications.set(0);
+
+        dbHelper.restoreDatabase(backup.getFile());
+        SystemClock.sleep(InvalidationTracker.DEFAULT_BATCH_MILLIS * 4);
+
+        assertEquals(1, notifications.get());
+        assertEquals(alice, dbHelper.findUser("alice", "secret"));
+        assertEquals(13, dbHelper.getInventoryItem(alice, widget).getQuantity());
+        assertEquals(3, dbHelper.getInventoryItem(alice, widget, backRoom).getQuantity());
+        assertEquals(2, dbHelper.getInventoryItem(alice, gadget).getQuantity());
+        assertNull(dbHelper.getInventoryItem(alice, gizmo));
+        assertEquals(2, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT count(*) FROM inventory WHERE owner_id = " + alice));
+        assertEquals("ok", integrityCheck(dbHelper.getReadableDatabase()));
+        // The restored database is the live one, and takes writes
+        assertEquals(11, dbHelper.adjustQuantity(alice, widget, 1));
+    }
+
+    @Test
+    public void restore_syncsAsANewDevice() throws IOException {
+        long alice = dbHelper.addUser("alice", "secret");
+        long widget = dbHelper.addInventoryItem(alice, "Widget", 10, 5);
+        long gadget = dbHelper.addInventoryItem(alice, "Gadget", 2, 5);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        // As if the server had acknowledged the widget and sent a token
+        db.execSQL("UPDATE sync_items SET synced_name = 'Widget', synced_threshold = 5, dirty = 0 WHERE item_id = ?",
+                new Object[]{widget});
+        db.execSQL("INSERT INTO sync_state VALUES ('token', '42')");
+        String deviceId = dbHelper.getSyncDeviceId();
+        DatabaseBackup.Result backup = dbHelper.backupDatabase(backups, false);
+
+        dbHelper.restoreDatabase(backup.getFile());
+
+        assertNotEquals(deviceId, dbHelper.getSyncDeviceId());
+        assertNull(dbHelper.getSyncToken());
+        SQLiteDatabase restored = dbHelper.getReadableDatabase();
+        // The server's item counts as pulled; the other one is still this device's to push
+        assertEquals(10, DatabaseTestUtils.queryLong(restored,
+                "SELECT remote_delta - local_delta FROM sync_items WHERE item_id = " + widget));
+        assertEquals(2, DatabaseTestUtils.queryLong(restored,
+                "SELECT local_delta - remote_delta FROM sync_items WHERE item_id = " + gadget));
+        assertEquals(1, dbHelper.getSyncChanges(10).size());
+    }
+
+    @Test
+    public void incrementalBackups_restoreEachPointOfTheChain() throws IOException {
+        long[] ids = seed();
+        DatabaseBackup.Result full = dbHelper.backupDatabase(backups, true);
+        assertFalse(full.isIncremental());
+
+        for (int i = 0; i < 10; i++) {
+            dbHelper.adjustQuantity(OWNER, ids[i], 1);
+        }
+        DatabaseBackup.Result second = dbHelper.backupDatabase(backups, true);
+        dbHelper.adjustQuantity(OWNER, ids[ITEM_COUNT - 1], 5);
+        DatabaseBackup.Result third = dbHelper.backupDatabase(backups, true);
+        assertTrue(second.isIncremental());
+        assertTrue(third.isIncremental());
+        assertEquals(3, third.getSequence());
+        assertEquals(third.getFile(), DatabaseBackup.latest(backups));
+
+        dbHelper.restoreDatabase(second.getFile());
+        assertEquals(11, dbHelper.getInventoryItem(OWNER, ids[0]).getQuantity());
+        assertEquals(10, dbHelper.getInventoryItem(OWNER, ids[ITEM_COUNT - 1]).getQuantity());
+        assertEquals(ITEM_COUNT * 10 + 10, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT sum(quantity) FROM inventory"));
+
+        dbHelper.restoreDatabase(third.getFile());
+        assertEquals(15, dbHelper.getInventoryItem(OWNER, ids[ITEM_COUNT - 1]).getQuantity());
+
+        dbHelper.restoreDatabase(full.getFile());
+        assertEquals(ITEM_COUNT * 10, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT sum(quantity) FROM inventory"));
+        assertEquals("ok", integrityCheck(dbHelper.getReadableDatabase()));
+    }
+
+    @Test
+    public void damagedBackup_leavesTheDatabaseAsItWas() throws IOException {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        DatabaseBackup.Result full = dbHelper.backupDatabase(backups, false);
+        dbHelper.adjustQuantity(OWNER, widget, 5);
+        DatabaseBackup.Result incremental = dbHelper.backupDatabase(backups, true);
+
+        RandomAccessFile file = new RandomAccessFile(full.getFile(), "rw");
+        try {
+            long middle = file.length() / 2;
+            file.seek(middle);
+            int b = file.read();
+            file.seek(middle);
+            file.write(b ^ 0x40);
+        } finally {
+            file.close();
+        }
+        dbHelper.adjustQuantity(OWNER, widget, 5);
+
+        for (File backup : new File[]{full.getFile(), incremental.getFile()}) {
+            try {
+                dbHelper.restoreDatabase(backup);
+                fail("restored " + backup);
+            } catch (IOException expected) {
+                Log.i(TAG, "Rejected: " + expected.getMessage());
+            }
+        }
+        assertEquals(20, dbHelper.getInventoryItem(OWNER, widget).getQuantity());
+        assertEquals(21, dbHelper.adjustQuantity(OWNER, widget, 1));
+    }
+
+    @Test
+    public void restore_upgradesABackupFromAnOlderVersion() throws IOException {
+        // A version 1 database, backed up as it is on disk
+        File old = context.getDatabasePath(OLD_DATABASE);
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(old, null);
+        db.execSQL("CREATE TABLE users(id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "username TEXT UNIQUE NOT NULL,password TEXT NOT NULL)");
+        db.execSQL("CREATE TABLE inventory(id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "item_name TEXT UNIQUE NOT NULL,quantity INTEGER NOT NULL,"
+                + "threshold INTEGER NOT NULL DEFAULT 5)");
+        db.execSQL("INSERT INTO users (username, password) VALUES ('alice', 'secret')");
+        db.execSQL("INSERT INTO inventory (item_name, quantity, threshold) VALUES ('Widget', 2, 5)");
+        db.setVersion(1);
+        db.close();
+        assertTrue(backups.mkdirs());
+        File backup = DatabaseBackup.write(old, backups, false, System.nanoTime()).getFile();
+
+        dbHelper.restoreDatabase(backup);
+
+        long alice = dbHelper.findUser("alice", "secret");
+        SQLiteDatabase restored = dbHelper.getReadableDatabase();
+        assertEquals(DatabaseHelper.DATABASE_VERSION, restored.getVersion());
+        assertEquals(2, DatabaseTestUtils.queryLong(restored,
+                "SELECT quantity FROM inventory WHERE item_name = 'Widget' AND owner_id = " + alice));
+    }
+
+    @Test
+    public void backup_onTenThousandItems_runsAlongsideWrites() throws Exception {
+        final long[] ids = seed();
+
+        // Writes keep going while the full backup runs on another thread
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        DatabaseBackup.Result full;
+        int writes = 0;
+        long slowestWrite = 0;
+        try {
+            Future<DatabaseBackup.Result> backup = executor.submit(new Callable<DatabaseBackup.Result>() {
+                @Override
+                public DatabaseBackup.Result call() throws IOException {
+                    return dbHelper.backupDatabase(backups, false);
+                }
+            });
+            while (!backup.isDone()) {
+                long start = SystemClock.elapsedRealtime();
+                dbHelper.adjustQuantity(OWNER, ids[writes % ITEM_COUNT], 1);
+                slowestWrite = Math.max(slowestWrite, SystemClock.elapsedRealtime() - start);
+                writes++;
+            }
+            full = backup.get(2, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+        Log.i(TAG, String.format("Full backup of %d items: %d ms, %d of %d pages, %d KiB; %d writes meanwhile,"
+                        + " slowest %d ms", ITEM_COUNT, full.getElapsedMillis(), full.getStoredPages(),
+                full.getPageCount(), full.getFile().length() / 1024, writes, slowestWrite));
+        assertTrue("slowest write " + slowestWrite + " ms during a " + full.getElapsedMillis() + " ms backup",
+                slowestWrite < full.getElapsedMillis() / 2);
+
+        // A few items changed since: pages holding their rows, and the pages of the same
+        // tables and indexes that the compacted snapshot packs differently, are stored again
+        for (int i = 0; i < 10; i++) {
+            dbHelper.adjustQuantity(OWNER, ids[i], 1);
+        }
+        DatabaseBackup.Result incremental = dbHelper.backupDatabase(backups, true);
+        Log.i(TAG, String.format("Incremental backup after 10 edits: %d ms, %d of %d pages, %d KiB",
+                incremental.getElapsedMillis(), incremental.getStoredPages(), incremental.getPageCount(),
+                incremental.getFile().length() / 1024));
+        assertTrue(incremental.isIncremental());
+        assertTrue(incremental.getStoredPages() + " of " + incremental.getPageCount() + " pages stored",
+                incremental.getStoredPages() < incremental.getPageCount() / 2);
+        assertTrue(incremental.getFile().length() < full.getFile().length() / 2);
+
+        long expected = DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(), "SELECT sum(quantity) FROM inventory");
+        dbHelper.adjustStock(OWNER, ids, DatabaseHelper.ALL_LOCATIONS, 1);
+        long restore = SystemClock.elapsedRealtime();
+        dbHelper.restoreDatabase(incremental.getFile());
+        restore = SystemClock.elapsedRealtime() - restore;
+        Log.i(TAG, String.format("Restore through the chain: %d ms", restore));
+        assertEquals(expected, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT sum(quantity) FROM inventory"));
+    }
+
+    // ========== HELPERS ==========
+
+    /**
+     * Imports ITEM_COUNT items with 10 in stock each, returning their ids in order
+     */
+    private long[] seed() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            csv.append("Item ").append(i).append(",10,5\n");
+        }
+        dbHelper.importInventoryCsv(OWNER, new StringReader(csv.toString()), IMPORT_BATCH_SIZE);
+
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT id FROM inventory ORDER BY id", null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            assertEquals(ITEM_COUNT, ids.length);
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String integrityCheck(SQLiteDatabase db) {
+        return DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
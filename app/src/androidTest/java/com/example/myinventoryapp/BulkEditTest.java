@@ -0,0 +1,207 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the bulk edits in {@link DatabaseHelper}: each applies
+ * to many items in one transaction and is reported as one write, and on a
+ * 10k-item table is compared with making the same edit item by item.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkEditTest {
+    private static final String TAG = "BulkEditTest";
+    private static final String TEST_DATABASE = "bulk_edit_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final int ITEM_COUNT = 10_000;
+    private static final int IMPORT_BATCH_SIZE = 500;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void setThresholds_itemWideOrAtOneLocation() {
+        long backRoom = dbHelper.addLocation("Back room");
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        long gadget = dbHelper.addInventoryItem(OWNER, "Gadget", 10, 5);
+        dbHelper.adjustStock(OWNER, widget, backRoom, 2);
+        long deleted = dbHelper.addInventoryItem(OWNER, "Gizmo", 10, 5);
+        dbHelper.softDeleteInventoryItem(OWNER, deleted);
+
+        assertEquals(2, dbHelper.setThresholds(OWNER, new long[]{widget, gadget, deleted}, 12,
+                DatabaseHelper.ALL_LOCATIONS));
+        assertEquals(12, dbHelper.getInventoryItem(OWNER, widget).getThreshold());
+        assertEquals(12, dbHelper.getInventoryItem(OWNER, gadget).getThreshold());
+        dbHelper.restoreInventoryItem(OWNER, deleted);
+        assertEquals(5, dbHelper.getInventoryItem(OWNER, deleted).getThreshold());
+
+        // Only the widget is stocked in the back room
+        assertEquals(1, dbHelper.setThresholds(OWNER, new long[]{widget, gadget}, 3, backRoom));
+        assertEquals(3, dbHelper.getInventoryItem(OWNER, widget, backRoom).getThreshold());
+        assertEquals(12, dbHelper.getInventoryItem(OWNER, widget).getThreshold());
+    }
+
+    @Test
+    public void adjustStock_skipsItemsThatWouldGoBelowZero() {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        long gadget = dbHelper.addInventoryItem(OWNER, "Gadget", 2, 5);
+        long missing = gadget + 1;
+
+        assertEquals(1, dbHelper.adjustStock(OWNER, new long[]{widget, gadget, missing}, DatabaseHelper.ALL_LOCATIONS,
+                -3));
+
+        assertEquals(7, dbHelper.getInventoryItem(OWNER, widget).getQuantity());
+        assertEquals(2, dbHelper.getInventoryItem(OWNER, gadget).getQuantity());
+        assertEquals(7, dbHelper.getStockAt(OWNER, widget, DatabaseHelper.ALL_LOCATIONS, Long.MAX_VALUE));
+        assertEquals(1, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT count(*) FROM stock_movements WHERE reason = 'ADJUSTMENT'"));
+    }
+
+    @Test
+    public void softDeleteInventoryItems_canBeUndoneTogether() {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        long gadget = dbHelper.addInventoryItem(OWNER, "Gadget", 2, 5);
+        long[] ids = {widget, gadget};
+
+        assertEquals(2, dbHelper.softDeleteInventoryItems(OWNER, ids));
+        assertEquals(0, dbHelper.softDeleteInventoryItems(OWNER, ids));
+        assertNull(dbHelper.getInventoryItem(OWNER, widget));
+
+        assertEquals(2, dbHelper.restoreInventoryItems(OWNER, ids));
+        assertEquals(10, dbHelper.getInventoryItem(OWNER, widget).getQuantity());
+        assertEquals(2, dbHelper.getInventoryItem(OWNER, gadget).getQuantity());
+    }
+
+    @Test
+    public void bulkEdit_isReportedAsOneWrite() throws IOException {
+        long[] ids = seed();
+        // Let the import's own notification go out first
+        SystemClock.sleep(InvalidationTracker.DEFAULT_BATCH_MILLIS * 4);
+        final AtomicInteger notifications = new AtomicInteger();
+        dbHelper.getInvalidationTracker().addObserver(new InvalidationTracker.Observer() {
+            @Override
+            public void onInvalidated(Set<String> tables) {
+                notifications.incrementAndGet();
+            }
+        }, DatabaseHelper.TABLE_INVENTORY);
+        long generation = dbHelper.getInventoryGeneration();
+
+        dbHelper.adjustStock(OWNER, ids, DatabaseHelper.ALL_LOCATIONS, 1);
+        SystemClock.sleep(InvalidationTracker.DEFAULT_BATCH_MILLIS * 4);
+
+        assertEquals(1, notifications.get());
+        // One refresh picks up every changed row
+        Cursor changes = dbHelper.getInventoryChangesSince(OWNER, generation);
+        assertEquals(ITEM_COUNT, changes.getCount());
+        changes.close();
+    }
+
+    @Test
+    public void bulkEdits_onTenThousandItems_beatThePerItemPath() throws IOException {
+        long[] ids = seed();
+
+        long perItem = SystemClock.elapsedRealtime();
+        for (long id : ids) {
+            dbHelper.adjustStock(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID, 1);
+        }
+        perItem = SystemClock.elapsedRealtime() - perItem;
+        long bulk = SystemClock.elapsedRealtime();
+        assertEquals(ITEM_COUNT, dbHelper.adjustStock(OWNER, ids, DatabaseHelper.ALL_LOCATIONS, 1));
+        bulk = SystemClock.elapsedRealtime() - bulk;
+        report("adjustStock", perItem, bulk);
+        assertEquals(12, dbHelper.getInventoryItem(OWNER, ids[ITEM_COUNT - 1]).getQuantity());
+        assertEquals(2 * ITEM_COUNT, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT count(*) FROM stock_movements WHERE reason = 'ADJUSTMENT'"));
+        assertTrue("bulk " + bulk + " ms, per item " + perItem + " ms", bulk < perItem);
+
+        // The per-item path is the edit dialog, which writes name, quantity and threshold
+        perItem = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ids.length; i++) {
+            dbHelper.updateInventoryItem(OWNER, ids[i], "Item " + i, 12, 7);
+        }
+        perItem = SystemClock.elapsedRealtime() - perItem;
+        bulk = SystemClock.elapsedRealtime();
+        assertEquals(ITEM_COUNT, dbHelper.setThresholds(OWNER, ids, 8, DatabaseHelper.ALL_LOCATIONS));
+        bulk = SystemClock.elapsedRealtime() - bulk;
+        report("setThresholds", perItem, bulk);
+        assertEquals(ITEM_COUNT, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT count(*) FROM inventory WHERE threshold = 8"));
+        assertTrue("bulk " + bulk + " ms, per item " + perItem + " ms", bulk < perItem);
+
+        perItem = SystemClock.elapsedRealtime();
+        for (long id : ids) {
+            dbHelper.softDeleteInventoryItem(OWNER, id);
+        }
+        perItem = SystemClock.elapsedRealtime() - perItem;
+        assertEquals(ITEM_COUNT, dbHelper.restoreInventoryItems(OWNER, ids));
+        bulk = SystemClock.elapsedRealtime();
+        assertEquals(ITEM_COUNT, dbHelper.softDeleteInventoryItems(OWNER, ids));
+        bulk = SystemClock.elapsedRealtime() - bulk;
+        report("softDeleteInventoryItems", perItem, bulk);
+        assertEquals(0, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT count(*) FROM inventory WHERE deleted_at IS NULL"));
+        assertTrue("bulk " + bulk + " ms, per item " + perItem + " ms", bulk < perItem);
+    }
+
+    // ========== HELPERS ==========
+
+    /**
+     * Imports ITEM_COUNT items with 10 in stock each, returning their ids in order
+     */
+    private long[] seed() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            csv.append("Item ").append(i).append(",10,5\n");
+        }
+        dbHelper.importInventoryCsv(OWNER, new StringReader(csv.toString()), IMPORT_BATCH_SIZE);
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT id FROM inventory ORDER BY id", null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            assertEquals(ITEM_COUNT, ids.length);
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void report(String operation, long perItemMillis, long bulkMillis) {
+        Log.i(TAG, String.format("%s on %d items: %d ms item by item, %d ms in bulk (%.1fx)", operation,
+                ITEM_COUNT, perItemMillis, bulkMillis, perItemMillis / (double) Math.max(bulkMillis, 1)));
+    }
+}
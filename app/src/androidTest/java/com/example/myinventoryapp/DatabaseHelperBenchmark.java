@@ -0,0 +1,326 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks the {@link DatabaseHelper} operations on inventories of realistic
+ * sizes, on the device's own SQLite.
+ *
+ * Each size gets a freshly seeded database. Every operation is warmed up, then
+ * timed call by call; the results (throughput and latency percentiles) are logged
+ * and written as JSON to {@value #RESULTS_FILE} in the additional test output
+ * directory, which the Gradle connected test tasks copy into build/outputs, so
+ * runs from different builds can be compared.
+ *
+ * Sizes default to 1k, 100k and 1M rows and can be narrowed with the
+ * instrumentation argument {@code benchmarkSizes}, e.g. {@code -e benchmarkSizes 1000,100000}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseHelperBenchmark {
+    private static final String TAG = "DatabaseHelperBenchmark";
+    private static final String TEST_DATABASE = "benchmark.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final String RESULTS_FILE = "database-benchmark.json";
+
+    private static final int[] DEFAULT_SIZES = {1_000, 100_000, 1_000_000};
+    private static final int SEED_BATCH_SIZE = 10_000;
+    private static final int USER_COUNT = 100;
+
+    // Calls per point operation, and warm-up calls before timing starts
+    private static final int POINT_ITERATIONS = 500;
+    private static final int WARMUP_ITERATIONS = 20;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private final Random random = new Random(7);
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    }
+
+    @After
+    public void tearDown() {
+        if (dbHelper != null) {
+            dbHelper.close();
+        }
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void benchmarkDatabaseOperations() throws IOException, JSONException {
+        JSONArray results = new JSONArray();
+
+        for (int size : benchmarkSizes()) {
+            seed(size);
+            for (Result result : runOperations(size)) {
+                Log.i(TAG, result.toString());
+                results.put(result.toJson());
+            }
+            dbHelper.close();
+            dbHelper = null;
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        report.put("sdk", Build.VERSION.SDK_INT);
+        report.put("timestampMillis", System.currentTimeMillis());
+        report.put("results", results);
+
+        File file = new File(outputDirectory(), RESULTS_FILE);
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            out.write(report.toString(2));
+        } finally {
+            out.close();
+        }
+        Log.i(TAG, "Wrote " + file);
+        assertTrue(file.length() > 0);
+    }
+
+    // ========== OPERATIONS ==========
+
+    private Result[] runOperations(final int size) {
+        // Full scans touch every row, so they get fewer iterations at larger sizes
+        int scanIterations = size >= 1_000_000 ? 3 : size >= 100_000 ? 10 : 100;
+
+        Result add = time("addInventoryItem", size, POINT_ITERATIONS, new Operation() {
+            private int next;
+
+            @Override
+            public void run() {
+                dbHelper.addInventoryItem(OWNER, "Added " + size + "-" + next++, 10, 5);
+            }
+        });
+
+        Result updateQuantity = time("updateInventoryItem(id, quantity)", size, POINT_ITERATIONS, new Operation() {
+            @Override
+            public void run() {
+                dbHelper.updateInventoryItem(OWNER, randomId(size), random.nextInt(100));
+            }
+        });
+
+        Result updateAll = time("updateInventoryItem(id, name, quantity, threshold)", size, POINT_ITERATIONS,
+                new Operation() {
+                    private int next;
+
+                    @Override
+                    public void run() {
+                        dbHelper.updateInventoryItem(OWNER, randomId(size), "Renamed " + next++, random.nextInt(100), 5);
+                    }
+                });
+
+        Result scanAll = time("getAllInventoryItems", size, scanIterations, new Operation() {
+            @Override
+            public void run() {
+                readAll(dbHelper.getAllInventoryItems(OWNER));
+            }
+        });
+
+        Result scanLow = time("getLowInventoryItems", size, POINT_ITERATIONS / 5, new Operation() {
+            @Override
+            public void run() {
+                readAll(dbHelper.getLowInventoryItems(OWNER));
+            }
+        });
+
+        Result checkUser = time("checkUser", size, POINT_ITERATIONS, new Operation() {
+            @Override
+            public void run() {
+                int user = random.nextInt(USER_COUNT);
+                dbHelper.checkUser("user" + user, "password" + user);
+            }
+        });
+
+        // Last, since it shrinks the table
+        Result delete = time("deleteInventoryItem", size, POINT_ITERATIONS, new Operation() {
+            private long nextId = 1;
+
+            @Override
+            public void run() {
+                dbHelper.deleteInventoryItem(OWNER, nextId);
+                nextId += Math.max(1, size / (POINT_ITERATIONS + WARMUP_ITERATIONS));
+            }
+        });
+
+        return new Result[]{add, updateQuantity, updateAll, scanAll, scanLow, checkUser, delete};
+    }
+
+    private interface Operation {
+        void run();
+    }
+
+    private Result time(String name, int size, int iterations, Operation operation) {
+        for (int i = 0; i < Math.min(WARMUP_ITERATIONS, iterations); i++) {
+            operation.run();
+        }
+
+        long[] nanos = new long[iterations];
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long callStart = System.nanoTime();
+            operation.run();
+            nanos[i] = System.nanoTime() - callStart;
+        }
+        return new Result(name, size, nanos, System.nanoTime() - start);
+    }
+
+    // ========== HELPERS ==========
+
+    /**
+     * Creates a fresh database with size items, every hundredth one below its threshold
+     */
+    private void seed(int size) {
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        long start = System.nanoTime();
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO inventory (item_name, quantity, threshold) VALUES (?, ?, 5)");
+        try {
+            for (int batchStart = 0; batchStart < size; batchStart += SEED_BATCH_SIZE) {
+                db.beginTransaction();
+                try {
+                    for (int i = batchStart; i < Math.min(size, batchStart + SEED_BATCH_SIZE); i++) {
+                        insert.bindString(1, "Item " + i);
+                        insert.bindLong(2, i % 100 == 0 ? 1 : 50 + i % 50);
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } finally {
+            insert.close();
+        }
+
+        for (int i = 0; i < USER_COUNT; i++) {
+            dbHelper.addUser("user" + i, "password" + i);
+        }
+        Log.i(TAG, "Seeded " + size + " rows in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private long randomId(int size) {
+        return 1 + random.nextInt(size);
+    }
+
+    private static void readAll(Cursor cursor) {
+        try {
+            int nameColumnIndex = cursor.getColumnIndexOrThrow("item_name");
+            int quantityColumnIndex = cursor.getColumnIndexOrThrow("quantity");
+            while (cursor.moveToNext()) {
+                cursor.getString(nameColumnIndex);
+                cursor.getInt(quantityColumnIndex);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int[] benchmarkSizes() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String sizes = arguments.getString("benchmarkSizes");
+        if (sizes == null) {
+            return DEFAULT_SIZES;
+        }
+        String[] parts = sizes.split(",");
+        int[] parsed = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            parsed[i] = Integer.parseInt(parts[i].trim());
+        }
+        return parsed;
+    }
+
+    // Prefer the directory the Gradle test tasks pull from the device
+    private File outputDirectory() {
+        String additionalOutput = InstrumentationRegistry.getArguments().getString("additionalTestOutputDir");
+        File directory = additionalOutput != null ? new File(additionalOutput) : context.getExternalFilesDir(null);
+        if (directory == null) {
+            directory = context.getFilesDir();
+        }
+        directory.mkdirs();
+        return directory;
+    }
+
+    /**
+     * Timings of one operation at one inventory size
+     */
+    private static final class Result {
+        final String operation;
+        final int rows;
+        final int iterations;
+        final double opsPerSecond;
+        final double p50Millis;
+        final double p90Millis;
+        final double p99Millis;
+        final double maxMillis;
+
+        Result(String operation, int rows, long[] nanos, long totalNanos) {
+            this.operation = operation;
+            this.rows = rows;
+            this.iterations = nanos.length;
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            opsPerSecond = nanos.length / (totalNanos / 1e9);
+            p50Millis = percentile(sorted, 50);
+            p90Millis = percentile(sorted, 90);
+            p99Millis = percentile(sorted, 99);
+            maxMillis = sorted[sorted.length - 1] / 1e6;
+        }
+
+        // Nearest-rank percentile of sorted nanosecond timings, in milliseconds
+        private static double percentile(long[] sorted, int percentile) {
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)] / 1e6;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("operation", operation);
+            json.put("rows", rows);
+            json.put("iterations", iterations);
+            json.put("opsPerSecond", opsPerSecond);
+            json.put("p50Ms", p50Millis);
+            json.put("p90Ms", p90Millis);
+            json.put("p99Ms", p99Millis);
+            json.put("maxMs", maxMillis);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s @ %,d rows: %.1f ops/s, p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms",
+                    operation, rows, opsPerSecond, p50Millis, p90Millis, p99Millis, maxMillis);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the shared, WAL-enabled {@link DatabaseHelper}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseHelperConcurrencyTest {
+    private static final String TEST_DATABASE = "concurrency_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final int ITEM_COUNT = 2000;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+        executor = Executors.newFixedThreadPool(2);
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                // Every tenth item starts below its threshold
+                dbHelper.addInventoryItem(OWNER, "Item " + i, i % 10 == 0 ? 1 : 100, 5);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void getInstance_returnsSameHelper() {
+        assertSame(DatabaseHelper.getInstance(context), DatabaseHelper.getInstance(context));
+    }
+
+    @Test
+    public void database_usesWriteAheadLogging() {
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+    }
+
+    @Test
+    public void readers_progressWhileWriterHoldsTransaction() throws Exception {
+        final CountDownLatch writerHolding = new CountDownLatch(1);
+        final CountDownLatch releaseWriter = new CountDownLatch(1);
+
+        Future<?> writer = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                db.beginTransactionNonExclusive();
+                try {
+                    // Push every item below its threshold, but do not commit yet
+                    db.execSQL("UPDATE inventory SET quantity = 0");
+                    writerHolding.countDown();
+                    assertTrue(releaseWriter.await(30, TimeUnit.SECONDS));
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                return null;
+            }
+        });
+
+        assertTrue(writerHolding.await(10, TimeUnit.SECONDS));
+
+        // A low-stock scan and a full read must both finish while the write is still open
+        Future<Integer> lowCount = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return countRows(dbHelper.getLowInventoryItems(OWNER))
+                        + countRows(dbHelper.getInventoryPage(OWNER, null, ITEM_COUNT, DatabaseHelper.SortOrder.BY_ID))
+                        - ITEM_COUNT;
+            }
+        });
+
+        try {
+            // Readers see the last committed snapshot, not the uncommitted update
+            assertEquals(Integer.valueOf(ITEM_COUNT / 10), lowCount.get(10, TimeUnit.SECONDS));
+            assertFalse(writer.isDone());
+        } finally {
+            releaseWriter.countDown();
+        }
+        writer.get(10, TimeUnit.SECONDS);
+
+        assertEquals(ITEM_COUNT, countRows(dbHelper.getLowInventoryItems(OWNER)));
+    }
+
+    private static int countRows(Cursor cursor) {
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for keyset pagination in {@link DatabaseHelper}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseHelperPagingTest {
+    private static final String TEST_DATABASE = "paging_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final int ITEM_COUNT = 250;
+    private static final int PAGE_SIZE = 40;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+
+        // Insert in an order that differs from name order, with repeated quantities and ratios
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            dbHelper.addInventoryItem(OWNER, String.format("Item %03d", (i * 7) % ITEM_COUNT), i % 20, (i % 3) * 5);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void pagesById_coverEveryItemOnceInOrder() {
+        List<InventoryItem> all = readAllPages(DatabaseHelper.SortOrder.BY_ID);
+
+        assertEquals(ITEM_COUNT, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getId() < all.get(i).getId());
+        }
+    }
+
+    @Test
+    public void pagesByName_coverEveryItemOnceInOrder() {
+        List<InventoryItem> all = readAllPages(DatabaseHelper.SortOrder.BY_NAME);
+
+        assertEquals(ITEM_COUNT, all.size());
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < all.size(); i++) {
+            assertTrue(names.add(all.get(i).getItemName()));
+            if (i > 0) {
+                assertTrue(all.get(i - 1).getItemName().compareTo(all.get(i).getItemName()) < 0);
+            }
+        }
+    }
+
+    @Test
+    public void pagesByQuantityAndRatio_matchComparatorOrder() {
+        for (DatabaseHelper.SortOrder sortOrder : new DatabaseHelper.SortOrder[]{
+                DatabaseHelper.SortOrder.BY_QUANTITY, DatabaseHelper.SortOrder.BY_STOCK_RATIO}) {
+            List<InventoryItem> all = readAllPages(sortOrder, DatabaseHelper.StockFilter.ALL);
+
+            List<InventoryItem> expected = new ArrayList<>(readAllPages(DatabaseHelper.SortOrder.BY_ID));
+            Collections.sort(expected, InventoryItem.comparator(sortOrder));
+            assertEquals(sortOrder.name(), expected, all);
+        }
+    }
+
+    @Test
+    public void lowStockPages_holdOnlyLowItemsInEveryOrder() {
+        int lowCount = 0;
+        for (InventoryItem item : readAllPages(DatabaseHelper.SortOrder.BY_ID)) {
+            if (item.isLowStock()) {
+                lowCount++;
+            }
+        }
+        assertTrue(lowCount > PAGE_SIZE);
+
+        for (DatabaseHelper.SortOrder sortOrder : DatabaseHelper.SortOrder.values()) {
+            List<InventoryItem> low = readAllPages(sortOrder, DatabaseHelper.StockFilter.LOW_STOCK);
+
+            assertEquals(sortOrder.name(), lowCount, low.size());
+            for (int i = 0; i < low.size(); i++) {
+                assertTrue(low.get(i).isLowStock());
+                if (i > 0) {
+                    assertTrue(sortOrder.name(),
+                            InventoryItem.comparator(sortOrder).compare(low.get(i - 1), low.get(i)) < 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pageQueries_seekInsteadOfScanning() {
+        for (DatabaseHelper.SortOrder sortOrder : DatabaseHelper.SortOrder.values()) {
+            String plan = DatabaseTestUtils.explain(dbHelper.getReadableDatabase(),
+                    DatabaseHelper.inventoryPageSql(sortOrder, true));
+
+            assertTrue(sortOrder + ": " + plan, plan.contains("SEARCH"));
+            assertFalse(sortOrder + ": " + plan, plan.contains("TEMP B-TREE"));
+        }
+    }
+
+    @Test
+    public void everySortAndFilter_streamsWithoutTempBTree() {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        for (DatabaseHelper.SortOrder sortOrder : DatabaseHelper.SortOrder.values()) {
+            for (DatabaseHelper.StockFilter filter : DatabaseHelper.StockFilter.values()) {
+                for (boolean hasAfterKey : new boolean[]{false, true}) {
+                    String query = sortOrder + "/" + filter + (hasAfterKey ? "/after" : "/first");
+                    String totals = DatabaseTestUtils.explain(db,
+                            DatabaseHelper.inventoryPageSql(sortOrder, filter, hasAfterKey));
+                    String location = DatabaseTestUtils.explain(db,
+                            DatabaseHelper.locationPageSql(sortOrder, filter, hasAfterKey));
+
+                    assertFalse(query + ": " + totals, totals.contains("TEMP B-TREE"));
+                    assertFalse(query + " at a location: " + location, location.contains("TEMP B-TREE"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void quantityAndRatioPages_readOnlyTheirCoveringIndex() {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String byQuantity = DatabaseTestUtils.explain(db,
+                DatabaseHelper.inventoryPageSql(DatabaseHelper.SortOrder.BY_QUANTITY, true));
+        String byRatio = DatabaseTestUtils.explain(db,
+                DatabaseHelper.inventoryPageSql(DatabaseHelper.SortOrder.BY_STOCK_RATIO, true));
+
+        assertTrue(byQuantity, byQuantity.contains("COVERING INDEX " + DatabaseHelper.INDEX_INVENTORY_QUANTITY));
+        assertTrue(byRatio, byRatio.contains("COVERING INDEX " + DatabaseHelper.INDEX_INVENTORY_STOCK_RATIO));
+    }
+
+    private List<InventoryItem> readAllPages(DatabaseHelper.SortOrder sortOrder) {
+        return readAllPages(sortOrder, DatabaseHelper.StockFilter.ALL);
+    }
+
+    private List<InventoryItem> readAllPages(DatabaseHelper.SortOrder sortOrder, DatabaseHelper.StockFilter filter) {
+        List<InventoryItem> all = new ArrayList<>();
+        InventoryItem after = null;
+
+        while (true) {
+            Cursor cursor = dbHelper.getInventoryPage(OWNER, after, PAGE_SIZE, sortOrder, filter,
+                    DatabaseHelper.ALL_LOCATIONS);
+            int count = 0;
+            while (cursor.moveToNext()) {
+                after = new InventoryItem(
+                        cursor.getLong(cursor.getColumnIndexOrThrow("id")),
+                        cursor.getString(cursor.getColumnIndexOrThrow("item_name")),
+                        cursor.getInt(cursor.getColumnIndexOrThrow("quantity")),
+                        cursor.getInt(cursor.getColumnIndexOrThrow("threshold")));
+                all.add(after);
+                count++;
+            }
+            cursor.close();
+
+            if (count < PAGE_SIZE) {
+                return all;
+            }
+        }
+    }
+}
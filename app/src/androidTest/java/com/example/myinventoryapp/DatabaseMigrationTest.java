@@ -0,0 +1,302 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the {@link DatabaseHelper} migration steps. Each test
+ * starts from a database file written with an older schema and opens it with
+ * the current helper.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseMigrationTest {
+    private static final String UPGRADED_DATABASE = "migration_upgraded.db";
+    private static final String FRESH_DATABASE = "migration_fresh.db";
+
+    private Context context;
+    private DatabaseHelper upgraded;
+    private DatabaseHelper fresh;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(UPGRADED_DATABASE);
+        context.deleteDatabase(FRESH_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        if (upgraded != null) upgraded.close();
+        if (fresh != null) fresh.close();
+        context.deleteDatabase(UPGRADED_DATABASE);
+        context.deleteDatabase(FRESH_DATABASE);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsUsersAndInventory() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+
+        assertEquals(DatabaseHelper.DATABASE_VERSION, db.getVersion());
+        assertTrue(upgraded.checkUser("alice", "secret"));
+        Cursor cursor = db.rawQuery("SELECT item_name, quantity, threshold FROM inventory ORDER BY id", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Widget", cursor.getString(0));
+        assertEquals(2, cursor.getInt(1));
+        assertEquals(5, cursor.getInt(2));
+        assertTrue(cursor.moveToNext());
+        assertEquals("Gadget", cursor.getString(0));
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+    }
+
+    @Test
+    public void migrateTo2_addsStockMarginIndexUsedByLowStockQuery() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+
+        assertTrue(hasIndex(db, DatabaseHelper.INDEX_INVENTORY_STOCK_MARGIN));
+        String plan = DatabaseTestUtils.explain(db, DatabaseHelper.SELECT_LOW_INVENTORY);
+        assertTrue(plan, plan.contains("USING INDEX " + DatabaseHelper.INDEX_INVENTORY_STOCK_MARGIN));
+        assertFalse(plan, plan.contains("SCAN"));
+
+        Cursor low = upgraded.getLowInventoryItems(aliceId(), DatabaseHelper.ALL_LOCATIONS);
+        assertEquals(1, low.getCount());
+        low.close();
+    }
+
+    @Test
+    public void migrateTo3_addsChangeTrackingForExistingRows() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+        long generation = upgraded.getInventoryGeneration();
+        long widgetId = DatabaseTestUtils.queryLong(db, "SELECT id FROM inventory WHERE item_name = 'Widget'");
+
+        assertEquals(1, upgraded.updateInventoryItem(aliceId(), widgetId, 10));
+
+        assertEquals(generation + 1, upgraded.getInventoryGeneration());
+        Cursor changes = upgraded.getInventoryChangesSince(aliceId(), generation, DatabaseHelper.ALL_LOCATIONS);
+        assertTrue(changes.moveToFirst());
+        assertEquals(widgetId, changes.getLong(changes.getColumnIndexOrThrow("id")));
+        assertFalse(changes.moveToNext());
+        changes.close();
+    }
+
+    @Test
+    public void migrateTo4_indexesExistingNamesForSearch() {
+        createVersion1Database();
+
+        openUpgraded();
+
+        Cursor cursor = upgraded.searchInventory(aliceId(), "wid", 10, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Widget", cursor.getString(cursor.getColumnIndexOrThrow("item_name")));
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+    }
+
+    @Test
+    public void migrateTo5_movesExistingStockToDefaultLocation() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+        long widgetId = DatabaseTestUtils.queryLong(db, "SELECT id FROM inventory WHERE item_name = 'Widget'");
+
+        assertEquals(2, upgraded.getInventoryItem(aliceId(), widgetId).getQuantity());
+        assertEquals(2, upgraded.getInventoryItem(aliceId(), widgetId, DatabaseHelper.DEFAULT_LOCATION_ID).getQuantity());
+        assertEquals(42, DatabaseTestUtils.queryLong(db, "SELECT sum(quantity) FROM location_stock"));
+
+        // Totals follow the backfilled stock rows
+        assertEquals(5, upgraded.adjustQuantity(aliceId(), widgetId, 3));
+        assertEquals(5, upgraded.getInventoryItem(aliceId(), widgetId).getQuantity());
+    }
+
+    @Test
+    public void migrateTo6_startsLedgerFromExistingStock() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+        long widgetId = DatabaseTestUtils.queryLong(db, "SELECT id FROM inventory WHERE item_name = 'Widget'");
+        upgraded.adjustQuantity(aliceId(), widgetId, 3);
+
+        assertEquals(5, upgraded.getStockAt(aliceId(), widgetId, DatabaseHelper.ALL_LOCATIONS, Long.MAX_VALUE));
+        assertEquals(1, DatabaseTestUtils.queryLong(db, "SELECT count(*) FROM stock_movements"));
+    }
+
+    @Test
+    public void migrateTo8_leavesExistingItemsWithoutSku() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+        long widgetId = DatabaseTestUtils.queryLong(db, "SELECT id FROM inventory WHERE item_name = 'Widget'");
+
+        assertEquals(2, DatabaseTestUtils.queryLong(db, "SELECT count(*) FROM inventory WHERE sku IS NULL"));
+        assertTrue(hasIndex(db, DatabaseHelper.INDEX_INVENTORY_SKU));
+        assertEquals(1, upgraded.setInventorySku(aliceId(), widgetId, "0123456789012"));
+        assertEquals(widgetId, upgraded.getInventoryItemBySku(aliceId(), "0123456789012").getId());
+    }
+
+    @Test
+    public void migrateTo9_queuesExistingItemsForSync() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+
+        assertNotNull(upgraded.getSyncDeviceId());
+        assertNull(upgraded.getSyncToken());
+        assertTrue(hasIndex(db, DatabaseHelper.INDEX_SYNC_ITEMS_DIRTY));
+        List<SyncChange> changes = upgraded.getSyncChanges(10);
+        assertEquals(2, changes.size());
+        long total = 0;
+        for (SyncChange change : changes) {
+            assertTrue(change.metadataChanged);
+            assertEquals("alice", change.owner);
+            total += change.count;
+        }
+        // Existing stock counts as this device's change
+        assertEquals(42, total);
+    }
+
+    @Test
+    public void migrateTo10_keepsExistingItemsAndVacuumsIncrementally() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+        long widgetId = DatabaseTestUtils.queryLong(db, "SELECT id FROM inventory WHERE item_name = 'Widget'");
+
+        assertTrue(hasIndex(db, DatabaseHelper.INDEX_INVENTORY_TOMBSTONES));
+        assertEquals(0, DatabaseTestUtils.queryLong(db, "SELECT count(*) FROM inventory WHERE deleted_at IS NOT NULL"));
+        assertEquals(2, upgraded.getInventoryItem(aliceId(), widgetId).getQuantity());
+        // A database created without incremental vacuum is switched by the background purge
+        upgraded.purgeDeletedItems();
+        assertEquals(2, DatabaseTestUtils.queryLong(db, "PRAGMA auto_vacuum"));
+    }
+
+    @Test
+    public void migrateTo11_givesExistingItemsToTheFirstUser() {
+        createVersion1Database();
+        SQLiteDatabase old = SQLiteDatabase.openDatabase(context.getDatabasePath(UPGRADED_DATABASE).getPath(),
+                null, SQLiteDatabase.OPEN_READWRITE);
+        old.execSQL("INSERT INTO users (username, password) VALUES ('bob', 'hunter2')");
+        // Ids are never handed out twice, even past the rebuild of the table
+        old.execSQL("INSERT INTO inventory (item_name, quantity, threshold) VALUES ('Gizmo', 1, 5)");
+        old.execSQL("DELETE FROM inventory WHERE item_name = 'Gizmo'");
+        old.close();
+
+        SQLiteDatabase db = openUpgraded();
+        long bobId = upgraded.findUser("bob", "hunter2");
+
+        assertTrue(hasIndex(db, DatabaseHelper.INDEX_INVENTORY_OWNER));
+        assertEquals(2, DatabaseTestUtils.queryLong(db, "SELECT count(*) FROM inventory WHERE owner_id = ?",
+                String.valueOf(aliceId())));
+        assertEquals(2, DatabaseTestUtils.queryLong(db, "SELECT count(*) FROM location_stock WHERE owner_id = ?",
+                String.valueOf(aliceId())));
+        Cursor bobs = upgraded.getAllInventoryItems(bobId);
+        assertEquals(0, bobs.getCount());
+        bobs.close();
+
+        // Bob can use a name Alice already has
+        long bobsWidget = upgraded.addInventoryItem(bobId, "Widget", 1, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        assertEquals(4, bobsWidget);
+        assertEquals(-1, upgraded.addInventoryItem(aliceId(), "Widget", 1, 5, DatabaseHelper.DEFAULT_LOCATION_ID));
+    }
+
+    @Test
+    public void migrateTo12_queuesItemsAlreadyLow() {
+        createVersion1Database();
+
+        SQLiteDatabase db = openUpgraded();
+        long widgetId = DatabaseTestUtils.queryLong(db, "SELECT id FROM inventory WHERE item_name = 'Widget'");
+        final List<LowStockEvent> events = new ArrayList<>();
+        LowStockEvent.Handler handler = new LowStockEvent.Handler() {
+            @Override
+            public void handle(List<LowStockEvent> batch) {
+                events.addAll(batch);
+            }
+        };
+
+        assertEquals(1, upgraded.drainLowStockEvents(aliceId(), 10, handler));
+        assertEquals(widgetId, events.get(0).item.getId());
+        assertTrue(events.get(0).low);
+
+        // And crossings from now on
+        assertEquals(10, upgraded.adjustQuantity(aliceId(), widgetId, 8));
+        assertEquals(1, upgraded.drainLowStockEvents(aliceId(), 10, handler));
+        assertFalse(events.get(1).low);
+    }
+
+    @Test
+    public void upgradedSchema_matchesFreshInstall() {
+        createVersion1Database();
+
+        List<String> upgradedSchema = schema(openUpgraded());
+        fresh = new DatabaseHelper(context, FRESH_DATABASE);
+        List<String> freshSchema = schema(fresh.getWritableDatabase());
+
+        assertEquals(freshSchema, upgradedSchema);
+    }
+
+    // ========== HELPERS ==========
+
+    /**
+     * Writes a database with the original version 1 schema and some rows
+     */
+    private void createVersion1Database() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(UPGRADED_DATABASE), null);
+        db.execSQL("CREATE TABLE users(id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "username TEXT UNIQUE NOT NULL,password TEXT NOT NULL)");
+        db.execSQL("CREATE TABLE inventory(id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "item_name TEXT UNIQUE NOT NULL,quantity INTEGER NOT NULL,"
+                + "threshold INTEGER NOT NULL DEFAULT 5)");
+        db.execSQL("INSERT INTO users (username, password) VALUES ('alice', 'secret')");
+        db.execSQL("INSERT INTO inventory (item_name, quantity, threshold) VALUES ('Widget', 2, 5)");
+        db.execSQL("INSERT INTO inventory (item_name, quantity, threshold) VALUES ('Gadget', 40, 5)");
+        db.setVersion(1);
+        db.close();
+    }
+
+    private long aliceId() {
+        return upgraded.findUser("alice", "secret");
+    }
+
+    private SQLiteDatabase openUpgraded() {
+        upgraded = new DatabaseHelper(context, UPGRADED_DATABASE);
+        return upgraded.getWritableDatabase();
+    }
+
+    private static boolean hasIndex(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{name});
+        boolean found = cursor.moveToFirst();
+        cursor.close();
+        return found;
+    }
+
+    private static List<String> schema(SQLiteDatabase db) {
+        List<String> entries = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata' ORDER BY type, name", null);
+        while (cursor.moveToNext()) {
+            entries.add(cursor.getString(0) + " " + cursor.getString(1) + ": " + cursor.getString(2));
+        }
+        cursor.close();
+        return entries;
+    }
+}
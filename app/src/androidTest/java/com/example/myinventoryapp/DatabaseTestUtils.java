@@ -0,0 +1,46 @@
+package com.example.myinventoryapp;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Shared helpers for the instrumented database tests.
+ */
+final class DatabaseTestUtils {
+
+    private DatabaseTestUtils() {
+    }
+
+    /**
+     * Returns the EXPLAIN QUERY PLAN details for a statement, one step per line.
+     * Placeholders are bound to a dummy value.
+     */
+    static String explain(SQLiteDatabase db, String sql) {
+        int argCount = sql.length() - sql.replace("?", "").length();
+        String[] args = new String[argCount];
+        for (int i = 0; i < argCount; i++) {
+            args[i] = "1";
+        }
+
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(cursor.getColumnIndexOrThrow("detail"))).append('\n');
+        }
+        cursor.close();
+        return plan.toString();
+    }
+
+    /**
+     * Returns the single integer produced by a query
+     */
+    static long queryLong(SQLiteDatabase db, String sql, String... args) {
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
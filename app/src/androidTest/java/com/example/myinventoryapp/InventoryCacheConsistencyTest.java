@@ -0,0 +1,165 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests showing the {@link DatabaseHelper} item cache stays in
+ * step with the database while writers and readers race on the same rows.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryCacheConsistencyTest {
+    private static final String TEST_DATABASE = "cache_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final int ITEM_COUNT = 200;
+    private static final int CACHE_CAPACITY = 64;
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int OPERATIONS = 1500;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private ExecutorService executor;
+    private long firstId;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE, CACHE_CAPACITY);
+        executor = Executors.newFixedThreadPool(WRITERS + READERS);
+
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            long id = dbHelper.addInventoryItem(OWNER, "Item " + i, i, 5);
+            if (i == 0) {
+                firstId = id;
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void getInventoryItem_servesRepeatReadsFromCache() {
+        InventoryCache cache = dbHelper.getInventoryCache();
+        cache.clear();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+
+        InventoryItem first = dbHelper.getInventoryItem(OWNER, firstId);
+        InventoryItem second = dbHelper.getInventoryItem(OWNER, firstId);
+
+        assertEquals(first, second);
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void writes_updateCachedItems() {
+        dbHelper.getInventoryItem(OWNER, firstId);
+
+        dbHelper.updateInventoryItem(OWNER, firstId, 99);
+        assertEquals(99, dbHelper.getInventoryCache().peek(firstId).getQuantity());
+
+        dbHelper.updateInventoryItem(OWNER, firstId, "Renamed", 7, 3);
+        assertEquals(new InventoryItem(firstId, "Renamed", 7, 3), dbHelper.getInventoryCache().peek(firstId));
+
+        dbHelper.deleteInventoryItem(OWNER, firstId);
+        assertNull(dbHelper.getInventoryCache().peek(firstId));
+        assertNull(dbHelper.getInventoryItem(OWNER, firstId));
+    }
+
+    @Test
+    public void cacheMatchesDatabase_afterConcurrentWritesAndReads() throws Exception {
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int seed = w;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        long id = firstId + random.nextInt(ITEM_COUNT);
+                        switch (random.nextInt(10)) {
+                            case 0:
+                                dbHelper.deleteInventoryItem(OWNER, id);
+                                break;
+                            case 1:
+                                dbHelper.updateInventoryItem(OWNER, id, "Item " + (id - firstId), i, random.nextInt(10));
+                                break;
+                            default:
+                                dbHelper.updateInventoryItem(OWNER, id, random.nextInt(1000));
+                                break;
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (int r = 0; r < READERS; r++) {
+            final int seed = 100 + r;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < OPERATIONS * 2; i++) {
+                        dbHelper.getInventoryItem(OWNER, firstId + random.nextInt(ITEM_COUNT));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get(120, TimeUnit.SECONDS);
+        }
+
+        InventoryCache cache = dbHelper.getInventoryCache();
+        assertTrue(cache.size() <= CACHE_CAPACITY);
+        assertTrue(cache.getEvictionCount() > 0);
+        for (long id = firstId; id < firstId + ITEM_COUNT; id++) {
+            InventoryItem stored = readFromDatabase(id);
+            InventoryItem cached = cache.peek(id);
+            if (cached != null) {
+                assertEquals(stored, cached);
+            }
+            assertEquals(stored, dbHelper.getInventoryItem(OWNER, id));
+        }
+    }
+
+    private InventoryItem readFromDatabase(long id) {
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery(
+                "SELECT item_name, quantity, threshold FROM inventory WHERE id = ?",
+                new String[]{String.valueOf(id)});
+        try {
+            return cursor.moveToFirst()
+                    ? new InventoryItem(id, cursor.getString(0), cursor.getInt(1), cursor.getInt(2))
+                    : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
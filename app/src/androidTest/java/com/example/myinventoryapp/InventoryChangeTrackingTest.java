@@ -0,0 +1,116 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the inventory generation counter and change queries.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryChangeTrackingTest {
+    private static final String TEST_DATABASE = "change_tracking_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void everyWritePath_advancesGeneration() throws IOException {
+        long generation = dbHelper.getInventoryGeneration();
+
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 5, 2);
+        assertTrue(dbHelper.getInventoryGeneration() > generation);
+
+        generation = dbHelper.getInventoryGeneration();
+        dbHelper.updateInventoryItem(OWNER, id, 6);
+        assertTrue(dbHelper.getInventoryGeneration() > generation);
+
+        generation = dbHelper.getInventoryGeneration();
+        dbHelper.updateInventoryItem(OWNER, id, "Widget XL", 6, 2);
+        assertTrue(dbHelper.getInventoryGeneration() > generation);
+
+        generation = dbHelper.getInventoryGeneration();
+        dbHelper.importInventoryCsv(OWNER, new StringReader("Gadget,1,1\nWidget XL,9,2\n"), 10);
+        assertTrue(dbHelper.getInventoryGeneration() > generation);
+
+        generation = dbHelper.getInventoryGeneration();
+        dbHelper.deleteInventoryItem(OWNER, id);
+        assertTrue(dbHelper.getInventoryGeneration() > generation);
+    }
+
+    @Test
+    public void readsDoNotAdvanceGeneration() {
+        dbHelper.addInventoryItem(OWNER, "Widget", 5, 2);
+        long generation = dbHelper.getInventoryGeneration();
+
+        dbHelper.getInventoryPage(OWNER, null, 10, DatabaseHelper.SortOrder.BY_ID).close();
+        dbHelper.getLowInventoryItems(OWNER).close();
+        dbHelper.getInventoryChangesSince(OWNER, 0).close();
+
+        assertEquals(generation, dbHelper.getInventoryGeneration());
+    }
+
+    @Test
+    public void changesSince_returnOnlyRowsWrittenAfterGeneration() {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 5, 2);
+        long gadget = dbHelper.addInventoryItem(OWNER, "Gadget", 5, 2);
+        long bolt = dbHelper.addInventoryItem(OWNER, "Bolt", 5, 2);
+        long seen = dbHelper.getInventoryGeneration();
+
+        dbHelper.updateInventoryItem(OWNER, gadget, 1);
+        dbHelper.deleteInventoryItem(OWNER, bolt);
+        long added = dbHelper.addInventoryItem(OWNER, "Nut", 3, 1);
+
+        List<Long> changed = ids(dbHelper.getInventoryChangesSince(OWNER, seen));
+        List<Long> deleted = ids(dbHelper.getInventoryDeletionsSince(OWNER, seen));
+
+        assertEquals(2, changed.size());
+        assertTrue(changed.contains(gadget));
+        assertTrue(changed.contains(added));
+        assertFalse(changed.contains(widget));
+        assertEquals(1, deleted.size());
+        assertEquals(Long.valueOf(bolt), deleted.get(0));
+
+        // Nothing is reported once the reader has caught up
+        long latest = dbHelper.getInventoryGeneration();
+        assertTrue(ids(dbHelper.getInventoryChangesSince(OWNER, latest)).isEmpty());
+        assertTrue(ids(dbHelper.getInventoryDeletionsSince(OWNER, latest)).isEmpty());
+    }
+
+    private static List<Long> ids(Cursor cursor) {
+        List<Long> ids = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return ids;
+    }
+}
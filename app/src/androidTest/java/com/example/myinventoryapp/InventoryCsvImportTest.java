@@ -0,0 +1,183 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for streaming CSV import and export, reporting throughput.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryCsvImportTest {
+    private static final String TAG = "InventoryCsvImportTest";
+    private static final String TEST_DATABASE = "csv_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final int ROW_COUNT = 50_000;
+    private static final int BATCH_SIZE = 1_000;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void import_streamsLargeFileAndReportsThroughput() throws IOException {
+        InventoryCsv.ImportResult result = dbHelper.importInventoryCsv(OWNER, new GeneratedCsvReader(ROW_COUNT, 0),
+                BATCH_SIZE);
+
+        Log.i(TAG, String.format("Imported %d rows in %d ms (%.0f rows/sec)",
+                result.getImportedRows(), result.getElapsedMillis(), result.getRowsPerSecond()));
+        assertEquals(ROW_COUNT, result.getImportedRows());
+        assertEquals(0, result.getSkippedRows());
+        assertEquals(ROW_COUNT, countRows());
+    }
+
+    @Test
+    public void import_upsertsOnItemName() throws IOException {
+        dbHelper.importInventoryCsv(OWNER, new GeneratedCsvReader(ROW_COUNT, 0), BATCH_SIZE);
+        InventoryCsv.ImportResult result = dbHelper.importInventoryCsv(OWNER, new GeneratedCsvReader(ROW_COUNT, 100),
+                BATCH_SIZE);
+
+        Log.i(TAG, String.format("Upserted %d rows in %d ms (%.0f rows/sec)",
+                result.getImportedRows(), result.getElapsedMillis(), result.getRowsPerSecond()));
+        assertEquals(ROW_COUNT, countRows());
+
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery(
+                "SELECT quantity FROM inventory WHERE item_name = ?", new String[]{"SKU-000042"});
+        assertTrue(cursor.moveToFirst());
+        assertEquals(142, cursor.getInt(0));
+        cursor.close();
+    }
+
+    @Test
+    public void import_skipsHeaderAndMalformedRows() throws IOException {
+        String csv = "item_name,quantity,threshold\n"
+                + "Widget,10,2\n"
+                + "NoQuantity\n"
+                + "BadNumber,ten,2\n"
+                + "Gadget,3\n";
+
+        InventoryCsv.ImportResult result = dbHelper.importInventoryCsv(OWNER, new StringReader(csv), 2);
+
+        assertEquals(2, result.getImportedRows());
+        assertEquals(2, result.getSkippedRows());
+        assertEquals(2, countRows());
+    }
+
+    @Test
+    public void export_writesEveryRowWithoutBuffering() throws IOException {
+        dbHelper.importInventoryCsv(OWNER, new GeneratedCsvReader(ROW_COUNT, 0), BATCH_SIZE);
+
+        CountingWriter out = new CountingWriter();
+        long start = System.nanoTime();
+        int rows = dbHelper.exportInventoryCsv(OWNER, out);
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+        Log.i(TAG, String.format("Exported %d rows in %d ms (%.0f rows/sec)",
+                rows, elapsedMillis, rows * 1000.0 / elapsedMillis));
+        assertEquals(ROW_COUNT, rows);
+        // Header plus one line per row
+        assertEquals(ROW_COUNT + 1, out.lines);
+    }
+
+    private int countRows() {
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT COUNT(*) FROM inventory", null);
+        cursor.moveToFirst();
+        int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Produces CSV lines on demand so the test input is never held in memory
+     */
+    private static class GeneratedCsvReader extends Reader {
+        private final int rows;
+        private final int quantityOffset;
+        private int nextRow;
+        private String pending = "";
+        private int pendingPos;
+
+        GeneratedCsvReader(int rows, int quantityOffset) {
+            this.rows = rows;
+            this.quantityOffset = quantityOffset;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (pendingPos == pending.length()) {
+                if (nextRow == rows) {
+                    return -1;
+                }
+                pending = String.format("SKU-%06d,%d,5\n", nextRow, nextRow % 1000 + quantityOffset);
+                pendingPos = 0;
+                nextRow++;
+            }
+            int count = Math.min(length, pending.length() - pendingPos);
+            pending.getChars(pendingPos, pendingPos + count, buffer, offset);
+            pendingPos += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Discards output, counting lines
+     */
+    private static class CountingWriter extends Writer {
+        int lines;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (buffer[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+
+        @Override
+        public void write(int c) {
+            if (c == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for per-account inventories in {@link DatabaseHelper}: every
+ * read and every new item is scoped to one owner, and an owner's queries seek on
+ * its own rows, so they cost the same however many accounts share the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventoryOwnerTest {
+    private static final String TAG = "InventoryOwnerTest";
+    private static final String TEST_DATABASE = "inventory_owner_test.db";
+    private static final int ITEMS_PER_OWNER = 2_000;
+    private static final int OWNER_COUNT = 20;
+    private static final int PAGE_SIZE = 50;
+    private static final int IMPORT_BATCH_SIZE = 500;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private long alice;
+    private long bob;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+        alice = dbHelper.addUser("alice", "secret");
+        bob = dbHelper.addUser("bob", "hunter2");
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void findUser_returnsTheIdOfMatchingCredentials() {
+        assertEquals(alice, dbHelper.findUser("alice", "secret"));
+        assertEquals(-1, dbHelper.findUser("alice", "hunter2"));
+        assertEquals(-1, dbHelper.findUser("carol", "secret"));
+    }
+
+    @Test
+    public void ownersSeeOnlyTheirOwnItems() throws IOException {
+        long backRoom = dbHelper.addLocation("Back room");
+        long aliceWidget = dbHelper.addInventoryItem(alice, "Widget", 2, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        dbHelper.adjustStock(alice, aliceWidget, backRoom, 1);
+        dbHelper.setInventorySku(alice, aliceWidget, "4006381333931");
+        long bobWidget = dbHelper.addInventoryItem(bob, "Widget", 1, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        dbHelper.adjustStock(bob, bobWidget, backRoom, 1);
+        dbHelper.setInventorySku(bob, bobWidget, "4006381333931");
+
+        assertEquals(List.of(aliceWidget), ids(dbHelper.getAllInventoryItems(alice)));
+        assertEquals(List.of(bobWidget), ids(dbHelper.getAllInventoryItems(bob)));
+        assertEquals(List.of(aliceWidget), ids(dbHelper.getLowInventoryItems(alice, DatabaseHelper.ALL_LOCATIONS)));
+        assertEquals(List.of(bobWidget), ids(dbHelper.getLowInventoryItems(bob, backRoom)));
+        assertEquals(List.of(aliceWidget), ids(dbHelper.searchInventory(alice, "wid", 10, null)));
+        assertEquals(List.of(bobWidget), ids(dbHelper.searchInventory(bob, "wid", 10, null)));
+        assertEquals(aliceWidget, dbHelper.getInventoryItemBySku(alice, "4006381333931").getId());
+        assertEquals(bobWidget, dbHelper.getInventoryItemBySku(bob, "4006381333931").getId());
+        for (DatabaseHelper.SortOrder sortOrder : DatabaseHelper.SortOrder.values()) {
+            for (DatabaseHelper.StockFilter filter : DatabaseHelper.StockFilter.values()) {
+                String page = sortOrder + "/" + filter;
+                assertEquals(page, List.of(aliceWidget), ids(dbHelper.getInventoryPage(alice, null, 10, sortOrder,
+                        filter, DatabaseHelper.ALL_LOCATIONS)));
+                assertEquals(page, List.of(bobWidget), ids(dbHelper.getInventoryPage(bob, null, 10, sortOrder,
+                        filter, backRoom)));
+            }
+        }
+        // Items made without an account belong to nobody signed in
+        dbHelper.addInventoryItem(DatabaseHelper.NO_OWNER, "Gadget", 1, 5);
+        assertEquals(List.of(aliceWidget), ids(dbHelper.getAllInventoryItems(alice)));
+
+        StringWriter csv = new StringWriter();
+        assertEquals(1, dbHelper.exportInventoryCsv(bob, csv));
+        assertTrue(csv.toString().contains("Widget,2,5"));
+    }
+
+    @Test
+    public void changesAndDeletions_areReportedToTheirOwner() {
+        long aliceWidget = dbHelper.addInventoryItem(alice, "Widget", 2, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        long bobWidget = dbHelper.addInventoryItem(bob, "Widget", 1, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        long generation = dbHelper.getInventoryGeneration();
+
+        dbHelper.updateInventoryItem(alice, aliceWidget, 8);
+        dbHelper.deleteInventoryItem(bob, bobWidget);
+
+        assertEquals(List.of(aliceWidget), ids(dbHelper.getInventoryChangesSince(alice, generation,
+                DatabaseHelper.ALL_LOCATIONS)));
+        assertTrue(ids(dbHelper.getInventoryDeletionsSince(alice, generation)).isEmpty());
+        assertTrue(ids(dbHelper.getInventoryChangesSince(bob, generation, DatabaseHelper.ALL_LOCATIONS)).isEmpty());
+        assertEquals(List.of(bobWidget), ids(dbHelper.getInventoryDeletionsSince(bob, generation)));
+    }
+
+    @Test
+    public void importAndScans_writeToTheirOwnersItems() throws IOException {
+        long aliceWidget = dbHelper.addInventoryItem(alice, "Widget", 2, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        dbHelper.setInventorySku(alice, aliceWidget, "4006381333931");
+
+        // Bob's import makes his own Widget instead of updating Alice's
+        dbHelper.importInventoryCsv(bob, new StringReader("Widget,7,2\n"), 10);
+        assertEquals(2, dbHelper.getInventoryItem(alice, aliceWidget).getQuantity());
+        List<Long> bobs = ids(dbHelper.getAllInventoryItems(bob));
+        assertEquals(1, bobs.size());
+        assertEquals(7, dbHelper.getInventoryItem(bob, bobs.get(0)).getQuantity());
+
+        // And his scans do not find Alice's SKU
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put("4006381333931", 3);
+        assertEquals(List.of("4006381333931"), dbHelper.applyScanCounts(bob, counts,
+                DatabaseHelper.DEFAULT_LOCATION_ID));
+        assertTrue(dbHelper.applyScanCounts(alice, counts, DatabaseHelper.DEFAULT_LOCATION_ID).isEmpty());
+        assertEquals(5, dbHelper.getInventoryItem(alice, aliceWidget).getQuantity());
+    }
+
+    @Test
+    public void byIdReadsAndWrites_leaveOtherOwnersItemsAlone() {
+        long backRoom = dbHelper.addLocation("Back room");
+        long aliceWidget = dbHelper.addInventoryItem(alice, "Widget", 10, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        dbHelper.adjustStock(alice, aliceWidget, backRoom, 2);
+        // Cached for Alice, which must not serve Bob
+        assertEquals(12, dbHelper.getInventoryItem(alice, aliceWidget).getQuantity());
+
+        assertNull(dbHelper.getInventoryItem(bob, aliceWidget));
+        assertNull(dbHelper.getInventoryItem(bob, aliceWidget, backRoom));
+        assertEquals(0, dbHelper.getStockAt(bob, aliceWidget, DatabaseHelper.ALL_LOCATIONS, Long.MAX_VALUE));
+        assertEquals(0, dbHelper.updateInventoryItem(bob, aliceWidget, 1));
+        assertEquals(0, dbHelper.updateInventoryItem(bob, aliceWidget, "Mine", 1, 1, backRoom));
+        assertEquals(DatabaseHelper.ADJUSTMENT_REJECTED, dbHelper.adjustStock(bob, aliceWidget, backRoom, 1));
+        assertEquals(0, dbHelper.adjustStock(bob, new long[]{aliceWidget}, backRoom, 1));
+        assertFalse(dbHelper.transferStock(bob, aliceWidget, backRoom, DatabaseHelper.DEFAULT_LOCATION_ID, 1));
+        assertEquals(0, dbHelper.setThresholds(bob, new long[]{aliceWidget}, 1, DatabaseHelper.ALL_LOCATIONS));
+        assertEquals(0, dbHelper.setThresholds(bob, new long[]{aliceWidget}, 1, backRoom));
+        assertEquals(0, dbHelper.setInventorySku(bob, aliceWidget, "4006381333931"));
+        assertEquals(0, dbHelper.softDeleteInventoryItem(bob, aliceWidget));
+        dbHelper.deleteInventoryItem(bob, aliceWidget);
+
+        // Alice's item is as she left it, stock, ledger and all
+        assertEquals(new InventoryItem(aliceWidget, "Widget", 12, 5), dbHelper.getInventoryItem(alice, aliceWidget));
+        assertEquals(new InventoryItem(aliceWidget, "Widget", 2, 5),
+                dbHelper.getInventoryItem(alice, aliceWidget, backRoom));
+        assertEquals(12, dbHelper.getStockAt(alice, aliceWidget, DatabaseHelper.ALL_LOCATIONS, Long.MAX_VALUE));
+        assertNull(dbHelper.getInventoryItemBySku(alice, "4006381333931"));
+
+        // Nor can Bob restore an item Alice deleted
+        assertEquals(1, dbHelper.softDeleteInventoryItem(alice, aliceWidget));
+        assertEquals(0, dbHelper.restoreInventoryItem(bob, aliceWidget));
+        assertEquals(0, dbHelper.restoreInventoryItems(bob, new long[]{aliceWidget}));
+        assertNull(dbHelper.getInventoryItem(alice, aliceWidget));
+    }
+
+    @Test
+    public void stockMovements_areReportedToTheirOwner() {
+        long aliceWidget = dbHelper.addInventoryItem(alice, "Widget", 2, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        long bobWidget = dbHelper.addInventoryItem(bob, "Widget", 1, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        dbHelper.adjustQuantity(alice, aliceWidget, 3);
+        // Deleted items keep their history, and their owner
+        dbHelper.deleteInventoryItem(bob, bobWidget);
+
+        assertEquals(List.of(aliceWidget, aliceWidget), itemIds(dbHelper.getStockMovements(alice, 0, Long.MAX_VALUE)));
+        assertEquals(List.of(bobWidget, bobWidget), itemIds(dbHelper.getStockMovements(bob, 0, Long.MAX_VALUE)));
+        assertEquals(2, itemIds(dbHelper.getStockMovements(bob, bobWidget, 0, Long.MAX_VALUE)).size());
+        assertTrue(itemIds(dbHelper.getStockMovements(bob, aliceWidget, 0, Long.MAX_VALUE)).isEmpty());
+        assertTrue(itemIds(dbHelper.getStockMovements(alice, bobWidget, 0, Long.MAX_VALUE)).isEmpty());
+    }
+
+    @Test
+    public void ownerQueries_seekOnTheOwner() {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        List<String> queries = new ArrayList<>(Arrays.asList(
+                DatabaseHelper.SELECT_LOW_INVENTORY, DatabaseHelper.SELECT_ID_BY_SKU));
+        for (DatabaseHelper.SortOrder sortOrder : DatabaseHelper.SortOrder.values()) {
+            for (DatabaseHelper.StockFilter filter : DatabaseHelper.StockFilter.values()) {
+                queries.add(DatabaseHelper.inventoryPageSql(sortOrder, filter, true));
+                queries.add(DatabaseHelper.locationPageSql(sortOrder, filter, true));
+            }
+        }
+
+        for (String sql : queries) {
+            String plan = DatabaseTestUtils.explain(db, sql);
+            assertTrue(sql + ": " + plan, plan.contains("owner_id=?"));
+        }
+    }
+
+    @Test
+    public void ownerPages_costTheSameWithManyOwners() throws IOException {
+        seed(alice);
+        long oneOwner = medianPageMillis(alice);
+
+        for (int i = 2; i < OWNER_COUNT; i++) {
+            seed(dbHelper.addUser("user" + i, "password" + i));
+        }
+        seed(bob);
+        long manyOwners = medianPageMillis(alice);
+
+        Log.i(TAG, String.format("First pages of %d items: median %d ms with 1 owner, %d ms with %d owners",
+                ITEMS_PER_OWNER, oneOwner, manyOwners, OWNER_COUNT));
+        assertEquals(ITEMS_PER_OWNER * OWNER_COUNT, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT count(*) FROM inventory"));
+        // Not 20 times the rows to read: allow for noise, not for a scan
+        assertTrue("median " + manyOwners + " ms with " + OWNER_COUNT + " owners, " + oneOwner + " ms with one",
+                manyOwners <= 2 * oneOwner + 5);
+    }
+
+    // ========== HELPERS ==========
+
+    /**
+     * Imports ITEMS_PER_OWNER items for an owner, a tenth of them low on stock
+     */
+    private void seed(long ownerId) throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < ITEMS_PER_OWNER; i++) {
+            csv.append("Item ").append(i).append(',').append(i % 10 == 0 ? 1 : 20).append(",5\n");
+        }
+        dbHelper.importInventoryCsv(ownerId, new StringReader(csv.toString()), IMPORT_BATCH_SIZE);
+    }
+
+    /**
+     * Median time to read the owner's first page in every order and filter
+     */
+    private long medianPageMillis(long ownerId) {
+        long[] timings = new long[9];
+        for (int i = 0; i < timings.length; i++) {
+            long start = System.nanoTime();
+            for (DatabaseHelper.SortOrder sortOrder : DatabaseHelper.SortOrder.values()) {
+                for (DatabaseHelper.StockFilter filter : DatabaseHelper.StockFilter.values()) {
+                    assertFalse(ids(dbHelper.getInventoryPage(ownerId, null, PAGE_SIZE, sortOrder, filter,
+                            DatabaseHelper.ALL_LOCATIONS)).isEmpty());
+                }
+            }
+            timings[i] = (System.nanoTime() - start) / 1_000_000;
+        }
+        Arrays.sort(timings);
+        return timings[timings.length / 2];
+    }
+
+    private static List<Long> ids(Cursor cursor) {
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static List<Long> itemIds(Cursor movements) {
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (movements.moveToNext()) {
+                ids.add(movements.getLong(movements.getColumnIndexOrThrow("item_id")));
+            }
+        } finally {
+            movements.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for full-text search in {@link DatabaseHelper}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventorySearchTest {
+    private static final String TAG = "InventorySearchTest";
+    private static final String TEST_DATABASE = "search_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final int LARGE_ITEM_COUNT = 100_000;
+    private static final int LIMIT = 50;
+    private static final long MAX_MEDIAN_MILLIS = 200;
+
+    private static final String[] WORDS = {
+            "bolt", "screw", "washer", "nut", "bracket", "hinge", "panel", "cable",
+            "steel", "zinc", "brass", "nylon", "black", "white", "small", "large"};
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void search_matchesEveryTermAsWordPrefix() {
+        dbHelper.addInventoryItem(OWNER, "Bolt, 10mm zinc", 1, 5);
+        dbHelper.addInventoryItem(OWNER, "Bolt, 10mm steel", 1, 5);
+        dbHelper.addInventoryItem(OWNER, "Zinc washer", 1, 5);
+        dbHelper.addInventoryItem(OWNER, "Carabolt", 1, 5);
+
+        assertEquals(Arrays.asList("Bolt, 10mm zinc"), search("bol zin"));
+        assertEquals(Arrays.asList("Bolt, 10mm zinc", "Bolt, 10mm steel"), search("BOLT 10"));
+        assertEquals(Arrays.asList("Zinc washer", "Bolt, 10mm zinc"), search("zinc"));
+        assertTrue(search("olt").isEmpty());
+    }
+
+    @Test
+    public void search_ranksNamePrefixFirstThenShorterNames() {
+        dbHelper.addInventoryItem(OWNER, "Large cable tie", 1, 5);
+        dbHelper.addInventoryItem(OWNER, "Cable tie, long pack", 1, 5);
+        dbHelper.addInventoryItem(OWNER, "Cable tie", 1, 5);
+
+        assertEquals(Arrays.asList("Cable tie", "Cable tie, long pack", "Large cable tie"), search("cab"));
+    }
+
+    @Test
+    public void search_ignoresQuerySyntaxInUserInput() {
+        dbHelper.addInventoryItem(OWNER, "Nut \"M6\"", 1, 5);
+
+        assertEquals(Arrays.asList("Nut \"M6\""), search("\"nut\" -m6* ("));
+        assertTrue(search("  *  ").isEmpty());
+        assertTrue(search("").isEmpty());
+    }
+
+    @Test
+    public void searchAtLocation_findsOnlyItemsStockedThere() {
+        long backRoom = dbHelper.addLocation("Back room");
+        dbHelper.addInventoryItem(OWNER, "Steel bolt", 7, 5, backRoom);
+        dbHelper.addInventoryItem(OWNER, "Brass bolt", 9, 5);
+
+        Cursor cursor = dbHelper.searchInventory(OWNER, "bolt", backRoom, LIMIT, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Steel bolt", cursor.getString(cursor.getColumnIndexOrThrow("item_name")));
+            assertEquals(7, cursor.getInt(cursor.getColumnIndexOrThrow("quantity")));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(Arrays.asList("Brass bolt", "Steel bolt"), search("bolt"));
+
+        // Each hit is looked up by key, never a scan of the location's stock
+        String plan = DatabaseTestUtils.explain(dbHelper.getReadableDatabase(),
+                DatabaseHelper.SEARCH_LOCATION_INVENTORY);
+        assertFalse(plan, plan.contains("SCAN s"));
+    }
+
+    @Test
+    public void searchIndex_followsInsertsRenamesAndDeletes() {
+        long id = dbHelper.addInventoryItem(OWNER, "Brass hinge", 1, 5);
+        assertEquals(1, search("hinge").size());
+
+        dbHelper.updateInventoryItem(OWNER, id, "Brass bracket", 1, 5);
+        assertTrue(search("hinge").isEmpty());
+        assertEquals(Arrays.asList("Brass bracket"), search("bracket"));
+
+        // Quantity-only updates leave the index alone
+        dbHelper.updateInventoryItem(OWNER, id, 40);
+        assertEquals(Arrays.asList("Brass bracket"), search("brass"));
+
+        dbHelper.deleteInventoryItem(OWNER, id);
+        assertTrue(search("brass").isEmpty());
+
+        // Throws if the index and the content table disagree
+        dbHelper.getWritableDatabase().execSQL("INSERT INTO " + DatabaseHelper.TABLE_INVENTORY_FTS
+                + " (" + DatabaseHelper.TABLE_INVENTORY_FTS + ") VALUES ('integrity-check')");
+    }
+
+    @Test
+    public void search_staysFastAt100kItems() {
+        seed(LARGE_ITEM_COUNT);
+        String[] queries = {"b", "bo", "bolt", "bolt zi", "steel bra", "white nylon cab", "sm la", "washer 12"};
+
+        // Warm up the page cache
+        for (String query : queries) {
+            search(query);
+        }
+
+        for (String query : queries) {
+            long[] timings = new long[9];
+            int results = 0;
+            for (int i = 0; i < timings.length; i++) {
+                long start = System.nanoTime();
+                results = search(query).size();
+                timings[i] = (System.nanoTime() - start) / 1_000_000;
+            }
+            Arrays.sort(timings);
+            long median = timings[timings.length / 2];
+            Log.i(TAG, "\"" + query + "\": " + results + " results, median " + median + " ms");
+
+            assertTrue(query, results > 0);
+            assertTrue("\"" + query + "\" took " + median + " ms", median <= MAX_MEDIAN_MILLIS);
+        }
+    }
+
+    // ========== HELPERS ==========
+
+    private List<String> search(String query) {
+        Cursor cursor = dbHelper.searchInventory(OWNER, query, LIMIT, null);
+        List<String> names = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            names.add(cursor.getString(cursor.getColumnIndexOrThrow("item_name")));
+        }
+        cursor.close();
+        return names;
+    }
+
+    /**
+     * Inserts items named from three words and a number, e.g. "steel bolt black 1234"
+     */
+    private void seed(int count) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO inventory (item_name, quantity, threshold) VALUES (?, ?, 5)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                insert.bindString(1, WORDS[i % 16] + " " + WORDS[(i / 16) % 16] + " "
+                        + WORDS[(i / 256) % 16] + " " + i);
+                insert.bindLong(2, i % 50);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+}
@@ -0,0 +1,578 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for {@link InventorySync}: simulated devices, each with a
+ * database of its own, syncing over HTTP with an in-memory stand-in for the
+ * sync server that implements the protocol described there.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InventorySyncTest {
+    private static final String TAG = "InventorySyncTest";
+    private static final int DEVICES = 3;
+    private static final String USER = "alice";
+
+    private Context context;
+    private MockWebServer server;
+    private FakeSyncServer syncServer;
+    private final List<DatabaseHelper> devices = new ArrayList<>();
+    // The account every device starts with; its id is the same on all of them
+    private long owner;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        syncServer = new FakeSyncServer();
+        server = new MockWebServer();
+        server.setDispatcher(syncServer);
+        server.start();
+        for (int i = 0; i < DEVICES; i++) {
+            context.deleteDatabase(databaseName(i));
+            DatabaseHelper device = new DatabaseHelper(context, databaseName(i));
+            devices.add(device);
+            owner = device.addUser(USER, "secret");
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (int i = 0; i < devices.size(); i++) {
+            devices.get(i).close();
+            context.deleteDatabase(databaseName(i));
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void addedItems_reachOtherDevices() throws IOException {
+        DatabaseHelper a = devices.get(0);
+        DatabaseHelper b = devices.get(1);
+        a.addInventoryItem(owner, "Widget", 10, 5);
+        a.addInventoryItem(owner, "Gadget", 3, 2);
+
+        InventorySync.Result pushed = sync(a);
+        InventorySync.Result pulled = sync(b);
+
+        assertEquals(2, pushed.pushed);
+        assertEquals(2, pulled.pulled);
+        assertEquals(10, item(b, "Widget").getQuantity());
+        assertEquals(2, item(b, "Gadget").getThreshold());
+        assertEquals(snapshot(a), snapshot(b));
+        assertTrue(a.getSyncChanges(10).isEmpty());
+        assertTrue(b.getSyncChanges(10).isEmpty());
+    }
+
+    @Test
+    public void concurrentStockChanges_areMergedNotOverwritten() throws IOException {
+        DatabaseHelper a = devices.get(0);
+        DatabaseHelper b = devices.get(1);
+        a.addInventoryItem(owner, "Widget", 10, 5);
+        sync(a);
+        sync(b);
+
+        // Both devices change the stock before hearing of the other's change
+        a.adjustQuantity(owner, item(a, "Widget").getId(), -3);
+        b.adjustQuantity(owner, item(b, "Widget").getId(), 5);
+        sync(a);
+        sync(b);
+        sync(a);
+
+        assertEquals(12, item(a, "Widget").getQuantity());
+        assertEquals(12, item(b, "Widget").getQuantity());
+        // Repeating a sync changes nothing
+        assertEquals(0, sync(b).pulled);
+        assertEquals(12, item(b, "Widget").getQuantity());
+    }
+
+    @Test
+    public void deletion_winsOverConcurrentEdits() throws IOException {
+        DatabaseHelper a = devices.get(0);
+        DatabaseHelper b = devices.get(1);
+        a.addInventoryItem(owner, "Widget", 10, 5);
+        sync(a);
+        sync(b);
+
+        long widgetOnB = item(b, "Widget").getId();
+        a.deleteInventoryItem(owner, item(a, "Widget").getId());
+        b.adjustQuantity(owner, widgetOnB, 4);
+        b.updateInventoryItem(owner, widgetOnB, "Blue widget", 14, 6);
+        sync(b);
+        sync(a);
+        sync(b);
+
+        assertNull(b.getInventoryItem(owner, widgetOnB));
+        assertTrue(snapshot(a).isEmpty());
+        assertTrue(snapshot(b).isEmpty());
+        assertTrue(b.getSyncChanges(10).isEmpty());
+    }
+
+    @Test
+    public void concurrentRenames_lastToReachServerWins() throws IOException {
+        DatabaseHelper a = devices.get(0);
+        DatabaseHelper b = devices.get(1);
+        a.addInventoryItem(owner, "Widget", 10, 5);
+        sync(a);
+        sync(b);
+
+        a.updateInventoryItem(owner, item(a, "Widget").getId(), "Red widget", 10, 5);
+        b.updateInventoryItem(owner, item(b, "Widget").getId(), "Blue widget", 10, 8);
+        sync(a);
+        sync(b);
+        sync(a);
+
+        assertEquals(8, item(a, "Blue widget").getThreshold());
+        assertEquals(snapshot(a), snapshot(b));
+    }
+
+    @Test
+    public void randomEditsOnThreeDevices_converge() throws IOException {
+        Random random = new Random(11);
+        for (int i = 0; i < 20; i++) {
+            devices.get(0).addInventoryItem(owner, "Item " + i, random.nextInt(50), 5);
+        }
+        for (DatabaseHelper device : devices) {
+            sync(device);
+        }
+
+        for (int step = 0; step < 400; step++) {
+            int d = random.nextInt(DEVICES);
+            DatabaseHelper device = devices.get(d);
+            long id = randomItemId(device, random);
+            int op = random.nextInt(100);
+            if (op < 20) {
+                sync(device);
+            } else if (id == -1 || op < 25) {
+                device.addInventoryItem(owner, "New " + d + "-" + step, random.nextInt(20), 5);
+            } else if (op < 60) {
+                device.adjustQuantity(owner, id, random.nextInt(11) - 5);
+            } else if (op < 75) {
+                device.updateInventoryItem(owner, id, random.nextInt(40));
+            } else if (op < 95) {
+                int quantity = device.getInventoryItem(owner, id).getQuantity();
+                device.updateInventoryItem(owner, id, "Renamed " + d + "-" + step, quantity, random.nextInt(10));
+            } else {
+                device.deleteInventoryItem(owner, id);
+            }
+        }
+
+        // Two rounds: the first pushes everything, the second pulls what came after each device
+        for (int round = 0; round < 2; round++) {
+            for (DatabaseHelper device : devices) {
+                sync(device);
+            }
+        }
+
+        Map<String, String> expected = snapshot(devices.get(0));
+        assertFalse(expected.isEmpty());
+        for (DatabaseHelper device : devices) {
+            assertEquals(expected, snapshot(device));
+            assertTrue(device.getSyncChanges(10).isEmpty());
+        }
+        // Every device's quantity is the sum of all devices' changes
+        for (Map.Entry<String, Long> total : syncServer.totals().entrySet()) {
+            String state = expected.get(total.getKey());
+            assertNotNull(total.getKey(), state);
+            assertTrue(state, state.startsWith(total.getValue() + " "));
+        }
+    }
+
+    @Test
+    public void items_keepTheirAccountAcrossDevices() throws IOException {
+        DatabaseHelper a = devices.get(0);
+        DatabaseHelper b = devices.get(1);
+        long bobOnA = a.addUser("bob", "secret");
+        b.addUser("carol", "secret");
+        long bobOnB = b.addUser("bob", "secret");
+        assertNotEquals(bobOnA, bobOnB);
+        a.addInventoryItem(bobOnA, "Widget", 10, 5);
+        a.addInventoryItem(owner, "Gadget", 3, 2);
+
+        sync(a);
+        sync(b);
+
+        assertEquals(bobOnB, ownerOf(b, "Widget"));
+        assertEquals(owner, ownerOf(b, "Gadget"));
+        assertEquals(snapshot(a), snapshot(b));
+    }
+
+    @Test
+    public void itemsOfAMissingAccount_arriveOnceItIsAdded() throws IOException {
+        DatabaseHelper a = devices.get(0);
+        DatabaseHelper b = devices.get(1);
+        a.addInventoryItem(a.addUser("bob", "secret"), "Widget", 10, 5);
+        sync(a);
+
+        // Not handed to any other account
+        sync(b);
+        assertEquals(-1, ownerOf(b, "Widget"));
+
+        long bobOnB = b.addUser("bob", "secret");
+        assertNull(b.getSyncToken());
+        sync(b);
+        assertEquals(bobOnB, ownerOf(b, "Widget"));
+        assertEquals(10, b.getInventoryItem(bobOnB, DatabaseTestUtils.queryLong(b.getReadableDatabase(),
+                "SELECT id FROM inventory WHERE item_name = ?", "Widget")).getQuantity());
+    }
+
+    @Test
+    public void itemsWithoutAnAccount_areNotSynced() throws IOException {
+        DatabaseHelper a = devices.get(0);
+        a.addInventoryItem(DatabaseHelper.NO_OWNER, "Widget", 10, 5);
+
+        assertTrue(a.getSyncChanges(10).isEmpty());
+        assertEquals(0, sync(a).pushed);
+        sync(devices.get(1));
+        assertEquals(-1, ownerOf(devices.get(1), "Widget"));
+    }
+
+    @Test
+    public void restoredDevice_syncsAsANewDevice() throws IOException {
+        DatabaseHelper a = devices.get(0);
+        DatabaseHelper b = devices.get(1);
+        File backups = new File(context.getCacheDir(), "sync_restore_test");
+        a.addInventoryItem(owner, "Widget", 10, 5);
+        sync(a);
+        String deviceId = a.getSyncDeviceId();
+        File backup = a.backupDatabase(backups, false).getFile();
+        try {
+            // Changes the server has from this device, but the backup has not
+            a.adjustQuantity(owner, item(a, "Widget").getId(), 5);
+            a.addInventoryItem(owner, "Gadget", 3, 2);
+            sync(a);
+            sync(b);
+
+            a.restoreDatabase(backup);
+            assertNotEquals(deviceId, a.getSyncDeviceId());
+            assertNull(a.getSyncToken());
+            assertEquals(10, item(a, "Widget").getQuantity());
+            // Something only the restored database has
+            a.addInventoryItem(owner, "Gizmo", 4, 1);
+
+            sync(a);
+            sync(b);
+            sync(a);
+        } finally {
+            for (File file : backups.listFiles()) {
+                file.delete();
+            }
+            backups.delete();
+        }
+
+        assertEquals(15, item(a, "Widget").getQuantity());
+        assertEquals(3, item(a, "Gadget").getQuantity());
+        assertEquals(4, item(b, "Gizmo").getQuantity());
+        assertEquals(snapshot(a), snapshot(b));
+        assertEquals(new TreeMap<>(syncServer.totals()), quantities(a));
+    }
+
+    @Test
+    public void manyChanges_areBatchedAndCompressed() throws IOException {
+        DatabaseHelper a = devices.get(0);
+        DatabaseHelper b = devices.get(1);
+        for (int i = 0; i < 1000; i++) {
+            a.addInventoryItem(owner, String.format(Locale.US, "Item %04d", i), i, 5);
+        }
+
+        InventorySync.Result pushed = new InventorySync(a, transport(), 200).sync();
+        InventorySync.Result pulled = new InventorySync(b, transport(), 200).sync();
+        Log.i(TAG, "Pushed 1000 items in " + pushed.exchanges + " exchanges, pulled in " + pulled.exchanges
+                + "; " + syncServer.jsonBytes + " bytes of JSON sent as " + syncServer.wireBytes);
+
+        assertEquals(1000, pushed.pushed);
+        assertEquals(1000, pulled.pulled);
+        assertTrue(pushed.exchanges >= 5);
+        assertTrue(pulled.exchanges >= 5);
+        assertTrue(syncServer.wireBytes * 2 < syncServer.jsonBytes);
+        assertEquals(snapshot(a), snapshot(b));
+    }
+
+    @Test
+    public void serverUnavailable_keepsChangesForTheNextSync() throws IOException {
+        DatabaseHelper a = devices.get(0);
+        a.addInventoryItem(owner, "Widget", 10, 5);
+
+        syncServer.failNext = 1;
+        try {
+            sync(a);
+            fail("sync should fail while the server is down");
+        } catch (IOException expected) {
+            // The change is still waiting
+        }
+        assertEquals(1, a.getSyncChanges(10).size());
+        assertNull(a.getSyncToken());
+
+        sync(a);
+        sync(devices.get(1));
+        assertEquals(10, item(devices.get(1), "Widget").getQuantity());
+    }
+
+    // ========== HELPERS ==========
+
+    private static String databaseName(int device) {
+        return "sync_device_" + device + ".db";
+    }
+
+    private InventorySync.Transport transport() {
+        return new HttpSyncTransport(server.url("/sync").url());
+    }
+
+    private InventorySync.Result sync(DatabaseHelper device) throws IOException {
+        return new InventorySync(device, transport()).sync();
+    }
+
+    private InventoryItem item(DatabaseHelper device, String name) {
+        long id = DatabaseTestUtils.queryLong(device.getReadableDatabase(),
+                "SELECT coalesce((SELECT id FROM inventory WHERE item_name = ?), -1)", name);
+        return device.getInventoryItem(owner, id);
+    }
+
+    /**
+     * Every item's quantity on a device by global id
+     */
+    private static Map<String, Long> quantities(DatabaseHelper device) {
+        Map<String, Long> items = new TreeMap<>();
+        Cursor cursor = device.getReadableDatabase().rawQuery("SELECT s.global_id, i.quantity"
+                + " FROM sync_items s JOIN inventory i ON i.id = s.item_id", null);
+        while (cursor.moveToNext()) {
+            items.put(cursor.getString(0), cursor.getLong(1));
+        }
+        cursor.close();
+        return items;
+    }
+
+    private static long ownerOf(DatabaseHelper device, String name) {
+        return DatabaseTestUtils.queryLong(device.getReadableDatabase(),
+                "SELECT coalesce((SELECT owner_id FROM inventory WHERE item_name = ?), -1)", name);
+    }
+
+    private static long randomItemId(DatabaseHelper device, Random random) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = device.getReadableDatabase().rawQuery("SELECT id FROM inventory ORDER BY id", null);
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return ids.isEmpty() ? -1 : ids.get(random.nextInt(ids.size()));
+    }
+
+    /**
+     * Every item on a device by global id, as "quantity threshold name"
+     */
+    private static Map<String, String> snapshot(DatabaseHelper device) {
+        Map<String, String> items = new TreeMap<>();
+        Cursor cursor = device.getReadableDatabase().rawQuery("SELECT s.global_id, i.quantity, i.threshold, i.item_name"
+                + " FROM sync_items s JOIN inventory i ON i.id = s.item_id", null);
+        while (cursor.moveToNext()) {
+            items.put(cursor.getString(0), cursor.getLong(1) + " " + cursor.getInt(2) + " " + cursor.getString(3));
+        }
+        cursor.close();
+        return items;
+    }
+
+    /**
+     * The sync server, in memory: the latest count per device and item, the last
+     * name and threshold to arrive, and tombstones. The token is a sequence number
+     * that every change to an item bumps.
+     */
+    private static final class FakeSyncServer extends Dispatcher {
+        // Responses to fail with 503 before answering again
+        volatile int failNext;
+        // Request bodies before and after compression
+        volatile long jsonBytes;
+        volatile long wireBytes;
+
+        private final Map<String, ServerItem> items = new LinkedHashMap<>();
+        private long sequence;
+
+        private static final class ServerItem {
+            final Map<String, Long> counts = new HashMap<>();
+            String owner;
+            String name;
+            int threshold;
+            boolean deleted;
+            long sequence;
+        }
+
+        synchronized Map<String, Long> totals() {
+            Map<String, Long> totals = new TreeMap<>();
+            for (Map.Entry<String, ServerItem> entry : items.entrySet()) {
+                if (!entry.getValue().deleted) {
+                    totals.put(entry.getKey(), countExcept(entry.getValue(), null));
+                }
+            }
+            return totals;
+        }
+
+        @Override
+        public synchronized MockResponse dispatch(RecordedRequest request) {
+            if (failNext > 0) {
+                failNext--;
+                return new MockResponse().setResponseCode(503);
+            }
+            try {
+                byte[] body = request.getBody().readByteArray();
+                wireBytes += body.length;
+                if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+                    body = gunzip(body);
+                }
+                jsonBytes += body.length;
+                JSONObject response = exchange(new JSONObject(new String(body, StandardCharsets.UTF_8)));
+                return new MockResponse()
+                        .setHeader("Content-Encoding", "gzip")
+                        .setBody(new Buffer().write(gzip(response.toString().getBytes(StandardCharsets.UTF_8))));
+            } catch (IOException | JSONException e) {
+                return new MockResponse().setResponseCode(400);
+            }
+        }
+
+        private JSONObject exchange(JSONObject request) throws JSONException {
+            String device = request.getString("device");
+            long token = request.has("token") ? Long.parseLong(request.getString("token")) : 0;
+            int limit = request.getInt("limit");
+
+            // Every pushed item is answered, with its state after the push
+            Map<String, ServerItem> answered = new LinkedHashMap<>();
+            JSONArray changes = request.getJSONArray("changes");
+            for (int i = 0; i < changes.length(); i++) {
+                JSONObject change = changes.getJSONObject(i);
+                String id = change.getString("id");
+                ServerItem item = items.get(id);
+                if (item == null) {
+                    item = new ServerItem();
+                    items.put(id, item);
+                }
+                answered.put(id, item);
+                if (item.deleted) {
+                    continue;
+                }
+                if (change.optBoolean("deleted")) {
+                    item.deleted = true;
+                } else {
+                    item.owner = change.getString("owner");
+                    item.counts.put(device, change.getLong("count"));
+                    if (change.has("name")) {
+                        item.name = change.getString("name");
+                        item.threshold = change.getInt("threshold");
+                    }
+                }
+                item.sequence = ++sequence;
+            }
+
+            // Then up to limit others changed since the token, oldest change first
+            List<Map.Entry<String, ServerItem>> since = new ArrayList<>();
+            for (Map.Entry<String, ServerItem> entry : items.entrySet()) {
+                if (entry.getValue().sequence > token && !answered.containsKey(entry.getKey())) {
+                    since.add(entry);
+                }
+            }
+            Collections.sort(since, new Comparator<Map.Entry<String, ServerItem>>() {
+                @Override
+                public int compare(Map.Entry<String, ServerItem> x, Map.Entry<String, ServerItem> y) {
+                    return Long.compare(x.getValue().sequence, y.getValue().sequence);
+                }
+            });
+            boolean more = since.size() > limit;
+            long newToken = sequence;
+            if (more) {
+                since = since.subList(0, limit);
+                newToken = since.get(limit - 1).getValue().sequence;
+            }
+            for (Map.Entry<String, ServerItem> entry : since) {
+                answered.put(entry.getKey(), entry.getValue());
+            }
+
+            JSONArray out = new JSONArray();
+            for (Map.Entry<String, ServerItem> entry : answered.entrySet()) {
+                ServerItem item = entry.getValue();
+                JSONObject change = new JSONObject();
+                change.put("id", entry.getKey());
+                if (item.deleted) {
+                    change.put("deleted", true);
+                } else {
+                    change.put("owner", item.owner);
+                    change.put("name", item.name);
+                    change.put("threshold", item.threshold);
+                    change.put("count", countExcept(item, device));
+                }
+                out.put(change);
+            }
+            JSONObject response = new JSONObject();
+            response.put("token", String.valueOf(newToken));
+            response.put("more", more);
+            response.put("changes", out);
+            return response;
+        }
+
+        private static long countExcept(ServerItem item, String device) {
+            long count = 0;
+            for (Map.Entry<String, Long> entry : item.counts.entrySet()) {
+                if (!entry.getKey().equals(device)) {
+                    count += entry.getValue();
+                }
+            }
+            return count;
+        }
+
+        private static byte[] gzip(byte[] data) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputStream out = new GZIPOutputStream(bytes);
+            out.write(data);
+            out.close();
+            return bytes.toByteArray();
+        }
+
+        private static byte[] gunzip(byte[] data) throws IOException {
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            in.close();
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for per-location stock in {@link DatabaseHelper}: the
+ * trigger-maintained totals, transfers, and the per-location reads.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LocationStockTest {
+    private static final String TEST_DATABASE = "location_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private long backRoom;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+        backRoom = dbHelper.addLocation("Back room");
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void total_isSumOfStockAtEveryLocation() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+
+        assertEquals(4, dbHelper.adjustStock(OWNER, id, backRoom, 4));
+        assertEquals(14, dbHelper.getInventoryItem(OWNER, id).getQuantity());
+        assertEquals(10, dbHelper.getInventoryItem(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID).getQuantity());
+        assertEquals(4, dbHelper.getInventoryItem(OWNER, id, backRoom).getQuantity());
+
+        // Setting the total changes the default location only
+        assertEquals(1, dbHelper.updateInventoryItem(OWNER, id, 20));
+        assertEquals(16, dbHelper.getInventoryItem(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID).getQuantity());
+        assertEquals(4, dbHelper.getInventoryItem(OWNER, id, backRoom).getQuantity());
+        assertEquals(20, dbHelper.getInventoryItem(OWNER, id).getQuantity());
+
+        // Editing at a location sets the stock there
+        assertEquals(1, dbHelper.updateInventoryItem(OWNER, id, "Widget", 1, 2, backRoom));
+        assertEquals(17, dbHelper.getInventoryItem(OWNER, id).getQuantity());
+        assertEquals(2, dbHelper.getInventoryItem(OWNER, id, backRoom).getThreshold());
+        assertEquals(17, totalFromStockRows(id));
+    }
+
+    @Test
+    public void addInventoryItem_atLocation_stocksOnlyThere() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 7, 5, backRoom);
+
+        assertEquals(7, dbHelper.getInventoryItem(OWNER, id).getQuantity());
+        assertEquals(7, dbHelper.getInventoryItem(OWNER, id, backRoom).getQuantity());
+        assertNull(dbHelper.getInventoryItem(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID));
+    }
+
+    @Test
+    public void transferStock_movesStockAndKeepsTotal() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+
+        assertTrue(dbHelper.transferStock(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID, backRoom, 6));
+
+        assertEquals(4, dbHelper.getInventoryItem(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID).getQuantity());
+        assertEquals(6, dbHelper.getInventoryItem(OWNER, id, backRoom).getQuantity());
+        assertEquals(10, dbHelper.getInventoryItem(OWNER, id).getQuantity());
+    }
+
+    @Test
+    public void transferStock_rejectsShortSourceAndChangesNothing() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        long generation = dbHelper.getInventoryGeneration();
+
+        assertFalse(dbHelper.transferStock(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID, backRoom, 11));
+        // Unknown destination: the source was debited first, and is rolled back
+        assertFalse(dbHelper.transferStock(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID, backRoom + 100, 3));
+
+        assertEquals(10, dbHelper.getInventoryItem(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID).getQuantity());
+        assertNull(dbHelper.getInventoryItem(OWNER, id, backRoom));
+        assertEquals(10, dbHelper.getInventoryItem(OWNER, id).getQuantity());
+        assertEquals(generation, dbHelper.getInventoryGeneration());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transferStock_toSameLocation_throws() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.transferStock(OWNER, id, backRoom, backRoom, 1);
+    }
+
+    @Test
+    public void lowStock_isCheckedPerLocationAndByTotal() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.transferStock(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID, backRoom, 8);
+
+        // Two left at the default location, ten in total
+        assertEquals(1, count(dbHelper.getLowInventoryItems(OWNER, DatabaseHelper.DEFAULT_LOCATION_ID)));
+        assertEquals(0, count(dbHelper.getLowInventoryItems(OWNER, backRoom)));
+        assertEquals(0, count(dbHelper.getLowInventoryItems(OWNER)));
+
+        String plan = DatabaseTestUtils.explain(dbHelper.getReadableDatabase(), DatabaseHelper.SELECT_LOW_LOCATION_STOCK);
+        assertTrue(plan, plan.contains("USING INDEX " + DatabaseHelper.INDEX_LOCATION_STOCK_MARGIN));
+    }
+
+    @Test
+    public void inventoryPage_atLocation_pagesItsStockOnly() {
+        List<Long> stocked = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            long id = dbHelper.addInventoryItem(OWNER, "Item " + i, 3, 5);
+            if (i % 2 == 0) {
+                dbHelper.adjustStock(OWNER, id, backRoom, i + 1);
+                stocked.add(id);
+            }
+        }
+
+        for (DatabaseHelper.SortOrder sortOrder : DatabaseHelper.SortOrder.values()) {
+            List<Long> paged = new ArrayList<>();
+            InventoryItem last = null;
+            while (true) {
+                Cursor cursor = dbHelper.getInventoryPage(OWNER, last, 3, sortOrder, backRoom);
+                int rows = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    last = new InventoryItem(cursor.getLong(cursor.getColumnIndexOrThrow("id")),
+                            cursor.getString(cursor.getColumnIndexOrThrow("item_name")),
+                            cursor.getInt(cursor.getColumnIndexOrThrow("quantity")),
+                            cursor.getInt(cursor.getColumnIndexOrThrow("threshold")));
+                    paged.add(last.getId());
+                    assertEquals(dbHelper.getInventoryItem(OWNER, last.getId(), backRoom).getQuantity(),
+                            last.getQuantity());
+                }
+                cursor.close();
+                if (rows < 3) {
+                    break;
+                }
+            }
+            assertEquals(sortOrder.name(), stocked, paged);
+        }
+    }
+
+    @Test
+    public void deleteInventoryItem_removesItsStock() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.adjustStock(OWNER, id, backRoom, 3);
+
+        dbHelper.deleteInventoryItem(OWNER, id);
+
+        assertEquals(0, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT count(*) FROM location_stock WHERE item_id = ?", String.valueOf(id)));
+    }
+
+    // ========== HELPERS ==========
+
+    private long totalFromStockRows(long id) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        return DatabaseTestUtils.queryLong(db, "SELECT sum(quantity) FROM location_stock WHERE item_id = ?",
+                String.valueOf(id));
+    }
+
+    private static int count(Cursor cursor) {
+        int rows = cursor.getCount();
+        cursor.close();
+        return rows;
+    }
+}
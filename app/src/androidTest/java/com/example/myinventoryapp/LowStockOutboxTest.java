@@ -0,0 +1,318 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the low-stock outbox in {@link DatabaseHelper}: threshold
+ * crossings are recorded by triggers in the write's own transaction, and drained
+ * in batches that are acknowledged only after they were handled.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LowStockOutboxTest {
+    private static final String TAG = "LowStockOutboxTest";
+    private static final String TEST_DATABASE = "low_stock_outbox_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final int BATCH_SIZE = 10;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void crossing_isRecordedOnceEachWay() {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.addInventoryItem(OWNER, "Gadget", 20, 5);
+        // New items that are not low leave nothing to report
+        assertTrue(drain(OWNER).isEmpty());
+
+        // Down to 5 crosses, and the rest of the way stays on the same side
+        for (int i = 0; i < 10; i++) {
+            dbHelper.adjustQuantity(OWNER, widget, -1);
+        }
+        List<LowStockEvent> events = drain(OWNER);
+        assertEquals(1, events.size());
+        assertEquals(widget, events.get(0).item.getId());
+        assertTrue(events.get(0).low);
+        assertEquals(5, events.get(0).item.getQuantity());
+        assertEquals("Widget", events.get(0).item.getItemName());
+        assertTrue(drain(OWNER).isEmpty());
+
+        for (int i = 0; i < 10; i++) {
+            dbHelper.adjustQuantity(OWNER, widget, 1);
+        }
+        events = drain(OWNER);
+        assertEquals(1, events.size());
+        assertFalse(events.get(0).low);
+        assertEquals(6, events.get(0).item.getQuantity());
+        assertTrue(drain(OWNER).isEmpty());
+    }
+
+    @Test
+    public void thresholdChanges_cross_andDeletionsDropTheirEvents() {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        long gadget = dbHelper.addInventoryItem(OWNER, "Gadget", 10, 5);
+
+        assertEquals(2, dbHelper.setThresholds(OWNER, new long[]{widget, gadget}, 12, DatabaseHelper.ALL_LOCATIONS));
+        dbHelper.deleteInventoryItem(OWNER, gadget);
+
+        List<LowStockEvent> events = drain(OWNER);
+        assertEquals(1, events.size());
+        assertEquals(widget, events.get(0).item.getId());
+        assertEquals(12, events.get(0).item.getThreshold());
+
+        // Soft deletion and restore are not stock changes
+        dbHelper.softDeleteInventoryItem(OWNER, widget);
+        dbHelper.restoreInventoryItem(OWNER, widget);
+        assertTrue(drain(OWNER).isEmpty());
+    }
+
+    @Test
+    public void softDeletedItems_areHeldBackUntilRestored() {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        long gadget = dbHelper.addInventoryItem(OWNER, "Gadget", 10, 5);
+        dbHelper.adjustQuantity(OWNER, widget, -8);
+        dbHelper.adjustQuantity(OWNER, gadget, -8);
+
+        dbHelper.softDeleteInventoryItem(OWNER, widget);
+        List<LowStockEvent> events = drain(OWNER);
+        assertEquals(1, events.size());
+        assertEquals(gadget, events.get(0).item.getId());
+
+        dbHelper.restoreInventoryItem(OWNER, widget);
+        events = drain(OWNER);
+        assertEquals(1, events.size());
+        assertEquals(widget, events.get(0).item.getId());
+    }
+
+    @Test
+    public void crossingBackBeforeTheDrain_leavesNothingToReport() {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+
+        dbHelper.adjustQuantity(OWNER, widget, -8);
+        dbHelper.adjustQuantity(OWNER, widget, 8);
+        assertTrue(drain(OWNER).isEmpty());
+        assertEquals(0, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT count(*) FROM " + DatabaseHelper.TABLE_LOW_STOCK_OUTBOX));
+
+        // Once reported low, the recovery is reported even if it went low again in between
+        dbHelper.adjustQuantity(OWNER, widget, -8);
+        assertTrue(drain(OWNER).get(0).low);
+        dbHelper.adjustQuantity(OWNER, widget, 8);
+        dbHelper.adjustQuantity(OWNER, widget, -8);
+        dbHelper.adjustQuantity(OWNER, widget, 8);
+        List<LowStockEvent> events = drain(OWNER);
+        assertEquals(1, events.size());
+        assertFalse(events.get(0).low);
+    }
+
+    @Test
+    public void failedHandler_leavesTheBatchPending() {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.adjustQuantity(OWNER, widget, -8);
+
+        try {
+            dbHelper.drainLowStockEvents(OWNER, BATCH_SIZE, new LowStockEvent.Handler() {
+                @Override
+                public void handle(List<LowStockEvent> events) {
+                    throw new IllegalStateException("send failed");
+                }
+            });
+            fail("handler failure was swallowed");
+        } catch (IllegalStateException expected) {
+            // The batch is handed out again below
+        }
+
+        List<LowStockEvent> events = drain(OWNER);
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).low);
+        assertTrue(drain(OWNER).isEmpty());
+    }
+
+    @Test
+    public void crossingWhileHandled_isReportedByTheNextDrain() {
+        final long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.adjustQuantity(OWNER, widget, -8);
+
+        final List<LowStockEvent> handled = new ArrayList<>();
+        dbHelper.drainLowStockEvents(OWNER, BATCH_SIZE, new LowStockEvent.Handler() {
+            @Override
+            public void handle(List<LowStockEvent> events) {
+                handled.addAll(events);
+                // Restocked before the low event was acknowledged
+                dbHelper.adjustQuantity(OWNER, widget, 8);
+            }
+        });
+        assertEquals(1, handled.size());
+        assertTrue(handled.get(0).low);
+
+        List<LowStockEvent> events = drain(OWNER);
+        assertEquals(1, events.size());
+        assertFalse(events.get(0).low);
+        assertTrue(events.get(0).sequence > handled.get(0).sequence);
+    }
+
+    @Test
+    public void owners_drainOnlyTheirOwnEvents() {
+        long alice = dbHelper.addUser("alice", "secret");
+        long bob = dbHelper.addUser("bob", "hunter2");
+        long aliceWidget = dbHelper.addInventoryItem(alice, "Widget", 1, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+        long bobWidget = dbHelper.addInventoryItem(bob, "Widget", 1, 5, DatabaseHelper.DEFAULT_LOCATION_ID);
+
+        List<LowStockEvent> events = drain(alice);
+        assertEquals(1, events.size());
+        assertEquals(aliceWidget, events.get(0).item.getId());
+        events = drain(bob);
+        assertEquals(1, events.size());
+        assertEquals(bobWidget, events.get(0).item.getId());
+    }
+
+    @Test
+    public void burstsOfWrites_reportEachItemAlternatelyAndEndOnItsCurrentSide() throws Exception {
+        final int itemCount = 50;
+        final long[] ids = new long[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            ids[i] = dbHelper.addInventoryItem(OWNER, "Item " + i, 10, 5);
+        }
+
+        // One thread writes bursts of adjustments around the thresholds while another drains
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final Map<Long, Boolean> reported = new HashMap<>();
+        final List<String> errors = new ArrayList<>();
+        final LowStockEvent.Handler checker = new LowStockEvent.Handler() {
+            @Override
+            public void handle(List<LowStockEvent> events) {
+                for (LowStockEvent event : events) {
+                    Boolean last = reported.put(event.item.getId(), event.low);
+                    if (last == null ? !event.low : last == event.low) {
+                        errors.add("item " + event.item.getId() + " reported " + event.low + " twice");
+                    }
+                }
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> writer = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    Random random = new Random(42);
+                    int[] deltas = {-6, -1, 1, 6};
+                    int writes = 0;
+                    for (int burst = 0; burst < 100; burst++) {
+                        for (int i = 0; i < 100; i++) {
+                            dbHelper.adjustQuantity(OWNER, ids[random.nextInt(itemCount)], deltas[random.nextInt(4)]);
+                            writes++;
+                        }
+                        dbHelper.adjustStock(OWNER, ids, DatabaseHelper.ALL_LOCATIONS, burst % 2 == 0 ? -6 : 6);
+                    }
+                    writing.set(false);
+                    return writes;
+                }
+            });
+            Future<Integer> drainer = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int drained = 0;
+                    while (writing.get()) {
+                        drained += dbHelper.drainLowStockEvents(OWNER, BATCH_SIZE, checker);
+                    }
+                    return drained;
+                }
+            });
+            int writes = writer.get(2, TimeUnit.MINUTES);
+            int drained = drainer.get(2, TimeUnit.MINUTES);
+            drained += dbHelper.drainLowStockEvents(OWNER, BATCH_SIZE, checker);
+            Log.i(TAG, writes + " writes, " + drained + " events");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        for (long id : ids) {
+            InventoryItem item = dbHelper.getInventoryItem(OWNER, id);
+            boolean low = item.getQuantity() - item.getThreshold() <= 0;
+            assertEquals("item " + id, low, reported.containsKey(id) && reported.get(id));
+        }
+    }
+
+    @Test
+    public void drain_readsOnlyPendingEvents() throws IOException {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String plan = DatabaseTestUtils.explain(db, DatabaseHelper.SELECT_LOW_STOCK_EVENTS);
+        assertTrue(plan, plan.contains("INDEX " + DatabaseHelper.INDEX_LOW_STOCK_OUTBOX_PENDING));
+
+        // 10k items, a tenth of them low and already reported
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            csv.append("Item ").append(i).append(',').append(i % 10 == 0 ? 1 : 20).append(",5\n");
+        }
+        dbHelper.importInventoryCsv(OWNER, new StringReader(csv.toString()), 500);
+        assertEquals(1_000, drain(OWNER).size());
+        long id = DatabaseTestUtils.queryLong(db, "SELECT id FROM inventory WHERE item_name = 'Item 1'");
+        dbHelper.adjustQuantity(OWNER, id, -16);
+
+        long poll = SystemClock.elapsedRealtimeNanos();
+        Cursor low = dbHelper.getLowInventoryItems(OWNER, DatabaseHelper.ALL_LOCATIONS);
+        assertEquals(1_001, low.getCount());
+        low.close();
+        poll = SystemClock.elapsedRealtimeNanos() - poll;
+        long outbox = SystemClock.elapsedRealtimeNanos();
+        assertEquals(1, drain(OWNER).size());
+        outbox = SystemClock.elapsedRealtimeNanos() - outbox;
+        Log.i(TAG, String.format("One new crossing among 1000 low items: %d us to drain, %d us to query",
+                outbox / 1_000, poll / 1_000));
+    }
+
+    // ========== HELPERS ==========
+
+    private List<LowStockEvent> drain(long ownerId) {
+        final List<LowStockEvent> drained = new ArrayList<>();
+        int count = dbHelper.drainLowStockEvents(ownerId, BATCH_SIZE, new LowStockEvent.Handler() {
+            @Override
+            public void handle(List<LowStockEvent> events) {
+                drained.addAll(events);
+            }
+        });
+        assertEquals(drained.size(), count);
+        return drained;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for atomic quantity adjustments in {@link DatabaseHelper}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QuantityAdjustmentTest {
+    private static final String TEST_DATABASE = "adjustment_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final int THREADS = 8;
+    private static final int ADJUSTMENTS_PER_THREAD = 250;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void adjustQuantity_returnsNewQuantityAndRejectsGoingBelowZero() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 3, 5);
+
+        assertEquals(5, dbHelper.adjustQuantity(OWNER, id, 2));
+        assertEquals(0, dbHelper.adjustQuantity(OWNER, id, -5));
+        assertEquals(DatabaseHelper.ADJUSTMENT_REJECTED, dbHelper.adjustQuantity(OWNER, id, -1));
+        assertEquals(0, dbHelper.getInventoryItem(OWNER, id).getQuantity());
+        assertEquals(DatabaseHelper.ADJUSTMENT_REJECTED, dbHelper.adjustQuantity(OWNER, id + 1, 1));
+    }
+
+    @Test
+    public void concurrentAdjustments_loseNoUpdates() throws Exception {
+        final long id = dbHelper.addInventoryItem(OWNER, "Widget", 1000, 5);
+
+        // Every thread adds its index each round and takes one away every other round
+        List<Future<Integer>> futures = runOnAllThreads(new Adjustment() {
+            @Override
+            public int delta(int thread, int round) {
+                return round % 2 == 0 ? thread + 1 : -1;
+            }
+        }, id);
+
+        int expected = 1000;
+        for (int thread = 0; thread < THREADS; thread++) {
+            for (int round = 0; round < ADJUSTMENTS_PER_THREAD; round++) {
+                expected += round % 2 == 0 ? thread + 1 : -1;
+            }
+        }
+        for (Future<Integer> future : futures) {
+            assertEquals(ADJUSTMENTS_PER_THREAD, (int) future.get());
+        }
+        assertEquals(expected, readQuantity(id));
+        assertEquals(expected, dbHelper.getInventoryItem(OWNER, id).getQuantity());
+    }
+
+    @Test
+    public void concurrentDecrements_stopExactlyAtZero() throws Exception {
+        final int stock = THREADS * ADJUSTMENTS_PER_THREAD / 2;
+        final long id = dbHelper.addInventoryItem(OWNER, "Widget", stock, 5);
+
+        List<Future<Integer>> futures = runOnAllThreads(new Adjustment() {
+            @Override
+            public int delta(int thread, int round) {
+                return -1;
+            }
+        }, id);
+
+        int applied = 0;
+        for (Future<Integer> future : futures) {
+            applied += future.get();
+        }
+        assertEquals(stock, applied);
+        assertEquals(0, readQuantity(id));
+    }
+
+    // ========== HELPERS ==========
+
+    private interface Adjustment {
+        int delta(int thread, int round);
+    }
+
+    /**
+     * Runs ADJUSTMENTS_PER_THREAD adjustments on every thread at once.
+     * Each future yields how many of its adjustments were applied.
+     */
+    private List<Future<Integer>> runOnAllThreads(final Adjustment adjustment, final long id) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws InterruptedException {
+                    start.await();
+                    int applied = 0;
+                    for (int round = 0; round < ADJUSTMENTS_PER_THREAD; round++) {
+                        if (dbHelper.adjustQuantity(OWNER, id, adjustment.delta(thread, round))
+                                != DatabaseHelper.ADJUSTMENT_REJECTED) {
+                            applied++;
+                        }
+                    }
+                    return applied;
+                }
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(120, TimeUnit.SECONDS));
+        return futures;
+    }
+
+    private int readQuantity(long id) {
+        return (int) DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT quantity FROM inventory WHERE id = ?", String.valueOf(id));
+    }
+}
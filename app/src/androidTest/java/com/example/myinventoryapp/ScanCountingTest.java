@@ -0,0 +1,209 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for counting stock by barcode: lookups by SKU in
+ * {@link DatabaseHelper}, the batched scan write, and {@link ScanSession}
+ * keeping up with bursts of synthetic scans.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanCountingTest {
+    private static final String TAG = "ScanCountingTest";
+    private static final String TEST_DATABASE = "scan_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+
+    // Synthetic scan load for the throughput test
+    private static final int SKU_COUNT = 200;
+    private static final int BURSTS = 40;
+    private static final int SCANS_PER_BURST = 500;
+    private static final int BATCH_SIZE = 250;
+    private static final long FRAME_MILLIS = 16;
+    private static final long TIMEOUT_MILLIS = 30_000;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void getInventoryItemBySku_seeksSkuIndex() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.addInventoryItem(OWNER, "Gadget", 3, 5);
+        assertEquals(1, dbHelper.setInventorySku(OWNER, id, "4006381333931"));
+
+        assertEquals(id, dbHelper.getInventoryItemBySku(OWNER, "4006381333931").getId());
+        assertNull(dbHelper.getInventoryItemBySku(OWNER, "4006381333932"));
+
+        String plan = DatabaseTestUtils.explain(dbHelper.getReadableDatabase(), DatabaseHelper.SELECT_ID_BY_SKU);
+        assertTrue(plan, plan.contains("INDEX " + DatabaseHelper.INDEX_INVENTORY_SKU + " (sku=?)"));
+    }
+
+    @Test
+    public void setInventorySku_isUniqueAndCanBeCleared() {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        long gadget = dbHelper.addInventoryItem(OWNER, "Gadget", 3, 5);
+
+        assertEquals(1, dbHelper.setInventorySku(OWNER, widget, "A-1"));
+        assertEquals(0, dbHelper.setInventorySku(OWNER, gadget, "A-1"));
+        assertEquals(widget, dbHelper.getInventoryItemBySku(OWNER, "A-1").getId());
+
+        // Cleared SKUs are NULL, which any number of items may have
+        assertEquals(1, dbHelper.setInventorySku(OWNER, widget, ""));
+        assertEquals(1, dbHelper.setInventorySku(OWNER, gadget, "A-1"));
+        assertEquals(gadget, dbHelper.getInventoryItemBySku(OWNER, "A-1").getId());
+        assertEquals(0, dbHelper.setInventorySku(OWNER, gadget + 100, "B-2"));
+    }
+
+    @Test
+    public void applyScanCounts_addsStockAndReportsUnknownSkus() {
+        long backRoom = dbHelper.addLocation("Back room");
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        long gadget = dbHelper.addInventoryItem(OWNER, "Gadget", 3, 5);
+        dbHelper.setInventorySku(OWNER, widget, "W");
+        dbHelper.setInventorySku(OWNER, gadget, "G");
+        // Warm the cache, so the test also sees it dropped
+        dbHelper.getInventoryItem(OWNER, widget);
+
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put("W", 4);
+        counts.put("G", 2);
+        counts.put("X", 7);
+        assertEquals(Collections.singletonList("X"), dbHelper.applyScanCounts(OWNER, counts, backRoom));
+        counts.remove("X");
+        assertEquals(Collections.emptyList(), dbHelper.applyScanCounts(OWNER, counts, DatabaseHelper.ALL_LOCATIONS));
+
+        assertEquals(18, dbHelper.getInventoryItem(OWNER, widget).getQuantity());
+        assertEquals(4, dbHelper.getInventoryItem(OWNER, widget, backRoom).getQuantity());
+        assertEquals(14, dbHelper.getInventoryItem(OWNER, widget, DatabaseHelper.DEFAULT_LOCATION_ID).getQuantity());
+        assertEquals(7, dbHelper.getInventoryItem(OWNER, gadget).getQuantity());
+
+        List<String> reasons = new ArrayList<>();
+        Cursor cursor = dbHelper.getStockMovements(OWNER, widget, 0, Long.MAX_VALUE);
+        while (cursor.moveToNext()) {
+            reasons.add(cursor.getString(cursor.getColumnIndexOrThrow("reason")));
+        }
+        cursor.close();
+        assertEquals(Arrays.asList("INITIAL", "SCAN", "SCAN"), reasons);
+    }
+
+    @Test
+    public void scanSession_keepsUpWithBurstsOfScans() throws InterruptedException {
+        final List<String> skus = new ArrayList<>();
+        long[] ids = new long[SKU_COUNT];
+        for (int i = 0; i < SKU_COUNT; i++) {
+            skus.add(String.format(Locale.US, "%013d", 4_000_000_000_000L + i));
+            ids[i] = dbHelper.addInventoryItem(OWNER, "Item " + i, 0, 5);
+            dbHelper.setInventorySku(OWNER, ids[i], skus.get(i));
+        }
+
+        final int totalScans = BURSTS * SCANS_PER_BURST;
+        final CountDownLatch allFlushed = new CountDownLatch(1);
+        final AtomicInteger flushedScans = new AtomicInteger();
+        final AtomicInteger flushes = new AtomicInteger();
+        final Set<String> unknown = new HashSet<>();
+        final ScanSession[] session = new ScanSession[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                session[0] = new ScanSession(new InventoryRepository(dbHelper, OWNER), new ScanSession.Listener() {
+                    @Override
+                    public void onScansFlushed(int scans, List<String> unknownSkus) {
+                        flushes.incrementAndGet();
+                        unknown.addAll(unknownSkus);
+                        if (flushedScans.addAndGet(scans) + unknown.size() >= totalScans) {
+                            allFlushed.countDown();
+                        }
+                    }
+                }, ScanSession.DEFAULT_IDLE_MILLIS, BATCH_SIZE);
+            }
+        });
+
+        // Every burst goes to the main thread at once, as a scanner emptying its buffer would.
+        // One scan per burst is of a code no item has.
+        Random random = new Random(7);
+        final int[] expected = new int[SKU_COUNT];
+        long slowestBurst = 0;
+        long start = SystemClock.elapsedRealtime();
+        for (int burst = 0; burst < BURSTS; burst++) {
+            final String[] codes = new String[SCANS_PER_BURST];
+            for (int i = 0; i < SCANS_PER_BURST - 1; i++) {
+                int sku = random.nextInt(SKU_COUNT);
+                expected[sku]++;
+                codes[i] = skus.get(sku);
+            }
+            codes[SCANS_PER_BURST - 1] = "unknown-" + burst;
+
+            final long[] burstMillis = new long[1];
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    long burstStart = SystemClock.elapsedRealtime();
+                    for (String code : codes) {
+                        session[0].scan(code);
+                    }
+                    burstMillis[0] = SystemClock.elapsedRealtime() - burstStart;
+                }
+            });
+            slowestBurst = Math.max(slowestBurst, burstMillis[0]);
+        }
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                session[0].flush();
+            }
+        });
+
+        assertTrue("scans still unwritten", allFlushed.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, totalScans + " scans in " + flushes.get() + " transactions, " + elapsed + " ms ("
+                + (totalScans * 1000L / Math.max(elapsed, 1)) + " scans/s); slowest burst of "
+                + SCANS_PER_BURST + " took " + slowestBurst + " ms on the main thread");
+
+        assertEquals(totalScans - BURSTS, flushedScans.get());
+        assertEquals(BURSTS, unknown.size());
+        for (int i = 0; i < SKU_COUNT; i++) {
+            assertEquals(skus.get(i), expected[i], dbHelper.getInventoryItem(OWNER, ids[i]).getQuantity());
+        }
+        assertTrue(flushes.get() <= totalScans / BATCH_SIZE + 1);
+        assertTrue("burst took " + slowestBurst + " ms", slowestBurst < FRAME_MILLIS);
+    }
+}
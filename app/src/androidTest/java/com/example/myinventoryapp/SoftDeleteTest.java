@@ -0,0 +1,259 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for soft deletion in {@link DatabaseHelper}: deleted items
+ * are left out of every read until restored, and purged for good in batches.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SoftDeleteTest {
+    private static final String TEST_DATABASE = "soft_delete_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final long MINUTE = 60_000;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private long now;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        now = 1_000 * MINUTE;
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE, DatabaseHelper.DEFAULT_CACHE_CAPACITY, clock());
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void softDeletedItem_isLeftOutOfEveryRead() throws IOException {
+        long backRoom = dbHelper.addLocation("Back room");
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 2, 5);
+        dbHelper.adjustStock(OWNER, widget, backRoom, 1);
+        dbHelper.setInventorySku(OWNER, widget, "4006381333931");
+        long gadget = dbHelper.addInventoryItem(OWNER, "Gadget", 1, 5);
+        assertNotNull(dbHelper.getInventoryItem(OWNER, widget));
+        long generation = dbHelper.getInventoryGeneration();
+
+        assertEquals(1, dbHelper.softDeleteInventoryItem(OWNER, widget));
+        assertEquals(0, dbHelper.softDeleteInventoryItem(OWNER, widget));
+
+        assertNull(dbHelper.getInventoryItem(OWNER, widget));
+        assertNull(dbHelper.getInventoryItem(OWNER, widget, backRoom));
+        assertNull(dbHelper.getInventoryItemBySku(OWNER, "4006381333931"));
+        assertEquals(List.of(gadget), ids(dbHelper.getAllInventoryItems(OWNER)));
+        assertEquals(List.of(gadget), ids(dbHelper.getLowInventoryItems(OWNER)));
+        assertTrue(ids(dbHelper.getLowInventoryItems(OWNER, backRoom)).isEmpty());
+        assertTrue(ids(dbHelper.searchInventory(OWNER, "widget", 10, null)).isEmpty());
+        for (DatabaseHelper.SortOrder sortOrder : DatabaseHelper.SortOrder.values()) {
+            for (DatabaseHelper.StockFilter filter : DatabaseHelper.StockFilter.values()) {
+                String page = sortOrder + "/" + filter;
+                assertEquals(page, List.of(gadget), ids(dbHelper.getInventoryPage(OWNER, null, 10, sortOrder, filter,
+                        DatabaseHelper.ALL_LOCATIONS)));
+                assertTrue(page, ids(dbHelper.getInventoryPage(OWNER, null, 10, sortOrder, filter, backRoom)).isEmpty());
+            }
+        }
+        StringWriter csv = new StringWriter();
+        assertEquals(1, dbHelper.exportInventoryCsv(OWNER, csv));
+        assertFalse(csv.toString().contains("Widget"));
+
+        // Screens following changes see a deletion
+        assertTrue(ids(dbHelper.getInventoryChangesSince(OWNER, generation)).isEmpty());
+        assertEquals(List.of(widget), ids(dbHelper.getInventoryDeletionsSince(OWNER, generation)));
+    }
+
+    @Test
+    public void restore_bringsBackTheItemAsItWas() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.softDeleteInventoryItem(OWNER, id);
+        long generation = dbHelper.getInventoryGeneration();
+
+        assertEquals(1, dbHelper.restoreInventoryItem(OWNER, id));
+        assertEquals(0, dbHelper.restoreInventoryItem(OWNER, id));
+
+        InventoryItem restored = dbHelper.getInventoryItem(OWNER, id);
+        assertEquals("Widget", restored.getItemName());
+        assertEquals(10, restored.getQuantity());
+        assertEquals(List.of(id), ids(dbHelper.getInventoryChangesSince(OWNER, generation)));
+        // Nothing was deleted as far as the ledger and sync know
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        assertEquals(0, DatabaseTestUtils.queryLong(db,
+                "SELECT count(*) FROM stock_movements WHERE reason = 'DELETION'"));
+        assertEquals(0, DatabaseTestUtils.queryLong(db, "SELECT deleted FROM sync_items WHERE item_id = ?",
+                String.valueOf(id)));
+    }
+
+    @Test
+    public void deletedItem_cannotBeEdited() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.softDeleteInventoryItem(OWNER, id);
+
+        assertEquals(0, dbHelper.updateInventoryItem(OWNER, id, "Widget XL", 3, 1));
+        assertEquals(0, dbHelper.updateInventoryItem(OWNER, id, 3));
+        assertEquals(0, dbHelper.setInventorySku(OWNER, id, "4006381333931"));
+
+        dbHelper.restoreInventoryItem(OWNER, id);
+        InventoryItem item = dbHelper.getInventoryItem(OWNER, id);
+        assertEquals("Widget", item.getItemName());
+        assertEquals(10, item.getQuantity());
+        // Nothing was recorded for the rejected quantity update
+        assertEquals(1, DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                "SELECT count(*) FROM " + DatabaseHelper.TABLE_STOCK_MOVEMENTS + " WHERE item_id = " + id));
+    }
+
+    @Test
+    public void nameAndSkuOfDeletedItem_canBeTakenAtOnce() {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.setInventorySku(OWNER, widget, "4006381333931");
+        long gadget = dbHelper.addInventoryItem(OWNER, "Gadget", 1, 5);
+        dbHelper.setInventorySku(OWNER, gadget, "4006381333948");
+        dbHelper.softDeleteInventoryItem(OWNER, widget);
+        dbHelper.softDeleteInventoryItem(OWNER, gadget);
+
+        // The deleted holders are purged, so they can no longer be restored
+        long newWidget = dbHelper.addInventoryItem(OWNER, "Widget", 3, 5);
+        assertNotEquals(-1, newWidget);
+        assertEquals(0, dbHelper.restoreInventoryItem(OWNER, widget));
+
+        assertEquals(1, dbHelper.setInventorySku(OWNER, newWidget, "4006381333948"));
+        assertEquals(0, dbHelper.restoreInventoryItem(OWNER, gadget));
+        assertEquals(newWidget, dbHelper.getInventoryItemBySku(OWNER, "4006381333948").getId());
+    }
+
+    @Test
+    public void importingDeletedItem_restoresIt() throws IOException {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        dbHelper.softDeleteInventoryItem(OWNER, id);
+
+        dbHelper.importInventoryCsv(OWNER, new StringReader("Widget,7,2\n"), 10);
+
+        InventoryItem imported = dbHelper.getInventoryItem(OWNER, id);
+        assertEquals(7, imported.getQuantity());
+        assertEquals(2, imported.getThreshold());
+    }
+
+    @Test
+    public void purgeDeletedItems_deletesForGoodInBatches() {
+        List<Long> deleted = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            long id = dbHelper.addInventoryItem(OWNER, "Item " + i, 4, 5);
+            if (i % 2 == 0) {
+                dbHelper.softDeleteInventoryItem(OWNER, id);
+                deleted.add(id);
+            }
+        }
+        // Deleted after the cutoff, so still within its undo window
+        now += DatabaseHelper.TOMBSTONE_RETENTION_MILLIS;
+        long recent = dbHelper.addInventoryItem(OWNER, "Recent", 1, 5);
+        dbHelper.softDeleteInventoryItem(OWNER, recent);
+
+        assertEquals(deleted.size(), dbHelper.purgeDeletedItems());
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        assertEquals(500, DatabaseTestUtils.queryLong(db, "SELECT count(*) FROM inventory WHERE deleted_at IS NULL"));
+        assertEquals(0, dbHelper.restoreInventoryItem(OWNER, deleted.get(0)));
+        assertEquals(1, dbHelper.restoreInventoryItem(OWNER, recent));
+        // Purging is a real deletion: stock goes to the ledger and sync pushes it
+        assertEquals(deleted.size(), DatabaseTestUtils.queryLong(db,
+                "SELECT count(*) FROM stock_movements WHERE reason = 'DELETION'"));
+        assertEquals(deleted.size(), DatabaseTestUtils.queryLong(db,
+                "SELECT count(*) FROM sync_items WHERE deleted = 1 AND dirty = 1"));
+
+        String plan = DatabaseTestUtils.explain(db, DatabaseHelper.SELECT_PURGEABLE_ITEMS);
+        assertTrue(plan, plan.contains("INDEX " + DatabaseHelper.INDEX_INVENTORY_TOMBSTONES));
+    }
+
+    @Test
+    public void purgeDeletedItems_givesFreePagesBack() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals(2, DatabaseTestUtils.queryLong(db, "PRAGMA auto_vacuum"));
+
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            longName.append("padding ");
+        }
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            ids.add(dbHelper.addInventoryItem(OWNER, longName + String.valueOf(i), 4, 5));
+        }
+        long pagesBefore = DatabaseTestUtils.queryLong(db, "PRAGMA page_count");
+        for (long id : ids) {
+            dbHelper.softDeleteInventoryItem(OWNER, id);
+        }
+
+        assertEquals(ids.size(), dbHelper.purgeDeletedItems(now, 100));
+
+        assertEquals(0, DatabaseTestUtils.queryLong(db, "PRAGMA freelist_count"));
+        assertTrue(DatabaseTestUtils.queryLong(db, "PRAGMA page_count") < pagesBefore);
+    }
+
+    @Test
+    public void lowStockPages_readIndexesWithoutDeletedItems() {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        for (DatabaseHelper.SortOrder sortOrder : DatabaseHelper.SortOrder.values()) {
+            String plan = DatabaseTestUtils.explain(db,
+                    DatabaseHelper.inventoryPageSql(sortOrder, DatabaseHelper.StockFilter.LOW_STOCK, true));
+            assertTrue(sortOrder + ": " + plan, plan.contains("INDEX idx_inventory_low_"));
+        }
+    }
+
+    // ========== HELPERS ==========
+
+    private static List<Long> ids(Cursor cursor) {
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private Clock clock() {
+        return new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(now);
+            }
+        };
+    }
+}
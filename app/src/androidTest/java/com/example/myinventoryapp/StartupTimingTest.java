@@ -0,0 +1,214 @@
+package com.example.myinventoryapp;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.ViewGroup;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures startup: time to the login screen's first frame, and time to the
+ * first inventory row with and without the first page prefetched at login.
+ *
+ * The activities use the app's own database, so the rows added here are
+ * removed again afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupTimingTest {
+    private static final String TAG = "StartupTimingTest";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final int ITEM_COUNT = 200;
+    private static final long TIMEOUT_MILLIS = 5_000;
+    private static final long POLL_MILLIS = 5;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private final List<Long> addedIds = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbHelper = DatabaseHelper.getInstance(context);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            addedIds.add(dbHelper.addInventoryItem(OWNER, "Startup item " + i, 10, 5));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (long id : addedIds) {
+            dbHelper.deleteInventoryItem(OWNER, id);
+        }
+    }
+
+    @Test
+    public void loginScreen_timeToFirstFrame() throws InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+        ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class);
+        try {
+            long firstFrame = awaitFirstFrame(scenario) - start;
+            Log.i(TAG, "Login screen: first frame after " + firstFrame + " ms");
+            assertTrue("first frame took " + firstFrame + " ms", firstFrame < TIMEOUT_MILLIS);
+        } finally {
+            scenario.close();
+        }
+    }
+
+    @Test
+    public void inventoryScreen_timeToFirstRow() throws InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+        ActivityScenario<InventoryActivity> scenario = ActivityScenario.launch(inventoryIntent());
+        try {
+            long firstFrame = awaitFirstFrame(scenario) - start;
+            long firstRow = awaitFirstRow(scenario) - start;
+            Log.i(TAG, "Inventory screen: first frame after " + firstFrame + " ms, first row after " + firstRow + " ms");
+            assertTrue("first row took " + firstRow + " ms", firstRow < TIMEOUT_MILLIS);
+        } finally {
+            scenario.close();
+        }
+    }
+
+    @Test
+    public void inventoryScreen_withPrefetch_showsRowsInFirstFrame() throws Exception {
+        // What the login screen does once the credentials are accepted, finished before launch
+        InventoryRepository repository = new InventoryRepository(context, OWNER);
+        long prefetchStart = SystemClock.elapsedRealtime();
+        InventoryRepository.DatabaseTask<InventoryChanges> prefetch = repository.prefetchInventory(
+                InventoryActivity.PAGE_SIZE, InventoryActivity.SORT_ORDER);
+        prefetch.get();
+        long prefetchMillis = SystemClock.elapsedRealtime() - prefetchStart;
+        InventoryPrefetch.put(prefetch, repository.getOwnerId(), InventoryActivity.PAGE_SIZE,
+                InventoryActivity.SORT_ORDER);
+
+        long start = SystemClock.elapsedRealtime();
+        ActivityScenario<InventoryActivity> scenario = ActivityScenario.launch(inventoryIntent());
+        try {
+            AtomicBoolean rowsInFirstFrame = new AtomicBoolean();
+            long firstFrame = awaitFirstFrame(scenario, rowsInFirstFrame) - start;
+            Log.i(TAG, "Inventory screen with prefetch (" + prefetchMillis + " ms): first frame after "
+                    + firstFrame + " ms");
+            assertTrue("prefetched rows missing from the first frame", rowsInFirstFrame.get());
+            assertNull("prefetch was not taken", InventoryPrefetch.take(repository.getOwnerId(),
+                    InventoryActivity.PAGE_SIZE, InventoryActivity.SORT_ORDER));
+        } finally {
+            scenario.close();
+        }
+    }
+
+    @Test
+    public void inventoryScreen_withFailedPrefetch_loadsThePageItself() throws Exception {
+        // A prefetch still in flight when the screen opens, which then fails
+        InventoryRepository.DatabaseTask<InventoryChanges> prefetch = new InventoryRepository.DatabaseTask<>(
+                new Callable<InventoryChanges>() {
+                    @Override
+                    public InventoryChanges call() throws IOException {
+                        throw new IOException("prefetch failed");
+                    }
+                });
+        InventoryPrefetch.put(prefetch, OWNER, InventoryActivity.PAGE_SIZE, InventoryActivity.SORT_ORDER);
+
+        ActivityScenario<InventoryActivity> scenario = ActivityScenario.launch(inventoryIntent());
+        try {
+            awaitFirstFrame(scenario);
+            prefetch.run();
+            awaitFirstRow(scenario);
+        } finally {
+            scenario.close();
+        }
+    }
+
+    // ========== HELPERS ==========
+
+    // What the login screen starts, for the owner of the items added here
+    private Intent inventoryIntent() {
+        return new Intent(context, InventoryActivity.class).putExtra(InventoryActivity.EXTRA_OWNER_ID, OWNER);
+    }
+
+    private static <A extends Activity> long awaitFirstFrame(ActivityScenario<A> scenario)
+            throws InterruptedException {
+        return awaitFirstFrame(scenario, null);
+    }
+
+    /**
+     * Returns the elapsedRealtime at which the activity's first frame had been drawn,
+     * and whether the inventory list had rows by then, if it has one.
+     * A runnable posted to the decor view runs in the next traversal; posting again
+     * from there runs after that frame.
+     */
+    private static <A extends Activity> long awaitFirstFrame(ActivityScenario<A> scenario,
+                                                             final AtomicBoolean hadRows)
+            throws InterruptedException {
+        final CountDownLatch drawn = new CountDownLatch(1);
+        final long[] time = new long[1];
+        final Handler handler = new Handler(Looper.getMainLooper());
+        scenario.onActivity(new ActivityScenario.ActivityAction<A>() {
+            @Override
+            public void perform(A activity) {
+                final ViewGroup list = activity.findViewById(R.id.inventoryList);
+                activity.getWindow().getDecorView().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                time[0] = SystemClock.elapsedRealtime();
+                                if (hadRows != null && list != null) {
+                                    hadRows.set(list.getChildCount() > 0);
+                                }
+                                drawn.countDown();
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        assertTrue(drawn.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        return time[0];
+    }
+
+    /**
+     * Polls until the inventory list has laid out a row; returns the elapsedRealtime it did
+     */
+    private static long awaitFirstRow(ActivityScenario<InventoryActivity> scenario) throws InterruptedException {
+        final AtomicBoolean hasRow = new AtomicBoolean();
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<InventoryActivity>() {
+                @Override
+                public void perform(InventoryActivity activity) {
+                    RecyclerView list = activity.findViewById(R.id.inventoryList);
+                    hasRow.set(list.getChildCount() > 0);
+                }
+            });
+            if (hasRow.get()) {
+                return SystemClock.elapsedRealtime();
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        fail("no inventory row within " + TIMEOUT_MILLIS + " ms");
+        return -1;
+    }
+}
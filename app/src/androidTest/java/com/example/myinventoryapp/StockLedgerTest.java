@@ -0,0 +1,266 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the stock movement ledger in {@link DatabaseHelper}:
+ * what the writes record, point-in-time stock before and after compaction, and
+ * query times on a ledger with millions of movements.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StockLedgerTest {
+    private static final String TAG = "StockLedgerTest";
+    private static final String TEST_DATABASE = "ledger_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final long DAY = DatabaseHelper.SNAPSHOT_INTERVAL_MILLIS;
+    private static final long HOUR = DAY / 24;
+
+    // Size of the seeded ledger in the query time test
+    private static final int LARGE_LEDGER_SIZE = 2_000_000;
+    private static final int LARGE_LEDGER_ITEMS = 1_000;
+    private static final int LARGE_LEDGER_DAYS = 365;
+    private static final long QUERY_TIME_LIMIT_MILLIS = 100;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private long now;
+    private long backRoom;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        now = 1_000 * DAY;
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE, DatabaseHelper.DEFAULT_CACHE_CAPACITY, clock());
+        backRoom = dbHelper.addLocation("Back room");
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void stockWrites_recordMovementsWithReasons() {
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        now += HOUR;
+        dbHelper.adjustQuantity(OWNER, id, -3);
+        now += HOUR;
+        dbHelper.updateInventoryItem(OWNER, id, 12);
+        now += HOUR;
+        dbHelper.transferStock(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID, backRoom, 4);
+        // Rejected and no-op writes leave no movement
+        dbHelper.adjustQuantity(OWNER, id, -100);
+        dbHelper.updateInventoryItem(OWNER, id, 12);
+        now += HOUR;
+        dbHelper.deleteInventoryItem(OWNER, id);
+
+        List<String> movements = new ArrayList<>();
+        Cursor cursor = dbHelper.getStockMovements(OWNER, id, 0, Long.MAX_VALUE);
+        while (cursor.moveToNext()) {
+            movements.add(cursor.getString(cursor.getColumnIndexOrThrow("reason"))
+                    + " " + cursor.getLong(cursor.getColumnIndexOrThrow("location_id"))
+                    + " " + cursor.getInt(cursor.getColumnIndexOrThrow("delta")));
+        }
+        cursor.close();
+
+        long main = DatabaseHelper.DEFAULT_LOCATION_ID;
+        assertEquals(Arrays.asList(
+                "INITIAL " + main + " 10",
+                "ADJUSTMENT " + main + " -3",
+                "CORRECTION " + main + " 5",
+                "TRANSFER " + main + " -4",
+                "TRANSFER " + backRoom + " 4",
+                "DELETION " + main + " -8",
+                "DELETION " + backRoom + " -4"), movements);
+    }
+
+    @Test
+    public void getStockAt_replaysMovementsUpToTime() {
+        long start = now;
+        long id = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        now += HOUR;
+        dbHelper.adjustStock(OWNER, id, backRoom, 6);
+        now += HOUR;
+        dbHelper.adjustQuantity(OWNER, id, -7);
+
+        assertEquals(0, dbHelper.getStockAt(OWNER, id, DatabaseHelper.ALL_LOCATIONS, start - 1));
+        assertEquals(10, dbHelper.getStockAt(OWNER, id, DatabaseHelper.ALL_LOCATIONS, start));
+        assertEquals(16, dbHelper.getStockAt(OWNER, id, DatabaseHelper.ALL_LOCATIONS, start + HOUR));
+        assertEquals(9, dbHelper.getStockAt(OWNER, id, DatabaseHelper.ALL_LOCATIONS, now));
+        assertEquals(3, dbHelper.getStockAt(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID, now));
+        assertEquals(6, dbHelper.getStockAt(OWNER, id, backRoom, now));
+    }
+
+    @Test
+    public void compactLedger_keepsStockHistory() {
+        Random random = new Random(42);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(dbHelper.addInventoryItem(OWNER, "Item " + i, 20, 5));
+        }
+
+        // 30 days of random movements, a few an hour; remember each item's stock at every day's end
+        long start = now;
+        long[][] stockAtDayEnd = new long[30][ids.size()];
+        for (int day = 0; day < 30; day++) {
+            for (int hour = 0; hour < 24; hour += 1 + random.nextInt(3)) {
+                now = start + day * DAY + hour * HOUR;
+                long id = ids.get(random.nextInt(ids.size()));
+                if (random.nextBoolean()) {
+                    dbHelper.adjustStock(OWNER, id, random.nextBoolean() ? backRoom : DatabaseHelper.DEFAULT_LOCATION_ID,
+                            random.nextInt(11) - 4);
+                } else {
+                    dbHelper.transferStock(OWNER, id, DatabaseHelper.DEFAULT_LOCATION_ID, backRoom, 1 + random.nextInt(3));
+                }
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                stockAtDayEnd[day][i] = dbHelper.getStockAt(OWNER, ids.get(i), DatabaseHelper.ALL_LOCATIONS,
+                        start + (day + 1) * DAY - 1);
+            }
+        }
+        long movementsBefore = countMovements();
+        long probe = start + 25 * DAY + 5 * HOUR;
+        List<Integer> stockAtProbe = new ArrayList<>();
+        for (long id : ids) {
+            stockAtProbe.add(dbHelper.getStockAt(OWNER, id, backRoom, probe));
+        }
+
+        int folded = dbHelper.compactLedger(start + 20 * DAY);
+
+        assertTrue(folded > 0);
+        assertEquals(movementsBefore - folded, countMovements());
+        assertEquals(0, dbHelper.compactLedger(start + 20 * DAY));
+        for (int i = 0; i < ids.size(); i++) {
+            long id = ids.get(i);
+            // Exact after the cutoff, at day ends before it
+            assertEquals(stockAtProbe.get(i).intValue(), dbHelper.getStockAt(OWNER, id, backRoom, probe));
+            for (int day = 0; day < 30; day++) {
+                assertEquals("item " + i + " day " + day, stockAtDayEnd[day][i],
+                        dbHelper.getStockAt(OWNER, id, DatabaseHelper.ALL_LOCATIONS, start + (day + 1) * DAY - 1));
+            }
+            // The ledger still adds up to the current stock
+            assertEquals(dbHelper.getInventoryItem(OWNER, id).getQuantity(),
+                    dbHelper.getStockAt(OWNER, id, DatabaseHelper.ALL_LOCATIONS, now));
+        }
+        Cursor recent = dbHelper.getStockMovements(OWNER, start + 19 * DAY, start + 21 * DAY);
+        while (recent.moveToNext()) {
+            assertTrue(recent.getLong(recent.getColumnIndexOrThrow("created_at")) >= start + 20 * DAY);
+        }
+        recent.close();
+    }
+
+    @Test
+    public void largeLedger_pointInTimeAndRangeQueriesUseIndexes() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long start = now - LARGE_LEDGER_DAYS * DAY;
+        long seedStart = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            // The items themselves, so getStockAt() finds them to be the owner's
+            db.execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < ?)"
+                    + " INSERT INTO inventory (id, owner_id, item_name, quantity, threshold)"
+                    + " SELECT i, ?, 'Item ' || i, 0, 0 FROM n",
+                    new Object[]{LARGE_LEDGER_ITEMS, OWNER});
+            db.execSQL("WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i < ?)"
+                    + " INSERT INTO stock_movements (item_id, location_id, delta, reason, created_at)"
+                    + " SELECT 1 + i % ?, 1 + (i / ?) % 2, (i % 7) - 2, 'ADJUSTMENT', ? + i * ? FROM n",
+                    new Object[]{LARGE_LEDGER_SIZE - 1, LARGE_LEDGER_ITEMS, LARGE_LEDGER_ITEMS, start,
+                            LARGE_LEDGER_DAYS * DAY / LARGE_LEDGER_SIZE});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.i(TAG, "Seeded " + LARGE_LEDGER_SIZE + " movements in " + (SystemClock.elapsedRealtime() - seedStart) + " ms");
+
+        assertNoLedgerScan(DatabaseTestUtils.explain(db, DatabaseHelper.SELECT_STOCK_AT));
+        assertNoLedgerScan(DatabaseTestUtils.explain(db, DatabaseHelper.SELECT_STOCK_MOVEMENTS));
+        assertNoLedgerScan(DatabaseTestUtils.explain(db, DatabaseHelper.SELECT_ITEM_STOCK_MOVEMENTS));
+
+        // Before compaction: the item's movements up to the time are summed off its index
+        long midYear = start + LARGE_LEDGER_DAYS / 2 * DAY;
+        long beforeCompaction = timeStockAt(midYear);
+
+        long compactStart = SystemClock.elapsedRealtime();
+        int folded = dbHelper.compactLedger(now - 30 * DAY);
+        Log.i(TAG, "Folded " + folded + " movements in " + (SystemClock.elapsedRealtime() - compactStart) + " ms");
+        long afterCompaction = timeStockAt(now - HOUR);
+
+        long rangeStart = SystemClock.elapsedRealtime();
+        Cursor range = dbHelper.getStockMovements(OWNER, now - 2 * DAY, now - DAY);
+        int rows = range.getCount();
+        range.close();
+        long rangeMillis = SystemClock.elapsedRealtime() - rangeStart;
+
+        Log.i(TAG, "getStockAt " + beforeCompaction + " ms before compaction, " + afterCompaction + " ms after;"
+                + " one day of movements (" + rows + " rows) in " + rangeMillis + " ms");
+        assertTrue(rows > 0);
+        assertTrue(afterCompaction < QUERY_TIME_LIMIT_MILLIS);
+        assertTrue(rangeMillis < QUERY_TIME_LIMIT_MILLIS);
+    }
+
+    // ========== HELPERS ==========
+
+    private Clock clock() {
+        return new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(now);
+            }
+        };
+    }
+
+    private long countMovements() {
+        return DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(), "SELECT count(*) FROM stock_movements");
+    }
+
+    /**
+     * Returns the time, in ms, to read the stock of a few items at a time
+     */
+    private long timeStockAt(long timeMillis) {
+        long start = SystemClock.elapsedRealtime();
+        for (int item = 1; item <= 10; item++) {
+            dbHelper.getStockAt(OWNER, item, DatabaseHelper.ALL_LOCATIONS, timeMillis);
+        }
+        return (SystemClock.elapsedRealtime() - start) / 10;
+    }
+
+    private static void assertNoLedgerScan(String plan) {
+        assertFalse(plan, plan.contains("SCAN stock_movements"));
+        assertFalse(plan, plan.contains("SCAN m"));
+    }
+}
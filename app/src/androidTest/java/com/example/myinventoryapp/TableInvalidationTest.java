@@ -0,0 +1,154 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for table invalidation: writes through {@link DatabaseHelper}
+ * notify observers of the tables they touched, and an observed query keeps up
+ * with a burst of writes in a bounded number of re-runs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TableInvalidationTest {
+    private static final String TAG = "TableInvalidationTest";
+    private static final String TEST_DATABASE = "invalidation_test.db";
+    private static final long OWNER = DatabaseHelper.NO_OWNER;
+    private static final int WRITES = 1000;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new DatabaseHelper(context, TEST_DATABASE);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void writes_invalidateTheTablesTheyTouch() throws InterruptedException {
+        long widget = dbHelper.addInventoryItem(OWNER, "Widget", 10, 5);
+        long backRoom = dbHelper.addLocation("Back room");
+        settle();
+        RecordingObserver stock = observe(DatabaseHelper.TABLE_LOCATION_STOCK);
+        RecordingObserver totals = observe(DatabaseHelper.TABLE_INVENTORY);
+        RecordingObserver locations = observe(DatabaseHelper.TABLE_LOCATIONS);
+
+        assertTrue(dbHelper.transferStock(OWNER, widget, DatabaseHelper.DEFAULT_LOCATION_ID, backRoom, 4));
+        assertTrue(stock.await());
+        // Moving stock leaves the totals alone
+        assertEquals(0, totals.notifications.get());
+
+        dbHelper.adjustQuantity(OWNER, widget, 1);
+        assertTrue(totals.await());
+        assertEquals(0, locations.notifications.get());
+
+        // A rejected write changes nothing and tells no one
+        settle();
+        stock.reset();
+        assertEquals(DatabaseHelper.ADJUSTMENT_REJECTED, dbHelper.adjustQuantity(OWNER, widget, -100));
+        dbHelper.addLocation("Back room");
+        settle();
+        assertEquals(0, stock.notifications.get());
+        assertEquals(0, locations.notifications.get());
+    }
+
+    @Test
+    public void burstOfWrites_reRunsObservedQueryBoundedTimes() throws InterruptedException {
+        final long widget = dbHelper.addInventoryItem(OWNER, "Widget", 0, 5);
+        final AtomicLong latest = new AtomicLong(-1);
+        final CountDownLatch caughtUp = new CountDownLatch(1);
+        ObservableQuery<Long> query = dbHelper.getInvalidationTracker().observe("quantity",
+                new String[]{DatabaseHelper.TABLE_INVENTORY}, new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return DatabaseTestUtils.queryLong(dbHelper.getReadableDatabase(),
+                                "SELECT quantity FROM inventory WHERE id = ?", String.valueOf(widget));
+                    }
+                }, executor, new ObservableQuery.Listener<Long>() {
+                    @Override
+                    public void onChanged(Long quantity) {
+                        latest.set(quantity);
+                        if (quantity == WRITES) {
+                            caughtUp.countDown();
+                        }
+                    }
+                });
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < WRITES; i++) {
+            dbHelper.adjustQuantity(OWNER, widget, 1);
+        }
+        long writeMillis = SystemClock.elapsedRealtime() - start;
+
+        assertTrue("observer saw " + latest.get(), caughtUp.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        int runs = query.getRunCount();
+        Log.i(TAG, WRITES + " writes in " + writeMillis + " ms re-ran the observed query " + runs + " times");
+
+        // One run up front, then at most one per batch window while writing, and one after
+        long bound = 2 + writeMillis / InvalidationTracker.DEFAULT_BATCH_MILLIS + 1;
+        assertTrue(runs + " runs for " + writeMillis + " ms of writes", runs <= bound);
+        assertTrue(runs < WRITES / 10);
+    }
+
+    // Waits until notifications of earlier writes have gone out
+    private static void settle() {
+        SystemClock.sleep(InvalidationTracker.DEFAULT_BATCH_MILLIS * 4);
+    }
+
+    private RecordingObserver observe(String table) {
+        RecordingObserver observer = new RecordingObserver();
+        dbHelper.getInvalidationTracker().addObserver(observer, table);
+        return observer;
+    }
+
+    private static final class RecordingObserver implements InvalidationTracker.Observer {
+        final AtomicInteger notifications = new AtomicInteger();
+        private volatile CountDownLatch notified = new CountDownLatch(1);
+
+        @Override
+        public void onInvalidated(Set<String> tables) {
+            notifications.incrementAndGet();
+            notified.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return notified.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        void reset() {
+            notifications.set(0);
+            notified = new CountDownLatch(1);
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package com.example.myinventoryapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backup files of the inventory database, see {@link DatabaseHelper#backupDatabase}.
+ *
+ * A backup holds a snapshot image of the database split into its pages, gzip
+ * compressed. It starts with a manifest of the image: the page size, a digest of
+ * every page and one of the whole image. A full backup then stores every page; an
+ * incremental one stores only pages whose content is not in the image of the backup
+ * before it, and points at the rest by their page number there, so pages that
+ * merely moved are not stored again. Restoring rebuilds the image from the last full
+ * backup through each incremental one, checking every page against the manifests
+ * and the gzip trailers against the compressed data.
+ *
+ * Backups in a directory are numbered in the order they were taken, and an
+ * incremental backup can only be restored while the backups it builds on are there.
+ */
+public final class DatabaseBackup {
+    static final String FILE_PREFIX = "inventory-";
+    static final String FILE_SUFFIX = ".backup";
+
+    // "INVB", then the layout version of the file
+    private static final int MAGIC = 0x494e5642;
+    private static final int FORMAT_VERSION = 1;
+
+    // Parent sequence of a full backup
+    private static final int NO_PARENT = 0;
+    // Page reference of a page stored in the backup itself
+    private static final int STORED_PAGE = -1;
+
+    // Offsets in the SQLite file header, which is at the start of page 1
+    private static final int HEADER_PAGE_SIZE = 16;
+    private static final int HEADER_USER_VERSION = 60;
+    private static final int HEADER_LENGTH = 100;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DatabaseBackup() {
+    }
+
+    /**
+     * Outcome of a backup run
+     */
+    public static final class Result {
+        private final File file;
+        private final int sequence;
+        private final boolean incremental;
+        private final int pageCount;
+        private final int storedPages;
+        private final long elapsedMillis;
+
+        Result(File file, int sequence, boolean incremental, int pageCount, int storedPages, long elapsedMillis) {
+            this.file = file;
+            this.sequence = sequence;
+            this.incremental = incremental;
+            this.pageCount = pageCount;
+            this.storedPages = storedPages;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public int getSequence() {
+            return sequence;
+        }
+
+        /**
+         * False if every page was stored, including for an incremental backup
+         * asked for with no earlier backup to build on
+         */
+        public boolean isIncremental() {
+            return incremental;
+        }
+
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        public int getStoredPages() {
+            return storedPages;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+
+    /**
+     * Header of a backup file, describing the image it holds
+     */
+    static final class Manifest {
+        final int sequence;
+        final int parentSequence;
+        final long parentDigest;
+        final int schemaVersion;
+        final int pageSize;
+        final long[] pageDigests;
+        final long imageDigest;
+
+        Manifest(int sequence, int parentSequence, long parentDigest, int schemaVersion, int pageSize,
+                 long[] pageDigests, long imageDigest) {
+            this.sequence = sequence;
+            this.parentSequence = parentSequence;
+            this.parentDigest = parentDigest;
+            this.schemaVersion = schemaVersion;
+            this.pageSize = pageSize;
+            this.pageDigests = pageDigests;
+            this.imageDigest = imageDigest;
+        }
+
+        boolean isFull() {
+            return parentSequence == NO_PARENT;
+        }
+    }
+
+    /**
+     * The backup with the highest sequence in the directory, or null if there is none
+     */
+    public static File latest(File directory) {
+        File[] files = directory.listFiles();
+        File latest = null;
+        int latestSequence = NO_PARENT;
+        if (files != null) {
+            for (File file : files) {
+                int sequence = sequenceOf(file);
+                if (sequence > latestSequence) {
+                    latest = file;
+                    latestSequence = sequence;
+                }
+            }
+        }
+        return latest;
+    }
+
+    static File fileFor(File directory, int sequence) {
+        return new File(directory, String.format(Locale.US, "%s%06d%s", FILE_PREFIX, sequence, FILE_SUFFIX));
+    }
+
+    /**
+     * Sequence number from a backup file name, or NO_PARENT if it is not one
+     */
+    static int sequenceOf(File file) {
+        String name = file.getName();
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+            return NO_PARENT;
+        }
+        try {
+            return Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return NO_PARENT;
+        }
+    }
+
+    /**
+     * Writes a snapshot file as the next backup in the directory. An incremental
+     * backup builds on the latest one there, if it has the same page size; otherwise
+     * every page is stored. The file is synced and then renamed into place, so a
+     * backup cut short leaves no file behind that restore would pick up. The result
+     * is timed from startNanos, when the snapshot was started.
+     */
+    static Result write(File snapshot, File directory, boolean incremental, long startNanos) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        InputStream in = new FileInputStream(snapshot);
+        try {
+            readFully(in, header);
+        } finally {
+            in.close();
+        }
+        ByteBuffer fields = ByteBuffer.wrap(header);
+        // Stored big-endian; 1 stands for 65536, which does not fit in two bytes
+        int pageSize = fields.getShort(HEADER_PAGE_SIZE) & 0xffff;
+        pageSize = pageSize == 1 ? 65536 : pageSize;
+        int schemaVersion = fields.getInt(HEADER_USER_VERSION);
+        if (pageSize < 512 || snapshot.length() % pageSize != 0) {
+            throw new IOException(snapshot + " is not a database image");
+        }
+
+        File previous = latest(directory);
+        Manifest parent = null;
+        if (previous != null && incremental) {
+            parent = readManifest(previous);
+            if (parent.pageSize != pageSize) {
+                parent = null;
+            }
+        }
+        int sequence = previous == null ? 1 : sequenceOf(previous) + 1;
+
+        // Pages of the parent image by content; a page that is there is not stored again
+        Map<Long, Integer> parentPages = new HashMap<>();
+        if (parent != null) {
+            for (int i = 0; i < parent.pageDigests.length; i++) {
+                parentPages.put(parent.pageDigests[i], i);
+            }
+        }
+
+        // First pass for the manifest, which comes before the pages
+        int pageCount = (int) (snapshot.length() / pageSize);
+        long[] pageDigests = new long[pageCount];
+        MessageDigest pageDigest = sha256();
+        MessageDigest imageDigest = sha256();
+        byte[] page = new byte[pageSize];
+        in = new BufferedInputStream(new FileInputStream(snapshot), BUFFER_SIZE);
+        try {
+            for (int i = 0; i < pageCount; i++) {
+                readFully(in, page);
+                pageDigests[i] = digest(pageDigest, page);
+                imageDigest.update(page);
+            }
+        } finally {
+            in.close();
+        }
+        Manifest manifest = new Manifest(sequence, parent == null ? NO_PARENT : parent.sequence,
+                parent == null ? 0 : parent.imageDigest, schemaVersion, pageSize, pageDigests,
+                toLong(imageDigest.digest()));
+
+        File target = fileFor(directory, sequence);
+        File partial = new File(directory, target.getName() + ".tmp");
+        FileOutputStream file = new FileOutputStream(partial);
+        int storedPages = 0;
+        try {
+            // Database pages compress well even at the fastest level
+            GZIPOutputStream gzip = new GZIPOutputStream(file, BUFFER_SIZE) {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip, BUFFER_SIZE));
+            writeManifest(out, manifest);
+
+            in = new BufferedInputStream(new FileInputStream(snapshot), BUFFER_SIZE);
+            try {
+                for (int i = 0; i < pageCount; i++) {
+                    readFully(in, page);
+                    Integer parentPage = parentPages.get(pageDigests[i]);
+                    if (parentPage != null) {
+                        out.writeInt(parentPage);
+                    } else {
+                        out.writeInt(STORED_PAGE);
+                        out.write(page);
+                        storedPages++;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+
+            out.flush();
+            gzip.finish();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+
+        if (!partial.renameTo(target)) {
+            partial.delete();
+            throw new IOException("Cannot rename " + partial + " to " + target);
+        }
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        return new Result(target, sequence, parent != null, pageCount, storedPages, elapsedMillis);
+    }
+
+    /**
+     * Rebuilds the image held by a backup into target, from the last full backup
+     * before it in the same directory. Throws if a backup in the chain is missing,
+     * does not build on the image before it, or a page does not match its digest.
+     */
+    static Manifest rebuild(File backup, File target) throws IOException {
+        // Walk back to the full backup, then apply the chain from there
+        Deque<File> chain = new ArrayDeque<>();
+        File file = backup;
+        Manifest manifest = readManifest(file);
+        while (true) {
+            chain.push(file);
+            if (manifest.isFull()) {
+                break;
+            }
+            if (manifest.parentSequence >= manifest.sequence) {
+                throw new IOException(file + " builds on a later backup");
+            }
+            file = fileFor(backup.getAbsoluteFile().getParentFile(), manifest.parentSequence);
+            if (!file.isFile()) {
+                throw new IOException(file + ", which " + backup + " builds on, is missing");
+            }
+            manifest = readManifest(file);
+        }
+
+        File partial = new File(target.getPath() + ".tmp");
+        target.delete();
+        Manifest applied = null;
+        try {
+            while (!chain.isEmpty()) {
+                applied = apply(chain.pop(), applied, target, partial);
+                if (!partial.renameTo(target)) {
+                    throw new IOException("Cannot rename " + partial + " to " + target);
+                }
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        } finally {
+            partial.delete();
+        }
+        return applied;
+    }
+
+    /**
+     * Writes the image of one backup to out, taking the pages it does not store
+     * from the image of its parent, which is in parentImage
+     */
+    private static Manifest apply(File backup, Manifest parent, File parentImage, File out) throws IOException {
+        DataInputStream in = openBackup(backup);
+        RandomAccessFile parentPages = null;
+        FileOutputStream file = null;
+        try {
+            Manifest manifest = readManifest(in, backup);
+            if (parent != null && (manifest.parentDigest != parent.imageDigest || manifest.pageSize != parent.pageSize)) {
+                throw new IOException(backup + " does not build on the backup before it");
+            }
+
+            if (parent != null) {
+                parentPages = new RandomAccessFile(parentImage, "r");
+            }
+            file = new FileOutputStream(out);
+            BufferedOutputStream image = new BufferedOutputStream(file, BUFFER_SIZE);
+            MessageDigest pageDigest = sha256();
+            MessageDigest imageDigest = sha256();
+            byte[] page = new byte[manifest.pageSize];
+            for (int i = 0; i < manifest.pageDigests.length; i++) {
+                int reference = in.readInt();
+                if (reference == STORED_PAGE) {
+                    in.readFully(page);
+                } else if (parentPages != null && reference >= 0 && reference < parent.pageDigests.length) {
+                    parentPages.seek((long) reference * manifest.pageSize);
+                    parentPages.readFully(page);
+                } else {
+                    throw new IOException(backup + " refers to page " + reference + ", which its parent does not have");
+                }
+                if (digest(pageDigest, page) != manifest.pageDigests[i]) {
+                    throw new IOException("Page " + i + " of " + backup + " does not match its digest");
+                }
+                imageDigest.update(page);
+                image.write(page);
+            }
+            // Reading to the end checks the gzip trailer
+            if (in.read() != -1) {
+                throw new IOException(backup + " has data after its last page");
+            }
+            if (toLong(imageDigest.digest()) != manifest.imageDigest) {
+                throw new IOException("The image of " + backup + " does not match its digest");
+            }
+
+            image.flush();
+            file.getFD().sync();
+            return manifest;
+        } catch (EOFException e) {
+            throw new IOException(backup + " is truncated", e);
+        } finally {
+            if (file != null) {
+                file.close();
+            }
+            if (parentPages != null) {
+                parentPages.close();
+            }
+            in.close();
+        }
+    }
+
+    static Manifest readManifest(File backup) throws IOException {
+        DataInputStream in = openBackup(backup);
+        try {
+            return readManifest(in, backup);
+        } catch (EOFException e) {
+            throw new IOException(backup + " is truncated", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Manifest readManifest(DataInputStream in, File backup) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException(backup + " is not a backup this version can read");
+        }
+        int sequence = in.readInt();
+        int parentSequence = in.readInt();
+        long parentDigest = in.readLong();
+        int schemaVersion = in.readInt();
+        int pageSize = in.readInt();
+        int pageCount = in.readInt();
+        if (sequence != sequenceOf(backup) || pageSize < 512 || pageCount < 1) {
+            throw new IOException(backup + " has a damaged manifest");
+        }
+        long[] pageDigests = new long[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            pageDigests[i] = in.readLong();
+        }
+        long imageDigest = in.readLong();
+        return new Manifest(sequence, parentSequence, parentDigest, schemaVersion, pageSize, pageDigests, imageDigest);
+    }
+
+    private static void writeManifest(DataOutputStream out, Manifest manifest) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(manifest.sequence);
+        out.writeInt(manifest.parentSequence);
+        out.writeLong(manifest.parentDigest);
+        out.writeInt(manifest.schemaVersion);
+        out.writeInt(manifest.pageSize);
+        out.writeInt(manifest.pageDigests.length);
+        for (long pageDigest : manifest.pageDigests) {
+            out.writeLong(pageDigest);
+        }
+        out.writeLong(manifest.imageDigest);
+    }
+
+    private static DataInputStream openBackup(File backup) throws IOException {
+        FileInputStream file = new FileInputStream(backup);
+        try {
+            return new DataInputStream(new BufferedInputStream(new GZIPInputStream(file, BUFFER_SIZE), BUFFER_SIZE));
+        } catch (IOException e) {
+            file.close();
+            throw new IOException(backup + " is not a backup this version can read", e);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int n = in.read(buffer, read, buffer.length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+    }
+
+    // First 64 bits of a SHA-256: pages are matched by digest when a backup is
+    // written, which CRC32 is too short for once there are tens of thousands of pages
+    private static long digest(MessageDigest digest, byte[] page) {
+        return toLong(digest.digest(page));
+    }
+
+    private static long toLong(byte[] digest) {
+        return ByteBuffer.wrap(digest).getLong();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,19 +3,80 @@ package com.example.myinventoryapp;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
-    // Database Version
-    private static final int DATABASE_VERSION = 1;
+    private static final String TAG = "DatabaseHelper";
+
+    // Database Version. Bump it together with a new case in migrateTo().
+    static final int DATABASE_VERSION = 12;
 
     // Database Name
     private static final String DATABASE_NAME = "inventory_manager";
 
+    // Page cache for the write connection, in KiB
+    private static final int CACHE_SIZE_KIB = 8 * 1024;
+
+    // Default number of inventory items kept in memory by the write-through cache
+    static final int DEFAULT_CACHE_CAPACITY = 2048;
+
+    // Process-wide instance, see getInstance()
+    private static DatabaseHelper instance;
+
+    // Write-through cache of inventory rows by id, see getInventoryItem()
+    private final InventoryCache itemCache;
+    // Tells observers which tables each committed write touched
+    private final InvalidationTracker invalidationTracker = new InvalidationTracker();
+
+    // Held across each inventory write and the matching cache update, so
+    // concurrent writers apply their cache updates in the same order as their commits
+    private final Object inventoryWriteLock = new Object();
+
+    // Held across each drain of the low-stock outbox, so concurrent drains do not hand
+    // out the same events
+    private final Object lowStockDrainLock = new Object();
+
+    // Source of stock movement timestamps
+    private final Clock clock;
+
     // Table Names
     private static final String TABLE_USERS = "users";
-    private static final String TABLE_INVENTORY = "inventory";
+    static final String TABLE_INVENTORY = "inventory";
+    private static final String TABLE_GENERATIONS = "table_generations";
+    private static final String TABLE_INVENTORY_DELETIONS = "inventory_deletions";
+    static final String TABLE_INVENTORY_FTS = "inventory_fts";
+    static final String TABLE_LOCATIONS = "locations";
+    static final String TABLE_LOCATION_STOCK = "location_stock";
+    static final String TABLE_STOCK_MOVEMENTS = "stock_movements";
+    private static final String TABLE_STOCK_SNAPSHOTS = "stock_snapshots";
+    private static final String TABLE_SYNC_ITEMS = "sync_items";
+    private static final String TABLE_SYNC_STATE = "sync_state";
+    static final String TABLE_LOW_STOCK_OUTBOX = "low_stock_outbox";
+
+    // Tables every stock write touches: the totals, the stock per location and the ledger
+    private static final String[] STOCK_TABLES = {TABLE_INVENTORY, TABLE_LOCATION_STOCK, TABLE_STOCK_MOVEMENTS};
+
+    // Tables observers can watch, all of which a restore replaces
+    private static final String[] OBSERVED_TABLES = {TABLE_USERS, TABLE_INVENTORY, TABLE_LOCATIONS,
+            TABLE_LOCATION_STOCK, TABLE_STOCK_MOVEMENTS, TABLE_STOCK_SNAPSHOTS, TABLE_LOW_STOCK_OUTBOX};
 
     // Common column names
     private static final String KEY_ID = "id";
@@ -28,6 +89,60 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String KEY_ITEM_NAME = "item_name";
     private static final String KEY_QUANTITY = "quantity";
     private static final String KEY_THRESHOLD = "threshold";
+    private static final String KEY_ROW_VERSION = "row_version";
+    private static final String KEY_SKU = "sku";
+    private static final String KEY_DELETED_AT = "deleted_at";
+    private static final String KEY_OWNER_ID = "owner_id";
+
+    // TABLE_GENERATIONS Table - column names
+    private static final String KEY_TABLE_NAME = "table_name";
+    private static final String KEY_GENERATION = "generation";
+
+    // INVENTORY_DELETIONS Table - column names
+    private static final String KEY_ITEM_ID = "item_id";
+
+    // LOCATIONS Table - column names
+    private static final String KEY_NAME = "name";
+
+    // LOCATION_STOCK Table - column names, besides item_id, quantity and threshold
+    private static final String KEY_LOCATION_ID = "location_id";
+
+    // Stock movement and snapshot column names
+    private static final String KEY_DELTA = "delta";
+    private static final String KEY_REASON = "reason";
+    private static final String KEY_CREATED_AT = "created_at";
+    private static final String KEY_TAKEN_AT = "taken_at";
+
+    // SYNC_ITEMS Table - column names, besides item_id
+    private static final String KEY_GLOBAL_ID = "global_id";
+    private static final String KEY_LOCAL_DELTA = "local_delta";
+    private static final String KEY_REMOTE_DELTA = "remote_delta";
+    private static final String KEY_SYNCED_NAME = "synced_name";
+    private static final String KEY_SYNCED_THRESHOLD = "synced_threshold";
+    private static final String KEY_DELETED = "deleted";
+    private static final String KEY_DIRTY = "dirty";
+
+    // SYNC_STATE Table - column names and keys
+    private static final String KEY_KEY = "key";
+    private static final String KEY_VALUE = "value";
+    private static final String SYNC_DEVICE_ID = "device_id";
+    private static final String SYNC_TOKEN = "token";
+
+    // LOW_STOCK_OUTBOX Table - column names, besides item_id, owner_id, quantity and threshold
+    private static final String KEY_LOW = "low";
+    private static final String KEY_REPORTED_LOW = "reported_low";
+
+    // Location created by the version 5 migration. Writes that do not name a location,
+    // such as adding an item or setting its total quantity, stock it here.
+    public static final long DEFAULT_LOCATION_ID = 1;
+
+    // Location filter for reads that want totals across all locations
+    public static final long ALL_LOCATIONS = 0;
+
+    // Owner of items created without an account, by the version 11 upgrade on a device
+    // that had no accounts yet. Every item read or write names its owner, so these are
+    // only reached by passing NO_OWNER on purpose, and sync leaves them out.
+    public static final long NO_OWNER = 0;
 
     // Table Create Statements
     // Users table create statement
@@ -43,117 +158,2749 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + KEY_QUANTITY + " INTEGER NOT NULL,"
             + KEY_THRESHOLD + " INTEGER NOT NULL DEFAULT 5" + ")";
 
-    public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    // Index names
+    static final String INDEX_INVENTORY_STOCK_MARGIN = "idx_inventory_stock_margin";
+    private static final String INDEX_INVENTORY_ROW_VERSION = "idx_inventory_row_version";
+    private static final String INDEX_INVENTORY_DELETIONS_ROW_VERSION = "idx_inventory_deletions_row_version";
+    static final String INDEX_LOCATION_STOCK_MARGIN = "idx_location_stock_margin";
+    private static final String INDEX_LOCATION_STOCK_ITEM = "idx_location_stock_item";
+    static final String INDEX_STOCK_MOVEMENTS_ITEM = "idx_stock_movements_item";
+    static final String INDEX_STOCK_MOVEMENTS_TIME = "idx_stock_movements_time";
+    static final String INDEX_INVENTORY_QUANTITY = "idx_inventory_quantity";
+    static final String INDEX_INVENTORY_STOCK_RATIO = "idx_inventory_stock_ratio";
+    private static final String INDEX_INVENTORY_LOW_ID = "idx_inventory_low_id";
+    private static final String INDEX_INVENTORY_LOW_NAME = "idx_inventory_low_name";
+    private static final String INDEX_INVENTORY_LOW_QUANTITY = "idx_inventory_low_quantity";
+    private static final String INDEX_INVENTORY_LOW_RATIO = "idx_inventory_low_ratio";
+    private static final String INDEX_LOCATION_STOCK_QUANTITY = "idx_location_stock_quantity";
+    private static final String INDEX_LOCATION_STOCK_RATIO = "idx_location_stock_ratio";
+    static final String INDEX_INVENTORY_SKU = "idx_inventory_sku";
+    static final String INDEX_SYNC_ITEMS_DIRTY = "idx_sync_items_dirty";
+    static final String INDEX_INVENTORY_TOMBSTONES = "idx_inventory_tombstones";
+    static final String INDEX_INVENTORY_OWNER = "idx_inventory_owner";
+    static final String INDEX_LOCATION_STOCK_OWNER = "idx_location_stock_owner";
+    static final String INDEX_LOW_STOCK_OUTBOX_PENDING = "idx_low_stock_outbox_pending";
+
+    // Current generation of the inventory table, as a scalar subquery
+    private static final String INVENTORY_GENERATION = "(SELECT " + KEY_GENERATION + " FROM " + TABLE_GENERATIONS
+            + " WHERE " + KEY_TABLE_NAME + " = '" + TABLE_INVENTORY + "')";
+
+    // Statement that advances the inventory generation, used by the change tracking triggers
+    private static final String BUMP_INVENTORY_GENERATION = "UPDATE " + TABLE_GENERATIONS
+            + " SET " + KEY_GENERATION + " = " + KEY_GENERATION + " + 1"
+            + " WHERE " + KEY_TABLE_NAME + " = '" + TABLE_INVENTORY + "'";
+
+    // How far an item is above its alert threshold; zero or less means low stock
+    private static final String STOCK_MARGIN = KEY_QUANTITY + " - " + KEY_THRESHOLD;
+
+    // Low-stock condition. Partial indexes use this exact term, and SQLite only
+    // uses them for queries that contain it as written.
+    private static final String LOW_STOCK = STOCK_MARGIN + " <= 0";
+
+    // Items that are not soft-deleted. Every read of items includes this term, and
+    // partial indexes use it as written, like LOW_STOCK; see addSoftDelete().
+    private static final String NOT_DELETED = KEY_DELETED_AT + " IS NULL";
+
+    // The account that gets the items which were here before the version 11 upgrade:
+    // the first account
+    private static final String FIRST_USER_ID = "(SELECT coalesce(min(" + KEY_ID + "), " + NO_OWNER + ")"
+            + " FROM " + TABLE_USERS + ")";
+
+    // Low-stock query of one owner, phrased on the indexed stock margin expression
+    static final String SELECT_LOW_INVENTORY = "SELECT * FROM " + TABLE_INVENTORY
+            + " WHERE " + KEY_OWNER_ID + " = ? AND " + NOT_DELETED + " AND " + LOW_STOCK;
+
+    // Upsert used by CSV import, keyed on the item name, which is unique per owner. The
+    // quantity is set afterwards through the item's stock, see SET_TOTAL. Importing a
+    // soft-deleted item restores it.
+    private static final String UPSERT_INVENTORY_ITEM = "INSERT INTO " + TABLE_INVENTORY + " ("
+            + KEY_OWNER_ID + ", " + KEY_ITEM_NAME + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ") VALUES (?, ?, 0, ?)"
+            + " ON CONFLICT(" + KEY_OWNER_ID + ", " + KEY_ITEM_NAME + ") DO UPDATE SET "
+            + KEY_THRESHOLD + " = excluded." + KEY_THRESHOLD + ", "
+            + KEY_DELETED_AT + " = NULL";
+
+    // Item columns of a per-location read: the location's quantity and threshold stand in
+    // for the totals, so the rows read like inventory rows
+    private static final String LOCATION_ITEM_COLUMNS = "i." + KEY_ID + " AS " + KEY_ID
+            + ", i." + KEY_ITEM_NAME + " AS " + KEY_ITEM_NAME
+            + ", s." + KEY_QUANTITY + " AS " + KEY_QUANTITY
+            + ", s." + KEY_THRESHOLD + " AS " + KEY_THRESHOLD;
+
+    // The stock rows of one owner (the first argument) at one location (the second),
+    // joined to their items that are not deleted
+    private static final String LOCATION_ITEMS = " FROM " + TABLE_LOCATION_STOCK + " s"
+            + " JOIN " + TABLE_INVENTORY + " i ON i." + KEY_ID + " = s." + KEY_ITEM_ID
+            + " WHERE s." + KEY_OWNER_ID + " = ? AND s." + KEY_LOCATION_ID + " = ? AND i." + NOT_DELETED;
+
+    // Per-location low-stock query, on the indexed per-location stock margin
+    static final String SELECT_LOW_LOCATION_STOCK = "SELECT " + LOCATION_ITEM_COLUMNS + LOCATION_ITEMS
+            + " AND s." + KEY_QUANTITY + " - s." + KEY_THRESHOLD + " <= 0";
+
+    // Sets an item's stock and threshold at a location. Does nothing if the item is not
+    // the owner's (?5) or the location does not exist.
+    private static final String UPSERT_LOCATION_STOCK = "INSERT INTO " + TABLE_LOCATION_STOCK + " ("
+            + KEY_LOCATION_ID + ", " + KEY_ITEM_ID + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ", " + KEY_OWNER_ID + ")"
+            + " SELECT ?1, " + KEY_ID + ", ?3, ?4, " + KEY_OWNER_ID + " FROM " + TABLE_INVENTORY
+            + " WHERE " + KEY_ID + " = ?2 AND " + KEY_OWNER_ID + " = ?5"
+            + " AND EXISTS (SELECT 1 FROM " + TABLE_LOCATIONS + " WHERE " + KEY_ID + " = ?1)"
+            + " ON CONFLICT (" + KEY_LOCATION_ID + ", " + KEY_ITEM_ID + ") DO UPDATE SET "
+            + KEY_QUANTITY + " = excluded." + KEY_QUANTITY + ", "
+            + KEY_THRESHOLD + " = excluded." + KEY_THRESHOLD;
+
+    // Relative stock change at a location. A decrease is applied only if it leaves the stock at
+    // zero or above; an increase always is, as stock merged by sync can be below zero.
+    // Only the stock of the owner's (?4) items is changed.
+    private static final String ADJUST_LOCATION_STOCK = "UPDATE " + TABLE_LOCATION_STOCK
+            + " SET " + KEY_QUANTITY + " = " + KEY_QUANTITY + " + ?1"
+            + " WHERE " + KEY_LOCATION_ID + " = ?2 AND " + KEY_ITEM_ID + " = ?3 AND " + KEY_OWNER_ID + " = ?4"
+            + " AND (?1 >= 0 OR " + KEY_QUANTITY + " + ?1 >= 0)";
+
+    // Creates the stock row a positive adjustment needs, with the item's threshold
+    private static final String INSERT_LOCATION_STOCK = "INSERT OR IGNORE INTO " + TABLE_LOCATION_STOCK + " ("
+            + KEY_LOCATION_ID + ", " + KEY_ITEM_ID + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ", " + KEY_OWNER_ID + ")"
+            + " SELECT ?2, " + KEY_ID + ", ?1, " + KEY_THRESHOLD + ", " + KEY_OWNER_ID + " FROM " + TABLE_INVENTORY
+            + " WHERE " + KEY_ID + " = ?3 AND " + KEY_OWNER_ID + " = ?4"
+            + " AND EXISTS (SELECT 1 FROM " + TABLE_LOCATIONS + " WHERE " + KEY_ID + " = ?2)";
+
+    // Sets an item's total quantity by changing its stock at the default location.
+    // The default location cannot go below zero, so if the other locations together
+    // hold more than the new total, the total ends up as what they hold. A deleted item, or
+    // one that is not the owner's, selects no row, so nothing is inserted or updated. ?1 is
+    // the item id, ?2 the new total, ?3 the owner.
+    private static final String SET_TOTAL = "INSERT INTO " + TABLE_LOCATION_STOCK + " ("
+            + KEY_LOCATION_ID + ", " + KEY_ITEM_ID + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ", " + KEY_OWNER_ID + ")"
+            + " SELECT " + DEFAULT_LOCATION_ID + ", " + KEY_ID + ", max(0, ?2 - " + KEY_QUANTITY + "), " + KEY_THRESHOLD
+            + ", " + KEY_OWNER_ID + " FROM " + TABLE_INVENTORY
+            + " WHERE " + KEY_ID + " = ?1 AND " + KEY_OWNER_ID + " = ?3 AND " + NOT_DELETED
+            + " ON CONFLICT (" + KEY_LOCATION_ID + ", " + KEY_ITEM_ID + ") DO UPDATE SET "
+            + KEY_QUANTITY + " = max(0, " + KEY_QUANTITY + " + ?2 - (SELECT " + KEY_QUANTITY + " FROM " + TABLE_INVENTORY
+            + " WHERE " + KEY_ID + " = excluded." + KEY_ITEM_ID + "))";
+
+    // A new random id, unique across devices, for an item or a device
+    private static final String NEW_GLOBAL_ID = "lower(hex(randomblob(16)))";
+
+    // Items with changes not pushed yet, with their current name and threshold (NULL once
+    // deleted) and their owner's username. Items without an owner account stay here.
+    // Reads the partial dirty index, so the cost is bounded by the changed items.
+    static final String SELECT_SYNC_CHANGES = "SELECT s." + KEY_ITEM_ID + ", s." + KEY_GLOBAL_ID + ", s." + KEY_LOCAL_DELTA
+            + ", s." + KEY_DELETED + ", i." + KEY_ITEM_NAME + ", i." + KEY_THRESHOLD
+            + ", s." + KEY_SYNCED_NAME + ", s." + KEY_SYNCED_THRESHOLD + ", u." + KEY_USERNAME
+            + " FROM " + TABLE_SYNC_ITEMS + " s LEFT JOIN " + TABLE_INVENTORY + " i ON i." + KEY_ID + " = s." + KEY_ITEM_ID
+            + " LEFT JOIN " + TABLE_USERS + " u ON u." + KEY_ID + " = i." + KEY_OWNER_ID
+            + " WHERE s." + KEY_DIRTY + " = 1 AND (s." + KEY_DELETED + " = 1 OR u." + KEY_USERNAME + " IS NOT NULL)"
+            + " ORDER BY s." + KEY_ITEM_ID + " LIMIT ?";
+
+    // The local state of an item by global id: sync columns, then the item's name and
+    // threshold, NULL if it is deleted here
+    static final String SELECT_SYNC_ITEM = "SELECT s." + KEY_ITEM_ID + ", s." + KEY_REMOTE_DELTA + ", s." + KEY_DIRTY
+            + ", s." + KEY_SYNCED_NAME + ", s." + KEY_SYNCED_THRESHOLD + ", i." + KEY_ITEM_NAME + ", i." + KEY_THRESHOLD
+            + " FROM " + TABLE_SYNC_ITEMS + " s LEFT JOIN " + TABLE_INVENTORY + " i ON i." + KEY_ID + " = s." + KEY_ITEM_ID
+            + " WHERE s." + KEY_GLOBAL_ID + " = ?";
+
+    // Clears the dirty flag of a pushed item (?1), unless its stock count (?2), name (?3)
+    // or threshold (?4) changed after they were read for the push
+    private static final String ACK_SYNC_ITEM = "UPDATE " + TABLE_SYNC_ITEMS + " SET " + KEY_DIRTY + " = 0"
+            + " WHERE " + KEY_ITEM_ID + " = ?1 AND " + KEY_LOCAL_DELTA + " = ?2"
+            + " AND EXISTS (SELECT 1 FROM " + TABLE_INVENTORY + " WHERE " + KEY_ID + " = ?1"
+            + " AND " + KEY_ITEM_NAME + " = ?3 AND " + KEY_THRESHOLD + " = ?4)";
+
+    // Stock change pulled from other devices (?3), applied at a location (?1) without the
+    // zero floor of ADJUST_LOCATION_STOCK: the merged total is the sum of every device's
+    // changes, and clamping it would make the result depend on the order devices sync in
+    private static final String APPLY_SYNC_DELTA = "INSERT INTO " + TABLE_LOCATION_STOCK + " ("
+            + KEY_LOCATION_ID + ", " + KEY_ITEM_ID + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ", " + KEY_OWNER_ID + ")"
+            + " SELECT ?1, " + KEY_ID + ", ?3, " + KEY_THRESHOLD + ", " + KEY_OWNER_ID
+            + " FROM " + TABLE_INVENTORY + " WHERE " + KEY_ID + " = ?2"
+            + " ON CONFLICT (" + KEY_LOCATION_ID + ", " + KEY_ITEM_ID + ") DO UPDATE SET "
+            + KEY_QUANTITY + " = " + KEY_QUANTITY + " + excluded." + KEY_QUANTITY;
+
+    // Id of an owner's item with a SKU, -1 if there is none. One seek on the unique SKU index.
+    static final String SELECT_ID_BY_SKU = "SELECT coalesce((SELECT " + KEY_ID + " FROM " + TABLE_INVENTORY
+            + " WHERE " + KEY_OWNER_ID + " = ? AND " + KEY_SKU + " = ? AND " + NOT_DELETED + "), -1)";
+
+    // An outbox row that is a pending event: the item is on the other side of its threshold
+    // than last reported. The partial index uses this exact term, like LOW_STOCK.
+    private static final String LOW_STOCK_PENDING = KEY_LOW + " != " + KEY_REPORTED_LOW;
+
+    // An owner's pending low-stock events, oldest first, with the item's name. Reads the
+    // partial pending index, so the cost is bounded by the events waiting. Events of
+    // soft-deleted items are held back: handed out if the item is restored, dropped with
+    // it when it is purged.
+    static final String SELECT_LOW_STOCK_EVENTS = "SELECT o." + KEY_ID + ", o." + KEY_ITEM_ID + ", i." + KEY_ITEM_NAME
+            + ", o." + KEY_QUANTITY + ", o." + KEY_THRESHOLD + ", o." + KEY_LOW
+            + " FROM " + TABLE_LOW_STOCK_OUTBOX + " o CROSS JOIN " + TABLE_INVENTORY + " i ON i." + KEY_ID + " = o." + KEY_ITEM_ID
+            + " WHERE o." + KEY_OWNER_ID + " = ? AND o." + LOW_STOCK_PENDING + " AND i." + NOT_DELETED
+            + " ORDER BY o." + KEY_ID + " LIMIT ?";
+
+    // Current stock of an item at a location, 0 if it has no stock row there
+    private static final String SELECT_LOCATION_STOCK = "SELECT coalesce((SELECT " + KEY_QUANTITY
+            + " FROM " + TABLE_LOCATION_STOCK + " WHERE " + KEY_LOCATION_ID + " = ? AND " + KEY_ITEM_ID + " = ?), 0)";
+
+    // Adds a local stock change to an item's sync count and queues it for the next push
+    private static final String ADD_SYNC_DELTA = "UPDATE " + TABLE_SYNC_ITEMS + " SET "
+            + KEY_LOCAL_DELTA + " = " + KEY_LOCAL_DELTA + " + ?, " + KEY_DIRTY + " = 1 WHERE " + KEY_ITEM_ID + " = ?";
+
+    private static final String INSERT_STOCK_MOVEMENT = "INSERT INTO " + TABLE_STOCK_MOVEMENTS + " ("
+            + KEY_ITEM_ID + ", " + KEY_LOCATION_ID + ", " + KEY_DELTA + ", " + KEY_REASON + ", " + KEY_CREATED_AT + ")"
+            + " VALUES (?, ?, ?, ?, ?)";
+
+    // Stock of an item at time ?2, summed over one location (?3) or all of them (ALL_LOCATIONS).
+    // Per location: the last snapshot taken at or before ?2, plus the movements after it up to ?2.
+    // Both are index seeks on the item, so the cost is bounded by the movements since the snapshot.
+    // 0 unless the item exists and is owner ?4's.
+    static final String SELECT_STOCK_AT = "SELECT coalesce(sum(stock), 0) FROM (SELECT"
+            + " coalesce(snap." + KEY_QUANTITY + ", 0) + coalesce((SELECT sum(m." + KEY_DELTA + ") FROM " + TABLE_STOCK_MOVEMENTS + " m"
+            + " WHERE m." + KEY_ITEM_ID + " = ?1 AND m." + KEY_LOCATION_ID + " = l." + KEY_ID
+            + " AND m." + KEY_CREATED_AT + " > coalesce(snap." + KEY_TAKEN_AT + ", -1) AND m." + KEY_CREATED_AT + " <= ?2), 0) AS stock"
+            + " FROM " + TABLE_LOCATIONS + " l LEFT JOIN " + TABLE_STOCK_SNAPSHOTS + " snap"
+            + " ON snap." + KEY_ITEM_ID + " = ?1 AND snap." + KEY_LOCATION_ID + " = l." + KEY_ID
+            + " AND snap." + KEY_TAKEN_AT + " = (SELECT max(" + KEY_TAKEN_AT + ") FROM " + TABLE_STOCK_SNAPSHOTS
+            + " WHERE " + KEY_ITEM_ID + " = ?1 AND " + KEY_LOCATION_ID + " = l." + KEY_ID + " AND " + KEY_TAKEN_AT + " <= ?2)"
+            + " WHERE (?3 = " + ALL_LOCATIONS + " OR l." + KEY_ID + " = ?3)"
+            + " AND EXISTS (SELECT 1 FROM " + TABLE_INVENTORY + " WHERE " + KEY_ID + " = ?1 AND " + KEY_OWNER_ID + " = ?4))";
+
+    // Owner of the item an expression names: the item's, or the one recorded when it was
+    // deleted, so the movements of deleted items keep their owner. Two primary key lookups.
+    private static String itemOwnerOf(String itemId) {
+        return "coalesce((SELECT " + KEY_OWNER_ID + " FROM " + TABLE_INVENTORY + " WHERE " + KEY_ID + " = " + itemId + "),"
+                + " (SELECT " + KEY_OWNER_ID + " FROM " + TABLE_INVENTORY_DELETIONS + " WHERE " + KEY_ITEM_ID + " = " + itemId + "))";
+    }
+
+    // Owner ?3's movements in a time range [?1, ?2), oldest first. Ties keep the order they
+    // were written in, which the indexes already give since they end in the rowid.
+    static final String SELECT_STOCK_MOVEMENTS = "SELECT * FROM " + TABLE_STOCK_MOVEMENTS + " m"
+            + " WHERE m." + KEY_CREATED_AT + " >= ?1 AND m." + KEY_CREATED_AT + " < ?2"
+            + " AND " + itemOwnerOf("m." + KEY_ITEM_ID) + " = ?3"
+            + " ORDER BY m." + KEY_CREATED_AT + ", m." + KEY_ID;
+
+    // Same as above for one item (?4), checking the owner once
+    static final String SELECT_ITEM_STOCK_MOVEMENTS = "SELECT * FROM " + TABLE_STOCK_MOVEMENTS
+            + " WHERE " + KEY_ITEM_ID + " = ?4 AND " + KEY_CREATED_AT + " >= ?1 AND " + KEY_CREATED_AT + " < ?2"
+            + " AND " + itemOwnerOf("?4") + " = ?3"
+            + " ORDER BY " + KEY_CREATED_AT + ", " + KEY_ID;
+
+    // Folds every movement up to ?1 into a snapshot per item and location taken at ?1,
+    // on top of the last earlier snapshot. Replaces a snapshot already taken at ?1.
+    private static final String FOLD_STOCK_MOVEMENTS = "INSERT OR REPLACE INTO " + TABLE_STOCK_SNAPSHOTS + " ("
+            + KEY_ITEM_ID + ", " + KEY_LOCATION_ID + ", " + KEY_TAKEN_AT + ", " + KEY_QUANTITY + ")"
+            + " SELECT m." + KEY_ITEM_ID + ", m." + KEY_LOCATION_ID + ", ?1,"
+            + " coalesce((SELECT s." + KEY_QUANTITY + " FROM " + TABLE_STOCK_SNAPSHOTS + " s"
+            + " WHERE s." + KEY_ITEM_ID + " = m." + KEY_ITEM_ID + " AND s." + KEY_LOCATION_ID + " = m." + KEY_LOCATION_ID
+            + " AND s." + KEY_TAKEN_AT + " < ?1 ORDER BY s." + KEY_TAKEN_AT + " DESC LIMIT 1), 0)"
+            + " + sum(m." + KEY_DELTA + ")"
+            + " FROM " + TABLE_STOCK_MOVEMENTS + " m WHERE m." + KEY_CREATED_AT + " <= ?1"
+            + " GROUP BY m." + KEY_ITEM_ID + ", m." + KEY_LOCATION_ID;
+
+    // Movements are folded into snapshots one interval (a UTC day) at a time, so
+    // compacted history keeps the stock at the end of every day that had movements
+    static final long SNAPSHOT_INTERVAL_MILLIS = 24L * 60 * 60 * 1000;
+
+    // How long movements are kept in full before compactLedger() folds them into snapshots
+    static final long LEDGER_RETENTION_MILLIS = 90 * SNAPSHOT_INTERVAL_MILLIS;
+
+    // Full-text search over item names: rows whose names contain every query term as a
+    // word prefix. Names that start with the first term rank first, then shorter names.
+    // The index is shared by all owners; hits of other owners are dropped by the join.
+    static final String SEARCH_INVENTORY = "SELECT " + TABLE_INVENTORY + ".* FROM " + TABLE_INVENTORY
+            + " JOIN (SELECT docid FROM " + TABLE_INVENTORY_FTS + " WHERE " + TABLE_INVENTORY_FTS + " MATCH ?) AS hits"
+            + " ON " + TABLE_INVENTORY + "." + KEY_ID + " = hits.docid"
+            + " WHERE " + TABLE_INVENTORY + "." + KEY_OWNER_ID + " = ? AND " + TABLE_INVENTORY + "." + NOT_DELETED
+            + " ORDER BY " + KEY_ITEM_NAME + " LIKE ? DESC, length(" + KEY_ITEM_NAME + "), " + KEY_ITEM_NAME
+            + " LIMIT ?";
+
+    // SEARCH_INVENTORY among the items stocked at one location, with their quantity and
+    // threshold there. The hits drive the join: each is looked up by id, then its stock row
+    // by the location and item key. Arguments: match, owner, location, prefix, limit.
+    static final String SEARCH_LOCATION_INVENTORY = "SELECT " + LOCATION_ITEM_COLUMNS
+            + " FROM (SELECT docid FROM " + TABLE_INVENTORY_FTS + " WHERE " + TABLE_INVENTORY_FTS + " MATCH ?) AS hits"
+            + " CROSS JOIN " + TABLE_INVENTORY + " i ON i." + KEY_ID + " = hits.docid"
+            + " CROSS JOIN " + TABLE_LOCATION_STOCK + " s ON s." + KEY_ITEM_ID + " = i." + KEY_ID
+            + " WHERE i." + KEY_OWNER_ID + " = ? AND s." + KEY_LOCATION_ID + " = ? AND i." + NOT_DELETED
+            + " ORDER BY i." + KEY_ITEM_NAME + " LIKE ? DESC, length(i." + KEY_ITEM_NAME + "), i." + KEY_ITEM_NAME
+            + " LIMIT ?";
+
+    // Soft deletion and restore of one item, ?1 being its id, ?2 the deletion time and ?3 its owner
+    private static final String SOFT_DELETE_ITEM = "UPDATE " + TABLE_INVENTORY + " SET " + KEY_DELETED_AT + " = ?2"
+            + " WHERE " + KEY_ID + " = ?1 AND " + KEY_OWNER_ID + " = ?3 AND " + NOT_DELETED;
+    private static final String RESTORE_ITEM = "UPDATE " + TABLE_INVENTORY + " SET " + KEY_DELETED_AT + " = NULL"
+            + " WHERE " + KEY_ID + " = ?1 AND " + KEY_OWNER_ID + " = ?3 AND " + KEY_DELETED_AT + " IS NOT NULL";
+
+    // Threshold of one item (?1) of an owner (?3) set to ?2, item-wide or at location ?4.
+    // Both skip deleted items.
+    private static final String SET_ITEM_THRESHOLD = "UPDATE " + TABLE_INVENTORY + " SET " + KEY_THRESHOLD + " = ?2"
+            + " WHERE " + KEY_ID + " = ?1 AND " + KEY_OWNER_ID + " = ?3 AND " + NOT_DELETED;
+    private static final String SET_LOCATION_THRESHOLD = "UPDATE " + TABLE_LOCATION_STOCK
+            + " SET " + KEY_THRESHOLD + " = ?2"
+            + " WHERE " + KEY_LOCATION_ID + " = ?4 AND " + KEY_ITEM_ID + " = ?1 AND " + KEY_OWNER_ID + " = ?3"
+            + " AND EXISTS (SELECT 1 FROM " + TABLE_INVENTORY + " WHERE " + KEY_ID + " = ?1 AND " + NOT_DELETED + ")";
+
+    // Soft-deleted items deleted at or before a time, oldest first, a batch (the second
+    // argument) at a time. Reads the small partial index of deleted items.
+    static final String SELECT_PURGEABLE_ITEMS = "SELECT " + KEY_ID + " FROM " + TABLE_INVENTORY
+            + " WHERE " + KEY_DELETED_AT + " <= ? ORDER BY " + KEY_DELETED_AT + " LIMIT ?";
+
+    // How long a soft-deleted item can still be restored before purgeDeletedItems() removes
+    // it for good. Well past the undo window the inventory screen offers.
+    static final long TOMBSTONE_RETENTION_MILLIS = 10 * 60 * 1000;
+
+    // Items purged per transaction, so writers are not held up for long
+    static final int PURGE_BATCH_SIZE = 200;
+
+    // Free pages given back to the file system per incremental vacuum step
+    private static final int VACUUM_BATCH_PAGES = 256;
+
+    // PRAGMA auto_vacuum value for incremental vacuum
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Returned by adjustQuantity() and adjustStock() when the adjustment was not applied
+    public static final int ADJUSTMENT_REJECTED = -1;
+
+    // Default alert threshold, matching the column default
+    private static final int DEFAULT_THRESHOLD = 5;
+
+    // Sort orders supported by keyset paging. Each has an index that returns rows
+    // in its order, see addSortIndexes(); ties are broken by id.
+    public enum SortOrder {
+        BY_ID,
+        BY_NAME,
+        BY_QUANTITY,
+        // Quantity relative to the alert threshold, lowest first, see stockRatio()
+        BY_STOCK_RATIO
+    }
+
+    // Which items a page includes
+    public enum StockFilter {
+        ALL,
+        // At or below the alert threshold
+        LOW_STOCK;
+
+        // Whether an item belongs in a list with this filter, the same test the page query applies
+        public boolean matches(InventoryItem item) {
+            return this == ALL || item.isLowStock();
+        }
+    }
+
+    // Why stock changed, recorded with each stock movement
+    public enum MovementReason {
+        // Stock an item was created with
+        INITIAL,
+        // Relative change, e.g. the +/- buttons
+        ADJUSTMENT,
+        // Quantity overwritten by an edit
+        CORRECTION,
+        // Moved between locations
+        TRANSFER,
+        // Quantity set by a CSV import
+        IMPORT,
+        // Item deleted with stock left
+        DELETION,
+        // Counted by scanning barcodes, see applyScanCounts()
+        SCAN,
+        // Stock changes made on other devices, pulled by InventorySync
+        SYNC
+    }
+
+    // Get the process-wide helper. All screens share it so there is a single
+    // connection pool for inventory_manager instead of one per activity.
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseHelper(context.getApplicationContext(), DATABASE_NAME);
+        }
+        return instance;
+    }
+
+    // Lets tests point the helper at a throwaway database file
+    DatabaseHelper(Context context, String databaseName) {
+        this(context, databaseName, DEFAULT_CACHE_CAPACITY);
+    }
+
+    DatabaseHelper(Context context, String databaseName, int cacheCapacity) {
+        this(context, databaseName, cacheCapacity, Clock.systemUTC());
+    }
+
+    DatabaseHelper(Context context, String databaseName, int cacheCapacity, Clock clock) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        itemCache = new InventoryCache(cacheCapacity);
+        this.clock = clock;
+
+        // NORMAL sync is durable enough with WAL and saves an fsync per commit
+        setOpenParams(new SQLiteDatabase.OpenParams.Builder()
+                .setSynchronousMode("NORMAL")
+                .build());
+
+        // WAL lets reads run on pooled connections while a write transaction
+        // is open on the primary connection, instead of waiting for it
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Negative cache_size is in KiB rather than pages
+        db.execSQL("PRAGMA cache_size = -" + CACHE_SIZE_KIB);
+        // Lets reclaimFreePages() shrink the file a batch of pages at a time. Takes effect on a
+        // new database or one in full auto-vacuum mode; reclaimFreePages() switches others.
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Creating required tables
+        // Creating required tables as of version 1
         db.execSQL(CREATE_TABLE_USERS);
         db.execSQL(CREATE_TABLE_INVENTORY);
+
+        // Then run every migration, so new and upgraded installs end up with the same schema
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // On upgrade drop older tables
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_USERS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_INVENTORY);
+        // Apply each migration step in order. Steps must never drop user data.
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrateTo(db, version);
+        }
+    }
+
+    // Schema changes introduced by each database version.
+    // Runs inside the upgrade transaction opened by SQLiteOpenHelper.
+    private static void migrateTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                // Index the stock margin so the low-stock query seeks instead of scanning the table
+                db.execSQL("CREATE INDEX " + INDEX_INVENTORY_STOCK_MARGIN + " ON "
+                        + TABLE_INVENTORY + " (" + STOCK_MARGIN + ")");
+                break;
+            case 3:
+                addInventoryChangeTracking(db);
+                break;
+            case 4:
+                addInventorySearch(db);
+                break;
+            case 5:
+                addLocations(db);
+                break;
+            case 6:
+                addStockLedger(db);
+                break;
+            case 7:
+                addSortIndexes(db);
+                break;
+            case 8:
+                // Barcode or SKU of an item, optional. The unique index serves lookups by scan;
+                // NULLs are distinct in it, so any number of items can be without one.
+                db.execSQL("ALTER TABLE " + TABLE_INVENTORY + " ADD COLUMN " + KEY_SKU + " TEXT");
+                db.execSQL("CREATE UNIQUE INDEX " + INDEX_INVENTORY_SKU + " ON "
+                        + TABLE_INVENTORY + " (" + KEY_SKU + ")");
+                break;
+            case 9:
+                addSync(db);
+                break;
+            case 10:
+                addSoftDelete(db);
+                break;
+            case 11:
+                addOwners(db);
+                break;
+            case 12:
+                addLowStockOutbox(db);
+                break;
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
+    }
+
+    // Version 3: every insert, update and delete of an inventory row advances a
+    // table-level generation and stamps the row (or its deletion record) with it,
+    // so readers can ask for just the rows that changed since a generation they saw.
+    // Done with triggers so that every write path, including bulk import, is covered.
+    private static void addInventoryChangeTracking(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_INVENTORY + " ADD COLUMN "
+                + KEY_ROW_VERSION + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("CREATE INDEX " + INDEX_INVENTORY_ROW_VERSION + " ON "
+                + TABLE_INVENTORY + " (" + KEY_ROW_VERSION + ")");
+
+        db.execSQL("CREATE TABLE " + TABLE_GENERATIONS + "("
+                + KEY_TABLE_NAME + " TEXT PRIMARY KEY,"
+                + KEY_GENERATION + " INTEGER NOT NULL" + ")");
+        db.execSQL("INSERT INTO " + TABLE_GENERATIONS + " VALUES ('" + TABLE_INVENTORY + "', 0)");
 
-        // Create new tables
-        onCreate(db);
+        db.execSQL("CREATE TABLE " + TABLE_INVENTORY_DELETIONS + "("
+                + KEY_ITEM_ID + " INTEGER PRIMARY KEY,"
+                + KEY_ROW_VERSION + " INTEGER NOT NULL" + ")");
+        db.execSQL("CREATE INDEX " + INDEX_INVENTORY_DELETIONS_ROW_VERSION + " ON "
+                + TABLE_INVENTORY_DELETIONS + " (" + KEY_ROW_VERSION + ")");
+
+        String stampNewRow = "UPDATE " + TABLE_INVENTORY + " SET " + KEY_ROW_VERSION + " = " + INVENTORY_GENERATION
+                + " WHERE " + KEY_ID + " = NEW." + KEY_ID + ";";
+
+        db.execSQL("CREATE TRIGGER trg_inventory_version_insert AFTER INSERT ON " + TABLE_INVENTORY
+                + " BEGIN "
+                + BUMP_INVENTORY_GENERATION + "; "
+                + stampNewRow
+                + " END");
+
+        // The stamping UPDATE changes row_version, which keeps this trigger from firing on it
+        db.execSQL("CREATE TRIGGER trg_inventory_version_update AFTER UPDATE ON " + TABLE_INVENTORY
+                + " WHEN NEW." + KEY_ROW_VERSION + " = OLD." + KEY_ROW_VERSION
+                + " BEGIN "
+                + BUMP_INVENTORY_GENERATION + "; "
+                + stampNewRow
+                + " END");
+
+        db.execSQL("CREATE TRIGGER trg_inventory_version_delete AFTER DELETE ON " + TABLE_INVENTORY
+                + " BEGIN "
+                + BUMP_INVENTORY_GENERATION + "; "
+                + "INSERT OR REPLACE INTO " + TABLE_INVENTORY_DELETIONS + " (" + KEY_ITEM_ID + ", " + KEY_ROW_VERSION + ")"
+                + " VALUES (OLD." + KEY_ID + ", " + INVENTORY_GENERATION + ");"
+                + " END");
+    }
+
+    // Version 4: an FTS4 index over item names for search. It is an external content
+    // table, so names are not stored twice; triggers keep it in step with inventory.
+    private static void addInventorySearch(SQLiteDatabase db) {
+        // Prefix indexes make short as-you-type prefixes cheap to match
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_INVENTORY_FTS + " USING fts4("
+                + "content=\"" + TABLE_INVENTORY + "\", " + KEY_ITEM_NAME + ", prefix=\"2,3\")");
+
+        // The old name has to be removed while the content row still holds it
+        db.execSQL("CREATE TRIGGER trg_inventory_fts_before_update BEFORE UPDATE OF " + KEY_ITEM_NAME
+                + " ON " + TABLE_INVENTORY
+                + " WHEN NEW." + KEY_ITEM_NAME + " IS NOT OLD." + KEY_ITEM_NAME
+                + " BEGIN "
+                + "DELETE FROM " + TABLE_INVENTORY_FTS + " WHERE docid = OLD." + KEY_ID + ";"
+                + " END");
+        db.execSQL("CREATE TRIGGER trg_inventory_fts_before_delete BEFORE DELETE ON " + TABLE_INVENTORY
+                + " BEGIN "
+                + "DELETE FROM " + TABLE_INVENTORY_FTS + " WHERE docid = OLD." + KEY_ID + ";"
+                + " END");
+        db.execSQL("CREATE TRIGGER trg_inventory_fts_after_update AFTER UPDATE OF " + KEY_ITEM_NAME
+                + " ON " + TABLE_INVENTORY
+                + " WHEN NEW." + KEY_ITEM_NAME + " IS NOT OLD." + KEY_ITEM_NAME
+                + " BEGIN "
+                + "INSERT INTO " + TABLE_INVENTORY_FTS + " (docid, " + KEY_ITEM_NAME + ")"
+                + " VALUES (NEW." + KEY_ID + ", NEW." + KEY_ITEM_NAME + ");"
+                + " END");
+        db.execSQL("CREATE TRIGGER trg_inventory_fts_after_insert AFTER INSERT ON " + TABLE_INVENTORY
+                + " BEGIN "
+                + "INSERT INTO " + TABLE_INVENTORY_FTS + " (docid, " + KEY_ITEM_NAME + ")"
+                + " VALUES (NEW." + KEY_ID + ", NEW." + KEY_ITEM_NAME + ");"
+                + " END");
+
+        // Index the rows that are already there
+        db.execSQL("INSERT INTO " + TABLE_INVENTORY_FTS + " (" + TABLE_INVENTORY_FTS + ") VALUES ('rebuild')");
+    }
+
+    // Version 5: stock is held per location. inventory.quantity stays as the total across
+    // all locations, kept up to date by triggers on location_stock, so global reads and the
+    // low-stock index work as before without summing location rows. Stock must therefore be
+    // written through location_stock, never to inventory.quantity directly.
+    private static void addLocations(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_LOCATIONS + "("
+                + KEY_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + KEY_NAME + " TEXT UNIQUE NOT NULL" + ")");
+        db.execSQL("INSERT INTO " + TABLE_LOCATIONS + " (" + KEY_ID + ", " + KEY_NAME + ")"
+                + " VALUES (" + DEFAULT_LOCATION_ID + ", 'Main')");
+
+        // Keyed by location first, so one location's rows are a range in item id order
+        db.execSQL("CREATE TABLE " + TABLE_LOCATION_STOCK + "("
+                + KEY_LOCATION_ID + " INTEGER NOT NULL,"
+                + KEY_ITEM_ID + " INTEGER NOT NULL,"
+                + KEY_QUANTITY + " INTEGER NOT NULL,"
+                + KEY_THRESHOLD + " INTEGER NOT NULL DEFAULT 5,"
+                + "PRIMARY KEY (" + KEY_LOCATION_ID + ", " + KEY_ITEM_ID + ")) WITHOUT ROWID");
+        db.execSQL("CREATE INDEX " + INDEX_LOCATION_STOCK_MARGIN + " ON " + TABLE_LOCATION_STOCK
+                + " (" + KEY_LOCATION_ID + ", " + STOCK_MARGIN + ")");
+        db.execSQL("CREATE INDEX " + INDEX_LOCATION_STOCK_ITEM + " ON " + TABLE_LOCATION_STOCK
+                + " (" + KEY_ITEM_ID + ")");
+
+        // Existing stock moves to the default location before the triggers exist, so totals are unchanged
+        db.execSQL("INSERT INTO " + TABLE_LOCATION_STOCK + " SELECT " + DEFAULT_LOCATION_ID + ", "
+                + KEY_ID + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + " FROM " + TABLE_INVENTORY);
+
+        // Each statement touches the item row, so transfers advance the inventory generation
+        // too even though the total does not change
+        db.execSQL("CREATE TRIGGER trg_location_stock_insert AFTER INSERT ON " + TABLE_LOCATION_STOCK
+                + " BEGIN "
+                + "UPDATE " + TABLE_INVENTORY + " SET " + KEY_QUANTITY + " = " + KEY_QUANTITY + " + NEW." + KEY_QUANTITY
+                + " WHERE " + KEY_ID + " = NEW." + KEY_ITEM_ID + ";"
+                + " END");
+        db.execSQL("CREATE TRIGGER trg_location_stock_update AFTER UPDATE ON " + TABLE_LOCATION_STOCK
+                + " BEGIN "
+                + "UPDATE " + TABLE_INVENTORY + " SET " + KEY_QUANTITY + " = " + KEY_QUANTITY
+                + " + NEW." + KEY_QUANTITY + " - OLD." + KEY_QUANTITY
+                + " WHERE " + KEY_ID + " = NEW." + KEY_ITEM_ID + ";"
+                + " END");
+        db.execSQL("CREATE TRIGGER trg_location_stock_delete AFTER DELETE ON " + TABLE_LOCATION_STOCK
+                + " BEGIN "
+                + "UPDATE " + TABLE_INVENTORY + " SET " + KEY_QUANTITY + " = " + KEY_QUANTITY + " - OLD." + KEY_QUANTITY
+                + " WHERE " + KEY_ID + " = OLD." + KEY_ITEM_ID + ";"
+                + " END");
+
+        // Deleting an item deletes its stock; by then the item row is gone, so the
+        // delete trigger above has nothing to update
+        db.execSQL("CREATE TRIGGER trg_inventory_delete_stock AFTER DELETE ON " + TABLE_INVENTORY
+                + " BEGIN "
+                + "DELETE FROM " + TABLE_LOCATION_STOCK + " WHERE " + KEY_ITEM_ID + " = OLD." + KEY_ID + ";"
+                + " END");
+    }
+
+    // Version 6: an append-only ledger of stock movements, written by the stock helpers
+    // in the same transaction as the change, and snapshots of the stock of each item and
+    // location that compactLedger() folds old movements into. Existing stock becomes a
+    // snapshot taken at migration time, the starting point of the history.
+    private static void addStockLedger(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_STOCK_MOVEMENTS + "("
+                + KEY_ID + " INTEGER PRIMARY KEY,"
+                + KEY_ITEM_ID + " INTEGER NOT NULL,"
+                + KEY_LOCATION_ID + " INTEGER NOT NULL,"
+                + KEY_DELTA + " INTEGER NOT NULL,"
+                + KEY_REASON + " TEXT NOT NULL,"
+                + KEY_CREATED_AT + " INTEGER NOT NULL" + ")");
+        db.execSQL("CREATE INDEX " + INDEX_STOCK_MOVEMENTS_ITEM + " ON " + TABLE_STOCK_MOVEMENTS
+                + " (" + KEY_ITEM_ID + ", " + KEY_CREATED_AT + ")");
+        db.execSQL("CREATE INDEX " + INDEX_STOCK_MOVEMENTS_TIME + " ON " + TABLE_STOCK_MOVEMENTS
+                + " (" + KEY_CREATED_AT + ")");
+
+        db.execSQL("CREATE TABLE " + TABLE_STOCK_SNAPSHOTS + "("
+                + KEY_ITEM_ID + " INTEGER NOT NULL,"
+                + KEY_LOCATION_ID + " INTEGER NOT NULL,"
+                + KEY_TAKEN_AT + " INTEGER NOT NULL,"
+                + KEY_QUANTITY + " INTEGER NOT NULL,"
+                + "PRIMARY KEY (" + KEY_ITEM_ID + ", " + KEY_LOCATION_ID + ", " + KEY_TAKEN_AT + ")) WITHOUT ROWID");
+
+        // Taken just before the current second, so it precedes every movement written from now on
+        db.execSQL("INSERT INTO " + TABLE_STOCK_SNAPSHOTS + " SELECT " + KEY_ITEM_ID + ", " + KEY_LOCATION_ID
+                + ", CAST(strftime('%s', 'now') AS INTEGER) * 1000 - 1, " + KEY_QUANTITY + " FROM " + TABLE_LOCATION_STOCK);
+    }
+
+    // Version 7: an index for every page sort order and filter, so each page is read
+    // in index order and the first rows stream without sorting the table first.
+    // Quantity and ratio orders get covering indexes, which a quantity write has to
+    // update anyway since quantity is part of the key. Name and id use the existing
+    // unique index and the table itself, so quantity writes do not touch them.
+    // The low-stock variants are partial indexes holding only the low rows.
+    private static void addSortIndexes(SQLiteDatabase db) {
+        String ratio = stockRatio(KEY_QUANTITY, KEY_THRESHOLD);
+        db.execSQL("CREATE INDEX " + INDEX_INVENTORY_QUANTITY + " ON " + TABLE_INVENTORY
+                + " (" + KEY_QUANTITY + ", " + KEY_ID + ", " + KEY_ITEM_NAME + ", " + KEY_THRESHOLD + ")");
+        db.execSQL("CREATE INDEX " + INDEX_INVENTORY_STOCK_RATIO + " ON " + TABLE_INVENTORY
+                + " (" + ratio + ", " + KEY_ID + ", " + KEY_ITEM_NAME + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ")");
+
+        // The rowid at the end of each key breaks ties by id
+        db.execSQL("CREATE INDEX " + INDEX_INVENTORY_LOW_ID + " ON " + TABLE_INVENTORY
+                + " (" + KEY_ID + ") WHERE " + LOW_STOCK);
+        db.execSQL("CREATE INDEX " + INDEX_INVENTORY_LOW_NAME + " ON " + TABLE_INVENTORY
+                + " (" + KEY_ITEM_NAME + ") WHERE " + LOW_STOCK);
+        db.execSQL("CREATE INDEX " + INDEX_INVENTORY_LOW_QUANTITY + " ON " + TABLE_INVENTORY
+                + " (" + KEY_QUANTITY + ") WHERE " + LOW_STOCK);
+        db.execSQL("CREATE INDEX " + INDEX_INVENTORY_LOW_RATIO + " ON " + TABLE_INVENTORY
+                + " (" + ratio + ") WHERE " + LOW_STOCK);
+
+        // Per-location pages by quantity and ratio; by id they use the primary key and by
+        // name they walk the item name index, looking each item up in location_stock
+        db.execSQL("CREATE INDEX " + INDEX_LOCATION_STOCK_QUANTITY + " ON " + TABLE_LOCATION_STOCK
+                + " (" + KEY_LOCATION_ID + ", " + KEY_QUANTITY + ", " + KEY_ITEM_ID + ", " + KEY_THRESHOLD + ")");
+        db.execSQL("CREATE INDEX " + INDEX_LOCATION_STOCK_RATIO + " ON " + TABLE_LOCATION_STOCK
+                + " (" + KEY_LOCATION_ID + ", " + ratio + ", " + KEY_ITEM_ID + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ")");
+    }
+
+    // Version 9: sync state. Every item gets a sync_items row holding its global id, the
+    // net stock change made on this device (local_delta) and pulled from others
+    // (remote_delta), and the name and threshold last agreed with the server. Triggers
+    // flag rows dirty on inserts, edits and deletes; stock writes do it in recordMovement().
+    // The row outlives a deleted item until the deletion has been pushed.
+    private static void addSync(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_ITEMS + "("
+                + KEY_ITEM_ID + " INTEGER PRIMARY KEY,"
+                + KEY_GLOBAL_ID + " TEXT UNIQUE NOT NULL,"
+                + KEY_LOCAL_DELTA + " INTEGER NOT NULL DEFAULT 0,"
+                + KEY_REMOTE_DELTA + " INTEGER NOT NULL DEFAULT 0,"
+                + KEY_SYNCED_NAME + " TEXT,"
+                + KEY_SYNCED_THRESHOLD + " INTEGER,"
+                + KEY_DELETED + " INTEGER NOT NULL DEFAULT 0,"
+                + KEY_DIRTY + " INTEGER NOT NULL DEFAULT 1" + ")");
+        db.execSQL("CREATE INDEX " + INDEX_SYNC_ITEMS_DIRTY + " ON " + TABLE_SYNC_ITEMS
+                + " (" + KEY_ITEM_ID + ") WHERE " + KEY_DIRTY + " = 1");
+
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + "("
+                + KEY_KEY + " TEXT PRIMARY KEY,"
+                + KEY_VALUE + " TEXT" + ") WITHOUT ROWID");
+        db.execSQL("INSERT INTO " + TABLE_SYNC_STATE + " VALUES ('" + SYNC_DEVICE_ID + "', " + NEW_GLOBAL_ID + ")");
+
+        // Stock that is already here counts as this device's change
+        db.execSQL("INSERT INTO " + TABLE_SYNC_ITEMS + " (" + KEY_ITEM_ID + ", " + KEY_GLOBAL_ID + ", " + KEY_LOCAL_DELTA + ")"
+                + " SELECT " + KEY_ID + ", " + NEW_GLOBAL_ID + ", " + KEY_QUANTITY + " FROM " + TABLE_INVENTORY);
+
+        db.execSQL("CREATE TRIGGER trg_inventory_sync_insert AFTER INSERT ON " + TABLE_INVENTORY
+                + " BEGIN "
+                + "INSERT INTO " + TABLE_SYNC_ITEMS + " (" + KEY_ITEM_ID + ", " + KEY_GLOBAL_ID + ")"
+                + " VALUES (NEW." + KEY_ID + ", " + NEW_GLOBAL_ID + ");"
+                + " END");
+        db.execSQL("CREATE TRIGGER trg_inventory_sync_update AFTER UPDATE OF " + KEY_ITEM_NAME + ", " + KEY_THRESHOLD
+                + " ON " + TABLE_INVENTORY
+                + " WHEN NEW." + KEY_ITEM_NAME + " IS NOT OLD." + KEY_ITEM_NAME
+                + " OR NEW." + KEY_THRESHOLD + " IS NOT OLD." + KEY_THRESHOLD
+                + " BEGIN "
+                + "UPDATE " + TABLE_SYNC_ITEMS + " SET " + KEY_DIRTY + " = 1 WHERE " + KEY_ITEM_ID + " = NEW." + KEY_ID + ";"
+                + " END");
+        db.execSQL("CREATE TRIGGER trg_inventory_sync_delete AFTER DELETE ON " + TABLE_INVENTORY
+                + " BEGIN "
+                + "UPDATE " + TABLE_SYNC_ITEMS + " SET " + KEY_DELETED + " = 1, " + KEY_DIRTY + " = 1"
+                + " WHERE " + KEY_ITEM_ID + " = OLD." + KEY_ID + ";"
+                + " END");
+    }
+
+    // Version 10: items are soft-deleted by setting deleted_at, so a deletion can be undone,
+    // and purged for good later by purgeDeletedItems(). Every read skips deleted items, so
+    // the item indexes are rebuilt to answer that themselves: the low-stock partial indexes
+    // leave deleted items out, and the covering and margin indexes carry deleted_at last,
+    // which keeps their order and lets deleted rows be skipped without reading the table.
+    // Pages by id and name walk the table and the unique name index and skip deleted rows
+    // as they go; there are few of those, and not for long. Deleted items get a partial
+    // index of their own for the purge.
+    private static void addSoftDelete(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_INVENTORY + " ADD COLUMN " + KEY_DELETED_AT + " INTEGER");
+
+        String ratio = stockRatio(KEY_QUANTITY, KEY_THRESHOLD);
+        String lowAndLive = LOW_STOCK + " AND " + NOT_DELETED;
+        String[][] indexes = {
+                {INDEX_INVENTORY_STOCK_MARGIN, STOCK_MARGIN + ", " + KEY_DELETED_AT, null},
+                {INDEX_INVENTORY_QUANTITY, KEY_QUANTITY + ", " + KEY_ID + ", " + KEY_ITEM_NAME + ", " + KEY_THRESHOLD
+                        + ", " + KEY_DELETED_AT, null},
+                {INDEX_INVENTORY_STOCK_RATIO, ratio + ", " + KEY_ID + ", " + KEY_ITEM_NAME + ", " + KEY_QUANTITY
+                        + ", " + KEY_THRESHOLD + ", " + KEY_DELETED_AT, null},
+                {INDEX_INVENTORY_LOW_ID, KEY_ID, lowAndLive},
+                {INDEX_INVENTORY_LOW_NAME, KEY_ITEM_NAME, lowAndLive},
+                {INDEX_INVENTORY_LOW_QUANTITY, KEY_QUANTITY, lowAndLive},
+                {INDEX_INVENTORY_LOW_RATIO, ratio, lowAndLive}};
+        for (String[] index : indexes) {
+            db.execSQL("DROP INDEX " + index[0]);
+            db.execSQL("CREATE INDEX " + index[0] + " ON " + TABLE_INVENTORY + " (" + index[1] + ")"
+                    + (index[2] != null ? " WHERE " + index[2] : ""));
+        }
+
+        db.execSQL("CREATE INDEX " + INDEX_INVENTORY_TOMBSTONES + " ON " + TABLE_INVENTORY
+                + " (" + KEY_DELETED_AT + ") WHERE " + KEY_DELETED_AT + " IS NOT NULL");
+    }
+
+    // Version 11: every item belongs to an account, so accounts sharing a device each see
+    // only their own inventory. Items that were already here go to the first account.
+    // Names and SKUs become unique per owner, which the inline UNIQUE on item_name does
+    // not allow, so the table is rebuilt as the SQLite docs describe for schema changes
+    // ALTER TABLE cannot make: the triggers are saved and dropped, the rows copied to a
+    // new table that takes the old one's place, and the triggers created again.
+    // Every item index now leads on owner_id, so an owner's reads seek to their own rows
+    // and never pass another owner's. location_stock and inventory_deletions carry the
+    // owner too, for the per-location reads and for screens following deletions.
+    private static void addOwners(SQLiteDatabase db) {
+        // Ids of purged items must not be handed out again while sync still knows them,
+        // so the AUTOINCREMENT sequence is carried over to the new table
+        long sequence = DatabaseUtils.longForQuery(db, "SELECT coalesce((SELECT seq FROM sqlite_sequence"
+                + " WHERE name = ?), 0)", new String[]{TABLE_INVENTORY});
+
+        // Triggers on other tables that write to inventory would make the rename fail, so all go
+        List<String> triggerNames = new ArrayList<>();
+        List<String> triggers = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'trigger'", null);
+        try {
+            while (cursor.moveToNext()) {
+                triggerNames.add(cursor.getString(0));
+                triggers.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (String name : triggerNames) {
+            db.execSQL("DROP TRIGGER " + name);
+        }
+
+        String rebuilt = TABLE_INVENTORY + "_owned";
+        db.execSQL("CREATE TABLE " + rebuilt + "("
+                + KEY_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + KEY_ITEM_NAME + " TEXT NOT NULL,"
+                + KEY_QUANTITY + " INTEGER NOT NULL,"
+                + KEY_THRESHOLD + " INTEGER NOT NULL DEFAULT 5,"
+                + KEY_ROW_VERSION + " INTEGER NOT NULL DEFAULT 0,"
+                + KEY_SKU + " TEXT,"
+                + KEY_DELETED_AT + " INTEGER,"
+                + KEY_OWNER_ID + " INTEGER NOT NULL,"
+                + "UNIQUE (" + KEY_OWNER_ID + ", " + KEY_ITEM_NAME + "))");
+        String columns = KEY_ID + ", " + KEY_ITEM_NAME + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ", "
+                + KEY_ROW_VERSION + ", " + KEY_SKU + ", " + KEY_DELETED_AT;
+        db.execSQL("INSERT INTO " + rebuilt + " (" + columns + ", " + KEY_OWNER_ID + ")"
+                + " SELECT " + columns + ", " + FIRST_USER_ID + " FROM " + TABLE_INVENTORY);
+        db.execSQL("DROP TABLE " + TABLE_INVENTORY);
+        db.execSQL("ALTER TABLE " + rebuilt + " RENAME TO " + TABLE_INVENTORY);
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?", new Object[]{TABLE_INVENTORY});
+        if (sequence > 0) {
+            db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)", new Object[]{TABLE_INVENTORY, sequence});
+        }
+
+        // The ratio and quantity indexes stay covering for pages; the owner index alone
+        // gives an owner's rows in id order, as the rowid ends every index key
+        String ratio = stockRatio(KEY_QUANTITY, KEY_THRESHOLD);
+        String lowAndLive = LOW_STOCK + " AND " + NOT_DELETED;
+        String[][] indexes = {
+                {INDEX_INVENTORY_OWNER, KEY_OWNER_ID, null},
+                {INDEX_INVENTORY_ROW_VERSION, KEY_OWNER_ID + ", " + KEY_ROW_VERSION, null},
+                {INDEX_INVENTORY_STOCK_MARGIN, KEY_OWNER_ID + ", " + STOCK_MARGIN + ", " + KEY_DELETED_AT, null},
+                {INDEX_INVENTORY_QUANTITY, KEY_OWNER_ID + ", " + KEY_QUANTITY + ", " + KEY_ID + ", " + KEY_ITEM_NAME
+                        + ", " + KEY_THRESHOLD + ", " + KEY_DELETED_AT, null},
+                {INDEX_INVENTORY_STOCK_RATIO, KEY_OWNER_ID + ", " + ratio + ", " + KEY_ID + ", " + KEY_ITEM_NAME
+                        + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ", " + KEY_DELETED_AT, null},
+                {INDEX_INVENTORY_LOW_ID, KEY_OWNER_ID + ", " + KEY_ID, lowAndLive},
+                {INDEX_INVENTORY_LOW_NAME, KEY_OWNER_ID + ", " + KEY_ITEM_NAME, lowAndLive},
+                {INDEX_INVENTORY_LOW_QUANTITY, KEY_OWNER_ID + ", " + KEY_QUANTITY, lowAndLive},
+                {INDEX_INVENTORY_LOW_RATIO, KEY_OWNER_ID + ", " + ratio, lowAndLive},
+                // Purging goes by deletion time across owners
+                {INDEX_INVENTORY_TOMBSTONES, KEY_DELETED_AT, KEY_DELETED_AT + " IS NOT NULL"}};
+        for (String[] index : indexes) {
+            db.execSQL("CREATE INDEX " + index[0] + " ON " + TABLE_INVENTORY + " (" + index[1] + ")"
+                    + (index[2] != null ? " WHERE " + index[2] : ""));
+        }
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_INVENTORY_SKU + " ON "
+                + TABLE_INVENTORY + " (" + KEY_OWNER_ID + ", " + KEY_SKU + ")");
+
+        // An item's owner never changes, so its stock rows copy it once, when they are created
+        db.execSQL("ALTER TABLE " + TABLE_LOCATION_STOCK + " ADD COLUMN "
+                + KEY_OWNER_ID + " INTEGER NOT NULL DEFAULT " + NO_OWNER);
+        db.execSQL("UPDATE " + TABLE_LOCATION_STOCK + " SET " + KEY_OWNER_ID + " = (SELECT " + KEY_OWNER_ID
+                + " FROM " + TABLE_INVENTORY + " WHERE " + KEY_ID + " = " + KEY_ITEM_ID + ")");
+        String[][] locationIndexes = {
+                // By id, where the primary key served before. Covering, so it is preferred to it.
+                {INDEX_LOCATION_STOCK_OWNER, KEY_ITEM_ID + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD},
+                {INDEX_LOCATION_STOCK_MARGIN, STOCK_MARGIN},
+                {INDEX_LOCATION_STOCK_QUANTITY, KEY_QUANTITY + ", " + KEY_ITEM_ID + ", " + KEY_THRESHOLD},
+                {INDEX_LOCATION_STOCK_RATIO, ratio + ", " + KEY_ITEM_ID + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD}};
+        for (String[] index : locationIndexes) {
+            db.execSQL("DROP INDEX IF EXISTS " + index[0]);
+            db.execSQL("CREATE INDEX " + index[0] + " ON " + TABLE_LOCATION_STOCK
+                    + " (" + KEY_OWNER_ID + ", " + KEY_LOCATION_ID + ", " + index[1] + ")");
+        }
+
+        db.execSQL("ALTER TABLE " + TABLE_INVENTORY_DELETIONS + " ADD COLUMN "
+                + KEY_OWNER_ID + " INTEGER NOT NULL DEFAULT " + NO_OWNER);
+        db.execSQL("UPDATE " + TABLE_INVENTORY_DELETIONS + " SET " + KEY_OWNER_ID + " = " + FIRST_USER_ID);
+        db.execSQL("DROP INDEX " + INDEX_INVENTORY_DELETIONS_ROW_VERSION);
+        db.execSQL("CREATE INDEX " + INDEX_INVENTORY_DELETIONS_ROW_VERSION + " ON "
+                + TABLE_INVENTORY_DELETIONS + " (" + KEY_OWNER_ID + ", " + KEY_ROW_VERSION + ")");
+
+        // The triggers as they were, except that deletions now record the owner
+        String deletionTrigger = "trg_inventory_version_delete";
+        for (int i = 0; i < triggers.size(); i++) {
+            if (!triggerNames.get(i).equals(deletionTrigger)) {
+                db.execSQL(triggers.get(i));
+            }
+        }
+        db.execSQL("CREATE TRIGGER " + deletionTrigger + " AFTER DELETE ON " + TABLE_INVENTORY
+                + " BEGIN "
+                + BUMP_INVENTORY_GENERATION + "; "
+                + "INSERT OR REPLACE INTO " + TABLE_INVENTORY_DELETIONS
+                + " (" + KEY_ITEM_ID + ", " + KEY_ROW_VERSION + ", " + KEY_OWNER_ID + ")"
+                + " VALUES (OLD." + KEY_ID + ", " + INVENTORY_GENERATION + ", OLD." + KEY_OWNER_ID + ");"
+                + " END");
+    }
+
+    // Version 12: an outbox of low-stock crossings, so alerts follow the writes instead
+    // of polling the low-stock query. Items that have crossed their threshold get one row,
+    // holding the side they are on now (low) and the side last handed out and acknowledged
+    // (reported_low); the row is a pending event while the two differ. A trigger updates it
+    // whenever a stock or threshold change moves the item to the other side, and moves it
+    // to the end of the outbox. Crossing back before the event is handed out leaves nothing
+    // pending, and one handed out but not yet acknowledged stays pending, so the events an
+    // owner is handed alternate between low and recovered for each item.
+    // An item without a row is not low and reported as such. New items are inserted at zero
+    // and get their stock right after (see addLocations()), so only updates are watched;
+    // the insert would otherwise report every new item as low for a moment. Items that
+    // are already low are queued as if they had just gone low.
+    private static void addLowStockOutbox(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_LOW_STOCK_OUTBOX + "("
+                + KEY_ID + " INTEGER PRIMARY KEY,"
+                + KEY_ITEM_ID + " INTEGER UNIQUE NOT NULL,"
+                + KEY_OWNER_ID + " INTEGER NOT NULL,"
+                + KEY_LOW + " INTEGER NOT NULL,"
+                + KEY_QUANTITY + " INTEGER NOT NULL,"
+                + KEY_THRESHOLD + " INTEGER NOT NULL,"
+                + KEY_REPORTED_LOW + " INTEGER NOT NULL DEFAULT 0" + ")");
+        // The rowid at the end of the key keeps each owner's events in outbox order
+        db.execSQL("CREATE INDEX " + INDEX_LOW_STOCK_OUTBOX_PENDING + " ON " + TABLE_LOW_STOCK_OUTBOX
+                + " (" + KEY_OWNER_ID + ") WHERE " + LOW_STOCK_PENDING);
+
+        db.execSQL("INSERT INTO " + TABLE_LOW_STOCK_OUTBOX + " (" + KEY_ITEM_ID + ", " + KEY_OWNER_ID + ", "
+                + KEY_LOW + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ")"
+                + " SELECT " + KEY_ID + ", " + KEY_OWNER_ID + ", 1, " + KEY_QUANTITY + ", " + KEY_THRESHOLD
+                + " FROM " + TABLE_INVENTORY + " WHERE " + NOT_DELETED + " AND " + LOW_STOCK + " ORDER BY " + KEY_ID);
+
+        // REPLACE deletes the old row before inserting, and the new rowid is picked past
+        // every row there, so the event moves to the end of the outbox. The subquery for
+        // reported_low is read before that. A row left with nothing to tell is dropped.
+        String low = "NEW." + KEY_QUANTITY + " - NEW." + KEY_THRESHOLD + " <= 0";
+        String row = " FROM " + TABLE_LOW_STOCK_OUTBOX + " WHERE " + KEY_ITEM_ID + " = NEW." + KEY_ID;
+        db.execSQL("CREATE TRIGGER trg_inventory_low_stock AFTER UPDATE OF " + KEY_QUANTITY + ", " + KEY_THRESHOLD
+                + " ON " + TABLE_INVENTORY
+                + " WHEN (" + low + ") != coalesce((SELECT " + KEY_LOW + row + "), 0)"
+                + " BEGIN "
+                + "INSERT OR REPLACE INTO " + TABLE_LOW_STOCK_OUTBOX + " (" + KEY_ITEM_ID + ", " + KEY_OWNER_ID + ", "
+                + KEY_LOW + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD + ", " + KEY_REPORTED_LOW + ")"
+                + " VALUES (NEW." + KEY_ID + ", NEW." + KEY_OWNER_ID + ", " + low + ", NEW." + KEY_QUANTITY
+                + ", NEW." + KEY_THRESHOLD + ", coalesce((SELECT " + KEY_REPORTED_LOW + row + "), 0));"
+                + "DELETE" + row + " AND " + KEY_LOW + " = 0 AND " + KEY_REPORTED_LOW + " = 0;"
+                + " END");
+        db.execSQL("CREATE TRIGGER trg_inventory_low_stock_delete AFTER DELETE ON " + TABLE_INVENTORY
+                + " BEGIN "
+                + "DELETE FROM " + TABLE_LOW_STOCK_OUTBOX + " WHERE " + KEY_ITEM_ID + " = OLD." + KEY_ID + ";"
+                + " END");
+    }
+
+    // Quantity relative to the alert threshold, as a real number. A threshold of zero
+    // counts as one. Must be written the same way in indexes and queries.
+    private static String stockRatio(String quantityColumn, String thresholdColumn) {
+        return quantityColumn + " * 1.0 / max(" + thresholdColumn + ", 1)";
+    }
+
+    // Open the database, creating or migrating it on first run, and read the tables
+    // login and the first inventory page use. Called off the main thread at startup
+    // so the first real query finds the schema and pages already loaded.
+    public void prewarm() {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+        DatabaseUtils.longForQuery(db, "SELECT count(*) FROM " + TABLE_USERS, null);
+        getInventoryGeneration();
+        QueryStats.end("prewarm", start);
     }
 
     // ========== USER METHODS ==========
 
     // Check if user exists
     public boolean checkUser(String username, String password) {
+        return findUser(username, password) != -1;
+    }
+
+    // Get the id of the user with these credentials, or -1 if there is none. The id
+    // is the owner of the user's inventory.
+    public long findUser(String username, String password) {
+        long start = QueryStats.begin();
         SQLiteDatabase db = this.getReadableDatabase();
 
         String selection = KEY_USERNAME + " = ? AND " + KEY_PASSWORD + " = ?";
         String[] selectionArgs = {username, password};
 
-        Cursor cursor = db.query(TABLE_USERS, null, selection, selectionArgs, null, null, null);
-        int count = cursor.getCount();
+        Cursor cursor = db.query(TABLE_USERS, new String[]{KEY_ID}, selection, selectionArgs, null, null, null);
+        long id = -1;
+        try {
+            if (cursor.moveToFirst()) {
+                id = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
 
-        cursor.close();
-        return count > 0;
+        QueryStats.end("findUser", start, id != -1 ? 1 : 0);
+        return id;
     }
 
     // Add new user
     public long addUser(String username, String password) {
+        long start = QueryStats.begin();
         SQLiteDatabase db = this.getWritableDatabase();
 
         ContentValues values = new ContentValues();
         values.put(KEY_USERNAME, username);
         values.put(KEY_PASSWORD, password);
 
-        // Insert row
-        long id = db.insert(TABLE_USERS, null, values);
+        // Insert row. Sync skipped the account's items while it did not exist here, so
+        // forget the token and pull everything again; applying a pulled item twice is harmless.
+        long id;
+        db.beginTransactionNonExclusive();
+        try {
+            id = db.insert(TABLE_USERS, null, values);
+            if (id != -1) {
+                db.delete(TABLE_SYNC_STATE, KEY_KEY + " = ?", new String[]{SYNC_TOKEN});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (id != -1) {
+            invalidationTracker.invalidate(TABLE_USERS);
+        }
 
+        QueryStats.end("addUser", start);
         return id;
     }
 
     // ========== INVENTORY METHODS ==========
 
-    // Add new inventory item
-    public long addInventoryItem(String itemName, int quantity, int threshold) {
+    // Add new inventory item to an owner's inventory, stocked at the default location
+    public long addInventoryItem(long ownerId, String itemName, int quantity, int threshold) {
+        return addInventoryItem(ownerId, itemName, quantity, threshold, DEFAULT_LOCATION_ID);
+    }
+
+    // Same as above with its first stock at a location (the default one for ALL_LOCATIONS).
+    // Names are unique per owner.
+    public long addInventoryItem(long ownerId, String itemName, int quantity, int threshold, long locationId) {
+        long start = QueryStats.begin();
         SQLiteDatabase db = this.getWritableDatabase();
 
         ContentValues values = new ContentValues();
+        values.put(KEY_OWNER_ID, ownerId);
         values.put(KEY_ITEM_NAME, itemName);
-        values.put(KEY_QUANTITY, quantity);
+        // The total follows the stock rows, see addLocations()
+        values.put(KEY_QUANTITY, 0);
         values.put(KEY_THRESHOLD, threshold);
 
-        // Insert row
-        long id = db.insert(TABLE_INVENTORY, null, values);
+        synchronized (inventoryWriteLock) {
+            long id;
+            db.beginTransactionNonExclusive();
+            try {
+                // A deleted item may still hold the name until it is purged
+                purgeDeletedHolding(db, ownerId, KEY_ITEM_NAME, itemName, -1);
+                // Insert row, then its stock
+                id = db.insert(TABLE_INVENTORY, null, values);
+                // An unknown location leaves the item without stock
+                if (id != -1 && setStock(db, ownerId, id, locationId == ALL_LOCATIONS ? DEFAULT_LOCATION_ID : locationId,
+                        quantity, threshold, MovementReason.INITIAL) == 0) {
+                    quantity = 0;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
 
-        return id;
+            if (id != -1) {
+                itemCache.put(ownerId, new InventoryItem(id, itemName, quantity, threshold));
+                invalidationTracker.invalidate(STOCK_TABLES);
+            }
+            QueryStats.end("addInventoryItem", start, id != -1 ? 1 : 0);
+            return id;
+        }
     }
 
-    // Update inventory item quantity
-    public int updateInventoryItem(long id, int quantity) {
+    // Update an owner's inventory item quantity, i.e. its total across locations.
+    // The difference is applied at the default location, see SET_TOTAL.
+    // Returns 0 if the item does not exist, is deleted or is not the owner's.
+    public int updateInventoryItem(long ownerId, long id, int quantity) {
+        long start = QueryStats.begin();
         SQLiteDatabase db = this.getWritableDatabase();
 
-        ContentValues values = new ContentValues();
-        values.put(KEY_QUANTITY, quantity);
+        synchronized (inventoryWriteLock) {
+            InventoryItem updated = null;
+            db.beginTransactionNonExclusive();
+            try {
+                if (setTotal(db, ownerId, id, quantity, MovementReason.CORRECTION) > 0) {
+                    updated = queryInventoryItem(db, ownerId, id);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
 
-        // Updating row
-        return db.update(TABLE_INVENTORY, values, KEY_ID + " = ?", new String[]{String.valueOf(id)});
+            int rows = cacheWritten(ownerId, id, updated);
+            invalidateIf(rows > 0, STOCK_TABLES);
+            QueryStats.end("updateInventoryItem(quantity)", start, rows);
+            return rows;
+        }
     }
 
-    // Update inventory item completely
-    public int updateInventoryItem(long id, String itemName, int quantity, int threshold) {
+    // Update an owner's inventory item completely
+    public int updateInventoryItem(long ownerId, long id, String itemName, int quantity, int threshold) {
+        return updateInventoryItem(ownerId, id, itemName, quantity, threshold, ALL_LOCATIONS);
+    }
+
+    // Update an item's name, and its quantity and threshold at one location. With
+    // ALL_LOCATIONS the quantity is the total and the threshold the item-wide one.
+    public int updateInventoryItem(long ownerId, long id, String itemName, int quantity, int threshold,
+                                   long locationId) {
+        long start = QueryStats.begin();
         SQLiteDatabase db = this.getWritableDatabase();
 
         ContentValues values = new ContentValues();
         values.put(KEY_ITEM_NAME, itemName);
-        values.put(KEY_QUANTITY, quantity);
-        values.put(KEY_THRESHOLD, threshold);
+        if (locationId == ALL_LOCATIONS) {
+            values.put(KEY_THRESHOLD, threshold);
+        }
+
+        synchronized (inventoryWriteLock) {
+            InventoryItem updated = null;
+            boolean purged;
+            db.beginTransactionNonExclusive();
+            try {
+                purged = itemOwner(db, id) == ownerId
+                        && purgeDeletedHolding(db, ownerId, KEY_ITEM_NAME, itemName, id);
+                // Updating row, then its stock. Deleted items cannot be edited.
+                int rows = db.update(TABLE_INVENTORY, values, KEY_ID + " = ? AND " + KEY_OWNER_ID + " = ? AND " + NOT_DELETED,
+                        new String[]{String.valueOf(id), String.valueOf(ownerId)});
+                if (rows > 0) {
+                    if (locationId == ALL_LOCATIONS) {
+                        setTotal(db, ownerId, id, quantity, MovementReason.CORRECTION);
+                    } else {
+                        setStock(db, ownerId, id, locationId, quantity, threshold, MovementReason.CORRECTION);
+                    }
+                    updated = queryInventoryItem(db, ownerId, id);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            int rows = cacheWritten(ownerId, id, updated);
+            invalidateIf(rows > 0 || purged, STOCK_TABLES);
+            QueryStats.end("updateInventoryItem", start, rows);
+            return rows;
+        }
+    }
+
+    // Add delta (which may be negative) to an owner's item's stock at the default location.
+    // Returns the new stock there, or ADJUSTMENT_REJECTED, see adjustStock().
+    public int adjustQuantity(long ownerId, long id, int delta) {
+        return adjustStock(ownerId, id, DEFAULT_LOCATION_ID, delta);
+    }
+
+    // Add delta (which may be negative) to an item's stock at a location. The arithmetic is
+    // done by SQLite in one statement, so concurrent adjustments never overwrite each other.
+    // Returns the new stock at the location, or ADJUSTMENT_REJECTED if the item or location
+    // does not exist, the item is not the owner's or the stock would drop below zero.
+    public int adjustStock(long ownerId, long itemId, long locationId, int delta) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
 
-        // Updating row
-        return db.update(TABLE_INVENTORY, values, KEY_ID + " = ?", new String[]{String.valueOf(id)});
+        synchronized (inventoryWriteLock) {
+            int quantity;
+            InventoryItem updated = null;
+            db.beginTransactionNonExclusive();
+            try {
+                quantity = applyStockDelta(db, ownerId, itemId, locationId, delta, MovementReason.ADJUSTMENT);
+                if (quantity != ADJUSTMENT_REJECTED) {
+                    updated = queryInventoryItem(db, ownerId, itemId);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            cacheWritten(ownerId, itemId, updated);
+            invalidateIf(quantity != ADJUSTMENT_REJECTED, STOCK_TABLES);
+            QueryStats.end("adjustStock", start, quantity != ADJUSTMENT_REJECTED ? 1 : 0);
+            return quantity;
+        }
+    }
+
+    // Move stock of an owner's item between two locations in one transaction. Returns false,
+    // changing nothing, if the source holds less than quantity, either location is missing
+    // or the item is not the owner's.
+    public boolean transferStock(long ownerId, long itemId, long fromLocationId, long toLocationId, int quantity) {
+        if (quantity <= 0 || fromLocationId == toLocationId) {
+            throw new IllegalArgumentException("Transfer needs a positive quantity and two locations");
+        }
+
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+
+        synchronized (inventoryWriteLock) {
+            boolean transferred = false;
+            db.beginTransactionNonExclusive();
+            try {
+                if (applyStockDelta(db, ownerId, itemId, fromLocationId, -quantity, MovementReason.TRANSFER)
+                        != ADJUSTMENT_REJECTED
+                        && applyStockDelta(db, ownerId, itemId, toLocationId, quantity, MovementReason.TRANSFER)
+                        != ADJUSTMENT_REJECTED) {
+                    db.setTransactionSuccessful();
+                    transferred = true;
+                }
+            } finally {
+                db.endTransaction();
+            }
+
+            // The total is unchanged, so a cached item is still correct
+            invalidateIf(transferred, TABLE_LOCATION_STOCK, TABLE_STOCK_MOVEMENTS);
+            QueryStats.end("transferStock", start, transferred ? 2 : 0);
+            return transferred;
+        }
+    }
+
+    // Delete an owner's inventory item for good, together with its stock at every location.
+    // The stock it had is recorded as DELETION movements. See softDeleteInventoryItem()
+    // for a deletion that can be undone. Items of other owners are left as they are.
+    public void deleteInventoryItem(long ownerId, long id) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+        synchronized (inventoryWriteLock) {
+            int rows;
+            db.beginTransactionNonExclusive();
+            try {
+                rows = itemOwner(db, id) == ownerId ? deleteItem(db, id) : 0;
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            itemCache.remove(id);
+            invalidateIf(rows > 0, STOCK_TABLES);
+            QueryStats.end("deleteInventoryItem", start, rows);
+        }
+    }
+
+    // Mark an owner's item deleted. Reads leave it out from then on, but it keeps its stock
+    // and its place in sync until purgeDeletedItems() deletes it for good, so until then
+    // restoreInventoryItem() brings it back as it was. Returns the rows written: 0 if the
+    // item does not exist, is already deleted or is not the owner's.
+    public int softDeleteInventoryItem(long ownerId, long id) {
+        return setDeletedAt(ownerId, new long[]{id}, clock.millis(), "softDeleteInventoryItem");
+    }
+
+    // Undo softDeleteInventoryItem(). Returns 0 if the item is not deleted, or was purged.
+    public int restoreInventoryItem(long ownerId, long id) {
+        return setDeletedAt(ownerId, new long[]{id}, null, "restoreInventoryItem");
+    }
+
+    // Mark many items deleted in one transaction, as softDeleteInventoryItem() does for one.
+    // Returns the number of items deleted.
+    public int softDeleteInventoryItems(long ownerId, long[] ids) {
+        return setDeletedAt(ownerId, ids, clock.millis(), "softDeleteInventoryItems");
+    }
+
+    // Undo softDeleteInventoryItems(). Returns the number of items restored.
+    public int restoreInventoryItems(long ownerId, long[] ids) {
+        return setDeletedAt(ownerId, ids, null, "restoreInventoryItems");
+    }
+
+    // The change tracking triggers advance the generation for both, so screens see a
+    // soft deletion as a deletion and a restore as a changed row
+    private int setDeletedAt(long ownerId, long[] ids, Long deletedAt, String operation) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+
+        synchronized (inventoryWriteLock) {
+            int rows = 0;
+            SQLiteStatement update = db.compileStatement(deletedAt != null ? SOFT_DELETE_ITEM : RESTORE_ITEM);
+            db.beginTransactionNonExclusive();
+            try {
+                if (deletedAt != null) {
+                    update.bindLong(2, deletedAt);
+                }
+                update.bindLong(3, ownerId);
+                for (long id : ids) {
+                    update.bindLong(1, id);
+                    rows += update.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                update.close();
+            }
+
+            // Re-read lazily; a deleted item is never cached
+            for (long id : ids) {
+                itemCache.remove(id);
+            }
+            invalidateIf(rows > 0, TABLE_INVENTORY);
+            QueryStats.end(operation, start, rows);
+            return rows;
+        }
+    }
+
+    // Set the alert threshold of many of an owner's items in one transaction: the item-wide
+    // one with ALL_LOCATIONS, otherwise the one at a location, skipping items not stocked
+    // there. Deleted items and those of other owners are left as they are. Returns the
+    // number of items updated.
+    public int setThresholds(long ownerId, long[] ids, int threshold, long locationId) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+        boolean itemWide = locationId == ALL_LOCATIONS;
+
+        synchronized (inventoryWriteLock) {
+            int rows = 0;
+            SQLiteStatement update = db.compileStatement(itemWide ? SET_ITEM_THRESHOLD : SET_LOCATION_THRESHOLD);
+            db.beginTransactionNonExclusive();
+            try {
+                update.bindLong(2, threshold);
+                update.bindLong(3, ownerId);
+                if (!itemWide) {
+                    update.bindLong(4, locationId);
+                }
+                for (long id : ids) {
+                    update.bindLong(1, id);
+                    rows += update.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                update.close();
+            }
+
+            if (itemWide) {
+                // Re-read lazily rather than once per item while holding the write transaction
+                for (long id : ids) {
+                    itemCache.remove(id);
+                }
+                invalidateIf(rows > 0, TABLE_INVENTORY);
+            } else {
+                // Cached items hold the item-wide threshold, so they stay valid
+                invalidateIf(rows > 0, TABLE_INVENTORY, TABLE_LOCATION_STOCK);
+            }
+            QueryStats.end("setThresholds", start, rows);
+            return rows;
+        }
+    }
+
+    // Add delta to the stock of many of an owner's items at a location (the default one
+    // for ALL_LOCATIONS) in one transaction, as adjustStock() does for one. Items whose
+    // stock would drop below zero are left as they are. Returns the number adjusted.
+    public int adjustStock(long ownerId, long[] itemIds, long locationId, int delta) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+        long target = locationId == ALL_LOCATIONS ? DEFAULT_LOCATION_ID : locationId;
+
+        synchronized (inventoryWriteLock) {
+            int adjusted = 0;
+            Statements statements = new Statements(db);
+            db.beginTransactionNonExclusive();
+            try {
+                for (long id : itemIds) {
+                    if (applyStockDelta(statements, ownerId, id, target, delta, MovementReason.ADJUSTMENT)
+                            != ADJUSTMENT_REJECTED) {
+                        adjusted++;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                statements.close();
+            }
+
+            // Re-read lazily rather than once per item while holding the write transaction
+            for (long id : itemIds) {
+                itemCache.remove(id);
+            }
+            invalidateIf(adjusted > 0, STOCK_TABLES);
+            QueryStats.end("adjustStock(bulk)", start, adjusted);
+            return adjusted;
+        }
+    }
+
+    // Purge items soft-deleted more than TOMBSTONE_RETENTION_MILLIS ago, then give the
+    // free pages back to the file system. Meant for a background maintenance job.
+    public int purgeDeletedItems() {
+        return purgeDeletedItems(clock.millis() - TOMBSTONE_RETENTION_MILLIS, PURGE_BATCH_SIZE);
+    }
+
+    // Delete for good the items soft-deleted at or before the given time, as
+    // deleteInventoryItem() would: their stock is recorded as DELETION movements, and the
+    // deletion is pushed by the next sync. Runs batchSize items per transaction, then
+    // calls reclaimFreePages(). Returns the number of items purged.
+    public int purgeDeletedItems(long deletedBefore, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+        String[] args = {String.valueOf(deletedBefore), String.valueOf(batchSize)};
+
+        int purged = 0;
+        int inBatch;
+        do {
+            inBatch = 0;
+            synchronized (inventoryWriteLock) {
+                db.beginTransactionNonExclusive();
+                try {
+                    Cursor cursor = db.rawQuery(SELECT_PURGEABLE_ITEMS, args);
+                    try {
+                        while (cursor.moveToNext()) {
+                            inBatch += deleteItem(db, cursor.getLong(0));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            purged += inBatch;
+        } while (inBatch == batchSize);
+
+        // Deleted items are never cached, so the cache is still valid
+        invalidateIf(purged > 0, STOCK_TABLES);
+        QueryStats.end("purgeDeletedItems", start, purged);
+
+        reclaimFreePages();
+        return purged;
     }
 
-    // Delete inventory item
-    public void deleteInventoryItem(long id) {
+    // Give free pages back to the file system, VACUUM_BATCH_PAGES per write transaction
+    // so writers are not held up for long. Returns the number of pages the file shrank by.
+    public int reclaimFreePages() {
+        long start = QueryStats.begin();
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_INVENTORY, KEY_ID + " = ?", new String[]{String.valueOf(id)});
+        long pagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        switchToIncrementalVacuum(db);
+
+        while (true) {
+            synchronized (inventoryWriteLock) {
+                long free = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+                if (free == 0) {
+                    break;
+                }
+                // Each page freed is a result row; counting them steps the statement to the end
+                Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + Math.min(free, VACUUM_BATCH_PAGES) + ")", null);
+                try {
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+                if (DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) >= free) {
+                    // Nothing freed, e.g. a reader holds the pages; try again next time
+                    break;
+                }
+            }
+        }
+
+        int shrunk = (int) (pagesBefore - DatabaseUtils.longForQuery(db, "PRAGMA page_count", null));
+        QueryStats.end("reclaimFreePages", start, shrunk);
+        return shrunk;
+    }
+
+    // A database created before version 10 is only switched to incremental auto-vacuum by
+    // a full VACUUM, which cannot run in the upgrade transaction and rewrites the whole
+    // file. It runs here, in the background purge, rather than when the database is opened.
+    // If it fails, e.g. while another connection is reading, the next purge tries again.
+    private void switchToIncrementalVacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+        synchronized (inventoryWriteLock) {
+            long start = QueryStats.begin();
+            try {
+                db.execSQL("VACUUM");
+            } catch (SQLiteException e) {
+                Log.w(TAG, "Cannot switch to incremental auto-vacuum yet", e);
+                return;
+            }
+            QueryStats.end("vacuum(autoVacuum)", start);
+        }
     }
 
-    // Get all inventory items
-    public Cursor getAllInventoryItems() {
+    // Get a single inventory item of an owner, or null if the owner has no such item.
+    // Served from the write-through cache when possible.
+    public InventoryItem getInventoryItem(long ownerId, long id) {
+        InventoryItem item = itemCache.get(ownerId, id);
+        if (item != null) {
+            return item;
+        }
+
+        // Take the stamp before reading, so a write that commits after our read
+        // keeps the row we read out of the cache
+        long stamp = itemCache.stamp();
+        long start = QueryStats.begin();
+        try {
+            item = queryInventoryItem(this.getReadableDatabase(), ownerId, id);
+        } finally {
+            // Cache misses only; hits are counted by the cache itself
+            QueryStats.end("getInventoryItem", start, item != null ? 1 : 0);
+        }
+
+        if (item != null) {
+            itemCache.putIfUnchanged(ownerId, item, stamp);
+        }
+        return item;
+    }
+
+    // Get an item with its quantity and threshold at one location, or null if it is not
+    // stocked there. With ALL_LOCATIONS this is getInventoryItem(ownerId, id).
+    public InventoryItem getInventoryItem(long ownerId, long id, long locationId) {
+        if (locationId == ALL_LOCATIONS) {
+            return getInventoryItem(ownerId, id);
+        }
+
         SQLiteDatabase db = this.getReadableDatabase();
-        String selectQuery = "SELECT * FROM " + TABLE_INVENTORY;
+        Cursor cursor = db.rawQuery("SELECT " + LOCATION_ITEM_COLUMNS + " FROM " + TABLE_LOCATION_STOCK + " s"
+                + " JOIN " + TABLE_INVENTORY + " i ON i." + KEY_ID + " = s." + KEY_ITEM_ID
+                + " WHERE s." + KEY_LOCATION_ID + " = ? AND s." + KEY_ITEM_ID + " = ? AND s." + KEY_OWNER_ID + " = ?"
+                + " AND i." + NOT_DELETED,
+                new String[]{String.valueOf(locationId), String.valueOf(id), String.valueOf(ownerId)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new InventoryItem(id, cursor.getString(1), cursor.getInt(2), cursor.getInt(3));
+        } finally {
+            cursor.close();
+        }
+    }
 
-        return db.rawQuery(selectQuery, null);
+    // Get the owner's item with a SKU, or null if none of their items has it. SKUs are
+    // unique per owner. The SKU index maps it to the id in one seek, and the row itself
+    // usually comes from the cache.
+    public InventoryItem getInventoryItemBySku(long ownerId, String sku) {
+        long start = QueryStats.begin();
+        long id = DatabaseUtils.longForQuery(this.getReadableDatabase(), SELECT_ID_BY_SKU,
+                new String[]{String.valueOf(ownerId), sku});
+        QueryStats.end("getInventoryItemBySku", start, id != -1 ? 1 : 0);
+        return id != -1 ? getInventoryItem(ownerId, id) : null;
     }
 
-    // Get inventory items below threshold for notifications
-    public Cursor getLowInventoryItems() {
+    // Set or, with null or an empty string, clear an owner's item's SKU. Returns the rows
+    // written: 0 if the item does not exist, is not the owner's or another item of the
+    // owner already has the SKU. A deleted item holding the SKU is purged first.
+    public int setInventorySku(long ownerId, long id, String sku) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+
+        ContentValues values = new ContentValues();
+        if (sku == null || sku.isEmpty()) {
+            values.putNull(KEY_SKU);
+        } else {
+            values.put(KEY_SKU, sku);
+        }
+
+        synchronized (inventoryWriteLock) {
+            int rows;
+            boolean purged = false;
+            db.beginTransactionNonExclusive();
+            try {
+                if (sku != null && !sku.isEmpty() && itemOwner(db, id) == ownerId) {
+                    purged = purgeDeletedHolding(db, ownerId, KEY_SKU, sku, id);
+                }
+                // The cached item has no SKU, so it stays valid
+                rows = db.updateWithOnConflict(TABLE_INVENTORY, values,
+                        KEY_ID + " = ? AND " + KEY_OWNER_ID + " = ? AND " + NOT_DELETED,
+                        new String[]{String.valueOf(id), String.valueOf(ownerId)}, SQLiteDatabase.CONFLICT_IGNORE);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            if (purged) {
+                invalidationTracker.invalidate(STOCK_TABLES);
+            } else {
+                invalidateIf(rows > 0, TABLE_INVENTORY);
+            }
+            QueryStats.end("setInventorySku", start, rows);
+            return rows;
+        }
+    }
+
+    // Add scanned counts, keyed by the SKUs of an owner's items, to the stock at a location
+    // (the default one for ALL_LOCATIONS), all in one transaction. Each SKU is resolved
+    // through the SKU index and recorded as a SCAN movement. Returns the SKUs that matched
+    // no item, which are left out; an unknown location leaves every SKU out.
+    public List<String> applyScanCounts(long ownerId, Map<String, Integer> counts, long locationId) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+        long target = locationId == ALL_LOCATIONS ? DEFAULT_LOCATION_ID : locationId;
+        List<String> unknown = new ArrayList<>();
+        List<Long> counted = new ArrayList<>(counts.size());
+
+        synchronized (inventoryWriteLock) {
+            Statements statements = new Statements(db);
+            SQLiteStatement findId = statements.get(SELECT_ID_BY_SKU);
+            findId.bindLong(1, ownerId);
+            db.beginTransactionNonExclusive();
+            try {
+                for (Map.Entry<String, Integer> count : counts.entrySet()) {
+                    findId.bindString(2, count.getKey());
+                    long id = findId.simpleQueryForLong();
+                    if (id == -1 || applyStockDelta(statements, ownerId, id, target, count.getValue(), MovementReason.SCAN)
+                            == ADJUSTMENT_REJECTED) {
+                        unknown.add(count.getKey());
+                    } else {
+                        counted.add(id);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                statements.close();
+            }
+
+            // Re-read lazily rather than once per item while holding the write transaction
+            for (long id : counted) {
+                itemCache.remove(id);
+            }
+            invalidateIf(!counted.isEmpty(), STOCK_TABLES);
+            QueryStats.end("applyScanCounts", start, counted.size());
+            return unknown;
+        }
+    }
+
+    // Read one of an owner's inventory rows, bypassing the cache
+    private static InventoryItem queryInventoryItem(SQLiteDatabase db, long ownerId, long id) {
+        Cursor cursor = db.rawQuery("SELECT " + KEY_ITEM_NAME + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD
+                + " FROM " + TABLE_INVENTORY + " WHERE " + KEY_ID + " = ? AND " + KEY_OWNER_ID + " = ? AND " + NOT_DELETED,
+                new String[]{String.valueOf(id), String.valueOf(ownerId)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new InventoryItem(id, cursor.getString(0), cursor.getInt(1), cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Put an item re-read after a committed write into the cache, or drop it if the
+    // write did not happen. Returns the number of rows written. Call with inventoryWriteLock held.
+    private int cacheWritten(long ownerId, long id, InventoryItem updated) {
+        if (updated != null) {
+            itemCache.put(ownerId, updated);
+            return 1;
+        }
+        // Still counts as a write for readers filling the cache
+        itemCache.remove(id);
+        return 0;
+    }
+
+    // Report a write to observers if it changed anything. Call once it has committed.
+    private void invalidateIf(boolean changed, String... tables) {
+        if (changed) {
+            invalidationTracker.invalidate(tables);
+        }
+    }
+
+    // Delete an item row, recording the stock it had as DELETION movements; its stock rows
+    // go with it, see addLocations(). Call inside a write transaction with inventoryWriteLock held.
+    private int deleteItem(SQLiteDatabase db, long id) {
+        db.execSQL("INSERT INTO " + TABLE_STOCK_MOVEMENTS + " ("
+                + KEY_ITEM_ID + ", " + KEY_LOCATION_ID + ", " + KEY_DELTA + ", " + KEY_REASON + ", " + KEY_CREATED_AT + ")"
+                + " SELECT " + KEY_ITEM_ID + ", " + KEY_LOCATION_ID + ", -" + KEY_QUANTITY + ", ?, ?"
+                + " FROM " + TABLE_LOCATION_STOCK + " WHERE " + KEY_ITEM_ID + " = ? AND " + KEY_QUANTITY + " != 0",
+                new Object[]{MovementReason.DELETION.name(), clock.millis(), id});
+        return db.delete(TABLE_INVENTORY, KEY_ID + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    // Purge the owner's soft-deleted item, other than itemId, that holds a name or SKU another
+    // of their items is about to take; its undo window closes early. Returns whether there
+    // was one. Call inside a write transaction with inventoryWriteLock held.
+    private boolean purgeDeletedHolding(SQLiteDatabase db, long ownerId, String column, String value, long itemId) {
+        Cursor cursor = db.rawQuery("SELECT " + KEY_ID + " FROM " + TABLE_INVENTORY
+                + " WHERE " + KEY_OWNER_ID + " = ? AND " + column + " = ?"
+                + " AND " + KEY_DELETED_AT + " IS NOT NULL AND " + KEY_ID + " != ?",
+                new String[]{String.valueOf(ownerId), value, String.valueOf(itemId)});
+        long deletedId;
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            deletedId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+        deleteItem(db, deletedId);
+        return true;
+    }
+
+    // Owner of an item, -1 if there is no such item
+    private static long itemOwner(SQLiteDatabase db, long id) {
+        return DatabaseUtils.longForQuery(db, "SELECT coalesce((SELECT " + KEY_OWNER_ID + " FROM " + TABLE_INVENTORY
+                + " WHERE " + KEY_ID + " = ?), -1)", new String[]{String.valueOf(id)});
+    }
+
+    // ========== STOCK HELPERS ==========
+    // Called inside a write transaction with inventoryWriteLock held. Every stock
+    // change goes through these, and each records its movement in the ledger.
+
+    // Set an owner's item's stock and threshold at a location; returns the rows written
+    private int setStock(SQLiteDatabase db, long ownerId, long itemId, long locationId, int quantity, int threshold,
+                         MovementReason reason) {
+        long before = locationStock(db, itemId, locationId);
+        SQLiteStatement upsert = db.compileStatement(UPSERT_LOCATION_STOCK);
+        try {
+            upsert.bindLong(1, locationId);
+            upsert.bindLong(2, itemId);
+            upsert.bindLong(3, quantity);
+            upsert.bindLong(4, threshold);
+            upsert.bindLong(5, ownerId);
+            int rows = upsert.executeUpdateDelete();
+            if (rows > 0) {
+                recordMovement(db, itemId, locationId, quantity - before, reason);
+            }
+            return rows;
+        } finally {
+            upsert.close();
+        }
+    }
+
+    // Set an owner's item's total through SET_TOTAL; returns the rows written
+    private int setTotal(SQLiteDatabase db, long ownerId, long itemId, int quantity, MovementReason reason) {
+        Statements statements = new Statements(db);
+        try {
+            return setTotal(statements, ownerId, itemId, quantity, reason);
+        } finally {
+            statements.close();
+        }
+    }
+
+    // As above, for writes that set many totals and reuse the compiled statements
+    private int setTotal(Statements statements, long ownerId, long itemId, int quantity, MovementReason reason) {
+        long before = locationStock(statements, itemId, DEFAULT_LOCATION_ID);
+        SQLiteStatement setTotal = statements.get(SET_TOTAL);
+        setTotal.bindLong(1, itemId);
+        setTotal.bindLong(2, quantity);
+        setTotal.bindLong(3, ownerId);
+        int rows = setTotal.executeUpdateDelete();
+        if (rows > 0) {
+            recordMovement(statements, itemId, DEFAULT_LOCATION_ID,
+                    locationStock(statements, itemId, DEFAULT_LOCATION_ID) - before, reason);
+        }
+        return rows;
+    }
+
+    // Add delta to an owner's item's stock at a location, creating the stock row for a positive
+    // delta. Returns the new stock there, or ADJUSTMENT_REJECTED if nothing was changed.
+    private int applyStockDelta(SQLiteDatabase db, long ownerId, long itemId, long locationId, int delta,
+                                MovementReason reason) {
+        Statements statements = new Statements(db);
+        try {
+            return applyStockDelta(statements, ownerId, itemId, locationId, delta, reason);
+        } finally {
+            statements.close();
+        }
+    }
+
+    // As above, for writes that adjust many items and reuse the compiled statements
+    private int applyStockDelta(Statements statements, long ownerId, long itemId, long locationId, int delta,
+                                MovementReason reason) {
+        int quantity = ADJUSTMENT_REJECTED;
+        SQLiteStatement adjust = statements.get(ADJUST_LOCATION_STOCK);
+        adjust.bindLong(1, delta);
+        adjust.bindLong(2, locationId);
+        adjust.bindLong(3, itemId);
+        adjust.bindLong(4, ownerId);
+        if (adjust.executeUpdateDelete() > 0) {
+            quantity = (int) locationStock(statements, itemId, locationId);
+        }
+
+        // No stock row yet; ignored if there is one and the update above was rejected
+        if (quantity == ADJUSTMENT_REJECTED && delta >= 0) {
+            SQLiteStatement insert = statements.get(INSERT_LOCATION_STOCK);
+            insert.bindLong(1, delta);
+            insert.bindLong(2, locationId);
+            insert.bindLong(3, itemId);
+            insert.bindLong(4, ownerId);
+            if (insert.executeUpdateDelete() > 0) {
+                quantity = delta;
+            }
+        }
+
+        if (quantity != ADJUSTMENT_REJECTED) {
+            recordMovement(statements, itemId, locationId, delta, reason);
+        }
+        return quantity;
+    }
+
+    private static long locationStock(SQLiteDatabase db, long itemId, long locationId) {
+        return DatabaseUtils.longForQuery(db, SELECT_LOCATION_STOCK,
+                new String[]{String.valueOf(locationId), String.valueOf(itemId)});
+    }
+
+    private static long locationStock(Statements statements, long itemId, long locationId) {
+        SQLiteStatement select = statements.get(SELECT_LOCATION_STOCK);
+        select.bindLong(1, locationId);
+        select.bindLong(2, itemId);
+        return select.simpleQueryForLong();
+    }
+
+    // Append a movement to the ledger, unless the stock did not change. Changes made
+    // here, rather than pulled by sync, are also added to the item's sync count.
+    private void recordMovement(SQLiteDatabase db, long itemId, long locationId, long delta, MovementReason reason) {
+        Statements statements = new Statements(db);
+        try {
+            recordMovement(statements, itemId, locationId, delta, reason);
+        } finally {
+            statements.close();
+        }
+    }
+
+    private void recordMovement(Statements statements, long itemId, long locationId, long delta,
+                                MovementReason reason) {
+        if (delta == 0) {
+            return;
+        }
+        if (reason != MovementReason.SYNC) {
+            SQLiteStatement addSyncDelta = statements.get(ADD_SYNC_DELTA);
+            addSyncDelta.bindLong(1, delta);
+            addSyncDelta.bindLong(2, itemId);
+            addSyncDelta.executeUpdateDelete();
+        }
+        SQLiteStatement insert = statements.get(INSERT_STOCK_MOVEMENT);
+        insert.bindLong(1, itemId);
+        insert.bindLong(2, locationId);
+        insert.bindLong(3, delta);
+        insert.bindString(4, reason.name());
+        insert.bindLong(5, clock.millis());
+        insert.executeInsert();
+    }
+
+    // Statements compiled on first use and kept until close(), so a write that runs the
+    // stock helpers for many items binds each statement per item instead of compiling it
+    private static final class Statements {
+        private final SQLiteDatabase db;
+        private final Map<String, SQLiteStatement> compiled = new HashMap<>();
+
+        Statements(SQLiteDatabase db) {
+            this.db = db;
+        }
+
+        SQLiteStatement get(String sql) {
+            SQLiteStatement statement = compiled.get(sql);
+            if (statement == null) {
+                statement = db.compileStatement(sql);
+                compiled.put(sql, statement);
+            }
+            return statement;
+        }
+
+        void close() {
+            for (SQLiteStatement statement : compiled.values()) {
+                statement.close();
+            }
+            compiled.clear();
+        }
+    }
+
+    // ========== STOCK LEDGER ==========
+
+    // Get the stock an owner's item had at a time (epoch millis) at one location, or in total
+    // with ALL_LOCATIONS. Exact for times after the last compaction; before that, movements
+    // are only kept as end-of-day snapshots, so the stock is the one at the end of the last
+    // day with movements before the given time. 0 for an item that is not the owner's.
+    public int getStockAt(long ownerId, long itemId, long locationId, long timeMillis) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getReadableDatabase();
+        int stock = (int) DatabaseUtils.longForQuery(db, SELECT_STOCK_AT, new String[]{
+                String.valueOf(itemId), String.valueOf(timeMillis), String.valueOf(locationId), String.valueOf(ownerId)});
+        QueryStats.end("getStockAt", start, 1);
+        return stock;
+    }
+
+    // Get the movements (id, item_id, location_id, delta, reason, created_at) of an owner's
+    // items, deleted ones included, from fromMillis inclusive to toMillis exclusive, oldest first
+    public Cursor getStockMovements(long ownerId, long fromMillis, long toMillis) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        return QueryStats.track("getStockMovements", db.rawQuery(SELECT_STOCK_MOVEMENTS,
+                new String[]{String.valueOf(fromMillis), String.valueOf(toMillis), String.valueOf(ownerId)}), start);
+    }
+
+    // Same as above for one item; none for an item that is not the owner's
+    public Cursor getStockMovements(long ownerId, long itemId, long fromMillis, long toMillis) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        return QueryStats.track("getStockMovements(item)", db.rawQuery(SELECT_ITEM_STOCK_MOVEMENTS,
+                new String[]{String.valueOf(fromMillis), String.valueOf(toMillis), String.valueOf(ownerId),
+                        String.valueOf(itemId)}), start);
+    }
+
+    // Fold movements older than LEDGER_RETENTION_MILLIS into snapshots
+    public int compactLedger() {
+        return compactLedger(clock.millis() - LEDGER_RETENTION_MILLIS);
+    }
+
+    // Fold the movements of every whole day (UTC) before the given time into one
+    // snapshot per item and location at the end of the day, and delete them. Runs one
+    // day per transaction so writers are not held up for long. Returns the number of
+    // movements folded.
+    public int compactLedger(long beforeMillis) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+        long cutoff = Math.floorDiv(beforeMillis, SNAPSHOT_INTERVAL_MILLIS) * SNAPSHOT_INTERVAL_MILLIS;
+
+        int folded = 0;
+        while (true) {
+            synchronized (inventoryWriteLock) {
+                db.beginTransactionNonExclusive();
+                try {
+                    Cursor oldest = db.rawQuery("SELECT min(" + KEY_CREATED_AT + ") FROM " + TABLE_STOCK_MOVEMENTS, null);
+                    long oldestMillis;
+                    try {
+                        if (!oldest.moveToFirst() || oldest.isNull(0)) {
+                            break;
+                        }
+                        oldestMillis = oldest.getLong(0);
+                    } finally {
+                        oldest.close();
+                    }
+                    long dayEnd = (Math.floorDiv(oldestMillis, SNAPSHOT_INTERVAL_MILLIS) + 1) * SNAPSHOT_INTERVAL_MILLIS - 1;
+                    if (dayEnd >= cutoff) {
+                        break;
+                    }
+
+                    db.execSQL(FOLD_STOCK_MOVEMENTS, new Object[]{dayEnd});
+                    folded += db.delete(TABLE_STOCK_MOVEMENTS, KEY_CREATED_AT + " <= ?",
+                            new String[]{String.valueOf(dayEnd)});
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        }
+
+        invalidateIf(folded > 0, TABLE_STOCK_MOVEMENTS, TABLE_STOCK_SNAPSHOTS);
+        QueryStats.end("compactLedger", start, folded);
+        return folded;
+    }
+
+    // ========== LOCATIONS ==========
+
+    // Add a location; returns its id, or -1 if the name is taken
+    public long addLocation(String name) {
+        SQLiteDatabase db = this.getWritableDatabase();
+
+        ContentValues values = new ContentValues();
+        values.put(KEY_NAME, name);
+
+        long id = db.insert(TABLE_LOCATIONS, null, values);
+        invalidateIf(id != -1, TABLE_LOCATIONS);
+        return id;
+    }
+
+    // Get all locations (id, name), the default location first
+    public Cursor getLocations() {
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        return db.rawQuery("SELECT " + KEY_ID + ", " + KEY_NAME + " FROM " + TABLE_LOCATIONS
+                + " ORDER BY " + KEY_ID, null);
+    }
+
+    // Cache in front of getInventoryItem(), exposed for its hit/miss/eviction counters
+    public InventoryCache getInventoryCache() {
+        return itemCache;
+    }
+
+    // Batched notifications of committed writes, per table, for observable queries
+    public InvalidationTracker getInvalidationTracker() {
+        return invalidationTracker;
+    }
+
+    // Get all of an owner's inventory items
+    public Cursor getAllInventoryItems(long ownerId) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getReadableDatabase();
+        String selectQuery = "SELECT * FROM " + TABLE_INVENTORY + " WHERE " + KEY_OWNER_ID + " = ? AND " + NOT_DELETED;
+
+        return QueryStats.track("getAllInventoryItems",
+                db.rawQuery(selectQuery, new String[]{String.valueOf(ownerId)}), start);
+    }
+
+    // Get an owner's inventory items below threshold for notifications
+    public Cursor getLowInventoryItems(long ownerId) {
+        return getLowInventoryItems(ownerId, ALL_LOCATIONS);
+    }
+
+    // Get the owner's items at or below their threshold at one location, or by total with ALL_LOCATIONS
+    public Cursor getLowInventoryItems(long ownerId, long locationId) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getReadableDatabase();
+        String owner = String.valueOf(ownerId);
+
+        if (locationId == ALL_LOCATIONS) {
+            return QueryStats.track("getLowInventoryItems",
+                    db.rawQuery(SELECT_LOW_INVENTORY, new String[]{owner}), start);
+        }
+        return QueryStats.track("getLowInventoryItems(location)",
+                db.rawQuery(SELECT_LOW_LOCATION_STOCK, new String[]{owner, String.valueOf(locationId)}), start);
+    }
+
+    // Get one page of an owner's inventory items that sort after the given item.
+    // Uses keyset (seek) pagination so each page is an index seek, not an OFFSET scan.
+    public Cursor getInventoryPage(long ownerId, InventoryItem after, int limit, SortOrder sortOrder) {
+        return getInventoryPage(ownerId, after, limit, sortOrder, StockFilter.ALL, ALL_LOCATIONS);
+    }
+
+    // Same as above for the items stocked at one location, with their quantity and threshold there
+    public Cursor getInventoryPage(long ownerId, InventoryItem after, int limit, SortOrder sortOrder,
+                                   long locationId) {
+        return getInventoryPage(ownerId, after, limit, sortOrder, StockFilter.ALL, locationId);
+    }
+
+    // Same as above, with only the items that pass the filter. At a location the
+    // low-stock filter uses the stock and threshold there.
+    public Cursor getInventoryPage(long ownerId, InventoryItem after, int limit, SortOrder sortOrder,
+                                   StockFilter filter, long locationId) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getReadableDatabase();
+        String selectQuery = locationId == ALL_LOCATIONS
+                ? inventoryPageSql(sortOrder, filter, after != null)
+                : locationPageSql(sortOrder, filter, after != null);
+
+        List<String> selectionArgs = new ArrayList<>(8);
+        selectionArgs.add(String.valueOf(ownerId));
+        if (locationId != ALL_LOCATIONS) {
+            selectionArgs.add(String.valueOf(locationId));
+        }
+        if (after != null) {
+            addAfterKeyArgs(selectionArgs, sortOrder, after);
+        }
+        selectionArgs.add(String.valueOf(limit));
+
+        return QueryStats.track("getInventoryPage",
+                db.rawQuery(selectQuery, selectionArgs.toArray(new String[0])), start);
+    }
+
+    static String inventoryPageSql(SortOrder sortOrder, boolean hasAfterKey) {
+        return inventoryPageSql(sortOrder, StockFilter.ALL, hasAfterKey);
+    }
+
+    // Build the page query for a sort order and filter; the first argument is the owner,
+    // the last always the page size
+    static String inventoryPageSql(SortOrder sortOrder, StockFilter filter, boolean hasAfterKey) {
+        StringBuilder query = new StringBuilder("SELECT ")
+                .append(KEY_ID).append(", ").append(KEY_ITEM_NAME).append(", ")
+                .append(KEY_QUANTITY).append(", ").append(KEY_THRESHOLD)
+                .append(" FROM ").append(TABLE_INVENTORY)
+                .append(" WHERE ").append(KEY_OWNER_ID).append(" = ? AND ").append(NOT_DELETED);
+        if (filter == StockFilter.LOW_STOCK) {
+            query.append(" AND ").append(LOW_STOCK);
+        }
+        if (hasAfterKey) {
+            query.append(" AND ").append(afterKeySql(sortOrder, KEY_ID, KEY_ITEM_NAME, KEY_QUANTITY, KEY_THRESHOLD));
+        }
+        query.append(" ORDER BY ").append(orderBySql(sortOrder, KEY_ID, KEY_ITEM_NAME, KEY_QUANTITY, KEY_THRESHOLD))
+                .append(" LIMIT ?");
+
+        return query.toString();
+    }
+
+    static String locationPageSql(SortOrder sortOrder, boolean hasAfterKey) {
+        return locationPageSql(sortOrder, StockFilter.ALL, hasAfterKey);
+    }
+
+    // Build the page query for one location; the first arguments are the owner and the location id
+    static String locationPageSql(SortOrder sortOrder, StockFilter filter, boolean hasAfterKey) {
+        String id = "s." + KEY_ITEM_ID;
+        String name = "i." + KEY_ITEM_NAME;
+        String quantity = "s." + KEY_QUANTITY;
+        String threshold = "s." + KEY_THRESHOLD;
+
+        StringBuilder query = new StringBuilder("SELECT ").append(LOCATION_ITEM_COLUMNS);
+        if (sortOrder == SortOrder.BY_NAME) {
+            // Walk items in name order and look up their stock here, rather than sort the location's rows
+            query.append(" FROM ").append(TABLE_INVENTORY).append(" i CROSS JOIN ").append(TABLE_LOCATION_STOCK)
+                    .append(" s ON s.").append(KEY_ITEM_ID).append(" = i.").append(KEY_ID)
+                    .append(" WHERE i.").append(KEY_OWNER_ID).append(" = ? AND s.").append(KEY_LOCATION_ID)
+                    .append(" = ? AND i.").append(NOT_DELETED);
+        } else {
+            // By id, the rows come straight off the owner's location_stock index
+            query.append(LOCATION_ITEMS);
+        }
+        if (filter == StockFilter.LOW_STOCK) {
+            query.append(" AND ").append(quantity).append(" - ").append(threshold).append(" <= 0");
+        }
+        if (hasAfterKey) {
+            query.append(" AND ").append(afterKeySql(sortOrder, id, name, quantity, threshold));
+        }
+        query.append(" ORDER BY ").append(orderBySql(sortOrder, id, name, quantity, threshold)).append(" LIMIT ?");
+
+        return query.toString();
+    }
+
+    private static String orderBySql(SortOrder sortOrder, String id, String name, String quantity, String threshold) {
+        switch (sortOrder) {
+            case BY_NAME:
+                return name;
+            case BY_QUANTITY:
+                return quantity + ", " + id;
+            case BY_STOCK_RATIO:
+                return stockRatio(quantity, threshold) + ", " + id;
+            default:
+                return id;
+        }
+    }
+
+    // Condition for rows after the last item of the previous page, see addAfterKeyArgs().
+    // Orders with ties are written as "key >= k AND (key > k OR id > i)", which seeks on
+    // the key's index; a row value comparison would not for the ratio expression.
+    private static String afterKeySql(SortOrder sortOrder, String id, String name, String quantity, String threshold) {
+        switch (sortOrder) {
+            case BY_NAME:
+                return name + " > ?";
+            case BY_QUANTITY:
+                return quantity + " >= ? AND (" + quantity + " > ? OR " + id + " > ?)";
+            case BY_STOCK_RATIO:
+                // The bound is computed by SQLite from the item's values, so it equals the indexed value exactly
+                String ratio = stockRatio(quantity, threshold);
+                String bound = stockRatio("CAST(? AS INTEGER)", "CAST(? AS INTEGER)");
+                return ratio + " >= " + bound + " AND (" + ratio + " > " + bound + " OR " + id + " > ?)";
+            default:
+                return id + " > ?";
+        }
+    }
+
+    private static void addAfterKeyArgs(List<String> args, SortOrder sortOrder, InventoryItem after) {
+        String id = String.valueOf(after.getId());
+        String quantity = String.valueOf(after.getQuantity());
+        String threshold = String.valueOf(after.getThreshold());
+        switch (sortOrder) {
+            case BY_NAME:
+                args.add(after.getItemName());
+                break;
+            case BY_QUANTITY:
+                args.add(quantity);
+                args.add(quantity);
+                args.add(id);
+                break;
+            case BY_STOCK_RATIO:
+                args.add(quantity);
+                args.add(threshold);
+                args.add(quantity);
+                args.add(threshold);
+                args.add(id);
+                break;
+            default:
+                args.add(id);
+                break;
+        }
+    }
+
+    // ========== SEARCH ==========
+
+    // Search the names of an owner's items for every word of the query, each matched as a
+    // word prefix, e.g. "bol zin" finds "Bolt, 10mm zinc". Returns at most limit rows, best
+    // first. Cancelling the signal aborts the query.
+    public Cursor searchInventory(long ownerId, String query, int limit, CancellationSignal cancellationSignal) {
+        return searchInventory(ownerId, query, ALL_LOCATIONS, limit, cancellationSignal);
+    }
+
+    // Same as above among the owner's items stocked at one location, with their quantity
+    // and threshold there, or among all of them with their totals for ALL_LOCATIONS
+    public Cursor searchInventory(long ownerId, String query, long locationId, int limit,
+                                  CancellationSignal cancellationSignal) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getReadableDatabase();
+        String[] terms = searchTerms(query);
+        if (terms.length == 0) {
+            return db.rawQuery("SELECT * FROM " + TABLE_INVENTORY + " LIMIT 0", null);
+        }
+
+        StringBuilder match = new StringBuilder();
+        for (String term : terms) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(term).append('*');
+        }
+
+        if (locationId == ALL_LOCATIONS) {
+            return QueryStats.track("searchInventory", db.rawQuery(SEARCH_INVENTORY,
+                    new String[]{match.toString(), String.valueOf(ownerId), terms[0] + "%", String.valueOf(limit)},
+                    cancellationSignal), start);
+        }
+        return QueryStats.track("searchInventory(location)", db.rawQuery(SEARCH_LOCATION_INVENTORY,
+                new String[]{match.toString(), String.valueOf(ownerId), String.valueOf(locationId), terms[0] + "%",
+                        String.valueOf(limit)}, cancellationSignal), start);
+    }
+
+    // Split a search query into lower-case words. Everything except letters and digits
+    // separates words, so no FTS operator or quote from user input reaches MATCH.
+    static String[] searchTerms(String query) {
+        String trimmed = query.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split(" ");
+    }
+
+    // ========== CHANGE TRACKING ==========
+
+    // Get the current inventory generation. It increases with every inventory write.
+    public long getInventoryGeneration() {
+        SQLiteDatabase db = this.getReadableDatabase();
+        return DatabaseUtils.longForQuery(db, "SELECT " + KEY_GENERATION + " FROM " + TABLE_GENERATIONS
+                + " WHERE " + KEY_TABLE_NAME + " = ?", new String[]{TABLE_INVENTORY});
+    }
+
+    // Get an owner's inventory rows inserted or updated after the given generation. The
+    // generation counts every owner's writes, but only the owner's changed rows are read.
+    // Rows soft-deleted since are left out; getInventoryDeletionsSince() reports them.
+    public Cursor getInventoryChangesSince(long ownerId, long generation) {
+        return getInventoryChangesSince(ownerId, generation, ALL_LOCATIONS);
+    }
+
+    // Same as above with each item's quantity and threshold at one location. Items not
+    // stocked there are left out.
+    public Cursor getInventoryChangesSince(long ownerId, long generation, long locationId) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getReadableDatabase();
+        String owner = String.valueOf(ownerId);
+
+        if (locationId == ALL_LOCATIONS) {
+            String selectQuery = "SELECT * FROM " + TABLE_INVENTORY + " WHERE " + KEY_OWNER_ID + " = ?"
+                    + " AND " + KEY_ROW_VERSION + " > ? AND " + NOT_DELETED + " ORDER BY " + KEY_ROW_VERSION;
+            return QueryStats.track("getInventoryChangesSince",
+                    db.rawQuery(selectQuery, new String[]{owner, String.valueOf(generation)}), start);
+        }
+        String selectQuery = "SELECT " + LOCATION_ITEM_COLUMNS + LOCATION_ITEMS
+                + " AND i." + KEY_ROW_VERSION + " > ? ORDER BY i." + KEY_ROW_VERSION;
+        return QueryStats.track("getInventoryChangesSince(location)", db.rawQuery(selectQuery,
+                new String[]{owner, String.valueOf(locationId), String.valueOf(generation)}), start);
+    }
+
+    // Get ids of an owner's inventory rows deleted after the given generation, soft-deleted
+    // ones included. Both parts seek on the owner and row version.
+    public Cursor getInventoryDeletionsSince(long ownerId, long generation) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getReadableDatabase();
+        String selectQuery = "SELECT " + KEY_ITEM_ID + " FROM " + TABLE_INVENTORY_DELETIONS
+                + " WHERE " + KEY_OWNER_ID + " = ?1 AND " + KEY_ROW_VERSION + " > ?2"
+                + " UNION ALL SELECT " + KEY_ID + " FROM " + TABLE_INVENTORY
+                + " WHERE " + KEY_OWNER_ID + " = ?1 AND " + KEY_ROW_VERSION + " > ?2 AND " + KEY_DELETED_AT + " IS NOT NULL";
+
+        return QueryStats.track("getInventoryDeletionsSince",
+                db.rawQuery(selectQuery, new String[]{String.valueOf(ownerId), String.valueOf(generation)}), start);
+    }
+
+    // ========== LOW-STOCK OUTBOX ==========
+    // Threshold crossings recorded by the version 12 triggers, handed out at least once.
+
+    // Hand an owner's pending low-stock events to the handler, oldest first, batchSize at
+    // a time, acknowledging each batch once the handler returns. If the handler throws,
+    // the exception is passed on and that batch stays pending for the next drain. An item
+    // that crosses back while its event is being handled gets a new event after it.
+    // Returns the number of events acknowledged.
+    public int drainLowStockEvents(long ownerId, int batchSize, LowStockEvent.Handler handler) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+        String[] args = {String.valueOf(ownerId), String.valueOf(batchSize)};
+
+        int drained = 0;
+        synchronized (lowStockDrainLock) {
+            List<LowStockEvent> events;
+            do {
+                events = readLowStockEvents(db, args);
+                if (events.isEmpty()) {
+                    break;
+                }
+                handler.handle(events);
+                acknowledgeLowStockEvents(db, events);
+                drained += events.size();
+            } while (events.size() == batchSize);
+        }
+
+        invalidateIf(drained > 0, TABLE_LOW_STOCK_OUTBOX);
+        QueryStats.end("drainLowStockEvents", start, drained);
+        return drained;
+    }
+
+    private static List<LowStockEvent> readLowStockEvents(SQLiteDatabase db, String[] args) {
+        Cursor cursor = db.rawQuery(SELECT_LOW_STOCK_EVENTS, args);
+        List<LowStockEvent> events = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                InventoryItem item = new InventoryItem(cursor.getLong(1), cursor.getString(2),
+                        cursor.getInt(3), cursor.getInt(4));
+                events.add(new LowStockEvent(cursor.getLong(0), item, cursor.getInt(5) != 0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return events;
+    }
+
+    // Record the side each event handed out, which ends it unless the item has crossed
+    // back since. Rows left with nothing to tell about an item that is not low are dropped.
+    private void acknowledgeLowStockEvents(SQLiteDatabase db, List<LowStockEvent> events) {
+        synchronized (inventoryWriteLock) {
+            Statements statements = new Statements(db);
+            SQLiteStatement report = statements.get("UPDATE " + TABLE_LOW_STOCK_OUTBOX
+                    + " SET " + KEY_REPORTED_LOW + " = ? WHERE " + KEY_ITEM_ID + " = ?");
+            SQLiteStatement drop = statements.get("DELETE FROM " + TABLE_LOW_STOCK_OUTBOX
+                    + " WHERE " + KEY_ITEM_ID + " = ? AND " + KEY_LOW + " = 0 AND " + KEY_REPORTED_LOW + " = 0");
+            db.beginTransactionNonExclusive();
+            try {
+                for (LowStockEvent event : events) {
+                    report.bindLong(1, event.low ? 1 : 0);
+                    report.bindLong(2, event.item.getId());
+                    report.executeUpdateDelete();
+                    if (!event.low) {
+                        drop.bindLong(1, event.item.getId());
+                        drop.executeUpdateDelete();
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                statements.close();
+            }
+        }
+    }
+
+    // ========== SYNC ==========
+    // Local side of InventorySync: the changes to push, and applying what the server returns.
+
+    // This device's id, created by the version 9 migration
+    public String getSyncDeviceId() {
+        return syncState(this.getReadableDatabase(), SYNC_DEVICE_ID);
+    }
+
+    // Token the server returned with the last applied response, or null before the first sync
+    public String getSyncToken() {
+        return syncState(this.getReadableDatabase(), SYNC_TOKEN);
+    }
+
+    private static String syncState(SQLiteDatabase db, String key) {
+        Cursor cursor = db.rawQuery("SELECT " + KEY_VALUE + " FROM " + TABLE_SYNC_STATE + " WHERE " + KEY_KEY + " = ?",
+                new String[]{key});
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Get up to limit items with changes not pushed yet, in item id order. Each carries
+    // the item's owner and current sync count, and its name and threshold if they were
+    // edited. Items of no account are not synced.
+    public List<SyncChange> getSyncChanges(int limit) {
+        long start = QueryStats.begin();
+        Cursor cursor = this.getReadableDatabase().rawQuery(SELECT_SYNC_CHANGES, new String[]{String.valueOf(limit)});
+        List<SyncChange> changes = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                long itemId = cursor.getLong(0);
+                String globalId = cursor.getString(1);
+                if (cursor.getInt(3) != 0) {
+                    changes.add(new SyncChange(itemId, globalId, null, null, 0, false, 0, true));
+                    continue;
+                }
+                String itemName = cursor.getString(4);
+                int threshold = cursor.getInt(5);
+                boolean metadataChanged = cursor.isNull(6) || !itemName.equals(cursor.getString(6))
+                        || cursor.isNull(7) || threshold != cursor.getInt(7);
+                changes.add(new SyncChange(itemId, globalId, cursor.getString(8), itemName, threshold,
+                        metadataChanged, cursor.getLong(2), false));
+            }
+        } finally {
+            cursor.close();
+        }
+        QueryStats.end("getSyncChanges", start, changes.size());
+        return changes;
+    }
+
+    // Apply a sync response in one transaction: mark the pushed changes as synced, apply
+    // the pulled ones, and store the new token. Returns the number of items changed here.
+    public int applySyncChanges(List<SyncChange> pushed, List<SyncChange> pulled, String token) {
+        long start = QueryStats.begin();
+        SQLiteDatabase db = this.getWritableDatabase();
+
+        synchronized (inventoryWriteLock) {
+            int applied = 0;
+            db.beginTransactionNonExclusive();
+            try {
+                for (SyncChange change : pushed) {
+                    acknowledgeSyncChange(db, change);
+                }
+                for (SyncChange change : pulled) {
+                    if (applySyncChange(db, change)) {
+                        applied++;
+                    }
+                }
+                if (token != null) {
+                    db.execSQL("INSERT OR REPLACE INTO " + TABLE_SYNC_STATE + " VALUES (?, ?)",
+                            new Object[]{SYNC_TOKEN, token});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            // Pulled changes bypass the cache, so drop it
+            if (applied > 0) {
+                itemCache.clear();
+                invalidationTracker.invalidate(STOCK_TABLES);
+            }
+            QueryStats.end("applySyncChanges", start, applied);
+            return applied;
+        }
+    }
+
+    // The server has a pushed change. Its item stays dirty if it changed again since it was read.
+    private static void acknowledgeSyncChange(SQLiteDatabase db, SyncChange change) {
+        String[] itemIdArg = {String.valueOf(change.itemId)};
+        if (change.deleted) {
+            db.delete(TABLE_SYNC_ITEMS, KEY_ITEM_ID + " = ? AND " + KEY_DELETED + " = 1", itemIdArg);
+            return;
+        }
+        if (change.metadataChanged) {
+            ContentValues values = new ContentValues();
+            values.put(KEY_SYNCED_NAME, change.itemName);
+            values.put(KEY_SYNCED_THRESHOLD, change.threshold);
+            db.update(TABLE_SYNC_ITEMS, values, KEY_ITEM_ID + " = ?", itemIdArg);
+        }
+        db.execSQL(ACK_SYNC_ITEM, new Object[]{change.itemId, change.count, change.itemName, change.threshold});
+    }
+
+    // Apply one pulled item. Name and threshold are taken from the server unless they were
+    // edited here and not pushed yet; the edit is pushed next and, arriving later, wins.
+    // Stock moves by the growth of the other devices' count since the last pull.
+    // Returns whether anything changed here.
+    private boolean applySyncChange(SQLiteDatabase db, SyncChange change) {
+        long itemId = -1;
+        long remoteDelta = 0;
+        boolean dirty = false;
+        boolean deletedHere = false;
+        boolean editedHere = false;
+        String itemName = null;
+        int threshold = 0;
+        Cursor cursor = db.rawQuery(SELECT_SYNC_ITEM, new String[]{change.globalId});
+        try {
+            if (cursor.moveToFirst()) {
+                itemId = cursor.getLong(0);
+                remoteDelta = cursor.getLong(1);
+                dirty = cursor.getInt(2) != 0;
+                deletedHere = cursor.isNull(5);
+                if (!deletedHere) {
+                    itemName = cursor.getString(5);
+                    threshold = cursor.getInt(6);
+                    editedHere = cursor.isNull(3) || !itemName.equals(cursor.getString(3))
+                            || cursor.isNull(4) || threshold != cursor.getInt(4);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        String[] itemIdArg = {String.valueOf(itemId)};
+        if (change.deleted) {
+            // Deletions win over every other change; the server already has this one
+            if (itemId == -1) {
+                return false;
+            }
+            if (!deletedHere) {
+                deleteItem(db, itemId);
+            }
+            db.delete(TABLE_SYNC_ITEMS, KEY_ITEM_ID + " = ?", itemIdArg);
+            return !deletedHere;
+        }
+        if (deletedHere) {
+            // Deleted here; the deletion is pushed next
+            return false;
+        }
+
+        boolean changed = false;
+        if (itemId == -1) {
+            // New here, unless its owner has no account here; addUser() pulls it again later.
+            // The insert trigger gives it a fresh sync row, which takes the item's global id.
+            long ownerId = DatabaseUtils.longForQuery(db, "SELECT coalesce((SELECT " + KEY_ID + " FROM " + TABLE_USERS
+                    + " WHERE " + KEY_USERNAME + " = ?), -1)", new String[]{change.owner});
+            if (ownerId == -1) {
+                return false;
+            }
+            String localName = syncedItemName(db, ownerId, change.itemName, change.globalId, -1);
+            ContentValues values = new ContentValues();
+            values.put(KEY_OWNER_ID, ownerId);
+            values.put(KEY_ITEM_NAME, localName);
+            values.put(KEY_QUANTITY, 0);
+            values.put(KEY_THRESHOLD, change.threshold);
+            itemId = db.insertOrThrow(TABLE_INVENTORY, null, values);
+            itemIdArg[0] = String.valueOf(itemId);
+
+            ContentValues sync = new ContentValues();
+            sync.put(KEY_GLOBAL_ID, change.globalId);
+            sync.put(KEY_SYNCED_NAME, localName);
+            sync.put(KEY_SYNCED_THRESHOLD, change.threshold);
+            sync.put(KEY_DIRTY, 0);
+            db.update(TABLE_SYNC_ITEMS, sync, KEY_ITEM_ID + " = ?", itemIdArg);
+            changed = true;
+        } else if (!editedHere) {
+            String localName = syncedItemName(db, itemOwner(db, itemId), change.itemName, change.globalId, itemId);
+            if (!localName.equals(itemName) || change.threshold != threshold) {
+                ContentValues values = new ContentValues();
+                values.put(KEY_ITEM_NAME, localName);
+                values.put(KEY_THRESHOLD, change.threshold);
+                db.update(TABLE_INVENTORY, values, KEY_ID + " = ?", itemIdArg);
+
+                // The update trigger flagged the row; this is not a local edit, so restore the flag
+                ContentValues sync = new ContentValues();
+                sync.put(KEY_SYNCED_NAME, localName);
+                sync.put(KEY_SYNCED_THRESHOLD, change.threshold);
+                sync.put(KEY_DIRTY, dirty ? 1 : 0);
+                db.update(TABLE_SYNC_ITEMS, sync, KEY_ITEM_ID + " = ?", itemIdArg);
+                changed = true;
+            }
+        }
+
+        long delta = change.count - remoteDelta;
+        if (delta != 0) {
+            SQLiteStatement apply = db.compileStatement(APPLY_SYNC_DELTA);
+            try {
+                apply.bindLong(1, DEFAULT_LOCATION_ID);
+                apply.bindLong(2, itemId);
+                apply.bindLong(3, delta);
+                apply.executeUpdateDelete();
+            } finally {
+                apply.close();
+            }
+            recordMovement(db, itemId, DEFAULT_LOCATION_ID, delta, MovementReason.SYNC);
+            db.execSQL("UPDATE " + TABLE_SYNC_ITEMS + " SET " + KEY_REMOTE_DELTA + " = ? WHERE " + KEY_ITEM_ID + " = ?",
+                    new Object[]{change.count, itemId});
+            changed = true;
+        }
+        return changed;
+    }
+
+    // The name a pulled item gets here: its own, unless a different local item of the same
+    // owner already has it. Names are unique per owner, so it is then told apart by the
+    // start of its global id.
+    private static String syncedItemName(SQLiteDatabase db, long ownerId, String itemName, String globalId,
+                                         long itemId) {
+        long taken = DatabaseUtils.longForQuery(db, "SELECT count(*) FROM " + TABLE_INVENTORY
+                + " WHERE " + KEY_OWNER_ID + " = ? AND " + KEY_ITEM_NAME + " = ? AND " + KEY_ID + " != ?",
+                new String[]{String.valueOf(ownerId), itemName, String.valueOf(itemId)});
+        return taken == 0 ? itemName : itemName + " (" + globalId.substring(0, Math.min(6, globalId.length())) + ")";
+    }
+
+    // ========== IMPORT / EXPORT ==========
+
+    // Import inventory rows from CSV (item_name,quantity[,threshold]) into an owner's
+    // inventory, upserting on item_name. Quantities are totals, set through the default
+    // location like updateInventoryItem(). The input is streamed record by record, each
+    // statement is compiled once per import, and rows are committed every batchSize.
+    // Malformed rows are skipped and counted.
+    public InventoryCsv.ImportResult importInventoryCsv(long ownerId, Reader reader, int batchSize)
+            throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        long start = System.nanoTime();
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        SQLiteDatabase db = this.getWritableDatabase();
+        Statements statements = new Statements(db);
+        SQLiteStatement upsert = statements.get(UPSERT_INVENTORY_ITEM);
+        SQLiteStatement findId = statements.get("SELECT " + KEY_ID + " FROM " + TABLE_INVENTORY
+                + " WHERE " + KEY_OWNER_ID + " = ? AND " + KEY_ITEM_NAME + " = ?");
+        upsert.bindLong(1, ownerId);
+        findId.bindLong(1, ownerId);
+
+        int imported = 0;
+        int skipped = 0;
+        int inBatch = 0;
+        boolean firstRecord = true;
+
+        db.beginTransactionNonExclusive();
+        try {
+            List<String> record;
+            while ((record = InventoryCsv.readRecord(in)) != null) {
+                // Skip an optional header line
+                if (firstRecord) {
+                    firstRecord = false;
+                    if (KEY_ITEM_NAME.equalsIgnoreCase(record.get(0).trim())) {
+                        continue;
+                    }
+                }
+
+                String itemName = record.get(0).trim();
+                if (itemName.isEmpty() || record.size() < 2) {
+                    skipped++;
+                    continue;
+                }
+
+                int quantity;
+                int threshold;
+                try {
+                    quantity = Integer.parseInt(record.get(1).trim());
+                    threshold = record.size() > 2 && !record.get(2).trim().isEmpty()
+                            ? Integer.parseInt(record.get(2).trim())
+                            : DEFAULT_THRESHOLD;
+                } catch (NumberFormatException e) {
+                    skipped++;
+                    continue;
+                }
+
+                upsert.bindString(2, itemName);
+                upsert.bindLong(3, threshold);
+                upsert.executeInsert();
+                // The upsert's rowid is not the item's on an update, so look it up
+                findId.bindString(2, itemName);
+                setTotal(statements, ownerId, findId.simpleQueryForLong(), quantity, MovementReason.IMPORT);
+                imported++;
+
+                // Commit the batch and start a new one. Upserts bypass the cache, so drop it.
+                if (++inBatch == batchSize) {
+                    db.setTransactionSuccessful();
+                    db.endTransaction();
+                    itemCache.clear();
+                    invalidationTracker.invalidate(STOCK_TABLES);
+                    db.beginTransactionNonExclusive();
+                    inBatch = 0;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statements.close();
+            itemCache.clear();
+            invalidateIf(imported > 0, STOCK_TABLES);
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        QueryStats.record("importInventoryCsv", elapsedNanos, imported);
+        long elapsedMillis = elapsedNanos / 1_000_000;
+        return new InventoryCsv.ImportResult(imported, skipped, elapsedMillis);
+    }
+
+    // Export all of an owner's inventory rows as CSV, writing straight from the cursor.
+    // Returns the number of rows written.
+    public int exportInventoryCsv(long ownerId, Writer out) throws IOException {
+        long start = QueryStats.begin();
         SQLiteDatabase db = this.getReadableDatabase();
-        String selectQuery = "SELECT * FROM " + TABLE_INVENTORY + " WHERE " + KEY_QUANTITY + " <= " + KEY_THRESHOLD;
+        Cursor cursor = db.rawQuery("SELECT " + KEY_ITEM_NAME + ", " + KEY_QUANTITY + ", " + KEY_THRESHOLD
+                + " FROM " + TABLE_INVENTORY + " WHERE " + KEY_OWNER_ID + " = ? AND " + NOT_DELETED
+                + " ORDER BY " + KEY_ID, new String[]{String.valueOf(ownerId)});
+
+        int rows = 0;
+        try {
+            out.write(InventoryCsv.HEADER);
+            out.write('\n');
+            while (cursor.moveToNext()) {
+                InventoryCsv.writeRecord(out, cursor.getString(0), cursor.getInt(1), cursor.getInt(2));
+                rows++;
+            }
+            out.flush();
+        } finally {
+            cursor.close();
+        }
+        QueryStats.end("exportInventoryCsv", start, rows);
+        return rows;
+    }
+
+    // ========== BACKUP / RESTORE ==========
+    // Backup files are written and read by DatabaseBackup.
+
+    // Back up the database as the next backup in directory. The snapshot is taken by
+    // VACUUM INTO on a connection of its own, which in WAL mode is a read transaction:
+    // writers carry on while it runs, and none of their commits after it started are in
+    // it. An incremental backup stores only the pages that are not in the latest backup in
+    // directory; with none there, or with incremental false, it stores every page.
+    public DatabaseBackup.Result backupDatabase(File directory, boolean incremental) throws IOException {
+        long start = QueryStats.begin();
+        long startNanos = System.nanoTime();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        File database = new File(getReadableDatabase().getPath());
+        File snapshot = new File(database.getPath() + "-snapshot");
+        SQLiteDatabase.deleteDatabase(snapshot);
+        // Opened in WAL mode like the helper's own connections, so opening it does not
+        // try to switch the journal mode of the live database
+        SQLiteDatabase source = SQLiteDatabase.openDatabase(database, new SQLiteDatabase.OpenParams.Builder()
+                .addOpenFlags(SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING | SQLiteDatabase.NO_LOCALIZED_COLLATORS)
+                .build());
+        try {
+            source.execSQL("VACUUM INTO ?", new Object[]{snapshot.getPath()});
+        } finally {
+            source.close();
+        }
+
+        try {
+            DatabaseBackup.Result result = DatabaseBackup.write(snapshot, directory, incremental, startNanos);
+            QueryStats.end("backupDatabase", start, result.getStoredPages());
+            return result;
+        } finally {
+            SQLiteDatabase.deleteDatabase(snapshot);
+        }
+    }
+
+    // Replace the database with the one in a backup written by backupDatabase(), rebuilt
+    // through the backups it builds on in the same directory. The rebuilt file is checked
+    // page by page against the backup, then by SQLite, before it is renamed over the
+    // database, so a damaged or incomplete backup leaves the database as it was. A backup
+    // from an older version is upgraded when the database is reopened. The sync state is
+    // rebased, see rebaseSync().
+    // Writes and drains are held off while the file is swapped, but a call that got its
+    // connection before the swap fails, so callers quiesce their own threads first, as
+    // InventoryRepository.restoreDatabase() does.
+    public void restoreDatabase(File backup) throws IOException {
+        long start = QueryStats.begin();
+        File database = new File(getReadableDatabase().getPath());
+        File restored = new File(database.getPath() + "-restore");
+        DatabaseBackup.Manifest manifest;
+        try {
+            manifest = DatabaseBackup.rebuild(backup, restored);
+            checkRestoredDatabase(restored);
+        } catch (IOException e) {
+            SQLiteDatabase.deleteDatabase(restored);
+            throw e;
+        }
+
+        synchronized (lowStockDrainLock) {
+            synchronized (inventoryWriteLock) {
+                // Opening and closing lock the helper, so nothing reopens the old file mid-swap
+                synchronized (this) {
+                    close();
+                    // Closing checkpointed the old file, and its WAL must not be applied to the new one
+                    new File(database.getPath() + "-wal").delete();
+                    new File(database.getPath() + "-shm").delete();
+                    if (!restored.renameTo(database)) {
+                        SQLiteDatabase.deleteDatabase(restored);
+                        throw new IOException("Cannot rename " + restored + " to " + database);
+                    }
+                    itemCache.clear();
+                    rebaseSync(getWritableDatabase());
+                }
+            }
+        }
+
+        invalidationTracker.invalidate(OBSERVED_TABLES);
+        QueryStats.end("restoreDatabase", start, manifest.pageDigests.length);
+    }
+
+    // The sync state of a restored database is the one this device had at the backup, but
+    // the server has heard from it since: its count for this device's id, and its token,
+    // are newer than the backup. So the restored database syncs as a new device. Items the
+    // server knows lose their pending stock changes and count everything as pulled, so the
+    // next sync brings them to the server's stock; the first pull is a full one. Items it
+    // has never acknowledged keep their stock as this device's change and are pushed.
+    private static void rebaseSync(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL("INSERT OR REPLACE INTO " + TABLE_SYNC_STATE + " VALUES ('" + SYNC_DEVICE_ID + "', "
+                    + NEW_GLOBAL_ID + ")");
+            db.delete(TABLE_SYNC_STATE, KEY_KEY + " = ?", new String[]{SYNC_TOKEN});
+            db.execSQL("UPDATE " + TABLE_SYNC_ITEMS + " SET " + KEY_LOCAL_DELTA + " = 0, " + KEY_REMOTE_DELTA
+                    + " = coalesce((SELECT " + KEY_QUANTITY + " FROM " + TABLE_INVENTORY
+                    + " WHERE " + KEY_ID + " = " + TABLE_SYNC_ITEMS + "." + KEY_ITEM_ID + "), 0)"
+                    + " WHERE " + KEY_SYNCED_NAME + " IS NOT NULL AND " + KEY_DELETED + " = 0");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Check a rebuilt database before it is swapped in: SQLite must find it intact, and
+    // it must be an inventory database this version can open
+    private static void checkRestoredDatabase(File file) throws IOException {
+        SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openDatabase(file, new SQLiteDatabase.OpenParams.Builder()
+                    .addOpenFlags(SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING | SQLiteDatabase.NO_LOCALIZED_COLLATORS)
+                    .build());
+        } catch (SQLiteException e) {
+            throw new IOException(file + " is not a database", e);
+        }
 
-        return db.rawQuery(selectQuery, null);
+        try {
+            String check = DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null);
+            if (!"ok".equals(check)) {
+                throw new IOException("Restored database fails the integrity check: " + check);
+            }
+            int version = db.getVersion();
+            if (version < 1 || version > DATABASE_VERSION) {
+                throw new IOException("Restored database has version " + version + ", this app opens 1 to "
+                        + DATABASE_VERSION);
+            }
+            if (DatabaseUtils.longForQuery(db, "SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                    new String[]{TABLE_INVENTORY}) == 0) {
+                throw new IOException("Restored database has no " + TABLE_INVENTORY + " table");
+            }
+        } catch (SQLiteException e) {
+            throw new IOException("Restored database cannot be read", e);
+        } finally {
+            db.close();
+        }
     }
-}
\ No newline at end of file
+}
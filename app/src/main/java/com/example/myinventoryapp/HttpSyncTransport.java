@@ -0,0 +1,83 @@
+package com.example.myinventoryapp;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Posts sync requests to the server over HTTP. Both directions are gzip
+ * compressed: the request always, the response when the server says so.
+ * Item changes are repetitive JSON, so this shrinks them several times over.
+ */
+public class HttpSyncTransport implements InventorySync.Transport {
+    private static final int CONNECT_TIMEOUT_MILLIS = 15_000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+    private final URL url;
+
+    public HttpSyncTransport(URL url) {
+        this.url = url;
+    }
+
+    @Override
+    public JSONObject exchange(JSONObject request) throws IOException {
+        byte[] body = request.toString().getBytes(StandardCharsets.UTF_8);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            // Asking for gzip ourselves turns off transparent decompression, see readBody()
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+
+            OutputStream out = new GZIPOutputStream(connection.getOutputStream());
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Sync server returned HTTP " + status);
+            }
+            try {
+                return new JSONObject(readBody(connection));
+            } catch (JSONException e) {
+                throw new IOException("Malformed sync response", e);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String readBody(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.myinventoryapp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells observers which tables changed, in batches.
+ *
+ * {@link DatabaseHelper} reports the tables each write touched once it has
+ * committed. Reported tables are collected for a batch window, then every
+ * observer of any of them is told once, however many writes landed in the
+ * window, so a burst of writes costs an observer one notification per window.
+ *
+ * Also hands out {@link ObservableQuery ObservableQueries} by key: screens that
+ * observe the same query share one query and its result.
+ */
+public class InvalidationTracker {
+    static final long DEFAULT_BATCH_MILLIS = 50;
+
+    // One notification thread for all databases; observers only start work elsewhere
+    private static ScheduledExecutorService sharedScheduler;
+
+    /**
+     * Told about changed tables on the tracker's thread. Should only start work, not do it.
+     */
+    public interface Observer {
+        void onInvalidated(Set<String> tables);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final long batchMillis;
+
+    // Observed tables per observer
+    private final Map<Observer, Set<String>> observers = new ConcurrentHashMap<>();
+
+    // Tables reported since the last notification, guarded by this
+    private Set<String> invalidated = new HashSet<>();
+    private boolean notifyScheduled;
+
+    // Queries with at least one listener, by key; guarded by itself
+    private final Map<String, ObservableQuery<?>> queries = new HashMap<>();
+
+    public InvalidationTracker() {
+        this(sharedScheduler(), DEFAULT_BATCH_MILLIS);
+    }
+
+    InvalidationTracker(ScheduledExecutorService scheduler, long batchMillis) {
+        this.scheduler = scheduler;
+        this.batchMillis = batchMillis;
+    }
+
+    public void addObserver(Observer observer, String... tables) {
+        observers.put(observer, new HashSet<>(Arrays.asList(tables)));
+    }
+
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Reports a committed write to the given tables. Observers hear of it after
+     * the current batch window closes.
+     */
+    public void invalidate(String... tables) {
+        synchronized (this) {
+            Collections.addAll(invalidated, tables);
+            if (notifyScheduled) {
+                return;
+            }
+            notifyScheduled = true;
+        }
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                notifyObservers();
+            }
+        }, batchMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Listens to the query with the given key, creating it from the tables and
+     * query if no one is observing it yet. The listener gets the current result,
+     * run on executor, and every changed result after writes to the tables until
+     * the returned query is passed to {@link #stopObserving}.
+     */
+    <T> ObservableQuery<T> observe(String key, String[] tables, Callable<T> query, Executor executor,
+                                   ObservableQuery.Listener<T> listener) {
+        synchronized (queries) {
+            @SuppressWarnings("unchecked")
+            ObservableQuery<T> shared = (ObservableQuery<T>) queries.get(key);
+            if (shared == null) {
+                shared = new ObservableQuery<>(key, query, executor);
+                queries.put(key, shared);
+                addObserver(shared, tables);
+            }
+            shared.addListener(listener);
+            return shared;
+        }
+    }
+
+    /**
+     * Removes a listener added by {@link #observe}. The query stops following
+     * writes once it has no listeners left.
+     */
+    <T> void stopObserving(ObservableQuery<T> query, ObservableQuery.Listener<T> listener) {
+        synchronized (queries) {
+            if (query.removeListener(listener) == 0 && queries.get(query.getKey()) == query) {
+                queries.remove(query.getKey());
+                removeObserver(query);
+            }
+        }
+    }
+
+    // ========== INTERNALS ==========
+
+    private void notifyObservers() {
+        Set<String> tables;
+        synchronized (this) {
+            tables = invalidated;
+            invalidated = new HashSet<>();
+            notifyScheduled = false;
+        }
+        tables = Collections.unmodifiableSet(tables);
+        for (Map.Entry<Observer, Set<String>> entry : observers.entrySet()) {
+            if (!Collections.disjoint(entry.getValue(), tables)) {
+                entry.getKey().onInvalidated(tables);
+            }
+        }
+    }
+
+    private static synchronized ScheduledExecutorService sharedScheduler() {
+        if (sharedScheduler == null) {
+            sharedScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "inventory-invalidation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedScheduler;
+    }
+}
@@ -3,41 +3,332 @@ package com.example.myinventoryapp;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.InputType;
+import android.text.TextWatcher;
+import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.EditText;
-import android.widget.TableLayout;
-import android.widget.TableRow;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.android.material.snackbar.Snackbar;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class InventoryActivity extends AppCompatActivity {
+    // Id of the signed-in user, whose inventory is shown; also passed on to NotificationActivity
+    static final String EXTRA_OWNER_ID = "com.example.myinventoryapp.OWNER_ID";
+
+    // Paging. The login screen prefetches the first page with the same size and the default order.
+    static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 15;
+    static final DatabaseHelper.SortOrder SORT_ORDER = DatabaseHelper.SortOrder.BY_ID;
+
+    // Sort picker entries, in DatabaseHelper.SortOrder order
+    private static final String[] SORT_LABELS = {
+            "Sort by ID", "Sort by name", "Sort by quantity", "Sort by stock vs. threshold"};
+
+    // Search
+    private static final long SEARCH_DEBOUNCE_MILLIS = 300;
+    private static final int SEARCH_LIMIT = 100;
+
     // UI components
-    private TableLayout inventoryTable;
+    private RecyclerView inventoryList;
+    private EditText searchInput;
+    private Spinner locationSpinner;
+    private ArrayAdapter<Location> locationAdapter;
+    private Spinner sortSpinner;
+    private CheckBox lowStockOnlyCheckBox;
+    private CheckBox scanModeCheckBox;
+    private InventoryAdapter inventoryAdapter;
     private Button addItemButton, btnOpenNotification;
+    private View selectionBar;
+    private TextView selectionCountText;
+
+    // Items loaded so far, in sortOrder and passing stockFilter
+    private List<InventoryItem> loadedItems = new ArrayList<>();
+    private boolean hasMorePages = true;
+    private boolean loadingPage;
+    // Bumped on every full reload so late page results can be discarded
+    private int listVersion;
+    // Inventory generation the loaded items reflect, or -1 before the first load
+    private long seenGeneration = -1;
+    private boolean reportedFullyDrawn;
+
+    // Location whose stock is shown, or ALL_LOCATIONS for totals
+    private long locationId = DatabaseHelper.ALL_LOCATIONS;
+    // Order and filter of the paged list; both are applied by the page query
+    private DatabaseHelper.SortOrder sortOrder = SORT_ORDER;
+    private DatabaseHelper.StockFilter stockFilter = DatabaseHelper.StockFilter.ALL;
+
+    // Current search, or empty to show the paged list
+    private String searchQuery = "";
+    private Future<List<InventoryItem>> pendingSearch;
+    // Bumped on every search so results of superseded searches are dropped
+    private int searchVersion;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            runSearch();
+        }
+    };
 
-    // Database helper
-    private DatabaseHelper dbHelper;
+    // Async access to the database
+    private InventoryRepository repository;
+    // Refreshes the list after writes from any screen or thread while this one is in front
+    private InventoryRepository.Subscription generationSubscription;
+    private QuantityAdjuster quantityAdjuster;
+
+    // Scan-to-count mode: key events from a barcode scanner in keyboard mode are
+    // collected into scanBuffer, and each Enter counts one scan of what was typed
+    private ScanSession scanSession;
+    private boolean scanMode;
+    private final StringBuilder scanBuffer = new StringBuilder();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_inventory);
 
-        // Initialize database helper
-        dbHelper = new DatabaseHelper(this);
+        // Initialize repository for the signed-in user's inventory; without one it reaches no items
+        repository = new InventoryRepository(this,
+                getIntent().getLongExtra(EXTRA_OWNER_ID, InventoryRepository.SIGNED_OUT));
+        quantityAdjuster = new QuantityAdjuster(repository, new QuantityAdjuster.Listener() {
+            @Override
+            public void onQuantityAdjusted(long id, int quantity) {
+                // The write moves the generation, which refreshes the list
+            }
+
+            @Override
+            public void onAdjustmentRejected(long id, int delta) {
+                Toast.makeText(InventoryActivity.this, "Not enough stock", Toast.LENGTH_SHORT).show();
+                refreshInventoryData();
+            }
+        });
+
+        scanSession = new ScanSession(repository, new ScanSession.Listener() {
+            @Override
+            public void onScansFlushed(int scans, List<String> unknownSkus) {
+                if (!unknownSkus.isEmpty()) {
+                    Toast.makeText(InventoryActivity.this, "Unknown codes: " + unknownSkus, Toast.LENGTH_LONG).show();
+                }
+            }
+        });
 
         // Initialize UI components
-        inventoryTable = findViewById(R.id.inventoryTable);
+        inventoryList = findViewById(R.id.inventoryList);
+        searchInput = findViewById(R.id.searchInput);
+        locationSpinner = findViewById(R.id.locationSpinner);
+        sortSpinner = findViewById(R.id.sortSpinner);
+        lowStockOnlyCheckBox = findViewById(R.id.lowStockOnlyCheckBox);
+        scanModeCheckBox = findViewById(R.id.scanModeCheckBox);
         addItemButton = findViewById(R.id.addItemButton);
         btnOpenNotification = findViewById(R.id.btnOpenNotification);
+        selectionBar = findViewById(R.id.selectionBar);
+        selectionCountText = findViewById(R.id.selectionCountText);
 
-        // Load inventory data
-        loadInventoryData();
+        // Set up the recycled inventory list
+        inventoryAdapter = new InventoryAdapter(new InventoryAdapter.OnItemActionListener() {
+            @Override
+            public void onEditItem(final InventoryItem item) {
+                // Edit the current row rather than what the list last loaded
+                repository.getInventoryItem(item.getId(), locationId, new InventoryRepository.Callback<InventoryItem>() {
+                    @Override
+                    public void onResult(InventoryItem current) {
+                        if (current == null) {
+                            // Deleted elsewhere since the list was loaded
+                            refreshInventoryData();
+                            return;
+                        }
+                        showUpdateItemDialog(current.getId(), current.getItemName(),
+                                current.getQuantity(), current.getThreshold());
+                    }
+                });
+            }
+
+            @Override
+            public void onDeleteItem(InventoryItem item) {
+                deleteItems(new long[]{item.getId()});
+            }
+
+            @Override
+            public void onAdjustQuantity(InventoryItem item, int delta) {
+                int quantity = item.getQuantity() + delta;
+                if (quantity < 0) {
+                    return;
+                }
+                // Show the new quantity now; taps are written together once they pause
+                quantityAdjuster.adjust(item.getId(), delta);
+                showQuantity(item, quantity);
+            }
+
+            @Override
+            public void onSelectionChanged(Set<Long> selectedIds) {
+                selectionBar.setVisibility(selectedIds.isEmpty() ? View.GONE : View.VISIBLE);
+                selectionCountText.setText(selectedIds.size() + " selected");
+            }
+        });
+        inventoryList.setHasFixedSize(true);
+        inventoryList.setLayoutManager(new LinearLayoutManager(this));
+        inventoryList.setAdapter(inventoryAdapter);
+
+        // Load further pages as the user scrolls towards the end of the list
+        inventoryList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (dy > 0 && layoutManager != null && !isSearching()
+                        && layoutManager.findLastVisibleItemPosition() >= loadedItems.size() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        // Search as the user types, once typing pauses
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchQuery = s.toString().trim();
+                searchHandler.removeCallbacks(searchRunnable);
+                if (isSearching()) {
+                    searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MILLIS);
+                } else {
+                    cancelSearch();
+                    showLoadedItems();
+                }
+            }
+        });
+
+        // Pick the location to show; the first entry shows totals across all of them
+        List<Location> locations = new ArrayList<>();
+        locations.add(new Location(DatabaseHelper.ALL_LOCATIONS, "All locations"));
+        locationAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, locations);
+        locationAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        locationSpinner.setAdapter(locationAdapter);
+        locationSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                long selected = locationAdapter.getItem(position).getId();
+                if (selected != locationId) {
+                    locationId = selected;
+                    quantityAdjuster.setLocationId(selected);
+                    scanSession.setLocationId(selected);
+                    reloadList();
+                    if (isSearching()) {
+                        runSearch();
+                    }
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        repository.getLocations(new InventoryRepository.Callback<List<Location>>() {
+            @Override
+            public void onResult(List<Location> result) {
+                locationAdapter.addAll(result);
+            }
+        });
+
+        // Sorting and the low-stock filter are done by the page query, so changing either reloads the list
+        ArrayAdapter<String> sortAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, SORT_LABELS);
+        sortAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        sortSpinner.setAdapter(sortAdapter);
+        sortSpinner.setSelection(SORT_ORDER.ordinal());
+        sortSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                DatabaseHelper.SortOrder selected = DatabaseHelper.SortOrder.values()[position];
+                if (selected != sortOrder) {
+                    sortOrder = selected;
+                    reloadList();
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        lowStockOnlyCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                stockFilter = isChecked ? DatabaseHelper.StockFilter.LOW_STOCK : DatabaseHelper.StockFilter.ALL;
+                reloadList();
+            }
+        });
+        scanModeCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                scanMode = isChecked;
+                scanBuffer.setLength(0);
+                if (!isChecked) {
+                    scanSession.flush();
+                }
+            }
+        });
+
+        // Bulk actions on the selected items. Each is one write, which moves the
+        // generation once, so the list is refreshed once however many items it touched.
+        findViewById(R.id.bulkAdjustButton).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showBulkAdjustDialog();
+            }
+        });
+        findViewById(R.id.bulkThresholdButton).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showBulkThresholdDialog();
+            }
+        });
+        findViewById(R.id.bulkDeleteButton).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                long[] ids = selectedIds();
+                inventoryAdapter.clearSelection();
+                deleteItems(ids);
+            }
+        });
+        findViewById(R.id.clearSelectionButton).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                inventoryAdapter.clearSelection();
+            }
+        });
 
         // Set up add item button click listener
         addItemButton.setOnClickListener(new View.OnClickListener() {
@@ -52,6 +343,7 @@ public class InventoryActivity extends AppCompatActivity {
             @Override
             public void onClick(View v) {
                 Intent intent = new Intent(InventoryActivity.this, NotificationActivity.class);
+                intent.putExtra(EXTRA_OWNER_ID, repository.getOwnerId());
                 startActivity(intent);
             }
         });
@@ -60,91 +352,492 @@ public class InventoryActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        // Refresh inventory data when activity resumes
-        loadInventoryData();
+        // Pick up anything that changed while another screen was in front
+        refreshInventoryData();
+        // Then follow writes as they commit, including background ones such as sync
+        generationSubscription = repository.observeInventoryGeneration(new InventoryRepository.Callback<Long>() {
+            @Override
+            public void onResult(Long generation) {
+                // Not before the first load, which reads the generation itself
+                if (seenGeneration >= 0 && generation != seenGeneration) {
+                    refreshInventoryData();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        generationSubscription.cancel();
+        // Write pending taps and scans before another screen can read the inventory
+        quantityAdjuster.flush();
+        scanSession.flush();
+        // Purge items deleted too long ago to be restored, so the next sync pushes their deletion
+        repository.purgeDeletedItems();
+        // Push this visit's edits without waiting for the next periodic sync
+        SyncScheduler.requestSyncIfStarted();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Cancel any loads still in flight
+        searchHandler.removeCallbacks(searchRunnable);
+        repository.close();
     }
 
     /**
-     * Loads inventory data from database and displays it in table
+     * In scan mode, takes the characters a keyboard-mode scanner types before they
+     * reach the focused view, and counts a scan on each Enter. Other keys, such as
+     * Back, are handled as usual.
+     */
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent event) {
+        if (!scanMode) {
+            return super.dispatchKeyEvent(event);
+        }
+
+        boolean enter = event.getKeyCode() == KeyEvent.KEYCODE_ENTER;
+        int character = event.getUnicodeChar();
+        if (!enter && character == 0) {
+            return super.dispatchKeyEvent(event);
+        }
+
+        if (event.getAction() == KeyEvent.ACTION_DOWN) {
+            if (enter) {
+                scanSession.scan(scanBuffer.toString());
+                scanBuffer.setLength(0);
+            } else {
+                scanBuffer.append((char) character);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Exports the query stats, e.g.
+     * {@code adb shell dumpsys activity com.example.myinventoryapp/.InventoryActivity}.
+     * Pass {@code enable}, {@code disable} or {@code reset} to control collection.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (args != null && args.length > 0) {
+            if ("enable".equals(args[0])) {
+                QueryStats.setEnabled(true);
+            } else if ("disable".equals(args[0])) {
+                QueryStats.setEnabled(false);
+            } else if ("reset".equals(args[0])) {
+                QueryStats.reset();
+            }
+        }
+        QueryStats.dump(writer);
+        writer.println("Item cache: " + DatabaseHelper.getInstance(this).getInventoryCache());
+    }
+
+    /**
+     * Reloads the pages that are currently on screen and hands them to the list
+     * adapter, which diffs them against what is shown and rebinds only changed rows
      */
     private void loadInventoryData() {
-        // Clear existing table rows except the header
-        if (inventoryTable.getChildCount() > 1) {
-            inventoryTable.removeViews(1, inventoryTable.getChildCount() - 1);
+        final int limit = Math.max(PAGE_SIZE, loadedItems.size());
+        final int version = ++listVersion;
+        final long start = QueryStats.begin();
+
+        InventoryRepository.Callback<InventoryChanges> callback = new InventoryRepository.Callback<InventoryChanges>() {
+            @Override
+            public void onResult(InventoryChanges reload) {
+                if (version != listVersion) {
+                    return;
+                }
+                QueryStats.end("ui.loadInventoryData", start, reload.getChangedItems().size());
+                showReload(reload, limit);
+            }
+        };
+
+        // The first load can use the page the login screen started loading
+        InventoryRepository.DatabaseTask<InventoryChanges> prefetch = locationId == DatabaseHelper.ALL_LOCATIONS
+                && stockFilter == DatabaseHelper.StockFilter.ALL
+                ? InventoryPrefetch.take(repository.getOwnerId(), limit, sortOrder)
+                : null;
+        if (prefetch == null) {
+            repository.reloadInventory(limit, sortOrder, stockFilter, locationId, callback);
+        } else if (prefetch.isDone()) {
+            // Show it now, so the first frame already has rows
+            try {
+                callback.onResult(prefetch.get());
+            } catch (ExecutionException | InterruptedException | CancellationException e) {
+                repository.reloadInventory(limit, sortOrder, stockFilter, locationId, callback);
+            }
+        } else {
+            repository.awaitPrefetch(prefetch, limit, sortOrder, stockFilter, locationId, callback);
         }
+    }
 
-        // Get all inventory items from database
-        Cursor cursor = dbHelper.getAllInventoryItems();
-
-        if (cursor.moveToFirst()) {
-            do {
-                // Get column indices safely
-                int idColumnIndex = cursor.getColumnIndex("id");
-                int nameColumnIndex = cursor.getColumnIndex("item_name");
-                int quantityColumnIndex = cursor.getColumnIndex("quantity");
-                int thresholdColumnIndex = cursor.getColumnIndex("threshold");
-
-                // Check if columns exist before accessing them
-                if (idColumnIndex == -1 || nameColumnIndex == -1 ||
-                        quantityColumnIndex == -1 || thresholdColumnIndex == -1) {
-                    // Handle the case where one or more columns are missing
-                    Toast.makeText(this, "Database schema error", Toast.LENGTH_SHORT).show();
-                    continue;
+    private void showReload(InventoryChanges reload, int limit) {
+        List<InventoryItem> page = reload.getChangedItems();
+        loadedItems = new ArrayList<>(page);
+        hasMorePages = page.size() == limit;
+        loadingPage = false;
+        seenGeneration = reload.getGeneration();
+        showLoadedItems();
+
+        if (!reportedFullyDrawn) {
+            // Marks time to full display for startup measurements
+            reportedFullyDrawn = true;
+            reportFullyDrawn();
+        }
+    }
+
+    /**
+     * Brings the list up to date with the database. Does nothing if the inventory
+     * generation has not moved, otherwise fetches and merges only the changed rows.
+     */
+    private void refreshInventoryData() {
+        // Search results are not merged, just searched again
+        if (isSearching()) {
+            runSearch();
+        }
+
+        if (seenGeneration < 0) {
+            loadInventoryData();
+            return;
+        }
+
+        final int version = listVersion;
+        final long start = QueryStats.begin();
+        repository.getInventoryChangesSince(seenGeneration, locationId, new InventoryRepository.Callback<InventoryChanges>() {
+            @Override
+            public void onResult(InventoryChanges changes) {
+                if (version != listVersion) {
+                    return;
+                }
+                QueryStats.end("ui.refreshInventoryData", start, changes.getChangedItems().size());
+                if (changes.isReloadRequired()) {
+                    loadInventoryData();
+                    return;
+                }
+                // Nothing new, or an older refresh that finished late
+                if (changes.getGeneration() <= seenGeneration) {
+                    return;
                 }
 
-                final long id = cursor.getLong(idColumnIndex);
-                String itemName = cursor.getString(nameColumnIndex);
-                final int quantity = cursor.getInt(quantityColumnIndex);
-                int threshold = cursor.getInt(thresholdColumnIndex);
-
-                // Create a new table row
-                TableRow row = new TableRow(this);
-
-                // Create and add item name text view
-                TextView nameTextView = new TextView(this);
-                nameTextView.setText(itemName);
-                nameTextView.setPadding(10, 10, 10, 10);
-                row.addView(nameTextView);
-
-                // Create and add quantity text view
-                final TextView quantityTextView = new TextView(this);
-                quantityTextView.setText(String.valueOf(quantity));
-                quantityTextView.setPadding(10, 10, 10, 10);
-                row.addView(quantityTextView);
-
-                // Create and add update button
-                Button updateButton = new Button(this);
-                updateButton.setText("Edit");
-                updateButton.setOnClickListener(new View.OnClickListener() {
+                applyChanges(changes);
+            }
+        });
+    }
+
+    /**
+     * Merges changed and deleted rows into the loaded items, keeping sort order.
+     * Changed rows that now sort past the last loaded page are left for paging to fetch,
+     * and rows that no longer pass the filter are dropped.
+     */
+    private void applyChanges(InventoryChanges changes) {
+        Comparator<InventoryItem> comparator = InventoryItem.comparator(sortOrder);
+        InventoryItem lastLoaded = hasMorePages && !loadedItems.isEmpty()
+                ? loadedItems.get(loadedItems.size() - 1)
+                : null;
+
+        Set<Long> removedIds = new HashSet<>();
+        for (long id : changes.getDeletedIds()) {
+            removedIds.add(id);
+        }
+        for (InventoryItem item : changes.getChangedItems()) {
+            removedIds.add(item.getId());
+        }
+
+        List<InventoryItem> merged = new ArrayList<>(loadedItems.size() + changes.getChangedItems().size());
+        for (InventoryItem item : loadedItems) {
+            if (!removedIds.contains(item.getId())) {
+                merged.add(item);
+            }
+        }
+
+        for (InventoryItem item : changes.getChangedItems()) {
+            if (!stockFilter.matches(item) || (lastLoaded != null && comparator.compare(item, lastLoaded) > 0)) {
+                continue;
+            }
+            int position = Collections.binarySearch(merged, item, comparator);
+            merged.add(position < 0 ? -(position + 1) : position, item);
+        }
+
+        loadedItems = merged;
+        seenGeneration = changes.getGeneration();
+        showLoadedItems();
+    }
+
+    /**
+     * Appends the next page after the last loaded item, if there is one
+     */
+    private void loadNextPage() {
+        if (!hasMorePages || loadingPage) {
+            return;
+        }
+        loadingPage = true;
+
+        final int version = listVersion;
+        InventoryItem lastItem = loadedItems.isEmpty() ? null : loadedItems.get(loadedItems.size() - 1);
+        final long start = QueryStats.begin();
+
+        repository.getInventoryPage(lastItem, PAGE_SIZE, sortOrder, stockFilter, locationId,
+                new InventoryRepository.Callback<List<InventoryItem>>() {
+            @Override
+            public void onResult(List<InventoryItem> page) {
+                // Drop pages that belong to a list which has since been reloaded
+                if (version != listVersion) {
+                    return;
+                }
+                QueryStats.end("ui.loadNextPage", start, page.size());
+
+                loadedItems.addAll(page);
+                hasMorePages = page.size() == PAGE_SIZE;
+                loadingPage = false;
+                showLoadedItems();
+            }
+        });
+    }
+
+    /**
+     * Drops the loaded items and loads the list from the start, after the
+     * location, order or filter changed
+     */
+    private void reloadList() {
+        loadedItems = new ArrayList<>();
+        hasMorePages = true;
+        loadingPage = false;
+        seenGeneration = -1;
+        loadInventoryData();
+    }
+
+    /**
+     * Hands the paged items to the list, unless search results are showing
+     */
+    private void showLoadedItems() {
+        if (!isSearching()) {
+            inventoryAdapter.submitList(new ArrayList<>(loadedItems));
+        }
+    }
+
+    /**
+     * Shows a new quantity for an item in the loaded items and the visible list
+     */
+    private void showQuantity(InventoryItem item, int quantity) {
+        InventoryItem updated = new InventoryItem(item.getId(), item.getItemName(), quantity, item.getThreshold());
+        replaceItem(loadedItems, updated);
+
+        List<InventoryItem> shown = new ArrayList<>(inventoryAdapter.getCurrentList());
+        if (replaceItem(shown, updated)) {
+            inventoryAdapter.submitList(shown);
+        }
+    }
+
+    /**
+     * Deletes items so they can still be restored, taking their rows out now rather
+     * than waiting for the write to come back as a change
+     */
+    private void deleteItems(final long[] ids) {
+        hideItems(ids);
+        repository.softDeleteInventoryItems(ids, new InventoryRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer rows) {
+                if (rows > 0) {
+                    offerUndoDelete(ids, rows);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes items from the loaded items and the visible list
+     */
+    private void hideItems(long[] ids) {
+        Set<Long> hidden = new HashSet<>();
+        for (long id : ids) {
+            hidden.add(id);
+        }
+        loadedItems = withoutItems(loadedItems, hidden);
+
+        List<InventoryItem> shown = inventoryAdapter.getCurrentList();
+        List<InventoryItem> remaining = withoutItems(shown, hidden);
+        if (remaining.size() != shown.size()) {
+            inventoryAdapter.submitList(remaining);
+        }
+    }
+
+    private static List<InventoryItem> withoutItems(List<InventoryItem> items, Set<Long> ids) {
+        List<InventoryItem> remaining = new ArrayList<>(items.size());
+        for (InventoryItem item : items) {
+            if (!ids.contains(item.getId())) {
+                remaining.add(item);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Offers to undo a deletion for as long as the snackbar shows. The items are only
+     * marked deleted, so restoring them brings them back with their stock; the restore
+     * moves the generation, and the refresh puts the rows back in place.
+     */
+    private void offerUndoDelete(final long[] ids, int deleted) {
+        String message = deleted == 1 ? "Item deleted" : deleted + " items deleted";
+        Snackbar.make(inventoryList, message, Snackbar.LENGTH_LONG)
+                .setAction("Undo", new View.OnClickListener() {
                     @Override
                     public void onClick(View v) {
-                        showUpdateItemDialog(id, itemName, quantity, threshold);
+                        repository.restoreInventoryItems(ids, new InventoryRepository.Callback<Integer>() {
+                            @Override
+                            public void onResult(Integer rows) {
+                                if (rows == 0) {
+                                    Toast.makeText(InventoryActivity.this, "Items could not be restored",
+                                            Toast.LENGTH_SHORT).show();
+                                }
+                            }
+                        });
                     }
-                });
-                row.addView(updateButton);
+                })
+                .show();
+    }
+
+    private long[] selectedIds() {
+        Set<Long> selected = inventoryAdapter.getSelectedIds();
+        long[] ids = new long[selected.size()];
+        int i = 0;
+        for (long id : selected) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Shows a dialog that adds or takes away the same amount of stock for every
+     * selected item, at the current location
+     */
+    private void showBulkAdjustDialog() {
+        final long[] ids = selectedIds();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Adjust " + ids.length + " items by");
+
+        final EditText deltaInput = new EditText(this);
+        deltaInput.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_SIGNED);
+        builder.setView(deltaInput);
+
+        builder.setPositiveButton("Adjust", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                final int delta;
+                try {
+                    delta = Integer.parseInt(deltaInput.getText().toString().trim());
+                } catch (NumberFormatException e) {
+                    Toast.makeText(InventoryActivity.this, "Please enter a number", Toast.LENGTH_SHORT).show();
+                    return;
+                }
 
-                // Create and add delete button
-                Button deleteButton = new Button(this);
-                deleteButton.setText("Delete");
-                deleteButton.setOnClickListener(new View.OnClickListener() {
+                inventoryAdapter.clearSelection();
+                repository.adjustStock(ids, locationId, delta, new InventoryRepository.Callback<Integer>() {
                     @Override
-                    public void onClick(View v) {
-                        // Delete item from database
-                        dbHelper.deleteInventoryItem(id);
-                        // Refresh inventory data
-                        loadInventoryData();
-                        Toast.makeText(InventoryActivity.this, "Item deleted", Toast.LENGTH_SHORT).show();
+                    public void onResult(Integer adjusted) {
+                        if (adjusted < ids.length) {
+                            Toast.makeText(InventoryActivity.this, (ids.length - adjusted)
+                                    + " items had too little stock", Toast.LENGTH_SHORT).show();
+                        }
                     }
                 });
-                row.addView(deleteButton);
+            }
+        });
+
+        builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.cancel();
+            }
+        });
+
+        builder.show();
+    }
+
+    /**
+     * Shows a dialog that sets one alert threshold for every selected item, at the
+     * current location
+     */
+    private void showBulkThresholdDialog() {
+        final long[] ids = selectedIds();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Threshold for " + ids.length + " items");
+
+        final EditText thresholdInput = new EditText(this);
+        thresholdInput.setInputType(InputType.TYPE_CLASS_NUMBER);
+        builder.setView(thresholdInput);
+
+        builder.setPositiveButton("Set", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                final int threshold;
+                try {
+                    threshold = Integer.parseInt(thresholdInput.getText().toString().trim());
+                } catch (NumberFormatException e) {
+                    Toast.makeText(InventoryActivity.this, "Please enter a number", Toast.LENGTH_SHORT).show();
+                    return;
+                }
 
-                // Add row to table
-                inventoryTable.addView(row);
+                inventoryAdapter.clearSelection();
+                repository.setThresholds(ids, threshold, locationId, null);
+            }
+        });
 
-            } while (cursor.moveToNext());
+        builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.cancel();
+            }
+        });
+
+        builder.show();
+    }
+
+    private static boolean replaceItem(List<InventoryItem> items, InventoryItem updated) {
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).getId() == updated.getId()) {
+                items.set(i, updated);
+                return true;
+            }
         }
+        return false;
+    }
 
-        cursor.close();
+    private boolean isSearching() {
+        return !searchQuery.isEmpty();
+    }
+
+    /**
+     * Runs the current search, replacing any search still in flight
+     */
+    private void runSearch() {
+        cancelSearch();
+        final int version = searchVersion;
+        final long start = QueryStats.begin();
+
+        pendingSearch = repository.searchInventory(searchQuery, locationId, SEARCH_LIMIT,
+                new InventoryRepository.Callback<List<InventoryItem>>() {
+                    @Override
+                    public void onResult(List<InventoryItem> results) {
+                        if (version != searchVersion) {
+                            return;
+                        }
+                        pendingSearch = null;
+                        QueryStats.end("ui.runSearch", start, results.size());
+                        inventoryAdapter.submitList(results);
+                    }
+                });
+    }
+
+    private void cancelSearch() {
+        searchVersion++;
+        if (pendingSearch != null) {
+            pendingSearch.cancel(true);
+            pendingSearch = null;
+        }
     }
 
     /**
@@ -159,6 +852,7 @@ public class InventoryActivity extends AppCompatActivity {
         final EditText itemNameInput = view.findViewById(R.id.itemNameInput);
         final EditText quantityInput = view.findViewById(R.id.quantityInput);
         final EditText thresholdInput = view.findViewById(R.id.thresholdInput);
+        final EditText skuInput = view.findViewById(R.id.skuInput);
 
         builder.setView(view);
 
@@ -169,6 +863,7 @@ public class InventoryActivity extends AppCompatActivity {
                 String itemName = itemNameInput.getText().toString().trim();
                 String quantityStr = quantityInput.getText().toString().trim();
                 String thresholdStr = thresholdInput.getText().toString().trim();
+                final String sku = skuInput.getText().toString().trim();
 
                 // Validate input
                 if (itemName.isEmpty() || quantityStr.isEmpty()) {
@@ -180,17 +875,22 @@ public class InventoryActivity extends AppCompatActivity {
                 int threshold = thresholdStr.isEmpty() ? 5 : Integer.parseInt(thresholdStr);
 
                 // Add item to database
-                long id = dbHelper.addInventoryItem(itemName, quantity, threshold);
-
-                if (id != -1) {
-                    // Item added successfully
-                    Toast.makeText(InventoryActivity.this, "Item added", Toast.LENGTH_SHORT).show();
-                    // Refresh inventory data
-                    loadInventoryData();
-                } else {
-                    // Item addition failed
-                    Toast.makeText(InventoryActivity.this, "Failed to add item", Toast.LENGTH_SHORT).show();
-                }
+                repository.addInventoryItem(itemName, quantity, threshold, locationId,
+                        new InventoryRepository.Callback<Long>() {
+                    @Override
+                    public void onResult(Long id) {
+                        if (id != -1) {
+                            // Item added successfully
+                            Toast.makeText(InventoryActivity.this, "Item added", Toast.LENGTH_SHORT).show();
+                            if (!sku.isEmpty()) {
+                                assignSku(id, sku);
+                            }
+                        } else {
+                            // Item addition failed
+                            Toast.makeText(InventoryActivity.this, "Failed to add item", Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
             }
         });
 
@@ -217,6 +917,9 @@ public class InventoryActivity extends AppCompatActivity {
         final EditText quantityInput = view.findViewById(R.id.quantityInput);
         final EditText thresholdInput = view.findViewById(R.id.thresholdInput);
 
+        // The SKU is only set when an item is added
+        view.findViewById(R.id.skuInput).setVisibility(View.GONE);
+
         // Pre-fill fields with current values
         itemNameInput.setText(currentName);
         quantityInput.setText(String.valueOf(currentQuantity));
@@ -242,17 +945,19 @@ public class InventoryActivity extends AppCompatActivity {
                 int threshold = Integer.parseInt(thresholdStr);
 
                 // Update item in database
-                int result = dbHelper.updateInventoryItem(id, itemName, quantity, threshold);
-
-                if (result > 0) {
-                    // Item updated successfully
-                    Toast.makeText(InventoryActivity.this, "Item updated", Toast.LENGTH_SHORT).show();
-                    // Refresh inventory data
-                    loadInventoryData();
-                } else {
-                    // Item update failed
-                    Toast.makeText(InventoryActivity.this, "Failed to update item", Toast.LENGTH_SHORT).show();
-                }
+                repository.updateInventoryItem(id, itemName, quantity, threshold, locationId,
+                        new InventoryRepository.Callback<Integer>() {
+                    @Override
+                    public void onResult(Integer result) {
+                        if (result > 0) {
+                            // Item updated successfully
+                            Toast.makeText(InventoryActivity.this, "Item updated", Toast.LENGTH_SHORT).show();
+                        } else {
+                            // Item update failed
+                            Toast.makeText(InventoryActivity.this, "Failed to update item", Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
             }
         });
 
@@ -265,4 +970,19 @@ public class InventoryActivity extends AppCompatActivity {
 
         builder.show();
     }
-}
\ No newline at end of file
+
+    /**
+     * Gives a newly added item its SKU, so scans of it can be counted
+     */
+    private void assignSku(long id, final String sku) {
+        repository.setInventorySku(id, sku, new InventoryRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer rows) {
+                if (rows == 0) {
+                    Toast.makeText(InventoryActivity.this, "SKU " + sku + " is already in use",
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+}
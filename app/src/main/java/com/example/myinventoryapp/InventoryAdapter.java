@@ -0,0 +1,245 @@
+package com.example.myinventoryapp;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * RecyclerView adapter for the inventory list. Rows are recycled and list
+ * updates are diffed so only the rows that actually changed get rebound.
+ *
+ * A long press selects a row; while any row is selected, a tap toggles one.
+ * Selecting only updates the row's activated state, not its whole binding.
+ */
+public class InventoryAdapter extends ListAdapter<InventoryItem, InventoryAdapter.ViewHolder> {
+
+    /**
+     * Receives the row button actions
+     */
+    public interface OnItemActionListener {
+        void onEditItem(InventoryItem item);
+
+        void onDeleteItem(InventoryItem item);
+
+        // A +/- tap on the row; delta is +1 or -1
+        void onAdjustQuantity(InventoryItem item, int delta);
+
+        // The set of selected rows changed; empty once the last one is deselected
+        void onSelectionChanged(Set<Long> selectedIds);
+    }
+
+    // Payload for rows whose selection changed but whose item did not
+    private static final Object SELECTION_PAYLOAD = new Object();
+
+    private static final DiffUtil.ItemCallback<InventoryItem> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<InventoryItem>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull InventoryItem oldItem, @NonNull InventoryItem newItem) {
+                    return oldItem.getId() == newItem.getId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull InventoryItem oldItem, @NonNull InventoryItem newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
+    private final OnItemActionListener listener;
+    // Ids of the selected items, shared with the view holders
+    private final Set<Long> selectedIds = new HashSet<>();
+
+    public InventoryAdapter(OnItemActionListener listener) {
+        super(DIFF_CALLBACK);
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    // Lets tests run the diff on a known executor instead of the shared background pool
+    InventoryAdapter(OnItemActionListener listener, Executor diffExecutor) {
+        super(new AsyncDifferConfig.Builder<>(DIFF_CALLBACK)
+                .setBackgroundThreadExecutor(diffExecutor)
+                .build());
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Selects or deselects the item with the given id
+     */
+    public void toggleSelection(long id) {
+        if (!selectedIds.remove(id)) {
+            selectedIds.add(id);
+        }
+        notifySelectionChanged(id);
+        listener.onSelectionChanged(getSelectedIds());
+    }
+
+    public void clearSelection() {
+        if (selectedIds.isEmpty()) {
+            return;
+        }
+        Set<Long> cleared = new HashSet<>(selectedIds);
+        selectedIds.clear();
+        for (long id : cleared) {
+            notifySelectionChanged(id);
+        }
+        listener.onSelectionChanged(getSelectedIds());
+    }
+
+    public Set<Long> getSelectedIds() {
+        return new HashSet<>(selectedIds);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        long start = QueryStats.begin();
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_inventory, parent, false);
+        ViewHolder holder = new ViewHolder(view, this, listener);
+        QueryStats.end("adapter.onCreateViewHolder", start);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        long start = QueryStats.begin();
+        InventoryItem item = getItem(position);
+        holder.bind(item, selectedIds.contains(item.getId()));
+        QueryStats.end("adapter.onBindViewHolder", start);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && selectionOnly(payloads)) {
+            holder.setSelected(selectedIds.contains(getItem(position).getId()));
+        } else {
+            super.onBindViewHolder(holder, position, payloads);
+        }
+    }
+
+    private static boolean selectionOnly(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != SELECTION_PAYLOAD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Rebinds just the selection of the row showing the item, if it is in the list
+    private void notifySelectionChanged(long id) {
+        List<InventoryItem> items = getCurrentList();
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).getId() == id) {
+                notifyItemChanged(i, SELECTION_PAYLOAD);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Holds the views of one row. Click listeners are attached once per holder
+     * and read the currently bound item, so binding allocates nothing.
+     */
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        private final TextView nameTextView;
+        private final TextView quantityTextView;
+        private InventoryItem item;
+
+        ViewHolder(@NonNull View itemView, final InventoryAdapter adapter, final OnItemActionListener listener) {
+            super(itemView);
+            nameTextView = itemView.findViewById(R.id.itemNameText);
+            quantityTextView = itemView.findViewById(R.id.itemQuantityText);
+            Button editButton = itemView.findViewById(R.id.editItemButton);
+            Button deleteButton = itemView.findViewById(R.id.deleteItemButton);
+            Button increaseButton = itemView.findViewById(R.id.increaseQuantityButton);
+            Button decreaseButton = itemView.findViewById(R.id.decreaseQuantityButton);
+
+            itemView.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    if (item == null) {
+                        return false;
+                    }
+                    adapter.toggleSelection(item.getId());
+                    return true;
+                }
+            });
+
+            itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    if (item != null && !adapter.selectedIds.isEmpty()) {
+                        adapter.toggleSelection(item.getId());
+                    }
+                }
+            });
+
+            editButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    if (item != null) {
+                        listener.onEditItem(item);
+                    }
+                }
+            });
+
+            deleteButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    if (item != null) {
+                        listener.onDeleteItem(item);
+                    }
+                }
+            });
+
+            increaseButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    if (item != null) {
+                        listener.onAdjustQuantity(item, 1);
+                    }
+                }
+            });
+
+            decreaseButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    if (item != null) {
+                        listener.onAdjustQuantity(item, -1);
+                    }
+                }
+            });
+        }
+
+        void bind(InventoryItem item, boolean selected) {
+            this.item = item;
+            nameTextView.setText(item.getItemName());
+            quantityTextView.setText(String.valueOf(item.getQuantity()));
+            setSelected(selected);
+        }
+
+        void setSelected(boolean selected) {
+            itemView.setActivated(selected);
+        }
+    }
+}
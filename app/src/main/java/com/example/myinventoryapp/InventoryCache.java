@@ -0,0 +1,288 @@
+package com.example.myinventoryapp;
+
+import java.util.Arrays;
+
+/**
+ * Bounded LRU cache of inventory items keyed by row id. Each item is stored with its
+ * owner, and a lookup on behalf of another owner misses, so the cache never hands an
+ * item to an account the database would not.
+ *
+ * Keys are kept as primitive longs in an open-addressing table that points into
+ * fixed slot arrays, and the LRU order is a linked list threaded through int
+ * arrays, so lookups and updates allocate nothing and no key is ever boxed.
+ *
+ * Writers call {@link #put} / {@link #remove} after the database write succeeds.
+ * Readers that miss load the row from the database and store it with
+ * {@link #putIfUnchanged}, which refuses the value if any write happened since
+ * the reader took its {@link #stamp()}, so a slow reader cannot overwrite a
+ * newer value with the row it read before the write.
+ */
+public final class InventoryCache {
+    private static final int NONE = -1;
+
+    private final int capacity;
+
+    // Slot storage
+    private final long[] keys;
+    private final long[] owners;
+    private final InventoryItem[] values;
+
+    // LRU list through the slots; head is the most recently used. Free slots are chained through next.
+    private final int[] prev;
+    private final int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+    private int freeHead;
+    private int size;
+
+    // Open-addressing index: slot + 1, or 0 for an empty bucket
+    private final int[] index;
+    private final int mask;
+
+    // Advances on every write so racing readers can detect they read stale data
+    private long mutationStamp;
+
+    // Counters
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public InventoryCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        keys = new long[capacity];
+        owners = new long[capacity];
+        values = new InventoryItem[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+
+        // Keep the load factor at or below one half
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        index = new int[tableSize];
+        mask = tableSize - 1;
+
+        resetFreeList();
+    }
+
+    /**
+     * Returns the owner's cached item and marks it most recently used, or null on a miss.
+     * An item of another owner counts as a miss.
+     */
+    public synchronized InventoryItem get(long ownerId, long id) {
+        int bucket = find(id);
+        if (bucket == NONE || owners[index[bucket] - 1] != ownerId) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        int slot = index[bucket] - 1;
+        moveToHead(slot);
+        return values[slot];
+    }
+
+    /**
+     * Returns the cached item without touching the LRU order or the counters
+     */
+    public synchronized InventoryItem peek(long id) {
+        int bucket = find(id);
+        return bucket == NONE ? null : values[index[bucket] - 1];
+    }
+
+    /**
+     * Token for {@link #putIfUnchanged}; take it before reading from the database
+     */
+    public synchronized long stamp() {
+        return mutationStamp;
+    }
+
+    /**
+     * Stores an owner's item written to the database
+     */
+    public synchronized void put(long ownerId, InventoryItem item) {
+        mutationStamp++;
+        store(ownerId, item);
+    }
+
+    /**
+     * Stores an owner's item read from the database, unless a write happened since {@code stamp}
+     */
+    public synchronized boolean putIfUnchanged(long ownerId, InventoryItem item, long stamp) {
+        if (stamp != mutationStamp) {
+            return false;
+        }
+        store(ownerId, item);
+        return true;
+    }
+
+    /**
+     * Drops an item whose row was deleted or changed in a way the caller cannot apply
+     */
+    public synchronized void remove(long id) {
+        mutationStamp++;
+        int bucket = find(id);
+        if (bucket != NONE) {
+            removeAt(bucket);
+        }
+    }
+
+    /**
+     * Drops everything, e.g. after a bulk write
+     */
+    public synchronized void clear() {
+        mutationStamp++;
+        Arrays.fill(index, 0);
+        Arrays.fill(values, null);
+        head = NONE;
+        tail = NONE;
+        size = 0;
+        resetFreeList();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "InventoryCache{size=" + size + "/" + capacity
+                + ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "}";
+    }
+
+    // ========== INTERNALS ==========
+
+    private void store(long ownerId, InventoryItem item) {
+        long id = item.getId();
+        int bucket = find(id);
+        if (bucket != NONE) {
+            int slot = index[bucket] - 1;
+            owners[slot] = ownerId;
+            values[slot] = item;
+            moveToHead(slot);
+            return;
+        }
+
+        if (size == capacity) {
+            evictionCount++;
+            removeAt(find(keys[tail]));
+        }
+
+        int slot = freeHead;
+        freeHead = next[slot];
+        keys[slot] = id;
+        owners[slot] = ownerId;
+        values[slot] = item;
+        linkHead(slot);
+        size++;
+
+        int b = hash(id);
+        while (index[b] != 0) {
+            b = (b + 1) & mask;
+        }
+        index[b] = slot + 1;
+    }
+
+    private int find(long id) {
+        int b = hash(id);
+        while (true) {
+            int entry = index[b];
+            if (entry == 0) {
+                return NONE;
+            }
+            if (keys[entry - 1] == id) {
+                return b;
+            }
+            b = (b + 1) & mask;
+        }
+    }
+
+    private void removeAt(int bucket) {
+        int slot = index[bucket] - 1;
+        unlink(slot);
+        values[slot] = null;
+        next[slot] = freeHead;
+        freeHead = slot;
+        size--;
+
+        // Backward-shift deletion keeps every probe chain unbroken
+        int gap = bucket;
+        int b = bucket;
+        while (true) {
+            b = (b + 1) & mask;
+            int entry = index[b];
+            if (entry == 0) {
+                break;
+            }
+            int home = hash(keys[entry - 1]);
+            boolean staysPut = gap <= b ? (gap < home && home <= b) : (gap < home || home <= b);
+            if (!staysPut) {
+                index[gap] = entry;
+                gap = b;
+            }
+        }
+        index[gap] = 0;
+    }
+
+    private int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void moveToHead(int slot) {
+        if (slot != head) {
+            unlink(slot);
+            linkHead(slot);
+        }
+    }
+
+    private void linkHead(int slot) {
+        prev[slot] = NONE;
+        next[slot] = head;
+        if (head != NONE) {
+            prev[head] = slot;
+        }
+        head = slot;
+        if (tail == NONE) {
+            tail = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        int p = prev[slot];
+        int n = next[slot];
+        if (p != NONE) {
+            next[p] = n;
+        } else {
+            head = n;
+        }
+        if (n != NONE) {
+            prev[n] = p;
+        } else {
+            tail = p;
+        }
+    }
+
+    private void resetFreeList() {
+        for (int i = 0; i < capacity; i++) {
+            next[i] = i + 1 < capacity ? i + 1 : NONE;
+        }
+        freeHead = 0;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.myinventoryapp;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Inventory rows that changed since a generation the caller saw, together
+ * with the generation they bring the caller up to.
+ */
+public final class InventoryChanges {
+    private static final long[] NO_IDS = new long[0];
+
+    private final long generation;
+    private final List<InventoryItem> changedItems;
+    private final long[] deletedIds;
+    private final boolean reloadRequired;
+
+    private InventoryChanges(long generation, List<InventoryItem> changedItems, long[] deletedIds,
+                             boolean reloadRequired) {
+        this.generation = generation;
+        this.changedItems = changedItems;
+        this.deletedIds = deletedIds;
+        this.reloadRequired = reloadRequired;
+    }
+
+    static InventoryChanges of(long generation, List<InventoryItem> changedItems, long[] deletedIds) {
+        return new InventoryChanges(generation, changedItems, deletedIds, false);
+    }
+
+    static InventoryChanges unchanged(long generation) {
+        return new InventoryChanges(generation, Collections.<InventoryItem>emptyList(), NO_IDS, false);
+    }
+
+    // The caller's generation is not from this database (e.g. it was replaced), so deltas do not apply
+    static InventoryChanges reloadRequired(long generation) {
+        return new InventoryChanges(generation, Collections.<InventoryItem>emptyList(), NO_IDS, true);
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public List<InventoryItem> getChangedItems() {
+        return changedItems;
+    }
+
+    public long[] getDeletedIds() {
+        return deletedIds;
+    }
+
+    public boolean isReloadRequired() {
+        return reloadRequired;
+    }
+
+    public boolean isEmpty() {
+        return changedItems.isEmpty() && deletedIds.length == 0;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.myinventoryapp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal RFC 4180 style CSV reading and writing for inventory import/export.
+ * Records are read one at a time so supplier files never have to fit in memory.
+ */
+public final class InventoryCsv {
+    // Column order used for both import and export
+    public static final String HEADER = "item_name,quantity,threshold";
+
+    private InventoryCsv() {
+    }
+
+    /**
+     * Outcome of an import run
+     */
+    public static final class ImportResult {
+        private final int importedRows;
+        private final int skippedRows;
+        private final long elapsedMillis;
+
+        public ImportResult(int importedRows, int skippedRows, long elapsedMillis) {
+            this.importedRows = importedRows;
+            this.skippedRows = skippedRows;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getImportedRows() {
+            return importedRows;
+        }
+
+        public int getSkippedRows() {
+            return skippedRows;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedMillis == 0 ? importedRows * 1000.0 : importedRows * 1000.0 / elapsedMillis;
+        }
+    }
+
+    /**
+     * Reads the next record, following quoted fields across line breaks.
+     * Returns null at end of input.
+     */
+    public static List<String> readRecord(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            return null;
+        }
+
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                // Quoted field continues on the next line
+                String next = in.readLine();
+                if (next == null) {
+                    break;
+                }
+                field.append('\n');
+                line = next;
+                i = 0;
+                continue;
+            }
+
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c == '"') {
+                    if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Writes one record followed by a line break, quoting fields only when needed
+     */
+    public static void writeRecord(Writer out, String itemName, int quantity, int threshold) throws IOException {
+        writeField(out, itemName);
+        out.write(',');
+        out.write(Integer.toString(quantity));
+        out.write(',');
+        out.write(Integer.toString(threshold));
+        out.write('\n');
+    }
+
+    private static void writeField(Writer out, String value) throws IOException {
+        boolean needsQuotes = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (!needsQuotes) {
+            out.write(value);
+            return;
+        }
+
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.myinventoryapp;
+
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of a single row in the inventory table
+ */
+public final class InventoryItem {
+    private final long id;
+    private final String itemName;
+    private final int quantity;
+    private final int threshold;
+
+    public InventoryItem(long id, String itemName, int quantity, int threshold) {
+        this.id = id;
+        this.itemName = itemName;
+        this.quantity = quantity;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Orders items the same way the database orders a page for the given sort order
+     */
+    public static Comparator<InventoryItem> comparator(DatabaseHelper.SortOrder sortOrder) {
+        if (sortOrder == DatabaseHelper.SortOrder.BY_NAME) {
+            return new Comparator<InventoryItem>() {
+                @Override
+                public int compare(InventoryItem a, InventoryItem b) {
+                    return a.itemName.compareTo(b.itemName);
+                }
+            };
+        }
+        if (sortOrder == DatabaseHelper.SortOrder.BY_QUANTITY) {
+            return new Comparator<InventoryItem>() {
+                @Override
+                public int compare(InventoryItem a, InventoryItem b) {
+                    int byQuantity = Integer.compare(a.quantity, b.quantity);
+                    return byQuantity != 0 ? byQuantity : Long.compare(a.id, b.id);
+                }
+            };
+        }
+        if (sortOrder == DatabaseHelper.SortOrder.BY_STOCK_RATIO) {
+            return new Comparator<InventoryItem>() {
+                @Override
+                public int compare(InventoryItem a, InventoryItem b) {
+                    int byRatio = Double.compare(a.getStockRatio(), b.getStockRatio());
+                    return byRatio != 0 ? byRatio : Long.compare(a.id, b.id);
+                }
+            };
+        }
+        return new Comparator<InventoryItem>() {
+            @Override
+            public int compare(InventoryItem a, InventoryItem b) {
+                return Long.compare(a.id, b.id);
+            }
+        };
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Whether the item is at or below its alert threshold
+     */
+    public boolean isLowStock() {
+        return quantity <= threshold;
+    }
+
+    /**
+     * Quantity relative to the alert threshold, computed like the database's
+     * BY_STOCK_RATIO order: a threshold of zero counts as one
+     */
+    public double getStockRatio() {
+        return quantity * 1.0 / Math.max(threshold, 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof InventoryItem)) return false;
+        InventoryItem other = (InventoryItem) o;
+        return id == other.id
+                && quantity == other.quantity
+                && threshold == other.threshold
+                && Objects.equals(itemName, other.itemName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, itemName, quantity, threshold);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.myinventoryapp;
+
+/**
+ * Hands the first inventory page from the login screen to {@link InventoryActivity}.
+ *
+ * The login screen starts the load as soon as the credentials are accepted, so it
+ * overlaps the activity transition. InventoryActivity takes it on its first load:
+ * if it has finished, the first page is shown before the first frame, otherwise
+ * the activity waits for it instead of querying again. Only one prefetch is held;
+ * it is dropped if the account, page size or sort order it was made for does not
+ * match.
+ */
+final class InventoryPrefetch {
+    private static InventoryRepository.DatabaseTask<InventoryChanges> pending;
+    private static long pendingOwnerId;
+    private static int pendingLimit;
+    private static DatabaseHelper.SortOrder pendingSortOrder;
+
+    private InventoryPrefetch() {
+    }
+
+    static void start(InventoryRepository repository, int limit, DatabaseHelper.SortOrder sortOrder) {
+        put(repository.prefetchInventory(limit, sortOrder), repository.getOwnerId(), limit, sortOrder);
+    }
+
+    static synchronized void put(InventoryRepository.DatabaseTask<InventoryChanges> prefetch, long ownerId,
+                                 int limit, DatabaseHelper.SortOrder sortOrder) {
+        pending = prefetch;
+        pendingOwnerId = ownerId;
+        pendingLimit = limit;
+        pendingSortOrder = sortOrder;
+    }
+
+    /**
+     * Removes and returns the prefetch for this page, or null if there is none
+     */
+    static synchronized InventoryRepository.DatabaseTask<InventoryChanges> take(long ownerId, int limit,
+                                                                               DatabaseHelper.SortOrder sortOrder) {
+        InventoryRepository.DatabaseTask<InventoryChanges> prefetch = pending;
+        pending = null;
+        if (prefetch == null || ownerId != pendingOwnerId || limit != pendingLimit || sortOrder != pendingSortOrder) {
+            return null;
+        }
+        return prefetch;
+    }
+}
@@ -0,0 +1,964 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Async front end for {@link DatabaseHelper}. Queries and writes run on a small
+ * bounded pool shared by all repositories, and results are posted back to the
+ * main thread. Each activity owns one repository and closes it in onDestroy:
+ * loads still queued or running are cancelled, writes are left to finish but
+ * their callbacks are dropped.
+ *
+ * A repository works on the inventory of one owner, the signed-in account: lists,
+ * searches, low-stock queries, new items and imports are all scoped to it. Reads
+ * and writes of existing items go by id, and the database checks each id against
+ * the owner, so an id of another account's item finds nothing and changes nothing.
+ */
+public class InventoryRepository {
+    private static final String TAG = "InventoryRepository";
+
+    /**
+     * Receives the result of an asynchronous call on the main thread
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * An observed query, see {@link #observeInventoryGeneration}. Cancel it to stop
+     * its callbacks; close() cancels every subscription of the repository.
+     */
+    public interface Subscription {
+        void cancel();
+    }
+
+    /**
+     * A call queued on the shared pool. Other work can be chained onto its
+     * completion instead of waiting for it on a pool thread.
+     */
+    static class DatabaseTask<T> extends FutureTask<T> {
+        // Run once the task is done; null after that. Guarded by this.
+        private List<Runnable> onDone = new ArrayList<>();
+
+        DatabaseTask(Callable<T> work) {
+            super(work);
+        }
+
+        /**
+         * Runs the action on the thread that completes the task, or right away if it
+         * is already done
+         */
+        void whenDone(Runnable action) {
+            synchronized (this) {
+                if (onDone != null) {
+                    onDone.add(action);
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        // Fails the task without running it, for one the pool turned away
+        void reject(RejectedExecutionException e) {
+            setException(e);
+        }
+
+        @Override
+        protected void done() {
+            List<Runnable> actions;
+            synchronized (this) {
+                actions = onDone;
+                onDone = null;
+            }
+            for (Runnable action : actions) {
+                action.run();
+            }
+        }
+    }
+
+    // Shared, bounded pool for all repositories. Calls made while its queue is full
+    // fail like a failed query, see submit().
+    private static final int THREAD_COUNT = 2;
+    private static final int QUEUE_CAPACITY = 256;
+    // Shared by every task while it runs on the pool. A restore holds it exclusively,
+    // so it waits for the running tasks and the pool waits for it, see restoreDatabase().
+    private static final ReentrantReadWriteLock POOL_GATE = new ReentrantReadWriteLock();
+    private static final ExecutorService EXECUTOR = createExecutor();
+    // Backups and restores, one at a time, so a long one never holds up the pool
+    private static final ExecutorService BACKUP_EXECUTOR = createBackupExecutor();
+
+    // Low-stock events handed to a handler at a time, see drainLowStockEvents()
+    private static final int LOW_STOCK_BATCH_SIZE = 100;
+
+    // Owner of a repository before sign-in, or of a screen opened without an account.
+    // No item has it, so such a repository's inventory reads find nothing and its
+    // writes change nothing.
+    public static final long SIGNED_OUT = -1;
+
+    private final DatabaseHelper dbHelper;
+    // Account whose inventory this repository reads and adds to
+    private final long ownerId;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Loads that can still be cancelled by close()
+    private final Set<Future<?>> pendingLoads = ConcurrentHashMap.newKeySet();
+    // Observed queries, cancelled by close()
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * A repository for screens before sign-in, e.g. for logging in. It belongs to no
+     * account, so it cannot reach any inventory, not even items without an owner.
+     */
+    public InventoryRepository(Context context) {
+        this(context, SIGNED_OUT);
+    }
+
+    public InventoryRepository(Context context, long ownerId) {
+        this(DatabaseHelper.getInstance(context), ownerId);
+    }
+
+    InventoryRepository(DatabaseHelper dbHelper, long ownerId) {
+        this.dbHelper = dbHelper;
+        this.ownerId = ownerId;
+    }
+
+    public long getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * Cancels in-flight loads and stops delivering callbacks
+     */
+    public void close() {
+        closed = true;
+        for (Future<?> load : pendingLoads) {
+            load.cancel(true);
+        }
+        pendingLoads.clear();
+        for (Subscription subscription : subscriptions) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Opens and warms up the database in the background. Not cancelled by
+     * close(), so it completes even if the calling screen goes away.
+     */
+    public Future<Void> prewarm() {
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                dbHelper.prewarm();
+                return null;
+            }
+        }, null);
+    }
+
+    // ========== USER METHODS ==========
+
+    /**
+     * Calls back with the id of the user with these credentials, or -1 if there is none
+     */
+    public Future<Long> findUser(final String username, final String password, Callback<Long> callback) {
+        return load(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return dbHelper.findUser(username, password);
+            }
+        }, callback);
+    }
+
+    public Future<Long> addUser(final String username, final String password, Callback<Long> callback) {
+        return write(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return dbHelper.addUser(username, password);
+            }
+        }, callback);
+    }
+
+    // ========== INVENTORY METHODS ==========
+
+    /**
+     * Loads the page after the given item, at one location or with totals for
+     * {@link DatabaseHelper#ALL_LOCATIONS}
+     */
+    public Future<List<InventoryItem>> getInventoryPage(final InventoryItem after, final int limit,
+                                                        final DatabaseHelper.SortOrder sortOrder,
+                                                        final DatabaseHelper.StockFilter filter,
+                                                        final long locationId,
+                                                        Callback<List<InventoryItem>> callback) {
+        return load(new Callable<List<InventoryItem>>() {
+            @Override
+            public List<InventoryItem> call() {
+                return readItems(dbHelper.getInventoryPage(ownerId, after, limit, sortOrder, filter, locationId));
+            }
+        }, callback);
+    }
+
+    /**
+     * Loads the first {@code limit} items together with the generation they reflect.
+     * The returned changes hold the whole page as changed items.
+     */
+    public Future<InventoryChanges> reloadInventory(int limit, DatabaseHelper.SortOrder sortOrder,
+                                                    DatabaseHelper.StockFilter filter, long locationId,
+                                                    Callback<InventoryChanges> callback) {
+        return load(firstPage(limit, sortOrder, filter, locationId), callback);
+    }
+
+    /**
+     * Starts {@link #reloadInventory} without a callback, for a screen that is
+     * about to be opened. Not cancelled by close(); see {@link InventoryPrefetch}.
+     */
+    DatabaseTask<InventoryChanges> prefetchInventory(int limit, DatabaseHelper.SortOrder sortOrder) {
+        return submit(firstPage(limit, sortOrder, DatabaseHelper.StockFilter.ALL, DatabaseHelper.ALL_LOCATIONS),
+                null, false, null);
+    }
+
+    /**
+     * Delivers the result of a prefetch still in flight through this repository. Runs
+     * on the thread that completes the prefetch, so no pool thread waits for it. If the
+     * prefetch fails or is cancelled, loads the page as {@link #reloadInventory} would
+     * with the same arguments, on the pool.
+     */
+    Future<InventoryChanges> awaitPrefetch(final DatabaseTask<InventoryChanges> prefetch, final int limit,
+                                           final DatabaseHelper.SortOrder sortOrder,
+                                           final DatabaseHelper.StockFilter filter, final long locationId,
+                                           Callback<InventoryChanges> callback) {
+        final DatabaseTask<InventoryChanges> task = newTask(new Callable<InventoryChanges>() {
+            @Override
+            public InventoryChanges call() throws Exception {
+                // Done by now, so this does not block
+                InventoryChanges prefetched = prefetchResult(prefetch);
+                if (prefetched == null) {
+                    Log.w(TAG, "Prefetch failed or was cancelled, loading the page again");
+                    return firstPage(limit, sortOrder, filter, locationId).call();
+                }
+                return prefetched;
+            }
+        }, callback, true, null);
+        prefetch.whenDone(new Runnable() {
+            @Override
+            public void run() {
+                // A prefetch can fail or be cancelled on any thread, the main thread included,
+                // so the query that replaces it goes to the pool
+                if (prefetchResult(prefetch) != null) {
+                    task.run();
+                } else {
+                    execute(task);
+                }
+            }
+        });
+        return task;
+    }
+
+    // The result of a finished prefetch, or null if it failed (logged by the prefetch) or was cancelled
+    private static InventoryChanges prefetchResult(DatabaseTask<InventoryChanges> prefetch) {
+        try {
+            return prefetch.get();
+        } catch (ExecutionException | CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Loads only the rows inserted, updated or deleted after the given generation
+     */
+    public Future<InventoryChanges> getInventoryChangesSince(final long sinceGeneration, final long locationId,
+                                                             Callback<InventoryChanges> callback) {
+        return load(new Callable<InventoryChanges>() {
+            @Override
+            public InventoryChanges call() {
+                long generation = dbHelper.getInventoryGeneration();
+                if (generation == sinceGeneration) {
+                    return InventoryChanges.unchanged(generation);
+                }
+                if (generation < sinceGeneration) {
+                    return InventoryChanges.reloadRequired(generation);
+                }
+
+                List<InventoryItem> changed = readItems(
+                        dbHelper.getInventoryChangesSince(ownerId, sinceGeneration, locationId));
+                long[] deleted = readIds(dbHelper.getInventoryDeletionsSince(ownerId, sinceGeneration));
+                return InventoryChanges.of(generation, changed, deleted);
+            }
+        }, callback);
+    }
+
+    public Future<InventoryItem> getInventoryItem(final long id, final long locationId, Callback<InventoryItem> callback) {
+        return load(new Callable<InventoryItem>() {
+            @Override
+            public InventoryItem call() {
+                return dbHelper.getInventoryItem(ownerId, id, locationId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Searches the names of the items at a location, or of all items for
+     * {@link DatabaseHelper#ALL_LOCATIONS}, see {@link DatabaseHelper#searchInventory}.
+     * Cancelling the returned future also aborts the query if it is already running.
+     */
+    public Future<List<InventoryItem>> searchInventory(final String query, final long locationId, final int limit,
+                                                       Callback<List<InventoryItem>> callback) {
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        return submit(new Callable<List<InventoryItem>>() {
+            @Override
+            public List<InventoryItem> call() {
+                return readItems(dbHelper.searchInventory(ownerId, query, locationId, limit, cancellationSignal));
+            }
+        }, callback, true, cancellationSignal);
+    }
+
+    /**
+     * Calls back with the inventory generation now and whenever writes move it.
+     * Cheap to observe: one shared query, re-run at most once per batch of writes,
+     * so a screen can refresh through {@link #getInventoryChangesSince} when it moves.
+     */
+    public Subscription observeInventoryGeneration(Callback<Long> callback) {
+        return observe("inventoryGeneration", new String[]{DatabaseHelper.TABLE_INVENTORY},
+                new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return dbHelper.getInventoryGeneration();
+                    }
+                }, callback);
+    }
+
+    /**
+     * Calls back with the low-stock items at a location, or by total for
+     * {@link DatabaseHelper#ALL_LOCATIONS}, now and whenever they change.
+     * Screens of the same owner observing the same location share one query.
+     */
+    public Subscription observeLowInventoryItems(final long locationId, Callback<List<InventoryItem>> callback) {
+        return observe("lowInventoryItems:" + ownerId + ":" + locationId,
+                new String[]{DatabaseHelper.TABLE_INVENTORY, DatabaseHelper.TABLE_LOCATION_STOCK},
+                new Callable<List<InventoryItem>>() {
+                    @Override
+                    public List<InventoryItem> call() {
+                        return readItems(dbHelper.getLowInventoryItems(ownerId, locationId));
+                    }
+                }, callback);
+    }
+
+    /**
+     * Tells the listener that the owner may have low-stock crossings waiting: once now,
+     * on the calling thread, then after each batch of inventory writes, on the
+     * invalidation thread. The listener should only start a drain elsewhere, see
+     * drainLowStockEvents().
+     */
+    public Subscription observeLowStockEvents(final Runnable listener) {
+        final InvalidationTracker tracker = dbHelper.getInvalidationTracker();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final InvalidationTracker.Observer observer = new InvalidationTracker.Observer() {
+            @Override
+            public void onInvalidated(Set<String> tables) {
+                if (!cancelled.get()) {
+                    listener.run();
+                }
+            }
+        };
+        tracker.addObserver(observer, DatabaseHelper.TABLE_INVENTORY);
+        Subscription subscription = new Subscription() {
+            @Override
+            public void cancel() {
+                if (cancelled.compareAndSet(false, true)) {
+                    subscriptions.remove(this);
+                    tracker.removeObserver(observer);
+                }
+            }
+        };
+        subscriptions.add(subscription);
+        if (closed) {
+            subscription.cancel();
+        } else {
+            // The crossings that were waiting already
+            listener.run();
+        }
+        return subscription;
+    }
+
+    /**
+     * Hands the owner's pending low-stock crossings to the handler on the calling
+     * thread, acknowledging each batch once it returns, see
+     * {@link DatabaseHelper#drainLowStockEvents}. Only the outbox is read, so the cost
+     * follows the crossings, not the size of the inventory. Not stopped by close(), so
+     * alerts already started are still delivered; call it off the main thread.
+     */
+    public int drainLowStockEvents(LowStockEvent.Handler handler) {
+        return dbHelper.drainLowStockEvents(ownerId, LOW_STOCK_BATCH_SIZE, handler);
+    }
+
+    public Future<List<InventoryItem>> getLowInventoryItems(Callback<List<InventoryItem>> callback) {
+        return getLowInventoryItems(DatabaseHelper.ALL_LOCATIONS, callback);
+    }
+
+    public Future<List<InventoryItem>> getLowInventoryItems(final long locationId,
+                                                            Callback<List<InventoryItem>> callback) {
+        return load(new Callable<List<InventoryItem>>() {
+            @Override
+            public List<InventoryItem> call() {
+                return readItems(dbHelper.getLowInventoryItems(ownerId, locationId));
+            }
+        }, callback);
+    }
+
+    public Future<Long> addInventoryItem(final String itemName, final int quantity, final int threshold,
+                                         final long locationId, Callback<Long> callback) {
+        return write(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return dbHelper.addInventoryItem(ownerId, itemName, quantity, threshold, locationId);
+            }
+        }, callback);
+    }
+
+    public Future<Integer> updateInventoryItem(final long id, final int quantity, Callback<Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.updateInventoryItem(ownerId, id, quantity);
+            }
+        }, callback);
+    }
+
+    /**
+     * Updates an item's name, and its quantity and threshold at one location, see
+     * {@link DatabaseHelper#updateInventoryItem(long, String, int, int, long)}
+     */
+    public Future<Integer> updateInventoryItem(final long id, final String itemName, final int quantity,
+                                               final int threshold, final long locationId,
+                                               Callback<Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.updateInventoryItem(ownerId, id, itemName, quantity, threshold, locationId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Adds delta to the item's stock at a location, see {@link DatabaseHelper#adjustStock}
+     */
+    public Future<Integer> adjustStock(final long id, final long locationId, final int delta,
+                                       Callback<Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.adjustStock(ownerId, id, locationId, delta);
+            }
+        }, callback);
+    }
+
+    /**
+     * Adds delta to the stock of many items at a location in one transaction, see
+     * {@link DatabaseHelper#adjustStock(long[], long, int)}. The result is the number adjusted.
+     */
+    public Future<Integer> adjustStock(final long[] ids, final long locationId, final int delta,
+                                       Callback<Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.adjustStock(ownerId, ids, locationId, delta);
+            }
+        }, callback);
+    }
+
+    /**
+     * Sets the threshold of many items in one transaction, see {@link DatabaseHelper#setThresholds}
+     */
+    public Future<Integer> setThresholds(final long[] ids, final int threshold, final long locationId,
+                                         Callback<Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.setThresholds(ownerId, ids, threshold, locationId);
+            }
+        }, callback);
+    }
+
+    /**
+     * Moves stock between locations, see {@link DatabaseHelper#transferStock}
+     */
+    public Future<Boolean> transferStock(final long id, final long fromLocationId, final long toLocationId,
+                                         final int quantity, Callback<Boolean> callback) {
+        return write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return dbHelper.transferStock(ownerId, id, fromLocationId, toLocationId, quantity);
+            }
+        }, callback);
+    }
+
+    public Future<Integer> setInventorySku(final long id, final String sku, Callback<Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.setInventorySku(ownerId, id, sku);
+            }
+        }, callback);
+    }
+
+    /**
+     * Adds scanned counts by SKU in one transaction, see {@link DatabaseHelper#applyScanCounts}.
+     * The callback gets the SKUs that matched no item.
+     */
+    public Future<List<String>> applyScanCounts(final Map<String, Integer> counts, final long locationId,
+                                                Callback<List<String>> callback) {
+        return write(new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return dbHelper.applyScanCounts(ownerId, counts, locationId);
+            }
+        }, callback);
+    }
+
+    // ========== LOCATIONS ==========
+
+    public Future<List<Location>> getLocations(Callback<List<Location>> callback) {
+        return load(new Callable<List<Location>>() {
+            @Override
+            public List<Location> call() {
+                Cursor cursor = dbHelper.getLocations();
+                try {
+                    List<Location> locations = new ArrayList<>(cursor.getCount());
+                    while (cursor.moveToNext()) {
+                        locations.add(new Location(cursor.getLong(0), cursor.getString(1)));
+                    }
+                    return locations;
+                } finally {
+                    cursor.close();
+                }
+            }
+        }, callback);
+    }
+
+    public Future<Long> addLocation(final String name, Callback<Long> callback) {
+        return write(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return dbHelper.addLocation(name);
+            }
+        }, callback);
+    }
+
+    public Future<Void> deleteInventoryItem(final long id, Callback<Void> callback) {
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                dbHelper.deleteInventoryItem(ownerId, id);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes an item so that {@link #restoreInventoryItem} can still bring it back.
+     * The result is 0 if the item was already gone.
+     */
+    public Future<Integer> softDeleteInventoryItem(final long id, Callback<Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.softDeleteInventoryItem(ownerId, id);
+            }
+        }, callback);
+    }
+
+    public Future<Integer> restoreInventoryItem(final long id, Callback<Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.restoreInventoryItem(ownerId, id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes many items in one transaction so that {@link #restoreInventoryItems} can
+     * still bring them back. The result is the number deleted.
+     */
+    public Future<Integer> softDeleteInventoryItems(final long[] ids, Callback<Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.softDeleteInventoryItems(ownerId, ids);
+            }
+        }, callback);
+    }
+
+    public Future<Integer> restoreInventoryItems(final long[] ids, Callback<Integer> callback) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.restoreInventoryItems(ownerId, ids);
+            }
+        }, callback);
+    }
+
+    /**
+     * Purges items deleted longer ago than their undo window, and shrinks the file,
+     * in the background. Like prewarm(), not cancelled by close().
+     */
+    public Future<Integer> purgeDeletedItems() {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.purgeDeletedItems();
+            }
+        }, null);
+    }
+
+    // ========== STOCK LEDGER ==========
+
+    public Future<Integer> getStockAt(final long itemId, final long locationId, final long timeMillis,
+                                      Callback<Integer> callback) {
+        return load(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.getStockAt(ownerId, itemId, locationId, timeMillis);
+            }
+        }, callback);
+    }
+
+    /**
+     * Folds ledger movements past the retention period into snapshots in the
+     * background. Like prewarm(), not cancelled by close().
+     */
+    public Future<Integer> compactLedger() {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return dbHelper.compactLedger();
+            }
+        }, null);
+    }
+
+    // ========== IMPORT / EXPORT ==========
+
+    public Future<InventoryCsv.ImportResult> importInventoryCsv(final Reader reader, final int batchSize,
+                                                              Callback<InventoryCsv.ImportResult> callback) {
+        return write(new Callable<InventoryCsv.ImportResult>() {
+            @Override
+            public InventoryCsv.ImportResult call() throws IOException {
+                try {
+                    return dbHelper.importInventoryCsv(ownerId, reader, batchSize);
+                } finally {
+                    reader.close();
+                }
+            }
+        }, callback);
+    }
+
+    public Future<Integer> exportInventoryCsv(final Writer writer, Callback<Integer> callback) {
+        return load(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                try {
+                    return dbHelper.exportInventoryCsv(ownerId, writer);
+                } finally {
+                    writer.close();
+                }
+            }
+        }, callback);
+    }
+
+    // ========== BACKUP / RESTORE ==========
+
+    /**
+     * Backs up the whole database, every account's inventory, into the directory on
+     * the backup thread. Like prewarm(), not cancelled by close(), so a backup started
+     * from a screen completes if it goes away.
+     */
+    public Future<DatabaseBackup.Result> backupDatabase(final File directory, final boolean incremental,
+                                                        Callback<DatabaseBackup.Result> callback) {
+        return backupTask(new Callable<DatabaseBackup.Result>() {
+            @Override
+            public DatabaseBackup.Result call() throws IOException {
+                return dbHelper.backupDatabase(directory, incremental);
+            }
+        }, callback);
+    }
+
+    /**
+     * Replaces the database with a backup, see {@link DatabaseHelper#restoreDatabase}.
+     * The callback runs once the restored database is open; it is not called if the
+     * backup was rejected, in which case the database is unchanged.
+     *
+     * Runs on the backup thread. Sync is paused and the pool drained first, and both
+     * are held off until the swap is done: observed queries the InvalidationTracker
+     * refreshes in the meantime run on the pool, so they wait too.
+     */
+    public Future<Void> restoreDatabase(final File backup, Callback<Void> callback) {
+        return backupTask(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, InterruptedException {
+                try {
+                    SyncScheduler.pauseIfStarted();
+                    POOL_GATE.writeLock().lockInterruptibly();
+                    try {
+                        dbHelper.restoreDatabase(backup);
+                    } finally {
+                        POOL_GATE.writeLock().unlock();
+                    }
+                } finally {
+                    SyncScheduler.resumeIfStarted();
+                }
+                return null;
+            }
+        }, callback);
+    }
+
+    // ========== INTERNALS ==========
+
+    private Callable<InventoryChanges> firstPage(final int limit, final DatabaseHelper.SortOrder sortOrder,
+                                                 final DatabaseHelper.StockFilter filter, final long locationId) {
+        return new Callable<InventoryChanges>() {
+            @Override
+            public InventoryChanges call() {
+                // Read the generation first: anything written after it is picked up by the next delta
+                long generation = dbHelper.getInventoryGeneration();
+                List<InventoryItem> items = readItems(
+                        dbHelper.getInventoryPage(ownerId, null, limit, sortOrder, filter, locationId));
+                return InventoryChanges.of(generation, items, new long[0]);
+            }
+        };
+    }
+
+    /**
+     * Walks and closes an inventory cursor. Stops early if the load was cancelled.
+     */
+    private static List<InventoryItem> readItems(Cursor cursor) {
+        try {
+            int idColumnIndex = cursor.getColumnIndexOrThrow("id");
+            int nameColumnIndex = cursor.getColumnIndexOrThrow("item_name");
+            int quantityColumnIndex = cursor.getColumnIndexOrThrow("quantity");
+            int thresholdColumnIndex = cursor.getColumnIndexOrThrow("threshold");
+
+            List<InventoryItem> items = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext() && !Thread.currentThread().isInterrupted()) {
+                items.add(new InventoryItem(
+                        cursor.getLong(idColumnIndex),
+                        cursor.getString(nameColumnIndex),
+                        cursor.getInt(quantityColumnIndex),
+                        cursor.getInt(thresholdColumnIndex)));
+            }
+            return items;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Walks and closes a single-column cursor of ids
+     */
+    private static long[] readIds(Cursor cursor) {
+        try {
+            long[] ids = new long[cursor.getCount()];
+            int count = 0;
+            while (cursor.moveToNext()) {
+                ids[count++] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Listens to the shared query with the given key, see {@link InvalidationTracker#observe}.
+     * Results arrive on the main thread, and not after the subscription is cancelled.
+     */
+    private <T> Subscription observe(String key, String[] tables, Callable<T> query, final Callback<T> callback) {
+        final InvalidationTracker tracker = dbHelper.getInvalidationTracker();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final ObservableQuery.Listener<T> listener = new ObservableQuery.Listener<T>() {
+            @Override
+            public void onChanged(final T result) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!cancelled.get() && !closed) {
+                            callback.onResult(result);
+                        }
+                    }
+                });
+            }
+        };
+        final ObservableQuery<T> observable = tracker.observe(key, tables, query, EXECUTOR, listener);
+        Subscription subscription = new Subscription() {
+            @Override
+            public void cancel() {
+                if (cancelled.compareAndSet(false, true)) {
+                    subscriptions.remove(this);
+                    tracker.stopObserving(observable, listener);
+                }
+            }
+        };
+        subscriptions.add(subscription);
+        if (closed) {
+            subscription.cancel();
+        }
+        return subscription;
+    }
+
+    private <T> Future<T> load(Callable<T> work, Callback<T> callback) {
+        return submit(work, callback, true, null);
+    }
+
+    private <T> Future<T> write(Callable<T> work, Callback<T> callback) {
+        return submit(work, callback, false, null);
+    }
+
+    private <T> DatabaseTask<T> submit(Callable<T> work, Callback<T> callback, boolean cancellable,
+                                       CancellationSignal cancellationSignal) {
+        DatabaseTask<T> task = newTask(work, callback, cancellable, cancellationSignal);
+        execute(task);
+        return task;
+    }
+
+    // Like write(), but on the backup thread
+    private <T> Future<T> backupTask(Callable<T> work, Callback<T> callback) {
+        DatabaseTask<T> task = newTask(work, callback, false, null);
+        BACKUP_EXECUTOR.execute(task);
+        return task;
+    }
+
+    private static void execute(DatabaseTask<?> task) {
+        try {
+            EXECUTOR.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The queue is full: logged by done() and no callback, rather than an
+            // exception on the caller's thread
+            task.reject(e);
+        }
+    }
+
+    // A task that posts its result to the callback; run it on a database thread
+    private <T> DatabaseTask<T> newTask(Callable<T> work, final Callback<T> callback, boolean cancellable,
+                                        final CancellationSignal cancellationSignal) {
+        DatabaseTask<T> task = new DatabaseTask<T>(work) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled && cancellationSignal != null) {
+                    cancellationSignal.cancel();
+                }
+                return cancelled;
+            }
+
+            @Override
+            protected void done() {
+                super.done();
+                pendingLoads.remove(this);
+                if (isCancelled() || closed) {
+                    return;
+                }
+
+                final T result;
+                try {
+                    result = get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Database task failed", e.getCause());
+                    return;
+                }
+
+                if (callback != null) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!closed) {
+                                callback.onResult(result);
+                            }
+                        }
+                    });
+                }
+            }
+        };
+
+        if (cancellable) {
+            pendingLoads.add(task);
+        }
+        return task;
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                THREAD_COUNT, THREAD_COUNT, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), backgroundThreads("inventory-db-")) {
+            @Override
+            protected void beforeExecute(Thread thread, Runnable r) {
+                POOL_GATE.readLock().lock();
+            }
+
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                POOL_GATE.readLock().unlock();
+            }
+        };
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ExecutorService createBackupExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), backgroundThreads("inventory-backup-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadFactory backgroundThreads(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, namePrefix + count.incrementAndGet());
+            }
+        };
+    }
+}
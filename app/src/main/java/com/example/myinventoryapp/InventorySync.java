@@ -0,0 +1,168 @@
+package com.example.myinventoryapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Syncs the local inventory with a remote server by exchanging only what changed.
+ *
+ * Each exchange pushes up to a batch of locally changed items and pulls the
+ * items changed on the server since the last token, as JSON:
+ *
+ * <pre>
+ * request:  {"device": id, "token": t, "limit": n,
+ *            "changes": [{"id": globalId, "owner": username, "count": c, "name": ..., "threshold": ...},
+ *                        {"id": globalId, "deleted": true}]}
+ * response: {"token": t', "more": bool,
+ *            "changes": [{"id": globalId, "owner": username, "name": ..., "threshold": ..., "count": c},
+ *                        {"id": globalId, "deleted": true}]}
+ * </pre>
+ *
+ * Stock is merged as counts rather than quantities. A pushed count is the net
+ * change this device has made to the item, ever; the server keeps the latest
+ * count per device and item, and a pulled count is the sum over all other
+ * devices. Every device's quantity is therefore its own count plus everyone
+ * else's, whatever order devices sync in, and a repeated or lost exchange
+ * cannot count a change twice. Name and threshold are only pushed when edited
+ * and the last edit to reach the server wins; deletions win over edits.
+ *
+ * Every item belongs to the account with its owner's username on each device.
+ * Items of an account a device does not have are left out there until it is
+ * added, which restarts the pull from the beginning; see
+ * {@link DatabaseHelper#addUser}.
+ *
+ * The server answers with every item in the request plus up to limit others
+ * changed since the token, and sets "more" if it held some back.
+ * Exchanges repeat until neither side has more. Not thread-safe; run one sync at
+ * a time, see {@link SyncScheduler}.
+ */
+public class InventorySync {
+    static final int DEFAULT_BATCH_SIZE = 200;
+
+    // Upper bound on exchanges per sync, in case items keep changing while they are pushed
+    private static final int MAX_EXCHANGES = 1000;
+
+    /**
+     * Sends one request to the sync server and returns its response
+     */
+    public interface Transport {
+        JSONObject exchange(JSONObject request) throws IOException;
+    }
+
+    /**
+     * What one sync did
+     */
+    public static final class Result {
+        public final int pushed;
+        public final int pulled;
+        public final int exchanges;
+
+        Result(int pushed, int pulled, int exchanges) {
+            this.pushed = pushed;
+            this.pulled = pulled;
+            this.exchanges = exchanges;
+        }
+    }
+
+    private final DatabaseHelper dbHelper;
+    private final Transport transport;
+    private final int batchSize;
+
+    public InventorySync(DatabaseHelper dbHelper, Transport transport) {
+        this(dbHelper, transport, DEFAULT_BATCH_SIZE);
+    }
+
+    InventorySync(DatabaseHelper dbHelper, Transport transport, int batchSize) {
+        this.dbHelper = dbHelper;
+        this.transport = transport;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Pushes local changes and pulls remote ones until both sides are caught up.
+     * Throws IOException if the server cannot be reached or answers with an error;
+     * what was exchanged before that is kept, and the rest is sent next time.
+     */
+    public Result sync() throws IOException {
+        String deviceId = dbHelper.getSyncDeviceId();
+        int pushed = 0;
+        int pulled = 0;
+        int exchanges = 0;
+        boolean more = true;
+        while (more && exchanges < MAX_EXCHANGES) {
+            List<SyncChange> outgoing = dbHelper.getSyncChanges(batchSize);
+            JSONObject response = transport.exchange(request(deviceId, dbHelper.getSyncToken(), outgoing));
+            exchanges++;
+
+            List<SyncChange> incoming;
+            String token;
+            try {
+                incoming = readChanges(response.getJSONArray("changes"));
+                token = response.getString("token");
+                more = response.optBoolean("more") || outgoing.size() == batchSize;
+            } catch (JSONException e) {
+                throw new IOException("Malformed sync response", e);
+            }
+
+            dbHelper.applySyncChanges(outgoing, incoming, token);
+            pushed += outgoing.size();
+            pulled += incoming.size();
+        }
+        return new Result(pushed, pulled, exchanges);
+    }
+
+    // ========== INTERNALS ==========
+
+    private JSONObject request(String deviceId, String token, List<SyncChange> changes) throws IOException {
+        try {
+            JSONArray items = new JSONArray();
+            for (SyncChange change : changes) {
+                JSONObject item = new JSONObject();
+                item.put("id", change.globalId);
+                if (change.deleted) {
+                    item.put("deleted", true);
+                } else {
+                    item.put("owner", change.owner);
+                    item.put("count", change.count);
+                    if (change.metadataChanged) {
+                        item.put("name", change.itemName);
+                        item.put("threshold", change.threshold);
+                    }
+                }
+                items.put(item);
+            }
+
+            JSONObject request = new JSONObject();
+            request.put("device", deviceId);
+            if (token != null) {
+                request.put("token", token);
+            }
+            request.put("limit", batchSize);
+            request.put("changes", items);
+            return request;
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which are never put
+            throw new IOException("Cannot encode sync request", e);
+        }
+    }
+
+    private static List<SyncChange> readChanges(JSONArray items) throws JSONException {
+        List<SyncChange> changes = new ArrayList<>(items.length());
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            String globalId = item.getString("id");
+            if (item.optBoolean("deleted")) {
+                changes.add(SyncChange.pulledDeletion(globalId));
+            } else {
+                changes.add(SyncChange.pulled(globalId, item.getString("owner"), item.getString("name"),
+                        item.getInt("threshold"), item.getLong("count")));
+            }
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.myinventoryapp;
+
+/**
+ * Immutable snapshot of a single row in the locations table
+ */
+public final class Location {
+    private final long id;
+    private final String name;
+
+    public Location(long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Shown as is by the location picker
+    @Override
+    public String toString() {
+        return name;
+    }
+}
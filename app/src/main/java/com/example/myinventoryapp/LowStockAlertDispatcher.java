@@ -0,0 +1,234 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns low-stock crossings into SMS alerts.
+ *
+ * Crossings are read from the low-stock outbox when an alert is sent, not when
+ * they are reported, and acknowledged only once the alert naming them has been
+ * handed to the SMS sender. A crossing is never lost to a failed send or to the
+ * process dying before the send; at worst it is texted twice. The outbox keeps
+ * the reported side of each item, so an item is alerted once when it goes low,
+ * and again only after it has recovered. Reports for a phone number are held for
+ * a coalescing window and sent together, at most once per minimum send interval,
+ * as one message split into SMS parts and capped at {@link #MAX_PARTS}.
+ *
+ * All state lives on a single scheduler thread, so reports can come from any
+ * thread and nothing here touches the UI thread.
+ */
+public class LowStockAlertDispatcher {
+    private static final String TAG = "LowStockAlerts";
+
+    static final long DEFAULT_COALESCE_WINDOW_MILLIS = 5_000;
+    static final long DEFAULT_MIN_SEND_INTERVAL_MILLIS = 60_000;
+
+    // Longest alert, in SMS parts; items beyond it are summarised as "and N more"
+    static final int MAX_PARTS = 4;
+
+    private static final String MESSAGE_PREFIX = "Low inventory alert: ";
+
+    // Process-wide instance, so what was reported survives the screen that reported it
+    private static LowStockAlertDispatcher instance;
+
+    private final SmsSender sender;
+    private final ScheduledExecutorService scheduler;
+    private final Clock clock;
+    private final long coalesceWindowMillis;
+    private final long minSendIntervalMillis;
+
+    // Only touched on the scheduler thread
+    private final Map<String, Recipient> recipients = new HashMap<>();
+
+    /**
+     * Where the crossings for a phone number are read from. Drains pending events
+     * and acknowledges each batch once the handler returns, like
+     * {@link InventoryRepository#drainLowStockEvents}.
+     */
+    interface CrossingSource {
+        int drain(LowStockEvent.Handler handler);
+    }
+
+    /**
+     * Alert state for one phone number
+     */
+    private static final class Recipient {
+        // Read at the next send; the one reported last
+        CrossingSource source;
+        boolean flushScheduled;
+        boolean hasSent;
+        long lastSentMillis;
+    }
+
+    /**
+     * Texts the low items of a drained batch. At most one batch is texted per send,
+     * later ones are held back and stay pending.
+     */
+    private final class AlertHandler implements LowStockEvent.Handler {
+        final String phoneNumber;
+        final Recipient recipient;
+        boolean sent;
+
+        AlertHandler(String phoneNumber, Recipient recipient) {
+            this.phoneNumber = phoneNumber;
+            this.recipient = recipient;
+        }
+
+        @Override
+        public void handle(List<LowStockEvent> events) {
+            List<InventoryItem> lowItems = new ArrayList<>();
+            for (LowStockEvent event : events) {
+                if (event.low) {
+                    lowItems.add(event.item);
+                }
+            }
+            if (lowItems.isEmpty()) {
+                // Recoveries are only acknowledged, so the item alerts again when it next runs low
+                return;
+            }
+            if (sent) {
+                throw new HeldBack();
+            }
+
+            // Throws if the send fails, which leaves the batch pending
+            sender.send(phoneNumber, SmsSegmenter.split(composeMessage(lowItems, MAX_PARTS)));
+            sent = true;
+            recipient.hasSent = true;
+            recipient.lastSentMillis = clock.millis();
+        }
+    }
+
+    /**
+     * Ends a drain at a batch that would take a second text, leaving it pending
+     */
+    private static final class HeldBack extends RuntimeException {
+        HeldBack() {
+            super(null, null, false, false);
+        }
+    }
+
+    public static synchronized LowStockAlertDispatcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new LowStockAlertDispatcher(new SmsManagerSender(context.getApplicationContext()),
+                    createScheduler(), Clock.systemUTC(),
+                    DEFAULT_COALESCE_WINDOW_MILLIS, DEFAULT_MIN_SEND_INTERVAL_MILLIS);
+        }
+        return instance;
+    }
+
+    LowStockAlertDispatcher(SmsSender sender, ScheduledExecutorService scheduler, Clock clock,
+                            long coalesceWindowMillis, long minSendIntervalMillis) {
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.coalesceWindowMillis = coalesceWindowMillis;
+        this.minSendIntervalMillis = minSendIntervalMillis;
+    }
+
+    /**
+     * Reports that the source may hold new crossings for the given phone number.
+     * They are drained on the scheduler thread at the next send; a failed send
+     * leaves them pending and is tried again after the minimum send interval.
+     */
+    public void reportCrossings(final String phoneNumber, final CrossingSource source) {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                Recipient recipient = recipient(phoneNumber);
+                recipient.source = source;
+                if (!recipient.flushScheduled) {
+                    scheduleFlush(phoneNumber, recipient, coalesceWindowMillis);
+                }
+            }
+        });
+    }
+
+    // ========== INTERNALS ==========
+
+    private Recipient recipient(String phoneNumber) {
+        Recipient recipient = recipients.get(phoneNumber);
+        if (recipient == null) {
+            recipient = new Recipient();
+            recipients.put(phoneNumber, recipient);
+        }
+        return recipient;
+    }
+
+    private void scheduleFlush(final String phoneNumber, final Recipient recipient, long delayMillis) {
+        recipient.flushScheduled = true;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush(phoneNumber, recipient);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(String phoneNumber, Recipient recipient) {
+        recipient.flushScheduled = false;
+
+        // Rate limit: leave the crossings pending until the number may be texted again
+        long now = clock.millis();
+        if (recipient.hasSent && now - recipient.lastSentMillis < minSendIntervalMillis) {
+            scheduleFlush(phoneNumber, recipient, recipient.lastSentMillis + minSendIntervalMillis - now);
+            return;
+        }
+
+        try {
+            recipient.source.drain(new AlertHandler(phoneNumber, recipient));
+        } catch (HeldBack e) {
+            scheduleFlush(phoneNumber, recipient, minSendIntervalMillis);
+        } catch (RuntimeException e) {
+            // Nothing past the last text was acknowledged, so try again later
+            Log.w(TAG, "Failed to send low stock alert", e);
+            scheduleFlush(phoneNumber, recipient, minSendIntervalMillis);
+        }
+    }
+
+    /**
+     * Lists the items in one message, ending with "and N more" if the rest
+     * would take it past maxParts SMS parts
+     */
+    static String composeMessage(List<InventoryItem> items, int maxParts) {
+        StringBuilder message = new StringBuilder(MESSAGE_PREFIX);
+        for (int i = 0; i < items.size(); i++) {
+            int mark = message.length();
+            InventoryItem item = items.get(i);
+            if (i > 0) {
+                message.append(", ");
+            }
+            message.append(item.getItemName()).append(" (").append(item.getQuantity()).append(')');
+
+            int remaining = items.size() - i - 1;
+            String withSummary = remaining > 0 ? message + " and " + remaining + " more" : message.toString();
+            if (SmsSegmenter.countParts(withSummary) > maxParts) {
+                message.setLength(mark);
+                message.append(" and ").append(items.size() - i).append(" more");
+                break;
+            }
+        }
+        return message.toString();
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "low-stock-alerts");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
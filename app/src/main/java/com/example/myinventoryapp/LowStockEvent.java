@@ -0,0 +1,37 @@
+package com.example.myinventoryapp;
+
+import java.util.List;
+
+/**
+ * An item crossing its alert threshold, read from the low-stock outbox, see
+ * {@link DatabaseHelper#drainLowStockEvents}.
+ *
+ * Triggers write the outbox as part of each stock or threshold change, so a
+ * crossing is recorded in the same transaction as the write that caused it.
+ * An item has at most one event waiting, telling the side of the threshold it is
+ * on now; crossing back before it is handed out cancels it. For each item, the
+ * events handed out alternate between low and recovered, apart from a batch
+ * handed out again after its handler failed.
+ */
+final class LowStockEvent {
+    /**
+     * Receives drained events. The batch is acknowledged once this returns; if it
+     * throws, the drain stops and the batch is handed out again by the next one.
+     */
+    interface Handler {
+        void handle(List<LowStockEvent> events);
+    }
+
+    // Position in the outbox; events are drained in this order
+    final long sequence;
+    // The item with its quantity and threshold at the crossing
+    final InventoryItem item;
+    // True if the item went low, false if it recovered
+    final boolean low;
+
+    LowStockEvent(long sequence, InventoryItem item, boolean low) {
+        this.sequence = sequence;
+        this.item = item;
+        this.low = low;
+    }
+}
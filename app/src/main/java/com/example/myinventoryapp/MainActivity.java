@@ -1,7 +1,10 @@
 package com.example.myinventoryapp;
 
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -13,16 +16,22 @@ public class MainActivity extends AppCompatActivity {
     private EditText usernameEditText, passwordEditText;
     private Button loginButton, createAccountButton;
 
-    // Database helper
-    private DatabaseHelper dbHelper;
+    // Async access to the database
+    private InventoryRepository repository;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        // Initialize database helper
-        dbHelper = new DatabaseHelper(this);
+        // Collect query timings in debuggable builds; InventoryActivity.dump() exports them
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            QueryStats.setEnabled(true);
+        }
+
+        // Initialize repository. This does not open the database; that is left
+        // to a background thread once the login screen is on screen.
+        repository = new InventoryRepository(this);
 
         // Initialize UI components
         usernameEditText = findViewById(R.id.usernameEditText);
@@ -45,6 +54,38 @@ public class MainActivity extends AppCompatActivity {
                 createAccount();
             }
         });
+
+        // A runnable posted to the decor view runs during the first traversal;
+        // posting again from there runs it after that frame has been drawn
+        final Handler handler = new Handler(Looper.getMainLooper());
+        getWindow().getDecorView().post(new Runnable() {
+            @Override
+            public void run() {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        repository.prewarm();
+                        // Cheap when there is nothing past the retention period to fold
+                        repository.compactLedger();
+                        // Likewise when nothing was deleted
+                        repository.purgeDeletedItems();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Starts loading the user's first inventory page and opens the inventory screen
+     */
+    private void openInventory(long userId) {
+        InventoryPrefetch.start(new InventoryRepository(this, userId),
+                InventoryActivity.PAGE_SIZE, InventoryActivity.SORT_ORDER);
+        SyncScheduler.start(this);
+        Intent intent = new Intent(MainActivity.this, InventoryActivity.class);
+        intent.putExtra(InventoryActivity.EXTRA_OWNER_ID, userId);
+        startActivity(intent);
+        finish(); // Close login activity
     }
 
     /**
@@ -61,16 +102,19 @@ public class MainActivity extends AppCompatActivity {
         }
 
         // Check credentials against database
-        if (dbHelper.checkUser(username, password)) {
-            // Login successful, proceed to inventory screen
-            Toast.makeText(this, "Login successful", Toast.LENGTH_SHORT).show();
-            Intent intent = new Intent(MainActivity.this, InventoryActivity.class);
-            startActivity(intent);
-            finish(); // Close login activity
-        } else {
-            // Login failed
-            Toast.makeText(this, "Invalid username or password", Toast.LENGTH_SHORT).show();
-        }
+        repository.findUser(username, password, new InventoryRepository.Callback<Long>() {
+            @Override
+            public void onResult(Long userId) {
+                if (userId != -1) {
+                    // Login successful, proceed to inventory screen
+                    Toast.makeText(MainActivity.this, "Login successful", Toast.LENGTH_SHORT).show();
+                    openInventory(userId);
+                } else {
+                    // Login failed
+                    Toast.makeText(MainActivity.this, "Invalid username or password", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
     }
 
     /**
@@ -87,18 +131,26 @@ public class MainActivity extends AppCompatActivity {
         }
 
         // Add user to database
-        long userId = dbHelper.addUser(username, password);
-
-        if (userId != -1) {
-            // Account creation successful
-            Toast.makeText(this, "Account created successfully", Toast.LENGTH_SHORT).show();
-            // Proceed to inventory screen
-            Intent intent = new Intent(MainActivity.this, InventoryActivity.class);
-            startActivity(intent);
-            finish(); // Close login activity
-        } else {
-            // Account creation failed
-            Toast.makeText(this, "Failed to create account. Username may already exist.", Toast.LENGTH_SHORT).show();
-        }
+        repository.addUser(username, password, new InventoryRepository.Callback<Long>() {
+            @Override
+            public void onResult(Long userId) {
+                if (userId != -1) {
+                    // Account creation successful
+                    Toast.makeText(MainActivity.this, "Account created successfully", Toast.LENGTH_SHORT).show();
+                    // Proceed to inventory screen
+                    openInventory(userId);
+                } else {
+                    // Account creation failed
+                    Toast.makeText(MainActivity.this, "Failed to create account. Username may already exist.", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Cancel any login check still in flight
+        repository.close();
     }
 }
\ No newline at end of file
@@ -1,8 +1,6 @@
 package com.example.myinventoryapp;
 
-import android.database.Cursor;
 import android.os.Bundle;
-import android.telephony.SmsManager;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -17,14 +15,18 @@ public class NotificationActivity extends AppCompatActivity {
     private EditText phoneNumberEditText;
     private Switch enableNotificationsSwitch;
 
-    private DatabaseHelper dbHelper;
+    private InventoryRepository repository;
+    // Low-stock items being reported to the alert dispatcher, if any
+    private InventoryRepository.Subscription lowStockSubscription;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_notification);
 
-        dbHelper = new DatabaseHelper(this);
+        // Alerts cover the inventory of the user signed in on the inventory screen, if any
+        repository = new InventoryRepository(this,
+                getIntent().getLongExtra(InventoryActivity.EXTRA_OWNER_ID, InventoryRepository.SIGNED_OUT));
 
         phoneNumberEditText = findViewById(R.id.phoneNumberEditText);
         enableNotificationsSwitch = findViewById(R.id.enableNotificationsSwitch);
@@ -61,9 +63,8 @@ public class NotificationActivity extends AppCompatActivity {
         }
 
         try {
-            SmsManager smsManager = SmsManager.getDefault();
-            smsManager.sendTextMessage(phoneNumber, null,
-                    "This is a test notification from MyInventoryApp", null, null);
+            new SmsManagerSender(this).send(phoneNumber,
+                    SmsSegmenter.split("This is a test notification from MyInventoryApp"));
             Toast.makeText(this, "Test notification sent", Toast.LENGTH_SHORT).show();
         } catch (Exception e) {
             Toast.makeText(this, "Failed to send test notification: " + e.getMessage(), Toast.LENGTH_SHORT).show();
@@ -71,38 +72,37 @@ public class NotificationActivity extends AppCompatActivity {
         }
     }
 
-    public void checkAndSendLowInventoryNotifications(String phoneNumber) {
-        if (phoneNumber.isEmpty()) return;
-
-        Cursor cursor = dbHelper.getLowInventoryItems();
-
-        if (cursor.moveToFirst()) {
-            StringBuilder messageBuilder = new StringBuilder("Low inventory alert: ");
-
-            do {
-                int itemNameColumnIndex = cursor.getColumnIndex("item_name");
-                int quantityColumnIndex = cursor.getColumnIndex("quantity");
-
-                if (itemNameColumnIndex >= 0 && quantityColumnIndex >= 0) {
-                    String itemName = cursor.getString(itemNameColumnIndex);
-                    int quantity = cursor.getInt(quantityColumnIndex);
-
-                    messageBuilder.append(itemName).append(" (").append(quantity).append("), ");
-                }
-            } while (cursor.moveToNext());
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        repository.close();
+    }
 
-            if (messageBuilder.length() > "Low inventory alert: ".length()) {
-                String message = messageBuilder.substring(0, messageBuilder.length() - 2);
+    /**
+     * Points the alert dispatcher at this account's low-stock crossings, those waiting
+     * now and new ones as they are written, while this screen is open. The dispatcher
+     * reads them when it sends, and they stay in the outbox until the text is sent.
+     */
+    public void checkAndSendLowInventoryNotifications(final String phoneNumber) {
+        if (phoneNumber.isEmpty()) return;
 
-                try {
-                    SmsManager smsManager = SmsManager.getDefault();
-                    smsManager.sendTextMessage(phoneNumber, null, message, null, null);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+        if (lowStockSubscription != null) {
+            lowStockSubscription.cancel();
         }
-
-        cursor.close();
+        final LowStockAlertDispatcher dispatcher = LowStockAlertDispatcher.getInstance(this);
+        final LowStockAlertDispatcher.CrossingSource source = new LowStockAlertDispatcher.CrossingSource() {
+            @Override
+            public int drain(LowStockEvent.Handler handler) {
+                // On the dispatcher's thread, possibly after this screen is gone
+                return repository.drainLowStockEvents(handler);
+            }
+        };
+        lowStockSubscription = repository.observeLowStockEvents(new Runnable() {
+            @Override
+            public void run() {
+                // Only queues a flush; the dispatcher drains off the UI thread
+                dispatcher.reportCrossings(phoneNumber, source);
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,160 @@
+package com.example.myinventoryapp;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A query that runs again when the tables it reads change, shared by all its
+ * listeners. Created through {@link InvalidationTracker#observe}.
+ *
+ * At most one run is in flight. Invalidations that arrive during a run are
+ * folded into a single run after it, so a busy table costs one run per batch of
+ * writes rather than one per write. Listeners are told about a result only if
+ * it differs from the one before; a new listener gets the latest result at once.
+ */
+final class ObservableQuery<T> implements InvalidationTracker.Observer {
+    private static final String TAG = "ObservableQuery";
+
+    /**
+     * Receives results on the thread that ran the query
+     */
+    interface Listener<T> {
+        void onChanged(T result);
+    }
+
+    private final String key;
+    private final Callable<T> query;
+    private final Executor executor;
+
+    // Guarded by this
+    private final List<Listener<T>> listeners = new ArrayList<>();
+    private T result;
+    private boolean hasResult;
+    private boolean running;
+    private boolean stale;
+    private int runs;
+
+    ObservableQuery(String key, Callable<T> query, Executor executor) {
+        this.key = key;
+        this.query = query;
+        this.executor = executor;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Number of times the query has run, for tests and stats
+     */
+    synchronized int getRunCount() {
+        return runs;
+    }
+
+    @Override
+    public void onInvalidated(Set<String> tables) {
+        synchronized (this) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            if (running) {
+                stale = true;
+                return;
+            }
+            running = true;
+        }
+        start();
+    }
+
+    void addListener(Listener<T> listener) {
+        T latest = null;
+        boolean delivered;
+        boolean first = false;
+        synchronized (this) {
+            listeners.add(listener);
+            delivered = hasResult;
+            if (hasResult) {
+                latest = result;
+            } else if (!running) {
+                // The first listener starts the first run; later ones wait for it
+                running = true;
+                first = true;
+            }
+        }
+        if (delivered) {
+            listener.onChanged(latest);
+        } else if (first) {
+            start();
+        }
+    }
+
+    // Returns the number of listeners left
+    synchronized int removeListener(Listener<T> listener) {
+        listeners.remove(listener);
+        return listeners.size();
+    }
+
+    // ========== INTERNALS ==========
+
+    // Runs the query on the executor. Called with running set, without holding the lock.
+    private void start() {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runQuery();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The pool is saturated; the next invalidation tries again
+            synchronized (this) {
+                running = false;
+                stale = false;
+            }
+            Log.w(TAG, "Dropped refresh of " + key, e);
+        }
+    }
+
+    private void runQuery() {
+        T value;
+        try {
+            value = query.call();
+        } catch (Exception e) {
+            Log.e(TAG, "Query " + key + " failed", e);
+            synchronized (this) {
+                running = false;
+                stale = false;
+            }
+            return;
+        }
+
+        List<Listener<T>> changed = null;
+        boolean again;
+        synchronized (this) {
+            runs++;
+            if (!hasResult || !Objects.equals(result, value)) {
+                result = value;
+                hasResult = true;
+                changed = new ArrayList<>(listeners);
+            }
+            again = stale && !listeners.isEmpty();
+            stale = false;
+            running = again;
+        }
+        if (changed != null) {
+            for (Listener<T> listener : changed) {
+                listener.onChanged(value);
+            }
+        }
+        if (again) {
+            start();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.myinventoryapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LongSparseArray;
+
+/**
+ * Coalesces rapid quantity taps. Deltas for the same item are summed on the
+ * main thread and written as one {@link InventoryRepository#adjustStock}
+ * call per item once taps pause for the coalescing window. Taps apply to the
+ * current location; with all locations shown they go to the default location.
+ */
+public class QuantityAdjuster {
+    static final long DEFAULT_WINDOW_MILLIS = 400;
+
+    /**
+     * Receives the outcome of each coalesced write on the main thread
+     */
+    public interface Listener {
+        void onQuantityAdjusted(long id, int quantity);
+
+        // The summed delta would have taken the quantity below zero, or the item is gone
+        void onAdjustmentRejected(long id, int delta);
+    }
+
+    private final InventoryRepository repository;
+    private final Listener listener;
+    private final long windowMillis;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private long locationId = DatabaseHelper.ALL_LOCATIONS;
+
+    // Summed deltas not written yet, by item id
+    private final LongSparseArray<Integer> pendingDeltas = new LongSparseArray<>();
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public QuantityAdjuster(InventoryRepository repository, Listener listener) {
+        this(repository, listener, DEFAULT_WINDOW_MILLIS);
+    }
+
+    QuantityAdjuster(InventoryRepository repository, Listener listener, long windowMillis) {
+        this.repository = repository;
+        this.listener = listener;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Writes pending changes at the old location, then applies new taps at this one
+     */
+    public void setLocationId(long locationId) {
+        if (locationId != this.locationId) {
+            flush();
+            this.locationId = locationId;
+        }
+    }
+
+    /**
+     * Adds delta to the pending change for the item and restarts the window
+     */
+    public void adjust(long id, int delta) {
+        pendingDeltas.put(id, pendingDelta(id) + delta);
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, windowMillis);
+    }
+
+    /**
+     * Pending, unwritten change for the item
+     */
+    public int pendingDelta(long id) {
+        return pendingDeltas.get(id, 0);
+    }
+
+    /**
+     * Writes all pending changes now, e.g. when the screen is paused
+     */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        long target = locationId == DatabaseHelper.ALL_LOCATIONS ? DatabaseHelper.DEFAULT_LOCATION_ID : locationId;
+        for (int i = 0; i < pendingDeltas.size(); i++) {
+            final long id = pendingDeltas.keyAt(i);
+            final int delta = pendingDeltas.valueAt(i);
+            if (delta == 0) {
+                continue;
+            }
+            repository.adjustStock(id, target, delta, new InventoryRepository.Callback<Integer>() {
+                @Override
+                public void onResult(Integer quantity) {
+                    if (quantity == DatabaseHelper.ADJUSTMENT_REJECTED) {
+                        listener.onAdjustmentRejected(id, delta);
+                    } else {
+                        listener.onQuantityAdjusted(id, quantity);
+                    }
+                }
+            });
+        }
+        pendingDeltas.clear();
+    }
+}
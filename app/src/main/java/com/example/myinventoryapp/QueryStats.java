@@ -0,0 +1,334 @@
+package com.example.myinventoryapp;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide timing statistics for the data layer and the screens that load from it.
+ *
+ * Call sites bracket an operation with {@link #begin()} and {@link #end}. Each
+ * operation name gets a histogram of durations in power-of-two microsecond
+ * buckets, plus call and row counts. Cursors returned to callers can be wrapped
+ * with {@link #track}, which records the time until the first window of rows
+ * is filled (the query itself) under the operation name, and the time until
+ * the cursor is closed (query plus walking it) under {@code <name>.cursor}.
+ * Anything slower than the slow-query threshold is also kept in a small ring
+ * buffer and logged.
+ *
+ * Disabled by default. While disabled {@link #begin()} returns 0 and every
+ * other call returns straight away, so instrumented code pays one volatile read.
+ */
+public final class QueryStats {
+    private static final String TAG = "QueryStats";
+
+    static final long DEFAULT_SLOW_QUERY_MILLIS = 50;
+    static final int SLOW_QUERY_LOG_SIZE = 32;
+
+    // Bucket i counts durations below 2^i microseconds; the last bucket takes the rest
+    private static final int BUCKET_COUNT = 24;
+
+    private static volatile boolean enabled;
+    private static volatile long slowQueryNanos = DEFAULT_SLOW_QUERY_MILLIS * 1_000_000;
+
+    private static final Map<String, OperationStats> OPERATIONS = new ConcurrentHashMap<>();
+
+    // Ring buffer of the most recent slow operations
+    private static final SlowQuery[] SLOW_QUERIES = new SlowQuery[SLOW_QUERY_LOG_SIZE];
+    private static int slowQueryCount;
+
+    private QueryStats() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        QueryStats.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setSlowQueryThresholdMillis(long millis) {
+        slowQueryNanos = millis * 1_000_000;
+    }
+
+    /**
+     * Starts timing an operation. Returns 0 when disabled, which the other calls ignore.
+     */
+    public static long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public static void end(String operation, long startNanos) {
+        end(operation, startNanos, -1);
+    }
+
+    /**
+     * Records an operation started by {@link #begin()}; rows is -1 if not applicable
+     */
+    public static void end(String operation, long startNanos, int rows) {
+        if (startNanos == 0) {
+            return;
+        }
+        add(operation, System.nanoTime() - startNanos, rows);
+    }
+
+    /**
+     * Records an operation that measured its own duration
+     */
+    public static void record(String operation, long nanos, int rows) {
+        if (enabled) {
+            add(operation, nanos, rows);
+        }
+    }
+
+    /**
+     * Wraps a cursor from a query started by {@link #begin()} so its query time
+     * and lifetime are recorded. Returns the cursor itself when disabled.
+     */
+    public static Cursor track(String operation, Cursor cursor, long startNanos) {
+        if (startNanos == 0) {
+            return cursor;
+        }
+        return new TrackedCursor(operation, cursor, startNanos);
+    }
+
+    public static void reset() {
+        OPERATIONS.clear();
+        synchronized (SLOW_QUERIES) {
+            slowQueryCount = 0;
+            Arrays.fill(SLOW_QUERIES, null);
+        }
+    }
+
+    /**
+     * Returns a copy of the slow-query log, oldest first
+     */
+    public static List<SlowQuery> getSlowQueries() {
+        synchronized (SLOW_QUERIES) {
+            int size = Math.min(slowQueryCount, SLOW_QUERY_LOG_SIZE);
+            List<SlowQuery> slowQueries = new ArrayList<>(size);
+            for (int i = slowQueryCount - size; i < slowQueryCount; i++) {
+                slowQueries.add(SLOW_QUERIES[i % SLOW_QUERY_LOG_SIZE]);
+            }
+            return slowQueries;
+        }
+    }
+
+    /**
+     * Returns the stats of one operation, or null if it was never recorded
+     */
+    public static OperationStats getOperationStats(String operation) {
+        return OPERATIONS.get(operation);
+    }
+
+    /**
+     * Writes every operation's stats and the slow-query log as text
+     */
+    public static void dump(PrintWriter writer) {
+        writer.println("QueryStats (" + (enabled ? "enabled" : "disabled")
+                + ", slow >= " + slowQueryNanos / 1_000_000 + " ms)");
+        for (OperationStats stats : new TreeMap<>(OPERATIONS).values()) {
+            writer.println("  " + stats);
+        }
+
+        List<SlowQuery> slowQueries = getSlowQueries();
+        writer.println("Slow queries (" + slowQueries.size() + ")");
+        for (SlowQuery slowQuery : slowQueries) {
+            writer.println("  " + slowQuery);
+        }
+        writer.flush();
+    }
+
+    public static String dump() {
+        StringWriter out = new StringWriter();
+        dump(new PrintWriter(out));
+        return out.toString();
+    }
+
+    // ========== INTERNALS ==========
+
+    private static void add(String operation, long nanos, int rows) {
+        OperationStats stats = OPERATIONS.get(operation);
+        if (stats == null) {
+            OperationStats created = new OperationStats(operation);
+            stats = OPERATIONS.putIfAbsent(operation, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        stats.add(nanos, rows);
+
+        if (nanos >= slowQueryNanos) {
+            SlowQuery slowQuery = new SlowQuery(operation, nanos, rows, System.currentTimeMillis(),
+                    Thread.currentThread().getName());
+            synchronized (SLOW_QUERIES) {
+                SLOW_QUERIES[slowQueryCount++ % SLOW_QUERY_LOG_SIZE] = slowQuery;
+            }
+            Log.w(TAG, "Slow: " + slowQuery);
+        }
+    }
+
+    /**
+     * Histogram and totals for one operation name
+     */
+    public static final class OperationStats {
+        private final String operation;
+        private final long[] buckets = new long[BUCKET_COUNT];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long totalRows;
+
+        OperationStats(String operation) {
+            this.operation = operation;
+        }
+
+        synchronized void add(long nanos, int rows) {
+            long micros = nanos / 1000;
+            int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            buckets[Math.min(bucket, BUCKET_COUNT - 1)]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            if (rows > 0) {
+                totalRows += rows;
+            }
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getTotalRows() {
+            return totalRows;
+        }
+
+        public synchronized long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Upper bound, in microseconds, of the bucket holding the given percentile
+         */
+        public synchronized long percentileMicros(int percentile) {
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            long meanMicros = count == 0 ? 0 : totalNanos / count / 1000;
+            return operation + ": n=" + count
+                    + " mean=" + meanMicros + "us"
+                    + " p50<=" + percentileMicros(50) + "us"
+                    + " p90<=" + percentileMicros(90) + "us"
+                    + " p99<=" + percentileMicros(99) + "us"
+                    + " max=" + maxNanos / 1000 + "us"
+                    + " rows=" + totalRows;
+        }
+    }
+
+    /**
+     * One entry of the slow-query log
+     */
+    public static final class SlowQuery {
+        public final String operation;
+        public final long durationNanos;
+        public final int rows;
+        public final long timestampMillis;
+        public final String threadName;
+
+        SlowQuery(String operation, long durationNanos, int rows, long timestampMillis, String threadName) {
+            this.operation = operation;
+            this.durationNanos = durationNanos;
+            this.rows = rows;
+            this.timestampMillis = timestampMillis;
+            this.threadName = threadName;
+        }
+
+        @Override
+        public String toString() {
+            return operation + " took " + durationNanos / 1_000_000 + " ms"
+                    + (rows >= 0 ? ", " + rows + " rows" : "")
+                    + " on " + threadName + " at " + timestampMillis;
+        }
+    }
+
+    /**
+     * Records the query time when the first window is filled and the lifetime on close
+     */
+    private static final class TrackedCursor extends CursorWrapper {
+        private final String operation;
+        private final long startNanos;
+        private boolean queried;
+        private boolean closed;
+
+        TrackedCursor(String operation, Cursor cursor, long startNanos) {
+            super(cursor);
+            this.operation = operation;
+            this.startNanos = startNanos;
+        }
+
+        // SQLiteCursor runs the query on the first call that needs the row count
+        private void onFirstAccess() {
+            if (!queried) {
+                queried = true;
+                add(operation, System.nanoTime() - startNanos, super.getCount());
+            }
+        }
+
+        @Override
+        public int getCount() {
+            onFirstAccess();
+            return super.getCount();
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            onFirstAccess();
+            return super.moveToFirst();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            onFirstAccess();
+            return super.moveToNext();
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            onFirstAccess();
+            return super.moveToPosition(position);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                // Rows walked, rather than rows matched
+                int rows = queried ? Math.min(super.getPosition() + 1, super.getCount()) : 0;
+                super.close();
+                add(operation + ".cursor", System.nanoTime() - startNanos, rows);
+                return;
+            }
+            super.close();
+        }
+    }
+}
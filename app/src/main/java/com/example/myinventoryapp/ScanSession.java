@@ -0,0 +1,122 @@
+package com.example.myinventoryapp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts stock by scanning barcodes. Each scan only increments a pending count
+ * for its SKU in memory, so a scanner can fire scans as fast as it likes on the
+ * main thread. Counts are written as one {@link InventoryRepository#applyScanCounts}
+ * transaction once scans pause, once a batch is full, or when the session is
+ * flushed. Each scan adds one unit at the current location; with all locations
+ * shown it goes to the default location.
+ */
+public class ScanSession {
+    static final long DEFAULT_IDLE_MILLIS = 1000;
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Receives the outcome of each flush on the main thread
+     */
+    public interface Listener {
+        // scans were added to stock; the unknown SKUs matched no item and were dropped
+        void onScansFlushed(int scans, List<String> unknownSkus);
+    }
+
+    private final InventoryRepository repository;
+    private final Listener listener;
+    private final long idleMillis;
+    private final int batchSize;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private long locationId = DatabaseHelper.ALL_LOCATIONS;
+
+    // Scans not written yet, counted by SKU. Replaced, not cleared, on flush, since the
+    // write reads the old map on a background thread.
+    private Map<String, Integer> pendingCounts = new HashMap<>();
+    private int pendingScans;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public ScanSession(InventoryRepository repository, Listener listener) {
+        this(repository, listener, DEFAULT_IDLE_MILLIS, DEFAULT_BATCH_SIZE);
+    }
+
+    ScanSession(InventoryRepository repository, Listener listener, long idleMillis, int batchSize) {
+        this.repository = repository;
+        this.listener = listener;
+        this.idleMillis = idleMillis;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Writes pending scans at the old location, then counts new scans at this one
+     */
+    public void setLocationId(long locationId) {
+        if (locationId != this.locationId) {
+            flush();
+            this.locationId = locationId;
+        }
+    }
+
+    /**
+     * Counts one scan of the code. Blank codes, e.g. a stray Enter, are ignored.
+     */
+    public void scan(String code) {
+        String sku = code.trim();
+        if (sku.isEmpty()) {
+            return;
+        }
+
+        Integer count = pendingCounts.get(sku);
+        pendingCounts.put(sku, count == null ? 1 : count + 1);
+        if (++pendingScans >= batchSize) {
+            flush();
+        } else {
+            handler.removeCallbacks(flushRunnable);
+            handler.postDelayed(flushRunnable, idleMillis);
+        }
+    }
+
+    /**
+     * Number of scans not written yet
+     */
+    public int pendingScans() {
+        return pendingScans;
+    }
+
+    /**
+     * Writes all pending scans now, e.g. when scanning stops or the screen is paused.
+     * Scans made while the write runs start the next batch.
+     */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        if (pendingScans == 0) {
+            return;
+        }
+
+        final Map<String, Integer> batch = pendingCounts;
+        final int scans = pendingScans;
+        pendingCounts = new HashMap<>();
+        pendingScans = 0;
+
+        repository.applyScanCounts(batch, locationId, new InventoryRepository.Callback<List<String>>() {
+            @Override
+            public void onResult(List<String> unknownSkus) {
+                int dropped = 0;
+                for (String sku : unknownSkus) {
+                    dropped += batch.get(sku);
+                }
+                listener.onScansFlushed(scans - dropped, unknownSkus);
+            }
+        });
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.telephony.SmsManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SmsSender} that hands messages to the platform {@link SmsManager}
+ */
+public class SmsManagerSender implements SmsSender {
+    private final SmsManager smsManager;
+
+    public SmsManagerSender(Context context) {
+        smsManager = context.getSystemService(SmsManager.class);
+    }
+
+    @Override
+    public void send(String phoneNumber, List<String> parts) {
+        if (parts.size() == 1) {
+            smsManager.sendTextMessage(phoneNumber, null, parts.get(0), null, null);
+        } else {
+            // Sent as one concatenated message, so the parts arrive as a single text
+            smsManager.sendMultipartTextMessage(phoneNumber, null, new ArrayList<>(parts), null, null);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.myinventoryapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits text into the parts it is sent as over SMS.
+ *
+ * Text made only of GSM 7-bit characters fits 160 septets in a single message,
+ * or 153 per part of a concatenated one (the rest carries the part header).
+ * Extension characters such as the euro sign or {@code [} take two septets and are
+ * never split from their escape. Any other character switches the whole message
+ * to UCS-2, which fits 70 UTF-16 units, or 67 per part, and surrogate pairs are
+ * kept in the same part.
+ */
+public final class SmsSegmenter {
+    static final int GSM7_SINGLE_SEPTETS = 160;
+    static final int GSM7_PART_SEPTETS = 153;
+    static final int UCS2_SINGLE_UNITS = 70;
+    static final int UCS2_PART_UNITS = 67;
+
+    // GSM 03.38 default alphabet, without the escape character
+    private static final String GSM7_BASIC = "@\u00A3$\u00A5\u00E8\u00E9\u00F9\u00EC\u00F2\u00C7\n\u00D8\u00F8\r\u00C5\u00E5"
+            + "\u0394_\u03A6\u0393\u039B\u03A9\u03A0\u03A8\u03A3\u0398\u039E\u00C6\u00E6\u00DF\u00C9"
+            + " !\"#\u00A4%&'()*+,-./0123456789:;<=>?"
+            + "\u00A1ABCDEFGHIJKLMNOPQRSTUVWXYZ\u00C4\u00D6\u00D1\u00DC\u00A7"
+            + "\u00BFabcdefghijklmnopqrstuvwxyz\u00E4\u00F6\u00F1\u00FC\u00E0";
+
+    // Characters from the extension table, sent as escape + character
+    private static final String GSM7_EXTENDED = "\f^{}\\[~]|\u20AC";
+
+    private SmsSegmenter() {
+    }
+
+    /**
+     * Splits the text into message parts; a text that fits one message is returned as is
+     */
+    public static List<String> split(String text) {
+        boolean gsm7 = isGsm7(text);
+        if (length(text, gsm7) <= (gsm7 ? GSM7_SINGLE_SEPTETS : UCS2_SINGLE_UNITS)) {
+            return Collections.singletonList(text);
+        }
+
+        int partCapacity = gsm7 ? GSM7_PART_SEPTETS : UCS2_PART_UNITS;
+        List<String> parts = new ArrayList<>();
+        int partStart = 0;
+        int used = 0;
+        int i = 0;
+        while (i < text.length()) {
+            int width = charWidth(text, i, gsm7);
+            int cost = gsm7 ? septets(text.charAt(i)) : width;
+            if (used + cost > partCapacity) {
+                parts.add(text.substring(partStart, i));
+                partStart = i;
+                used = 0;
+            }
+            used += cost;
+            i += width;
+        }
+        parts.add(text.substring(partStart));
+        return parts;
+    }
+
+    /**
+     * Number of parts the text is sent as
+     */
+    public static int countParts(String text) {
+        return split(text).size();
+    }
+
+    /**
+     * True if every character is in the GSM 7-bit default alphabet or its extension table
+     */
+    static boolean isGsm7(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (septets(text.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Septets a character takes in GSM 7-bit, or -1 if it has no GSM 7-bit encoding
+    private static int septets(char c) {
+        if (GSM7_BASIC.indexOf(c) >= 0) {
+            return 1;
+        }
+        return GSM7_EXTENDED.indexOf(c) >= 0 ? 2 : -1;
+    }
+
+    private static int charWidth(String text, int i, boolean gsm7) {
+        if (!gsm7 && Character.isHighSurrogate(text.charAt(i))
+                && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static int length(String text, boolean gsm7) {
+        if (!gsm7) {
+            return text.length();
+        }
+        int septets = 0;
+        for (int i = 0; i < text.length(); i++) {
+            septets += septets(text.charAt(i));
+        }
+        return septets;
+    }
+}
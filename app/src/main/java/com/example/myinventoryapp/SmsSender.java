@@ -0,0 +1,11 @@
+package com.example.myinventoryapp;
+
+import java.util.List;
+
+/**
+ * Sends one text message that has already been split into SMS-sized parts,
+ * see {@link SmsSegmenter}. Implementations may block.
+ */
+public interface SmsSender {
+    void send(String phoneNumber, List<String> parts);
+}
@@ -0,0 +1,46 @@
+package com.example.myinventoryapp;
+
+/**
+ * One item's entry in a sync exchange, see {@link InventorySync}.
+ *
+ * Items are identified across devices by their global id. Stock is not sent as
+ * a quantity but as net counts: a pushed entry carries the net stock change this
+ * device has made to the item, a pulled entry the net change all other devices
+ * have made. Counts are absolute, so sending one twice is harmless.
+ *
+ * Items belong to an account, named by username since local user ids differ
+ * between devices. A deletion names only the item.
+ */
+final class SyncChange {
+    // Local inventory id of a pushed entry; -1 for pulled ones
+    final long itemId;
+    final String globalId;
+    // Username of the item's owner; null for deletions
+    final String owner;
+    final String itemName;
+    final int threshold;
+    // Whether name and threshold are part of the change, i.e. edited since the last sync
+    final boolean metadataChanged;
+    final long count;
+    final boolean deleted;
+
+    SyncChange(long itemId, String globalId, String owner, String itemName, int threshold, boolean metadataChanged,
+               long count, boolean deleted) {
+        this.itemId = itemId;
+        this.globalId = globalId;
+        this.owner = owner;
+        this.itemName = itemName;
+        this.threshold = threshold;
+        this.metadataChanged = metadataChanged;
+        this.count = count;
+        this.deleted = deleted;
+    }
+
+    static SyncChange pulled(String globalId, String owner, String itemName, int threshold, long count) {
+        return new SyncChange(-1, globalId, owner, itemName, threshold, true, count, false);
+    }
+
+    static SyncChange pulledDeletion(String globalId) {
+        return new SyncChange(-1, globalId, null, null, 0, false, 0, true);
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.myinventoryapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link InventorySync} in the background: on request, and periodically.
+ *
+ * A sync that fails with an IOException, usually because the device is offline
+ * or the server is down, is retried after an exponential backoff with jitter,
+ * capped at {@link #MAX_BACKOFF_MILLIS}, so devices do not all retry in step.
+ * A successful sync resets the backoff.
+ *
+ * Syncs run on a single scheduler thread of their own, so a slow network never
+ * holds up the database pool, and at most one runs at a time.
+ */
+public class SyncScheduler {
+    private static final String TAG = "SyncScheduler";
+
+    static final long DEFAULT_INTERVAL_MILLIS = 15 * 60_000;
+    static final long INITIAL_BACKOFF_MILLIS = 5_000;
+    static final long MAX_BACKOFF_MILLIS = 30 * 60_000;
+
+    // Process-wide instance, created by start() when a sync server is configured
+    private static SyncScheduler instance;
+
+    private final Callable<?> sync;
+    private final ScheduledExecutorService scheduler;
+    private final Random random;
+    private final long intervalMillis;
+
+    // Only touched on the scheduler thread
+    private ScheduledFuture<?> next;
+    private int failures;
+    private boolean paused;
+    // A sync came due while paused, so resume() runs it
+    private boolean syncWhenResumed;
+
+    /**
+     * Starts syncing with the server in the sync_server_url resource, if there is one.
+     * Safe to call more than once.
+     */
+    public static synchronized void start(Context context) {
+        if (instance != null) {
+            return;
+        }
+        String url = context.getString(R.string.sync_server_url);
+        if (url.isEmpty()) {
+            return;
+        }
+
+        final InventorySync sync;
+        try {
+            sync = new InventorySync(DatabaseHelper.getInstance(context), new HttpSyncTransport(new URL(url)));
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Invalid sync server URL " + url, e);
+            return;
+        }
+        instance = new SyncScheduler(new Callable<InventorySync.Result>() {
+            @Override
+            public InventorySync.Result call() throws IOException {
+                return sync.sync();
+            }
+        }, createScheduler(), new Random(), DEFAULT_INTERVAL_MILLIS);
+        instance.requestSync();
+    }
+
+    /**
+     * Syncs soon, e.g. after local edits, if sync was started
+     */
+    public static synchronized void requestSyncIfStarted() {
+        if (instance != null) {
+            instance.requestSync();
+        }
+    }
+
+    /**
+     * Pauses sync, if it was started, see {@link #pause}
+     */
+    public static void pauseIfStarted() throws InterruptedException {
+        SyncScheduler started = started();
+        if (started != null) {
+            started.pause();
+        }
+    }
+
+    /**
+     * Resumes sync, if it was started, see {@link #resume}
+     */
+    public static void resumeIfStarted() {
+        SyncScheduler started = started();
+        if (started != null) {
+            started.resume();
+        }
+    }
+
+    SyncScheduler(Callable<?> sync, ScheduledExecutorService scheduler, Random random, long intervalMillis) {
+        this.sync = sync;
+        this.scheduler = scheduler;
+        this.random = random;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Runs a sync now in place of the next scheduled one. While backing off, waits
+     * out the backoff instead, so repeated requests do not hammer an unreachable server.
+     */
+    public void requestSync() {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (failures == 0) {
+                    schedule(0);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the sync in progress, if any, and holds off syncs until {@link #resume},
+     * e.g. while the database is replaced
+     */
+    public void pause() throws InterruptedException {
+        FutureTask<Void> pausing = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                paused = true;
+            }
+        }, null);
+        // Queued behind the sync in progress on the scheduler thread
+        scheduler.execute(pausing);
+        try {
+            pausing.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Lets syncs run again, starting with one that came due while paused
+     */
+    public void resume() {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                paused = false;
+                if (syncWhenResumed) {
+                    syncWhenResumed = false;
+                    schedule(0);
+                }
+            }
+        });
+    }
+
+    /**
+     * Delay before the next attempt after the given number of failures in a row:
+     * between half and all of INITIAL_BACKOFF_MILLIS doubled per earlier failure
+     */
+    long backoffMillis(int failures) {
+        long ceiling = INITIAL_BACKOFF_MILLIS;
+        for (int i = 1; i < failures && ceiling < MAX_BACKOFF_MILLIS; i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, MAX_BACKOFF_MILLIS);
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half));
+    }
+
+    // ========== INTERNALS ==========
+
+    private void schedule(long delayMillis) {
+        if (next != null) {
+            next.cancel(false);
+        }
+        next = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runSync();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void runSync() {
+        next = null;
+        if (paused) {
+            syncWhenResumed = true;
+            return;
+        }
+        try {
+            sync.call();
+            failures = 0;
+            schedule(intervalMillis);
+        } catch (IOException e) {
+            failures++;
+            schedule(backoffMillis(failures));
+        } catch (Exception e) {
+            // Not a connectivity problem, so retrying sooner would not help
+            Log.e(TAG, "Sync failed", e);
+            failures = 0;
+            schedule(intervalMillis);
+        }
+    }
+
+    private static synchronized SyncScheduler started() {
+        return instance;
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "inventory-sync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.myinventoryapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DatabaseBackup}, on made-up database images: only the
+ * page size and user version in the header are read, the rest is random pages.
+ */
+public class DatabaseBackupTest {
+    private static final int PAGE_SIZE = 1024;
+    private static final int PAGE_COUNT = 64;
+
+    private File root;
+    private File backups;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("backup-test").toFile();
+        backups = new File(root, "backups");
+        assertTrue(backups.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        delete(root);
+    }
+
+    @Test
+    public void fullBackup_roundTripsTheImage() throws IOException {
+        byte[] image = image(PAGE_SIZE, PAGE_COUNT, 1);
+
+        DatabaseBackup.Result result = backup(image, false);
+
+        assertEquals(1, result.getSequence());
+        assertFalse(result.isIncremental());
+        assertEquals(PAGE_COUNT, result.getPageCount());
+        assertEquals(PAGE_COUNT, result.getStoredPages());
+        assertEquals(result.getFile(), DatabaseBackup.latest(backups));
+        assertArrayEquals(image, rebuild(result.getFile()));
+        assertEquals(12, DatabaseBackup.readManifest(result.getFile()).schemaVersion);
+    }
+
+    @Test
+    public void incrementalBackup_storesOnlyPagesNotInTheLastOne() throws IOException {
+        byte[] first = image(PAGE_SIZE, PAGE_COUNT, 1);
+        DatabaseBackup.Result full = backup(first, true);
+        assertFalse(full.isIncremental());
+
+        // One page changed, one inserted in front of it, which moves all the pages after,
+        // and the last page dropped
+        byte[] second = insertPage(first, 3, randomPage(2));
+        second = Arrays.copyOf(second, second.length - PAGE_SIZE);
+        second[5 * PAGE_SIZE + 100] ^= 1;
+        DatabaseBackup.Result incremental = backup(second, true);
+
+        assertEquals(2, incremental.getSequence());
+        assertTrue(incremental.isIncremental());
+        assertEquals(PAGE_COUNT, incremental.getPageCount());
+        assertEquals(2, incremental.getStoredPages());
+        assertTrue(incremental.getFile().length() < full.getFile().length() / 10);
+
+        // Each backup restores its own image
+        assertArrayEquals(second, rebuild(incremental.getFile()));
+        assertArrayEquals(first, rebuild(full.getFile()));
+
+        // And the chain goes on from the latest
+        byte[] third = second.clone();
+        third[PAGE_SIZE] ^= 1;
+        DatabaseBackup.Result next = backup(third, true);
+        assertEquals(1, next.getStoredPages());
+        assertArrayEquals(third, rebuild(next.getFile()));
+    }
+
+    @Test
+    public void incrementalBackup_storesEveryPageOfANewPageSize() throws IOException {
+        backup(image(PAGE_SIZE, PAGE_COUNT, 1), true);
+
+        DatabaseBackup.Result result = backup(image(2 * PAGE_SIZE, PAGE_COUNT / 2, 1), true);
+
+        assertFalse(result.isIncremental());
+        assertEquals(PAGE_COUNT / 2, result.getStoredPages());
+    }
+
+    @Test
+    public void damagedBackup_isRejected() throws IOException {
+        DatabaseBackup.Result full = backup(image(PAGE_SIZE, PAGE_COUNT, 1), false);
+        RandomAccessFile file = new RandomAccessFile(full.getFile(), "rw");
+        try {
+            long middle = file.length() / 2;
+            file.seek(middle);
+            int b = file.read();
+            file.seek(middle);
+            file.write(b ^ 0x40);
+        } finally {
+            file.close();
+        }
+
+        assertRebuildFails(full.getFile());
+    }
+
+    @Test
+    public void truncatedBackup_isRejected() throws IOException {
+        DatabaseBackup.Result full = backup(image(PAGE_SIZE, PAGE_COUNT, 1), false);
+        RandomAccessFile file = new RandomAccessFile(full.getFile(), "rw");
+        try {
+            file.setLength(file.length() - 100);
+        } finally {
+            file.close();
+        }
+
+        assertRebuildFails(full.getFile());
+    }
+
+    @Test
+    public void incrementalBackup_withoutTheOneItBuildsOn_isRejected() throws IOException {
+        byte[] image = image(PAGE_SIZE, PAGE_COUNT, 1);
+        DatabaseBackup.Result full = backup(image, true);
+        image[0] ^= 1;
+        DatabaseBackup.Result incremental = backup(image, true);
+
+        assertTrue(full.getFile().delete());
+
+        assertRebuildFails(incremental.getFile());
+    }
+
+    // ========== HELPERS ==========
+
+    private DatabaseBackup.Result backup(byte[] image, boolean incremental) throws IOException {
+        File snapshot = new File(root, "snapshot");
+        Files.write(snapshot.toPath(), image);
+        try {
+            return DatabaseBackup.write(snapshot, backups, incremental, System.nanoTime());
+        } finally {
+            assertTrue(snapshot.delete());
+        }
+    }
+
+    private byte[] rebuild(File backup) throws IOException {
+        File target = new File(root, "restored");
+        DatabaseBackup.rebuild(backup, target);
+        try {
+            return Files.readAllBytes(target.toPath());
+        } finally {
+            assertTrue(target.delete());
+        }
+    }
+
+    private void assertRebuildFails(File backup) {
+        File target = new File(root, "restored");
+        try {
+            DatabaseBackup.rebuild(backup, target);
+            fail("rebuilt " + backup);
+        } catch (IOException expected) {
+            // Nothing is left behind to be mistaken for a restored database
+            assertFalse(target.exists());
+        }
+    }
+
+    /**
+     * Random pages behind a header with the page size and user version 12
+     */
+    private static byte[] image(int pageSize, int pageCount, long seed) {
+        byte[] image = new byte[pageSize * pageCount];
+        new Random(seed).nextBytes(image);
+        ByteBuffer header = ByteBuffer.wrap(image);
+        header.putShort(16, (short) pageSize);
+        header.putInt(60, 12);
+        return image;
+    }
+
+    private static byte[] randomPage(long seed) {
+        byte[] page = new byte[PAGE_SIZE];
+        new Random(seed).nextBytes(page);
+        return page;
+    }
+
+    private static byte[] insertPage(byte[] image, int index, byte[] page) {
+        byte[] result = new byte[image.length + page.length];
+        System.arraycopy(image, 0, result, 0, index * PAGE_SIZE);
+        System.arraycopy(page, 0, result, index * PAGE_SIZE, page.length);
+        System.arraycopy(image, index * PAGE_SIZE, result, (index + 1) * PAGE_SIZE, image.length - index * PAGE_SIZE);
+        return result;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.myinventoryapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link InvalidationTracker} and {@link ObservableQuery},
+ * on manually advanced time and an executor that runs queries when told to.
+ */
+public class InvalidationTrackerTest {
+    private static final long BATCH = 50;
+
+    private ManualScheduler scheduler;
+    private InvalidationTracker tracker;
+    private QueuedExecutor executor;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler();
+        tracker = new InvalidationTracker(scheduler, BATCH);
+        executor = new QueuedExecutor();
+    }
+
+    @Test
+    public void burstOfWrites_isOneNotification() {
+        RecordingObserver observer = new RecordingObserver();
+        tracker.addObserver(observer, "inventory");
+
+        for (int i = 0; i < 1000; i++) {
+            tracker.invalidate(i % 2 == 0 ? "inventory" : "location_stock");
+        }
+        scheduler.advance(BATCH - 1);
+        assertTrue(observer.notifications.isEmpty());
+        scheduler.advance(1);
+
+        assertEquals(Collections.singletonList(new HashSet<>(Arrays.asList("inventory", "location_stock"))),
+                observer.notifications);
+    }
+
+    @Test
+    public void writesToOtherTables_areNotReported() {
+        RecordingObserver observer = new RecordingObserver();
+        tracker.addObserver(observer, "locations");
+
+        tracker.invalidate("inventory", "stock_movements");
+        scheduler.advance(BATCH);
+        assertTrue(observer.notifications.isEmpty());
+
+        tracker.removeObserver(observer);
+        tracker.invalidate("locations");
+        scheduler.advance(BATCH);
+        assertTrue(observer.notifications.isEmpty());
+    }
+
+    @Test
+    public void steadyWrites_areNotifiedOncePerBatchWindow() {
+        RecordingObserver observer = new RecordingObserver();
+        tracker.addObserver(observer, "inventory");
+
+        // A write every millisecond for a second
+        for (int i = 0; i < 1000; i++) {
+            tracker.invalidate("inventory");
+            scheduler.advance(1);
+        }
+        scheduler.advance(BATCH);
+
+        assertEquals(1000 / BATCH, observer.notifications.size());
+    }
+
+    @Test
+    public void observedQuery_reRunsOncePerBatchOfWrites() {
+        CountingQuery query = new CountingQuery();
+        RecordingListener listener = new RecordingListener();
+        ObservableQuery<Integer> observable = tracker.observe("count", new String[]{"inventory"}, query,
+                executor, listener);
+        executor.runAll();
+        assertEquals(Collections.singletonList(0), listener.results);
+
+        for (int i = 0; i < 1000; i++) {
+            query.value++;
+            tracker.invalidate("inventory");
+        }
+        scheduler.advance(BATCH);
+        executor.runAll();
+
+        assertEquals(2, observable.getRunCount());
+        assertEquals(Arrays.asList(0, 1000), listener.results);
+    }
+
+    @Test
+    public void invalidationsDuringARun_areFoldedIntoOneMoreRun() {
+        CountingQuery query = new CountingQuery();
+        RecordingListener listener = new RecordingListener();
+        ObservableQuery<Integer> observable = tracker.observe("count", new String[]{"inventory"}, query,
+                executor, listener);
+
+        // The first run is still queued while three batches of writes are reported
+        for (int batch = 0; batch < 3; batch++) {
+            query.value++;
+            tracker.invalidate("inventory");
+            scheduler.advance(BATCH);
+        }
+        executor.runAll();
+
+        assertEquals(2, observable.getRunCount());
+        assertEquals(Collections.singletonList(3), listener.results);
+    }
+
+    @Test
+    public void identicalQueries_shareOneRunAndResult() {
+        CountingQuery query = new CountingQuery();
+        query.value = 7;
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        ObservableQuery<Integer> a = tracker.observe("count", new String[]{"inventory"}, query, executor, first);
+        ObservableQuery<Integer> b = tracker.observe("count", new String[]{"inventory"}, query, executor, second);
+        executor.runAll();
+
+        assertSame(a, b);
+        assertEquals(1, a.getRunCount());
+        assertEquals(Collections.singletonList(7), first.results);
+        assertEquals(Collections.singletonList(7), second.results);
+
+        // A late listener gets the latest result without a run
+        RecordingListener third = new RecordingListener();
+        tracker.observe("count", new String[]{"inventory"}, query, executor, third);
+        assertEquals(Collections.singletonList(7), third.results);
+        assertEquals(1, a.getRunCount());
+        assertEquals(0, executor.tasks.size());
+    }
+
+    @Test
+    public void unchangedResults_areNotDelivered() {
+        CountingQuery query = new CountingQuery();
+        RecordingListener listener = new RecordingListener();
+        ObservableQuery<Integer> observable = tracker.observe("count", new String[]{"inventory"}, query,
+                executor, listener);
+        executor.runAll();
+
+        tracker.invalidate("inventory");
+        scheduler.advance(BATCH);
+        executor.runAll();
+
+        assertEquals(2, observable.getRunCount());
+        assertEquals(Collections.singletonList(0), listener.results);
+    }
+
+    @Test
+    public void stopObserving_lastListener_stopsTheQuery() {
+        CountingQuery query = new CountingQuery();
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        ObservableQuery<Integer> observable = tracker.observe("count", new String[]{"inventory"}, query,
+                executor, first);
+        tracker.observe("count", new String[]{"inventory"}, query, executor, second);
+        executor.runAll();
+
+        tracker.stopObserving(observable, first);
+        tracker.invalidate("inventory");
+        scheduler.advance(BATCH);
+        executor.runAll();
+        assertEquals(2, observable.getRunCount());
+
+        tracker.stopObserving(observable, second);
+        tracker.invalidate("inventory");
+        scheduler.advance(BATCH);
+        executor.runAll();
+        assertEquals(2, observable.getRunCount());
+
+        // Observing again starts a new query
+        ObservableQuery<Integer> again = tracker.observe("count", new String[]{"inventory"}, query, executor,
+                new RecordingListener());
+        assertNotSame(observable, again);
+    }
+
+    private static final class RecordingObserver implements InvalidationTracker.Observer {
+        final List<Set<String>> notifications = new ArrayList<>();
+
+        @Override
+        public void onInvalidated(Set<String> tables) {
+            notifications.add(new HashSet<>(tables));
+        }
+    }
+
+    private static final class RecordingListener implements ObservableQuery.Listener<Integer> {
+        final List<Integer> results = new ArrayList<>();
+
+        @Override
+        public void onChanged(Integer result) {
+            results.add(result);
+        }
+    }
+
+    private static final class CountingQuery implements Callable<Integer> {
+        int value;
+
+        @Override
+        public Integer call() {
+            return value;
+        }
+    }
+
+    // Holds tasks until runAll(), like a busy database pool
+    private static final class QueuedExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
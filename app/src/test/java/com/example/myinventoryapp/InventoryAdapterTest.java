@@ -0,0 +1,196 @@
+package com.example.myinventoryapp;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Measures how much view work the inventory list does for a 10k-item table.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class InventoryAdapterTest {
+    private static final int ITEM_COUNT = 10_000;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private RecyclerView recyclerView;
+    private CountingAdapter adapter;
+    private List<InventoryItem> items;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+
+        recyclerView = new RecyclerView(activity);
+        recyclerView.setLayoutManager(new LinearLayoutManager(activity));
+        recyclerView.setItemAnimator(null);
+        adapter = new CountingAdapter();
+        recyclerView.setAdapter(adapter);
+        activity.setContentView(recyclerView);
+
+        items = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(new InventoryItem(i + 1, "Item " + i, i % 50, 5));
+        }
+        submit(items);
+    }
+
+    @Test
+    public void initialLayout_bindsOnlyVisibleRows() {
+        assertEquals(ITEM_COUNT, adapter.getItemCount());
+        assertTrue("expected some rows to be bound", adapter.bound > 0);
+        assertTrue("bound " + adapter.bound + " rows for a 10k-item table", adapter.bound < 100);
+        assertEquals(adapter.bound, adapter.created);
+    }
+
+    @Test
+    public void scrolling_recyclesViewHolders() {
+        int createdAfterFirstLayout = adapter.created;
+
+        for (int i = 0; i < 100; i++) {
+            recyclerView.scrollBy(0, HEIGHT / 2);
+        }
+
+        assertTrue("scrolling should bind more rows", adapter.bound > createdAfterFirstLayout * 5);
+        assertTrue("created " + adapter.created + " holders while scrolling",
+                adapter.created < createdAfterFirstLayout + 20);
+    }
+
+    @Test
+    public void singleItemUpdate_rebindsOnlyThatRow() {
+        adapter.resetCounters();
+
+        List<InventoryItem> updated = new ArrayList<>(items);
+        InventoryItem old = updated.get(3);
+        updated.set(3, new InventoryItem(old.getId(), old.getItemName(), old.getQuantity() + 1, old.getThreshold()));
+        submit(updated);
+
+        assertEquals(1, adapter.bound);
+        assertEquals(0, adapter.created);
+    }
+
+    @Test
+    public void deleteItem_doesNotRebindShiftedRows() {
+        adapter.resetCounters();
+
+        List<InventoryItem> updated = new ArrayList<>(items);
+        updated.remove(0);
+        submit(updated);
+
+        assertEquals(ITEM_COUNT - 1, adapter.getItemCount());
+        // Only the row scrolled into the freed slot at the bottom needs binding
+        assertTrue("bound " + adapter.bound + " rows after a single delete", adapter.bound <= 2);
+    }
+
+    @Test
+    public void selectingRows_onlyUpdatesTheirSelection() {
+        adapter.resetCounters();
+        long first = items.get(1).getId();
+        long second = items.get(4).getId();
+
+        adapter.toggleSelection(first);
+        adapter.toggleSelection(second);
+        adapter.toggleSelection(second);
+        layout();
+
+        assertEquals(0, adapter.bound);
+        assertEquals(Collections.singleton(first), adapter.getSelectedIds());
+        assertTrue(recyclerView.findViewHolderForItemId(first).itemView.isActivated());
+        assertFalse(recyclerView.findViewHolderForItemId(second).itemView.isActivated());
+
+        // A selected row keeps its selection when its item changes
+        List<InventoryItem> updated = new ArrayList<>(items);
+        InventoryItem old = updated.get(1);
+        updated.set(1, new InventoryItem(old.getId(), old.getItemName(), old.getQuantity() + 1, old.getThreshold()));
+        submit(updated);
+        assertTrue(recyclerView.findViewHolderForItemId(first).itemView.isActivated());
+
+        adapter.clearSelection();
+        layout();
+        assertTrue(adapter.getSelectedIds().isEmpty());
+        assertFalse(recyclerView.findViewHolderForItemId(first).itemView.isActivated());
+    }
+
+    private void submit(List<InventoryItem> list) {
+        adapter.submitList(list);
+        layout();
+    }
+
+    private void layout() {
+        shadowOf(Looper.getMainLooper()).idle();
+        recyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private static class CountingAdapter extends InventoryAdapter {
+        int created;
+        int bound;
+
+        CountingAdapter() {
+            super(new OnItemActionListener() {
+                @Override
+                public void onEditItem(InventoryItem item) {
+                }
+
+                @Override
+                public void onDeleteItem(InventoryItem item) {
+                }
+
+                @Override
+                public void onAdjustQuantity(InventoryItem item, int delta) {
+                }
+
+                @Override
+                public void onSelectionChanged(Set<Long> selectedIds) {
+                }
+            }, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+        }
+
+        void resetCounters() {
+            created = 0;
+            bound = 0;
+        }
+
+        @NonNull
+        @Override
+        public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            created++;
+            return super.onCreateViewHolder(parent, viewType);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            bound++;
+            super.onBindViewHolder(holder, position);
+        }
+    }
+}
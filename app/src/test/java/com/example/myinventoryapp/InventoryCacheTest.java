@@ -0,0 +1,141 @@
+package com.example.myinventoryapp;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link InventoryCache}.
+ */
+public class InventoryCacheTest {
+    private static final long OWNER = 1;
+
+    @Test
+    public void get_countsHitsAndMisses() {
+        InventoryCache cache = new InventoryCache(4);
+        cache.put(OWNER, item(1, 10));
+
+        assertEquals(item(1, 10), cache.get(OWNER, 1));
+        assertNull(cache.get(OWNER, 2));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void get_missesItemsOfAnotherOwner() {
+        InventoryCache cache = new InventoryCache(4);
+        cache.put(OWNER, item(1, 10));
+
+        assertNull(cache.get(OWNER + 1, 1));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(item(1, 10), cache.get(OWNER, 1));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() {
+        InventoryCache cache = new InventoryCache(3);
+        cache.put(OWNER, item(1, 1));
+        cache.put(OWNER, item(2, 2));
+        cache.put(OWNER, item(3, 3));
+        cache.get(OWNER, 1);
+
+        cache.put(OWNER, item(4, 4));
+
+        assertNull(cache.peek(2));
+        assertNotNull(cache.peek(1));
+        assertNotNull(cache.peek(3));
+        assertNotNull(cache.peek(4));
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void putIfUnchanged_rejectsValueReadBeforeAWrite() {
+        InventoryCache cache = new InventoryCache(4);
+        long stamp = cache.stamp();
+
+        // A writer commits and updates the cache while the reader is still reading
+        cache.put(OWNER, item(1, 20));
+
+        assertFalse(cache.putIfUnchanged(OWNER, item(1, 10), stamp));
+        assertEquals(item(1, 20), cache.peek(1));
+
+        assertTrue(cache.putIfUnchanged(OWNER, item(2, 5), cache.stamp()));
+        assertEquals(item(2, 5), cache.peek(2));
+    }
+
+    @Test
+    public void removeAndClear_dropEntriesAndInvalidateStamps() {
+        InventoryCache cache = new InventoryCache(4);
+        cache.put(OWNER, item(1, 1));
+        cache.put(OWNER, item(2, 2));
+        long stamp = cache.stamp();
+
+        cache.remove(1);
+        assertNull(cache.peek(1));
+        assertFalse(cache.putIfUnchanged(OWNER, item(1, 1), stamp));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.peek(2));
+    }
+
+    @Test
+    public void randomOperations_matchReferenceLru() {
+        final int capacity = 64;
+        InventoryCache cache = new InventoryCache(capacity);
+        Map<Long, InventoryItem> reference = new LinkedHashMap<Long, InventoryItem>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, InventoryItem> eldest) {
+                return size() > capacity;
+            }
+        };
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            // Ids spaced to collide in the table as well as consecutive ones
+            long id = random.nextBoolean() ? random.nextInt(200) : random.nextInt(50) * 1024L;
+            switch (random.nextInt(3)) {
+                case 0:
+                    InventoryItem value = item(id, i);
+                    cache.put(OWNER, value);
+                    reference.put(id, value);
+                    break;
+                case 1:
+                    assertEquals(reference.get(id), cache.get(OWNER, id));
+                    break;
+                default:
+                    cache.remove(id);
+                    reference.remove(id);
+                    break;
+            }
+            assertEquals(reference.size(), cache.size());
+        }
+
+        // Same contents, and the same next eviction order
+        for (Map.Entry<Long, InventoryItem> entry : reference.entrySet()) {
+            assertEquals(entry.getValue(), cache.peek(entry.getKey()));
+        }
+        long fillerId = -1;
+        while (cache.size() < capacity) {
+            cache.put(OWNER, item(fillerId--, 0));
+        }
+        Iterator<Long> eldest = reference.keySet().iterator();
+        while (eldest.hasNext()) {
+            long expectedEvicted = eldest.next();
+            assertNotNull(cache.peek(expectedEvicted));
+            cache.put(OWNER, item(fillerId--, 0));
+            assertNull(cache.peek(expectedEvicted));
+        }
+    }
+
+    private static InventoryItem item(long id, int quantity) {
+        return new InventoryItem(id, "Item " + id, quantity, 5);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.myinventoryapp;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link InventoryCsv}.
+ */
+public class InventoryCsvTest {
+
+    @Test
+    public void readRecord_splitsPlainFields() throws IOException {
+        BufferedReader in = reader("Widget,12,3\nGadget,4,\n");
+
+        assertEquals(Arrays.asList("Widget", "12", "3"), InventoryCsv.readRecord(in));
+        assertEquals(Arrays.asList("Gadget", "4", ""), InventoryCsv.readRecord(in));
+        assertNull(InventoryCsv.readRecord(in));
+    }
+
+    @Test
+    public void readRecord_handlesQuotesAndEmbeddedLineBreaks() throws IOException {
+        BufferedReader in = reader("\"Bolt, 10mm \"\"zinc\"\"\",7,2\n\"Two\nlines\",1,1\n");
+
+        assertEquals(Arrays.asList("Bolt, 10mm \"zinc\"", "7", "2"), InventoryCsv.readRecord(in));
+        assertEquals(Arrays.asList("Two\nlines", "1", "1"), InventoryCsv.readRecord(in));
+        assertNull(InventoryCsv.readRecord(in));
+    }
+
+    @Test
+    public void writeRecord_roundTripsThroughReadRecord() throws IOException {
+        String[] names = {"Plain", "Comma, inside", "Quote \" inside", "Line\nbreak"};
+        StringWriter out = new StringWriter();
+        for (int i = 0; i < names.length; i++) {
+            InventoryCsv.writeRecord(out, names[i], i, i + 1);
+        }
+
+        BufferedReader in = reader(out.toString());
+        for (int i = 0; i < names.length; i++) {
+            List<String> record = InventoryCsv.readRecord(in);
+            assertEquals(Arrays.asList(names[i], String.valueOf(i), String.valueOf(i + 1)), record);
+        }
+        assertNull(InventoryCsv.readRecord(in));
+    }
+
+    private static BufferedReader reader(String text) {
+        return new BufferedReader(new StringReader(text));
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.myinventoryapp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LowStockAlertDispatcher}, with a fake sender, an
+ * in-memory outbox, and a scheduler that runs on manually advanced time. Runs
+ * under Robolectric for the logging of failed sends.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class LowStockAlertDispatcherTest {
+    private static final String PHONE = "5550100";
+    private static final long WINDOW = 5_000;
+    private static final long INTERVAL = 60_000;
+
+    private ManualScheduler scheduler;
+    private FakeSender sender;
+    private FakeOutbox outbox;
+    private LowStockAlertDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler();
+        sender = new FakeSender();
+        outbox = new FakeOutbox();
+        dispatcher = new LowStockAlertDispatcher(sender, scheduler, scheduler.clock(), WINDOW, INTERVAL);
+    }
+
+    @Test
+    public void crossingsWithinWindow_areSentAsOneMessage() {
+        outbox.cross(1, "Widget", 2, true);
+        dispatcher.reportCrossings(PHONE, outbox);
+        scheduler.advance(WINDOW - 1);
+        outbox.cross(1, "Widget", 1, true);
+        outbox.cross(2, "Gadget", 0, true);
+        dispatcher.reportCrossings(PHONE, outbox);
+        assertTrue(sender.sent.isEmpty());
+
+        scheduler.advance(1);
+
+        assertEquals(Collections.singletonList("Low inventory alert: Widget (1), Gadget (0)"), sender.texts());
+        assertTrue(outbox.pending.isEmpty());
+    }
+
+    @Test
+    public void crossings_areAcknowledgedOnlyOnceSent() {
+        outbox.cross(1, "Widget", 2, true);
+        sender.failures = 1;
+        dispatcher.reportCrossings(PHONE, outbox);
+        scheduler.advance(WINDOW - 1);
+        assertEquals(1, outbox.pending.size());
+
+        // The failed send leaves the crossing pending, and it is tried again
+        scheduler.advance(1);
+        assertTrue(sender.sent.isEmpty());
+        assertEquals(1, outbox.pending.size());
+
+        scheduler.advance(INTERVAL);
+        assertEquals(Collections.singletonList("Low inventory alert: Widget (2)"), sender.texts());
+        assertTrue(outbox.pending.isEmpty());
+    }
+
+    @Test
+    public void items_areNotAlertedAgainUntilTheyRecover() {
+        outbox.cross(1, "Widget", 2, true);
+        dispatcher.reportCrossings(PHONE, outbox);
+        scheduler.advance(WINDOW);
+
+        // The recovery is acknowledged without a text
+        outbox.cross(1, "Widget", 8, false);
+        dispatcher.reportCrossings(PHONE, outbox);
+        scheduler.advance(INTERVAL);
+        assertEquals(1, sender.sent.size());
+        assertTrue(outbox.pending.isEmpty());
+
+        outbox.cross(1, "Widget", 0, true);
+        dispatcher.reportCrossings(PHONE, outbox);
+        scheduler.advance(WINDOW);
+
+        assertEquals(Arrays.asList("Low inventory alert: Widget (2)", "Low inventory alert: Widget (0)"),
+                sender.texts());
+    }
+
+    @Test
+    public void itemsRecoveringBeforeTheSend_areDropped() {
+        outbox.cross(1, "Widget", 2, true);
+        outbox.cross(2, "Gadget", 0, true);
+        dispatcher.reportCrossings(PHONE, outbox);
+        outbox.cross(1, "Widget", 9, false);
+        scheduler.advance(WINDOW);
+
+        assertEquals(Collections.singletonList("Low inventory alert: Gadget (0)"), sender.texts());
+    }
+
+    @Test
+    public void sendsToOneNumber_areRateLimited() {
+        outbox.cross(1, "Widget", 2, true);
+        dispatcher.reportCrossings(PHONE, outbox);
+        scheduler.advance(WINDOW);
+        outbox.cross(2, "Gadget", 0, true);
+        dispatcher.reportCrossings(PHONE, outbox);
+        FakeOutbox other = new FakeOutbox();
+        other.cross(3, "Bolt", 0, true);
+        dispatcher.reportCrossings("5550199", other);
+        scheduler.advance(WINDOW);
+
+        // The other number is not held back
+        assertEquals(2, sender.sent.size());
+        assertEquals("5550199", sender.sent.get(1).phoneNumber);
+
+        scheduler.advance(INTERVAL - WINDOW - 1);
+        assertEquals(2, sender.sent.size());
+        assertEquals(1, outbox.pending.size());
+        scheduler.advance(1);
+        assertEquals(3, sender.sent.size());
+        assertEquals("Low inventory alert: Gadget (0)", sender.texts().get(2));
+    }
+
+    @Test
+    public void batchesPastTheFirst_waitForTheNextSend() {
+        outbox.batchSize = 1;
+        outbox.cross(1, "Widget", 2, true);
+        outbox.cross(2, "Gadget", 0, true);
+        dispatcher.reportCrossings(PHONE, outbox);
+        scheduler.advance(WINDOW);
+        assertEquals(Collections.singletonList("Low inventory alert: Widget (2)"), sender.texts());
+        assertEquals(1, outbox.pending.size());
+
+        scheduler.advance(INTERVAL);
+
+        assertEquals(Arrays.asList("Low inventory alert: Widget (2)", "Low inventory alert: Gadget (0)"),
+                sender.texts());
+        assertTrue(outbox.pending.isEmpty());
+    }
+
+    @Test
+    public void longAlerts_areSplitIntoPartsAndCapped() {
+        for (int i = 0; i < 200; i++) {
+            outbox.cross(i, "Item number " + i, 0, true);
+        }
+
+        dispatcher.reportCrossings(PHONE, outbox);
+        scheduler.advance(WINDOW);
+
+        List<String> parts = sender.sent.get(0).parts;
+        assertEquals(LowStockAlertDispatcher.MAX_PARTS, parts.size());
+        for (String part : parts) {
+            assertTrue(part.length() <= SmsSegmenter.GSM7_PART_SEPTETS);
+        }
+        assertTrue(parts.get(parts.size() - 1).matches(".* and \\d+ more"));
+    }
+
+    private static InventoryItem item(long id, String name, int quantity) {
+        return new InventoryItem(id, name, quantity, 5);
+    }
+
+    // ========== FAKES ==========
+
+    private static final class SentMessage {
+        final String phoneNumber;
+        final List<String> parts;
+
+        SentMessage(String phoneNumber, List<String> parts) {
+            this.phoneNumber = phoneNumber;
+            this.parts = parts;
+        }
+    }
+
+    private static final class FakeSender implements SmsSender {
+        final List<SentMessage> sent = new ArrayList<>();
+        // Sends left to fail
+        int failures;
+
+        @Override
+        public void send(String phoneNumber, List<String> parts) {
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("No service");
+            }
+            sent.add(new SentMessage(phoneNumber, new ArrayList<>(parts)));
+        }
+
+        List<String> texts() {
+            List<String> texts = new ArrayList<>();
+            for (SentMessage message : sent) {
+                StringBuilder text = new StringBuilder();
+                for (String part : message.parts) {
+                    text.append(part);
+                }
+                texts.add(text.toString());
+            }
+            return texts;
+        }
+    }
+
+    /**
+     * The outbox contract of DatabaseHelper.drainLowStockEvents(): one event per item,
+     * cancelled by crossing back, and acknowledged once the handler returns
+     */
+    private static final class FakeOutbox implements LowStockAlertDispatcher.CrossingSource {
+        final Map<Long, LowStockEvent> pending = new LinkedHashMap<>();
+        final Set<Long> reportedLow = new HashSet<>();
+        int batchSize = 100;
+        long sequence;
+
+        void cross(long id, String name, int quantity, boolean low) {
+            pending.remove(id);
+            if (low != reportedLow.contains(id)) {
+                pending.put(id, new LowStockEvent(++sequence, item(id, name, quantity), low));
+            }
+        }
+
+        @Override
+        public int drain(LowStockEvent.Handler handler) {
+            int drained = 0;
+            List<LowStockEvent> batch;
+            do {
+                batch = new ArrayList<>(pending.values());
+                batch = new ArrayList<>(batch.subList(0, Math.min(batchSize, batch.size())));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                handler.handle(Collections.unmodifiableList(batch));
+                for (LowStockEvent event : batch) {
+                    pending.remove(event.item.getId());
+                    if (event.low) {
+                        reportedLow.add(event.item.getId());
+                    } else {
+                        reportedLow.remove(event.item.getId());
+                    }
+                }
+                drained += batch.size();
+            } while (batch.size() == batchSize);
+            return drained;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.myinventoryapp;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link QueryStats}. Runs under Robolectric for the cursor and logging classes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class QueryStatsTest {
+
+    @Before
+    public void setUp() {
+        QueryStats.reset();
+        QueryStats.setEnabled(true);
+        QueryStats.setSlowQueryThresholdMillis(QueryStats.DEFAULT_SLOW_QUERY_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        QueryStats.setEnabled(false);
+        QueryStats.setSlowQueryThresholdMillis(QueryStats.DEFAULT_SLOW_QUERY_MILLIS);
+        QueryStats.reset();
+    }
+
+    @Test
+    public void disabled_recordsNothingAndLeavesCursorsUnwrapped() {
+        QueryStats.setEnabled(false);
+
+        long start = QueryStats.begin();
+        assertEquals(0, start);
+        QueryStats.end("op", start, 10);
+        QueryStats.record("op", 1_000_000, 10);
+        Cursor cursor = itemCursor(3);
+        assertSame(cursor, QueryStats.track("op", cursor, start));
+
+        assertNull(QueryStats.getOperationStats("op"));
+    }
+
+    @Test
+    public void record_buildsHistogramAndTotals() {
+        // 90 fast calls around 100 us, 10 slow ones around 10 ms
+        for (int i = 0; i < 90; i++) {
+            QueryStats.record("op", 100_000, 2);
+        }
+        for (int i = 0; i < 10; i++) {
+            QueryStats.record("op", 10_000_000, 2);
+        }
+
+        QueryStats.OperationStats stats = QueryStats.getOperationStats("op");
+        assertEquals(100, stats.getCount());
+        assertEquals(200, stats.getTotalRows());
+        assertEquals(10_000_000, stats.getMaxNanos());
+        // Bucket bounds are powers of two microseconds
+        assertEquals(128, stats.percentileMicros(50));
+        assertEquals(128, stats.percentileMicros(90));
+        assertEquals(16_384, stats.percentileMicros(99));
+    }
+
+    @Test
+    public void slowQueryLog_keepsNewestEntriesOldestFirst() {
+        QueryStats.setSlowQueryThresholdMillis(1);
+        QueryStats.record("fast", 500_000, 1);
+        int slowCount = QueryStats.SLOW_QUERY_LOG_SIZE + 5;
+        for (int i = 0; i < slowCount; i++) {
+            QueryStats.record("slow" + i, 2_000_000, i);
+        }
+
+        List<QueryStats.SlowQuery> slowQueries = QueryStats.getSlowQueries();
+        assertEquals(QueryStats.SLOW_QUERY_LOG_SIZE, slowQueries.size());
+        assertEquals("slow5", slowQueries.get(0).operation);
+        assertEquals("slow" + (slowCount - 1), slowQueries.get(slowQueries.size() - 1).operation);
+        assertTrue(QueryStats.dump().contains("slow" + (slowCount - 1) + " took 2 ms"));
+    }
+
+    @Test
+    public void trackedCursor_recordsQueryOnceAndLifetimeOnClose() {
+        Cursor cursor = QueryStats.track("getAllInventoryItems", itemCursor(3), QueryStats.begin());
+        while (cursor.moveToNext()) {
+            cursor.getString(0);
+        }
+        cursor.close();
+        cursor.close();
+
+        QueryStats.OperationStats query = QueryStats.getOperationStats("getAllInventoryItems");
+        QueryStats.OperationStats lifetime = QueryStats.getOperationStats("getAllInventoryItems.cursor");
+        assertEquals(1, query.getCount());
+        assertEquals(3, query.getTotalRows());
+        assertEquals(1, lifetime.getCount());
+        assertEquals(3, lifetime.getTotalRows());
+    }
+
+    private static Cursor itemCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"item_name"});
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{"Item " + i});
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.myinventoryapp;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SmsSegmenter}.
+ */
+public class SmsSegmenterTest {
+
+    @Test
+    public void gsm7Text_fitsOneMessageUpTo160Septets() {
+        assertEquals(1, SmsSegmenter.split(repeat('a', 160)).size());
+
+        List<String> parts = SmsSegmenter.split(repeat('a', 161));
+        assertEquals(2, parts.size());
+        assertEquals(153, parts.get(0).length());
+        assertEquals(8, parts.get(1).length());
+    }
+
+    @Test
+    public void extensionCharacters_countTwiceAndStayWhole() {
+        // 80 euro signs are 160 septets, one more 'a' needs a second part
+        assertEquals(1, SmsSegmenter.split(repeat('\u20AC', 80)).size());
+
+        List<String> parts = SmsSegmenter.split("a" + repeat('\u20AC', 80));
+        assertEquals(2, parts.size());
+        // 1 + 76 * 2 = 153 septets; the next euro sign would not fit
+        assertEquals(77, parts.get(0).length());
+        assertEquals("a" + repeat('\u20AC', 80), parts.get(0) + parts.get(1));
+    }
+
+    @Test
+    public void nonGsmText_usesUcs2Limits() {
+        assertFalse(SmsSegmenter.isGsm7("Caf\u00E9 \u0107"));
+        assertEquals(1, SmsSegmenter.split(repeat('\u0107', 70)).size());
+
+        List<String> parts = SmsSegmenter.split(repeat('\u0107', 71));
+        assertEquals(2, parts.size());
+        assertEquals(67, parts.get(0).length());
+    }
+
+    @Test
+    public void surrogatePairs_areNotSplit() {
+        String emoji = "\uD83D\uDCE6";
+        // 66 units then a pair: the pair would end at unit 68 so it moves to the next part
+        String text = repeat('\u0107', 66) + emoji + repeat('\u0107', 10);
+
+        List<String> parts = SmsSegmenter.split(text);
+
+        assertEquals(2, parts.size());
+        assertEquals(66, parts.get(0).length());
+        assertTrue(parts.get(1).startsWith(emoji));
+        assertEquals(2, SmsSegmenter.countParts(text));
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.myinventoryapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SyncScheduler}, with a fake sync that can be
+ * taken offline and a scheduler that runs on manually advanced time.
+ */
+public class SyncSchedulerTest {
+    private static final long INTERVAL = 60 * 60_000;
+
+    private ManualScheduler scheduler;
+    private FakeSync sync;
+    private SyncScheduler syncScheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler();
+        sync = new FakeSync();
+        syncScheduler = new SyncScheduler(sync, scheduler, new FixedRandom(0.5), INTERVAL);
+    }
+
+    @Test
+    public void requestSync_syncsNowThenAtTheInterval() {
+        syncScheduler.requestSync();
+        scheduler.advance(0);
+        assertEquals(Arrays.asList(0L), sync.attempts);
+
+        scheduler.advance(INTERVAL - 1);
+        assertEquals(1, sync.attempts.size());
+        scheduler.advance(1);
+        assertEquals(Arrays.asList(0L, INTERVAL), sync.attempts);
+
+        // A request replaces the pending periodic sync rather than adding to it
+        scheduler.advance(1_000);
+        syncScheduler.requestSync();
+        scheduler.advance(0);
+        scheduler.advance(INTERVAL);
+        assertEquals(Arrays.asList(0L, INTERVAL, INTERVAL + 1_000, 2 * INTERVAL + 1_000), sync.attempts);
+    }
+
+    @Test
+    public void offline_backsOffExponentiallyThenResumesTheInterval() {
+        sync.offline = true;
+        syncScheduler.requestSync();
+        scheduler.advance(0);
+        // With the random fixed at 0.5 each delay is three quarters of the ceiling
+        scheduler.advance(3_750 + 7_500 + 15_000 + 30_000);
+        assertEquals(Arrays.asList(0L, 3_750L, 11_250L, 26_250L, 56_250L), sync.attempts);
+
+        sync.offline = false;
+        scheduler.advance(60_000);
+        assertEquals(116_250L, (long) sync.attempts.get(5));
+        scheduler.advance(INTERVAL);
+        assertEquals(116_250L + INTERVAL, (long) sync.attempts.get(6));
+        assertEquals(7, sync.attempts.size());
+    }
+
+    @Test
+    public void requestSync_whileBackingOff_waitsOutTheBackoff() {
+        sync.offline = true;
+        syncScheduler.requestSync();
+        scheduler.advance(0);
+
+        scheduler.advance(1_000);
+        syncScheduler.requestSync();
+        syncScheduler.requestSync();
+        scheduler.advance(0);
+        assertEquals(1, sync.attempts.size());
+
+        scheduler.advance(2_750);
+        assertEquals(Arrays.asList(0L, 3_750L), sync.attempts);
+    }
+
+    @Test
+    public void pause_holdsOffSyncsUntilResumed() throws InterruptedException {
+        syncScheduler.requestSync();
+        scheduler.advance(0);
+        syncScheduler.pause();
+
+        // Neither a request nor the periodic sync runs while paused
+        syncScheduler.requestSync();
+        scheduler.advance(INTERVAL);
+        assertEquals(Arrays.asList(0L), sync.attempts);
+
+        // The sync that came due runs once on resume, then the interval picks up again
+        syncScheduler.resume();
+        scheduler.advance(0);
+        assertEquals(Arrays.asList(0L, INTERVAL), sync.attempts);
+        scheduler.advance(INTERVAL);
+        assertEquals(Arrays.asList(0L, INTERVAL, 2 * INTERVAL), sync.attempts);
+    }
+
+    @Test
+    public void resume_withNothingDue_waitsForTheNextSync() throws InterruptedException {
+        syncScheduler.requestSync();
+        scheduler.advance(0);
+        syncScheduler.pause();
+        scheduler.advance(1_000);
+        syncScheduler.resume();
+
+        scheduler.advance(INTERVAL - 1_001);
+        assertEquals(Arrays.asList(0L), sync.attempts);
+        scheduler.advance(1);
+        assertEquals(Arrays.asList(0L, INTERVAL), sync.attempts);
+    }
+
+    @Test
+    public void backoffMillis_isJitteredAndCapped() {
+        SyncScheduler jittered = new SyncScheduler(sync, scheduler, new Random(42), INTERVAL);
+        for (int failures = 1; failures <= 20; failures++) {
+            long ceiling = Math.min(SyncScheduler.INITIAL_BACKOFF_MILLIS << Math.min(failures - 1, 30),
+                    SyncScheduler.MAX_BACKOFF_MILLIS);
+            for (int i = 0; i < 100; i++) {
+                long backoff = jittered.backoffMillis(failures);
+                assertTrue(failures + ": " + backoff, backoff >= ceiling / 2 && backoff <= ceiling);
+            }
+        }
+        assertEquals(SyncScheduler.MAX_BACKOFF_MILLIS,
+                new SyncScheduler(sync, scheduler, new FixedRandom(1), INTERVAL).backoffMillis(Integer.MAX_VALUE));
+    }
+
+    // Records when it was called; throws while offline as a transport would
+    private final class FakeSync implements Callable<Void> {
+        final List<Long> attempts = new ArrayList<>();
+        boolean offline;
+
+        @Override
+        public Void call() throws IOException {
+            attempts.add(scheduler.clock().millis());
+            if (offline) {
+                throw new IOException("offline");
+            }
+            return null;
+        }
+    }
+
+    private static final class FixedRandom extends Random {
+        private final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+}